@@ -0,0 +1,60 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb_libuvccamera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Callback interface for UVCCamera#setEncoderFrameCallback.
+ * Unlike IFrameCallback, the receiver supplies the planes(usually of the input image of MediaCodec)
+ * and the native library converts each frame straight into them, so the frame is not copied again.
+ * The layout is taken from the planes as android.media.Image describes them, so the stride and
+ * the slice height of the codec need not be known in advance.
+ * Both methods are called from native library via JNI on the capture thread, one frame at a time.
+ * UVCCamera#setEncoderFrameCallback的回调接口
+ * 与IFrameCallback不同，平面由接收方提供(通常是MediaCodec输入图像的平面)，
+ * 本地库将每帧直接转换到其中，因此不会再次复制帧
+ * 布局取自android.media.Image所描述的平面，因此无需事先知道编解码器的跨度和切片高度
+ * 两个方法都在抓拍线程上通过JNI从本地库调用，每次一帧
+ */
+public interface IEncoderFrameCallback {
+	/**
+	 * @param width width of the frame 帧的宽度
+	 * @param height height of the frame 帧的高度
+	 * @param layout [out] {row stride of the Y plane, row stride of the U/V planes, pixel stride of the U/V planes}
+	 * 				[输出] {Y平面的行跨度, U/V平面的行跨度, U/V平面的像素跨度}
+	 * @return direct ByteBuffers of the Y, U and V planes, each starting at its first pixel, null to skip the frame
+	 * 			Y、U、V平面的direct ByteBuffer，各自从其第一个像素开始，跳过该帧时返回null
+	 */
+	public ByteBuffer[] onRequestPlanes(int width, int height, int[] layout);
+
+	/**
+	 * @param size bytes from the start of the first plane to the end of the last one,
+	 * 				negative value if the frame could not be converted into the planes
+	 * 				从第一个平面的起始到最后一个平面的末尾的字节数，帧无法转换到平面时为负值
+	 * @param presentationTimeUs capture time of the frame on the same clock as System.nanoTime[us], 0 if unknown
+	 * 				帧的捕获时间，与System.nanoTime相同的时钟[us]，未知时为0
+	 */
+	public void onFrameWritten(int size, long presentationTimeUs);
+}
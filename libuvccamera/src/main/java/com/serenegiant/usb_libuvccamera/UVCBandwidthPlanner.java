@@ -0,0 +1,498 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb_libuvccamera;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Admission control of the isochronous bandwidth for several cameras sharing USB buses.
+ * Each camera reserves the periodic bandwidth of the alt-setting that is selected on startPreview
+ * whether it uses it or not, so two cameras on one high speed bus usually fail with the default
+ * bandwidth factor. This class reads the alt-settings of each (opened) camera and picks
+ * size/format/frame rate and bandwidth factor of all cameras at once so that the reservations
+ * fit the budget of each bus, or fails with the reason before any stream is started.
+ * 共享USB总线的多个相机的等时传输带宽准入控制
+ * 每个相机不论是否使用，都会预留startPreview时选择的alt-setting的周期性带宽，
+ * 因此使用默认带宽系数时一条高速总线上的两个相机通常会失败
+ * 此类读取每个(已打开)相机的alt-setting，一次性为所有相机选择尺寸/格式/帧率和带宽系数，
+ * 使预留带宽不超过各总线的预算，否则在启动任何流之前给出失败原因
+ *
+ * usage:
+ *	final UVCBandwidthPlanner planner = new UVCBandwidthPlanner();
+ *	planner.addCamera(camera1, 30);
+ *	planner.addCamera(camera2, 30);
+ *	for (final UVCBandwidthPlanner.Assignment assignment: planner.plan()) {
+ *		assignment.apply();
+ *	}
+ */
+public class UVCBandwidthPlanner {
+	private static final boolean DEBUG = false;	// TODO set false when releasing
+	private static final String TAG = UVCBandwidthPlanner.class.getSimpleName();
+
+	/**
+	 * maximum size of the payload header of each (micro)frame
+	 * 每(微)帧有效负载头的最大大小
+	 */
+	private static final int HEADER_BYTES = 12;
+	/**
+	 * default estimated size of MJPEG frames in bytes per pixel
+	 * MJPEG帧大小的默认估计值(每像素字节数)
+	 */
+	public static final float DEFAULT_MJPEG_BYTES_PER_PIXEL = 0.5f;
+
+	private static final int SPEED_FULL = 2;
+	private static final int SPEED_HIGH = 3;
+	private static final int SPEED_SUPER = 4;
+
+	/**
+	 * candidate of preview mode
+	 * 预览模式的候选
+	 */
+	public static class Mode {
+		public final int width;
+		public final int height;
+		/** either UVCCamera.FRAME_FORMAT_YUYV or UVCCamera.FRAME_FORMAT_MJPEG */
+		public final int frameFormat;
+		public final int fps;
+
+		public Mode(final int width, final int height, final int frameFormat, final int fps) {
+			this.width = width;
+			this.height = height;
+			this.frameFormat = frameFormat;
+			this.fps = fps;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%dx%d@%dfps(%s)", width, height, fps,
+				frameFormat == UVCCamera.FRAME_FORMAT_MJPEG ? "MJPEG" : "YUYV");
+		}
+	}
+
+	/**
+	 * result of planning for a camera
+	 * 相机的规划结果
+	 */
+	public static class Assignment {
+		public final UVCCamera camera;
+		public final Mode mode;
+		/** bandwidth factor for UVCCamera#setPreviewSize */
+		public final float bandwidthFactor;
+		public final int busNumber;
+		/** alt-setting that the bandwidth factor selects, 0 for bulk cameras 带宽系数选择的alt-setting，批量传输相机为0 */
+		public final int altSetting;
+		/** reserved bytes per (micro)frame, 0 for bulk cameras 每(微)帧预留的字节数，批量传输相机为0 */
+		public final int reservedBytes;
+
+		private Assignment(final UVCCamera camera, final Mode mode, final float bandwidthFactor,
+			final int busNumber, final int altSetting, final int reservedBytes) {
+
+			this.camera = camera;
+			this.mode = mode;
+			this.bandwidthFactor = bandwidthFactor;
+			this.busNumber = busNumber;
+			this.altSetting = altSetting;
+			this.reservedBytes = reservedBytes;
+		}
+
+		/**
+		 * set the planned preview size to the camera
+		 * 将规划的预览尺寸设置到相机
+		 * @throws IllegalArgumentException
+		 */
+		public void apply() {
+			camera.setPreviewSize(mode.width, mode.height, UVCCamera.DEFAULT_CAMERA_ANGLE,
+				mode.fps, mode.fps, mode.frameFormat, bandwidthFactor);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%s:bus=%d,%s,factor=%.3f,alt=%d,reserved=%d",
+				camera.getDeviceName(), busNumber, mode, bandwidthFactor, altSetting, reservedBytes);
+		}
+	}
+
+	/**
+	 * state of a camera while planning
+	 * 规划中的相机状态
+	 */
+	private static class Entry {
+		private final UVCCamera camera;
+		private final List<Mode> candidates;
+		private int busNumber;
+		private int speed;
+		private int intervalsPerSec;
+		private boolean isochronous;
+		private int[] bytesPerInterval;
+		/**
+		 * feasible assignments in preference order, each reserves less bandwidth than the ones before it
+		 * 按优先顺序排列的可行分配，每个预留的带宽都小于其前面的分配
+		 */
+		private final List<Assignment> feasible = new ArrayList<Assignment>();
+		private int current;
+
+		private Entry(final UVCCamera camera, final List<Mode> candidates) {
+			this.camera = camera;
+			this.candidates = candidates;
+		}
+
+		private Assignment assignment() {
+			return feasible.get(current);
+		}
+	}
+
+	private final List<Entry> mEntries = new ArrayList<Entry>();
+	private final SparseArray<Integer> mBusBudgets = new SparseArray<Integer>();
+	private float mMjpegBytesPerPixel = DEFAULT_MJPEG_BYTES_PER_PIXEL;
+
+	/**
+	 * add a camera with candidates of preview mode in preference order
+	 * 添加相机以及按优先顺序排列的预览模式候选
+	 * @param camera opened camera 已打开的相机
+	 * @param candidates
+	 */
+	public synchronized void addCamera(final UVCCamera camera, final List<Mode> candidates) {
+		if ((camera == null) || (candidates == null) || candidates.isEmpty()) {
+			throw new IllegalArgumentException("camera and candidates should not be null/empty");
+		}
+		mEntries.add(new Entry(camera, new ArrayList<Mode>(candidates)));
+	}
+
+	/**
+	 * add a camera, all supported sizes at the frame rate are the candidates,
+	 * larger size first and MJPEG before YUYV for the same size
+	 * 添加相机，以该帧率支持的所有尺寸为候选，尺寸大的优先，相同尺寸时MJPEG优先于YUYV
+	 * @param camera opened camera 已打开的相机
+	 * @param fps
+	 */
+	public synchronized void addCamera(final UVCCamera camera, final int fps) {
+		final List<Mode> candidates = new ArrayList<Mode>();
+		for (final Size size: camera.getSupportedSizeList(-1)) {
+			final int frameFormat;
+			if (size.type == 6) {
+				frameFormat = UVCCamera.FRAME_FORMAT_MJPEG;
+			} else if (size.type == 4) {
+				frameFormat = UVCCamera.FRAME_FORMAT_YUYV;
+			} else {
+				continue;
+			}
+			if (size.fps != null) {
+				for (final float f: size.fps) {
+					if (Math.round(f) == fps) {
+						candidates.add(new Mode(size.width, size.height, frameFormat, fps));
+						break;
+					}
+				}
+			}
+		}
+		Collections.sort(candidates, new Comparator<Mode>() {
+			@Override
+			public int compare(final Mode lhs, final Mode rhs) {
+				final int l = lhs.width * lhs.height, r = rhs.width * rhs.height;
+				if (l != r) {
+					return l > r ? -1 : 1;
+				}
+				return rhs.frameFormat - lhs.frameFormat;
+			}
+		});
+		if (candidates.isEmpty()) {
+			throw new IllegalArgumentException(String.format(Locale.US,
+				"%s:no size supports %dfps", camera.getDeviceName(), fps));
+		}
+		addCamera(camera, candidates);
+	}
+
+	/**
+	 * set estimated size of MJPEG frames, depends on the camera and the scene
+	 * 设置MJPEG帧大小的估计值，取决于相机和场景
+	 * @param bytesPerPixel default is DEFAULT_MJPEG_BYTES_PER_PIXEL
+	 */
+	public synchronized void setMjpegBytesPerPixel(final float bytesPerPixel) {
+		if (bytesPerPixel <= 0) {
+			throw new IllegalArgumentException("bytesPerPixel should be positive");
+		}
+		mMjpegBytesPerPixel = bytesPerPixel;
+	}
+
+	/**
+	 * override periodic bandwidth budget of the bus
+	 * 覆盖总线的周期性带宽预算
+	 * @param busNumber
+	 * @param bytesPerInterval bytes per (micro)frame 每(微)帧字节数
+	 */
+	public synchronized void setBusBudget(final int busNumber, final int bytesPerInterval) {
+		mBusBudgets.put(busNumber, bytesPerInterval);
+	}
+
+	/**
+	 * pick preview mode and bandwidth factor of all added cameras
+	 * 为所有添加的相机选择预览模式和带宽系数
+	 * @return assignments in the order of #addCamera 按#addCamera的顺序排列的分配
+	 * @throws IllegalStateException if the cameras can not share the buses with any combination of the candidates
+	 * 任何候选组合都无法共享总线时
+	 */
+	public synchronized List<Assignment> plan() {
+		final SparseArray<List<Entry>> buses = new SparseArray<List<Entry>>();
+		for (final Entry entry: mEntries) {
+			prepare(entry);
+			List<Entry> list = buses.get(entry.busNumber);
+			if (list == null) {
+				list = new ArrayList<Entry>();
+				buses.put(entry.busNumber, list);
+			}
+			list.add(entry);
+		}
+		final int n = buses.size();
+		for (int i = 0; i < n; i++) {
+			planBus(buses.keyAt(i), buses.valueAt(i));
+		}
+		final List<Assignment> result = new ArrayList<Assignment>(mEntries.size());
+		for (final Entry entry: mEntries) {
+			result.add(entry.assignment());
+			if (DEBUG) Log.v(TAG, "plan:" + entry.assignment());
+		}
+		return result;
+	}
+
+	/**
+	 * read alt-settings of the camera and evaluate each candidate
+	 * 读取相机的alt-setting并评估每个候选
+	 */
+	private void prepare(final Entry entry) {
+		final int[] info = entry.camera.getBandwidthInfo();
+		if ((info == null) || (info.length < 6)) {
+			throw new IllegalStateException(entry.camera.getDeviceName() + ":camera is not opened");
+		}
+		entry.busNumber = info[0];
+		entry.speed = info[2];
+		entry.intervalsPerSec = info[3] > 0 ? info[3] : 8000;
+		entry.isochronous = info[4] != 0;
+		entry.bytesPerInterval = new int[info.length - 6];
+		System.arraycopy(info, 6, entry.bytesPerInterval, 0, entry.bytesPerInterval.length);
+		entry.feasible.clear();
+		entry.current = 0;
+		final StringBuilder reason = new StringBuilder();
+		for (final Mode mode: entry.candidates) {
+			final Assignment assignment = evaluate(entry, mode, reason);
+			// a less preferred candidate is only worth trying when it reserves less than all preferred ones
+			// 仅当优先级较低的候选预留的带宽少于所有优先候选时才值得尝试
+			if ((assignment != null) && (entry.feasible.isEmpty()
+				|| (assignment.reservedBytes < entry.feasible.get(entry.feasible.size() - 1).reservedBytes))) {
+
+				entry.feasible.add(assignment);
+			}
+		}
+		if (entry.feasible.isEmpty()) {
+			throw new IllegalStateException(entry.camera.getDeviceName()
+				+ ":no candidate fits the endpoint of the camera" + reason);
+		}
+	}
+
+	/**
+	 * select the smallest alt-setting that can carry the mode and the bandwidth factor that selects it
+	 * 选择能够传输该模式的最小alt-setting以及选择它的带宽系数
+	 * @return null if the camera can not carry the mode 相机无法传输该模式时为null
+	 */
+	private Assignment evaluate(final Entry entry, final Mode mode, final StringBuilder reason) {
+		final int maxPayload = entry.camera.getMaxPayloadSize(
+			mode.width, mode.height, mode.fps, mode.fps, mode.frameFormat);
+		if (maxPayload <= 0) {
+			reason.append(String.format(Locale.US, "\n  %s:not supported(%d)", mode, maxPayload));
+			return null;
+		}
+		if (!entry.isochronous) {
+			// bulk transfer does not reserve periodic bandwidth 批量传输不预留周期性带宽
+			return new Assignment(entry.camera, mode, UVCCamera.DEFAULT_BANDWIDTH, entry.busNumber, 0, 0);
+		}
+		final int[] bytes = entry.bytesPerInterval;
+		final int last = bytes.length - 1;
+		final int required = requiredBytes(entry, mode);
+		// alt-setting that uvc_stream_start_bandwidth selects with the default bandwidth factor
+		// uvc_stream_start_bandwidth使用默认带宽系数时选择的alt-setting
+		int defaultAlt = last;
+		for (int alt = 1; alt <= last; alt++) {
+			if (bytes[alt] >= maxPayload) {
+				defaultAlt = alt;
+				break;
+			}
+		}
+		if (required >= maxPayload) {
+			// the camera does not send more than it requested, the default is the best we can do
+			// 相机发送的数据不会超过其请求的大小，默认值已是最佳
+			return new Assignment(entry.camera, mode, UVCCamera.DEFAULT_BANDWIDTH,
+				entry.busNumber, defaultAlt, bytes[defaultAlt]);
+		}
+		for (int alt = 1; alt < defaultAlt; alt++) {
+			if (bytes[alt] >= required) {
+				// uvc_stream_start_bandwidth selects the first alt-setting whose size is
+				// at least maxPayload * factor, aim at the middle of the gap to avoid rounding error
+				// uvc_stream_start_bandwidth选择大小不小于maxPayload * factor的第一个alt-setting，
+				// 以间隙的中间为目标以避免舍入误差
+				final float factor = (bytes[alt - 1] + 1 + bytes[alt]) / 2.0f / maxPayload;
+				return new Assignment(entry.camera, mode, factor, entry.busNumber, alt, bytes[alt]);
+			}
+		}
+		if (bytes[defaultAlt] < required) {
+			reason.append(String.format(Locale.US, "\n  %s:needs %d bytes/interval but max alt-setting has %d",
+				mode, required, bytes[defaultAlt]));
+			return null;
+		}
+		return new Assignment(entry.camera, mode, UVCCamera.DEFAULT_BANDWIDTH,
+			entry.busNumber, defaultAlt, bytes[defaultAlt]);
+	}
+
+	/**
+	 * estimated bytes per (micro)frame of the mode
+	 * 该模式每(微)帧的估计字节数
+	 */
+	private int requiredBytes(final Entry entry, final Mode mode) {
+		final float bytesPerPixel = mode.frameFormat == UVCCamera.FRAME_FORMAT_MJPEG
+			? mMjpegBytesPerPixel : 2.0f;
+		final double bytesPerSec = (double)mode.width * mode.height * bytesPerPixel * mode.fps;
+		return (int)Math.ceil(bytesPerSec / entry.intervalsPerSec) + HEADER_BYTES;
+	}
+
+	/**
+	 * number of (micro)frames per second of the speed 该速度下每秒的(微)帧数
+	 */
+	private static int intervalsPerSec(final int speed) {
+		return speed >= SPEED_HIGH ? 8000 : 1000;
+	}
+
+	/**
+	 * periodic bandwidth budget of the bus, 80% of high speed microframe(USB2.0 5.7.4),
+	 * 90% of full speed frame and super speed bus interval
+	 * 总线的周期性带宽预算，高速微帧的80%(USB2.0 5.7.4)，全速帧和超高速总线间隔的90%
+	 */
+	private int budget(final int busNumber, final int speed) {
+		final Integer budget = mBusBudgets.get(busNumber);
+		if (budget != null) {
+			return budget;
+		}
+		switch (speed) {
+		case SPEED_SUPER:
+			return 56250;
+		case SPEED_HIGH:
+			return 6000;
+		case SPEED_FULL:
+		default:
+			return 1350;
+		}
+	}
+
+	/**
+	 * reserved bandwidth of the assignment in bytes per second, full speed cameras reserve per frame(1ms)
+	 * and high/super speed cameras per microframe(125us), so the reservations are compared per second
+	 * 分配的预留带宽(每秒字节数)，全速相机按帧(1ms)预留，高速/超高速相机按微帧(125us)预留，因此按每秒比较
+	 */
+	private static long reservedPerSec(final Entry entry, final int index) {
+		return (long)entry.feasible.get(index).reservedBytes * intervalsPerSec(entry.speed);
+	}
+
+	/**
+	 * pick the combination of the candidates that fits the budget of the bus with the cameras
+	 * getting their preferred candidates as much as possible(smallest sum of the ranks in the preference order).
+	 * the candidates of each camera reserve less and less bandwidth, so the last ones of all cameras
+	 * fit the budget if any combination does, and the search is pruned with them
+	 * 选择不超过总线预算的候选组合，并使各相机尽可能得到优先的候选(优先顺序的排名之和最小)
+	 * 每个相机的候选预留的带宽依次减少，因此只要存在可行组合，所有相机的最后一个候选就一定可行，并以此剪枝
+	 */
+	private void planBus(final int busNumber, final List<Entry> entries) {
+		int speed = SPEED_FULL;
+		for (final Entry entry: entries) {
+			// the fastest camera tells the speed of the bus 最快的相机表明总线的速度
+			speed = Math.max(speed, entry.speed);
+		}
+		final long budget = (long)budget(busNumber, speed) * intervalsPerSec(speed);
+		final int n = entries.size();
+		// minRest[i]: smallest reservation of the cameras i..n-1 相机i..n-1的最小预留带宽
+		final long[] minRest = new long[n + 1];
+		for (int i = n - 1; i >= 0; i--) {
+			final Entry entry = entries.get(i);
+			minRest[i] = minRest[i + 1] + reservedPerSec(entry, entry.feasible.size() - 1);
+		}
+		if (minRest[0] > budget) {
+			final StringBuilder sb = new StringBuilder();
+			sb.append(String.format(Locale.US,
+				"bus %d:cameras need %d bytes/sec even with their smallest reservations but budget is %d bytes/sec",
+				busNumber, minRest[0], budget));
+			for (final Entry entry: entries) {
+				sb.append("\n  ").append(entry.feasible.get(entry.feasible.size() - 1));
+			}
+			throw new IllegalStateException(sb.toString());
+		}
+		final int[] selected = new int[n];
+		final int[] best = new int[n];
+		for (int i = 0; i < n; i++) {
+			best[i] = entries.get(i).feasible.size() - 1;
+		}
+		search(entries, 0, 0, 0, budget, minRest, selected, best, new int[] { rankSum(best) });
+		for (int i = 0; i < n; i++) {
+			entries.get(i).current = best[i];
+		}
+	}
+
+	private static int rankSum(final int[] indices) {
+		int result = 0;
+		for (final int index: indices) {
+			result += index;
+		}
+		return result;
+	}
+
+	/**
+	 * depth first search of the candidates of the camera #depth and the following ones
+	 * 深度优先搜索第#depth个相机及其后相机的候选
+	 * @param used bandwidth reserved by the cameras before #depth 第#depth个之前的相机预留的带宽
+	 * @param rank sum of the ranks of the cameras before #depth 第#depth个之前的相机的排名之和
+	 * @param bestRank [in/out] sum of the ranks of #best 长度为1，#best的排名之和
+	 */
+	private static void search(final List<Entry> entries, final int depth, final long used, final int rank,
+		final long budget, final long[] minRest, final int[] selected, final int[] best, final int[] bestRank) {
+
+		if (depth == entries.size()) {
+			if (rank < bestRank[0]) {
+				bestRank[0] = rank;
+				System.arraycopy(selected, 0, best, 0, selected.length);
+			}
+			return;
+		}
+		final Entry entry = entries.get(depth);
+		final int num = entry.feasible.size();
+		for (int i = 0; (i < num) && (rank + i < bestRank[0]); i++) {
+			final long reserved = used + reservedPerSec(entry, i);
+			if (reserved + minRest[depth + 1] <= budget) {
+				selected[depth] = i;
+				search(entries, depth + 1, reserved, rank + i, budget, minRest, selected, best, bestRank);
+			}
+		}
+	}
+}
@@ -37,7 +37,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class UVCCamera {
 	private static final boolean DEBUG = true;	// TODO set false when releasing
@@ -116,6 +121,45 @@ public class UVCCamera {
 	public static final int STATUS_ATTRIBUTE_FAILURE_CHANGE = 0x02;
 	public static final int STATUS_ATTRIBUTE_UNKNOWN = 0xff;
 
+	// index of startup phases in #getStartupTimes, same order as enum uvc_startup_phase
+	// #getStartupTimes中各启动阶段的索引，与enum uvc_startup_phase的顺序相同
+	public static final int STARTUP_CONNECT = 0;			// start of nativeConnect 开始连接
+	public static final int STARTUP_DESCRIPTORS = 1;		// descriptors parsed 描述符解析完成
+	public static final int STARTUP_CONNECTED = 2;			// nativeConnect finished 连接完成
+	public static final int STARTUP_SUPPORTED_SIZE = 3;		// supported size list built 生成支持的尺寸列表
+	public static final int STARTUP_PROBE_COMMIT = 4;		// stream ctrl committed 流控制已提交
+	public static final int STARTUP_ALT_SETTING = 5;		// alt-setting selected 选择alt-setting
+	public static final int STARTUP_FIRST_PAYLOAD = 6;		// first usb payload 第一个usb有效负载
+	public static final int STARTUP_FIRST_FRAME = 7;		// first complete frame 第一个完整帧
+	public static final int STARTUP_FIRST_DECODED = 8;		// first decoded frame 第一个解码帧
+	public static final int STARTUP_FIRST_DISPLAYED = 9;	// first frame posted to the window 第一帧提交到窗口
+
+	// index of values in #getPreviewStats #getPreviewStats中各值的索引
+	public static final int PREVIEW_STATS_RECEIVED = 0;		// frames received from the camera 从相机收到的帧数
+	public static final int PREVIEW_STATS_INCOMPLETE = 1;	// incomplete frames, bus bandwidth is short 不完整帧数，总线带宽不足
+	public static final int PREVIEW_STATS_OVERRUN = 2;		// frames dropped because processing does not keep up 处理跟不上而丢弃的帧数
+	public static final int PREVIEW_STATS_DECODED = 3;		// frames decoded/converted 解码/转换的帧数
+	public static final int PREVIEW_STATS_DECODE_US = 4;	// total MJPEG decode time[us] MJPEG总解码时间[us]
+	public static final int PREVIEW_STATS_FRAME_INTERVAL = 5;	// negotiated frame interval[100ns], 0 if unknown 协商的帧间隔[100ns]，未知时为0
+
+	// index of controls in the native control registry, must match enum control_index in UVCCamera.h
+	// 本地控制注册表中控制的索引，必须与UVCCamera.h中的enum control_index一致
+	public static final int CTRL_INDEX_AUTO_FOCUS = 0;
+	public static final int CTRL_INDEX_FOCUS = 1;
+	public static final int CTRL_INDEX_AUTO_WHITE_BLANCE = 2;
+	public static final int CTRL_INDEX_WHITE_BLANCE = 3;
+	public static final int CTRL_INDEX_BRIGHTNESS = 4;
+	public static final int CTRL_INDEX_CONTRAST = 5;
+	public static final int CTRL_INDEX_SHARPNESS = 6;
+	public static final int CTRL_INDEX_GAIN = 7;
+	public static final int CTRL_INDEX_GAMMA = 8;
+	public static final int CTRL_INDEX_SATURATION = 9;
+	public static final int CTRL_INDEX_HUE = 10;
+	public static final int CTRL_INDEX_ZOOM = 11;
+	// number of values of each control in the control table: {available, min, max, def, current}
+	// 控制表中每个控制的值的数量: {可用, 最小值, 最大值, 默认值, 当前值}
+	public static final int CTRL_TABLE_STRIDE = 5;
+
 	private static boolean isLoaded;
 	static {
 		if (!isLoaded) {
@@ -127,17 +171,37 @@ public class UVCCamera {
 		}
 	}
 
-	private UsbControlBlock mCtrlBlock;
-	protected long mControlSupports;			// 相机控件支持的功能标志
-	protected long mProcSupports;				// 处理单元支持的功能标志
-	protected int mCurrentFrameFormat = FRAME_FORMAT_MJPEG;
-	protected int mCurrentWidth = DEFAULT_PREVIEW_WIDTH, mCurrentHeight = DEFAULT_PREVIEW_HEIGHT;
-	protected float mCurrentBandwidthFactor = DEFAULT_BANDWIDTH;
-	protected String mSupportedSize;
-	protected List<Size> mCurrentSizeList;
+	/**
+	 * read-only queries(cached control values, sizes, capability flags) do not take the monitor of this
+	 * instance, so they never wait for long running operations like #startPreview or #setPreviewSize.
+	 * they only take the read lock of this, its write lock is held while the native camera is
+	 * connected/released/destroyed(#open, #close, #destroy)
+	 * 只读查询(缓存的控制值、尺寸、功能标志)不获取此实例的监视器，因此不会等待#startPreview或#setPreviewSize等
+	 * 耗时操作，只获取此锁的读锁，写锁仅在连接/释放/销毁本地相机时(#open, #close, #destroy)持有
+	 */
+	private final ReentrantReadWriteLock mStateLock = new ReentrantReadWriteLock();
+	private volatile UsbControlBlock mCtrlBlock;
+	private volatile boolean mSynthetic;		// 使用虚拟帧源而没有连接相机
+	protected volatile long mControlSupports;	// 相机控件支持的功能标志
+	protected volatile long mProcSupports;		// 处理单元支持的功能标志
+	// true when the limits were taken from the control table, cameras may have CT or PU only
+	// 从控制表获取范围后为true，相机可能只有CT或PU
+	private volatile boolean mControlLimitsLoaded;
+	protected volatile int mCurrentFrameFormat = FRAME_FORMAT_MJPEG;
+	protected volatile int mCurrentWidth = DEFAULT_PREVIEW_WIDTH, mCurrentHeight = DEFAULT_PREVIEW_HEIGHT;
+	protected volatile float mCurrentBandwidthFactor = DEFAULT_BANDWIDTH;
+	// width/height/format set together, for reading them without tearing 同时设置的宽/高/格式，用于无撕裂地读取
+	private volatile PreviewState mPreviewState = new PreviewState(DEFAULT_PREVIEW_WIDTH, DEFAULT_PREVIEW_HEIGHT, FRAME_FORMAT_MJPEG);
+	protected volatile String mSupportedSize;
+	protected volatile List<Size> mCurrentSizeList;
+	// supported sizes of all formats with frame intervals, built once per open
+	// 所有格式的支持尺寸(包括帧间隔)，每次open只生成一次
+	private volatile List<Size> mSupportedSizeList;
+	// immutable size lists per format type 按格式类型缓存的不可变尺寸列表
+	private final Map<Integer, List<Size>> mSizeListCache = new ConcurrentHashMap<Integer, List<Size>>();
 	// these fields from here are accessed from native code and do not change name and remove
 	// 这些字段从本地代码访问，不会更改名称并删除
-	protected long mNativePtr;
+	protected volatile long mNativePtr;
 	// 摄像头自身角度，会根据这个角度旋转从摄像头获取到的图像
 	protected int mCameraAngle;
 	protected int mScanningModeMin, mScanningModeMax, mScanningModeDef;
@@ -178,6 +242,17 @@ public class UVCCamera {
 	protected int mAnalogVideoStandardMin, mAnalogVideoStandardMax, mAnalogVideoStandardDef;
 	protected int mAnalogVideoLockStateMin, mAnalogVideoLockStateMax, mAnalogVideoLockStateDef;
 	// until here
+
+	private static final class PreviewState {
+		private final int width, height, frameFormat;
+
+		private PreviewState(final int width, final int height, final int frameFormat) {
+			this.width = width;
+			this.height = height;
+			this.frameFormat = frameFormat;
+		}
+	}
+
 	/**
 	 * the sonctructor of this class should be call within the thread that has a looper
 	 * (UI thread or a thread that called Looper.prepare)
@@ -187,12 +262,35 @@ public class UVCCamera {
 		mSupportedSize = null;
 	}
 
+	/**
+	 * keep descriptor and negotiated stream parameters of cameras in the directory(e.g. Context#getCacheDir),
+	 * reopening the same camera with the same preview size skips negotiation with the camera.
+	 * takes effect on next #open
+	 * 将相机的描述符和协商好的视频流参数保存到指定目录(例如Context#getCacheDir)，
+	 * 以相同的预览大小重新打开同一相机时不再与相机协商，下次#open时生效
+	 * @param dir null: do not cache 不缓存
+	 */
+	public synchronized void setCacheDir(final String dir) {
+		if (mNativePtr != 0) {
+			nativeSetCacheDir(mNativePtr, dir);
+		}
+	}
+
 	/**
 	 * connect to a UVC camera
 	 * USB permission is necessary before this method is called
 	 * @param ctrlBlock
 	 */
 	public synchronized void open(final UsbControlBlock ctrlBlock) {
+		mStateLock.writeLock().lock();
+		try {
+			internalOpen(ctrlBlock);
+		} finally {
+			mStateLock.writeLock().unlock();
+		}
+	}
+
+	private void internalOpen(final UsbControlBlock ctrlBlock) {
 		int result;
 		try {
 			mCtrlBlock = ctrlBlock.clone();
@@ -212,12 +310,58 @@ public class UVCCamera {
 		if (mNativePtr != 0 && TextUtils.isEmpty(mSupportedSize)) {
 			mSupportedSize = nativeGetSupportedSize(mNativePtr);
 		}
+		mSupportedSizeList = null;
+		mSizeListCache.clear();
 		nativeSetPreviewSize(mNativePtr, DEFAULT_PREVIEW_WIDTH, DEFAULT_PREVIEW_HEIGHT, DEFAULT_CAMERA_ANGLE,
 				DEFAULT_PREVIEW_MIN_FPS, DEFAULT_PREVIEW_MAX_FPS, DEFAULT_PREVIEW_MODE, DEFAULT_BANDWIDTH);
+		// build the snapshots here so that the queries do not need to build them later
+		// 在此生成快照，查询时不需要再生成
+		getSupportedSizeList(-1);
+		updateCameraParams();
+	}
+
+	/**
+	 * open a synthetic camera that generates test patterns instead of connecting to a UVC camera,
+	 * preview/capture/frame callback work same as real camera but camera controls are not available
+	 * 打开生成测试图案的虚拟相机而不连接UVC相机，预览/抓拍/帧回调与真实相机相同，但不能使用相机控制
+	 * @param width
+	 * @param height
+	 * @param frameFormat either FRAME_FORMAT_YUYV(0) or FRAME_FORMAT_MJPEG(1)
+	 * @param fps frame rate, 0: as fast as possible 帧率，0为尽可能快
+	 * @param jitterUs random jitter of frame timing in microseconds 帧时间的随机抖动(微秒)
+	 */
+	public synchronized void openSynthetic(final int width, final int height, final int frameFormat, final int fps, final int jitterUs) {
+		mStateLock.writeLock().lock();
+		try {
+			internalOpenSynthetic(width, height, frameFormat, fps, jitterUs);
+		} finally {
+			mStateLock.writeLock().unlock();
+		}
+	}
+
+	private void internalOpenSynthetic(final int width, final int height, final int frameFormat, final int fps, final int jitterUs) {
+		if ((mCtrlBlock != null) || (fps < 0)) {
+			throw new IllegalStateException("camera is already opened or invalid fps");
+		}
+		final int result = nativeSetSyntheticSource(mNativePtr, fps, jitterUs);
+		if (result != 0) {
+			throw new UnsupportedOperationException("open synthetic failed:result=" + result);
+		}
+		mSynthetic = true;
+		final int type = frameFormat > 0 ? 6 : 4;
+		mSupportedSize = "{\"formats\":[{\"index\":1,\"type\":" + type
+			+ ",\"default\":1,\"size\":[\"" + width + "x" + height + "\"]}]}";
+		mSupportedSizeList = Collections.singletonList(fps > 0
+			? new Size(type, 0, 0, width, height, new int[] {10000000 / fps})
+			: new Size(type, 0, 0, width, height));
+		mSizeListCache.clear();
+		setPreviewSize(width, height, DEFAULT_CAMERA_ANGLE, fps, fps, frameFormat, DEFAULT_BANDWIDTH);
 	}
 
 	/**
-	 * set status callback
+	 * set status callback, called on a dispatcher thread of the camera(not on the usb event thread),
+	 * the ByteBuffer passed to IStatusCallback#onStatus is valid only while the call
+	 * 设置状态回调，在相机的分发线程上调用(不在usb事件线程上)，传给IStatusCallback#onStatus的ByteBuffer仅在调用期间有效
 	 * @param callback
 	 */
 	public void setStatusCallback(final IStatusCallback callback) {
@@ -227,7 +371,8 @@ public class UVCCamera {
 	}
 
 	/**
-	 * set button callback
+	 * set button callback, called on a dispatcher thread of the camera(not on the usb event thread)
+	 * 设置按钮回调，在相机的分发线程上调用(不在usb事件线程上)
 	 * @param callback
 	 */
 	public void setButtonCallback(final IButtonCallback callback) {
@@ -236,11 +381,35 @@ public class UVCCamera {
 		}
 	}
 
+	/**
+	 * when the status callback does not keep up, deliver only the last of repeated value-change
+	 * events of the same control(default false, every event is delivered). button events are never coalesced
+	 * 当状态回调跟不上时，同一控制的重复值变化事件只传递最后一个(默认false，传递所有事件)，按钮事件从不合并
+	 * @param coalesce
+	 */
+	public void setStatusCoalescing(final boolean coalesce) {
+		if (mNativePtr != 0) {
+			nativeSetStatusCoalescing(mNativePtr, coalesce);
+		}
+	}
+
 	/**
 	 * close and release UVC camera
 	 */
 	public synchronized void close() {
 		stopPreview();
+		mStateLock.writeLock().lock();
+		try {
+			internalClose();
+		} finally {
+			mStateLock.writeLock().unlock();
+		}
+		if (DEBUG) {
+			Log.v(TAG, "close:finished");
+		}
+	}
+
+	private void internalClose() {
 		if (mNativePtr != 0) {
 			nativeRelease(mNativePtr);
 //    		mNativePtr = 0;	// 调用nativeDestroy，因此请不要在此处清除
@@ -249,14 +418,15 @@ public class UVCCamera {
 			mCtrlBlock.close();
 			mCtrlBlock = null;
 		}
+		mSynthetic = false;
 		mControlSupports = mProcSupports = 0;
+		mControlLimitsLoaded = false;
 		mCurrentFrameFormat = -1;
 		mCurrentBandwidthFactor = 0;
 		mSupportedSize = null;
 		mCurrentSizeList = null;
-		if (DEBUG) {
-			Log.v(TAG, "close:finished");
-		}
+		mSupportedSizeList = null;
+		mSizeListCache.clear();
 	}
 
 	public UsbDevice getDevice() {
@@ -271,16 +441,26 @@ public class UVCCamera {
 		return mCtrlBlock;
 	}
 
-	public synchronized String getSupportedSize() {
-		return !TextUtils.isEmpty(mSupportedSize) ? mSupportedSize : (mSupportedSize = nativeGetSupportedSize(mNativePtr));
+	public String getSupportedSize() {
+		final String supportedSize = mSupportedSize;
+		if (!TextUtils.isEmpty(supportedSize)) {
+			return supportedSize;
+		}
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? (mSupportedSize = nativeGetSupportedSize(mNativePtr)) : null;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public Size getPreviewSize() {
 		Size result = null;
-		final List<Size> list = getSupportedSizeList();
+		final PreviewState state = mPreviewState;
+		final List<Size> list = getSupportedSizeList((state.frameFormat > 0) ? 6 : 4);
 		for (final Size sz: list) {
-			if ((sz.width == mCurrentWidth)
-					&& (sz.height == mCurrentHeight)) {
+			if ((sz.width == state.width)
+					&& (sz.height == state.height)) {
 				result =sz;
 				break;
 			}
@@ -340,7 +520,7 @@ public class UVCCamera {
 	 * @param frameFormat either FRAME_FORMAT_YUYV(0) or FRAME_FORMAT_MJPEG(1)
 	 * @param bandwidthFactor
 	 */
-	public void setPreviewSize(final int width, final int height, final int cameraAngle, final int min_fps, final int max_fps, final int frameFormat, final float bandwidthFactor) {
+	public synchronized void setPreviewSize(final int width, final int height, final int cameraAngle, final int min_fps, final int max_fps, final int frameFormat, final float bandwidthFactor) {
 		if ((width == 0) || (height == 0)){
 			throw new IllegalArgumentException("invalid preview size");
 		}
@@ -357,12 +537,141 @@ public class UVCCamera {
 			mCurrentHeight = height;
 			mCurrentBandwidthFactor = bandwidthFactor;
 			mCameraAngle = cameraAngle;
+			mPreviewState = new PreviewState(width, height, frameFormat);
 		}
 	}
 
+	/**
+	 * switch preview size/format while previewing without closing the camera.
+	 * the stream is renegotiated and restarted in place, preview/capture surfaces and frame callback
+	 * are kept. blocks until the first frame of new size is shown(max 3 seconds).
+	 * same as #setPreviewSize if preview is not running
+	 * 预览中切换尺寸/格式而不关闭相机，就地重新协商并重启视频流，保留预览/抓拍Surface和帧回调
+	 * 阻塞直到显示新尺寸的第一帧(最长3秒)，未预览时与#setPreviewSize相同
+	 * @param width
+	 * @param height
+	 * @param frameFormat either FRAME_FORMAT_YUYV(0) or FRAME_FORMAT_MJPEG(1)
+	 * @return glitch duration in microseconds, time without new frame 画面中断时长(微秒)
+	 * @throws IllegalArgumentException the camera does not support the size/format(the previous
+	 * size/format is restored) or no frame came within 3 seconds. on timeout the request is cancelled
+	 * if the stream was not restarted yet(err=-7), otherwise the new size/format may still take effect(err=-6)
+	 * 相机不支持该尺寸/格式(已恢复之前的尺寸/格式)或3秒内没有收到帧。超时时如果视频流尚未重启则取消请求(err=-7)，
+	 * 否则新的尺寸/格式仍可能生效(err=-6)
+	 */
+	public long switchPreviewSize(final int width, final int height, final int frameFormat) {
+		return switchPreviewSize(width, height, DEFAULT_PREVIEW_MIN_FPS, DEFAULT_PREVIEW_MAX_FPS, frameFormat, mCurrentBandwidthFactor);
+	}
+
+	/**
+	 * switch preview size/format while previewing without closing the camera.
+	 * 预览中切换尺寸/格式而不关闭相机
+	 * @param width
+	 * @param height
+	 * @param min_fps
+	 * @param max_fps
+	 * @param frameFormat either FRAME_FORMAT_YUYV(0) or FRAME_FORMAT_MJPEG(1)
+	 * @param bandwidthFactor
+	 * @return glitch duration in microseconds 画面中断时长(微秒)
+	 * @see #switchPreviewSize(int, int, int)
+	 */
+	public synchronized long switchPreviewSize(final int width, final int height, final int min_fps, final int max_fps, final int frameFormat, final float bandwidthFactor) {
+		if ((width == 0) || (height == 0)){
+			throw new IllegalArgumentException("invalid preview size");
+		}
+		if (mNativePtr == 0) {
+			throw new IllegalStateException("already destroyed");
+		}
+		final long result = nativeSwitchPreviewSize(mNativePtr, width, height, min_fps, max_fps, frameFormat, bandwidthFactor);
+		if (result < 0) {
+			throw new IllegalArgumentException("Failed to switch preview size:err=" + result);
+		}
+		mCurrentFrameFormat = frameFormat;
+		mCurrentWidth = width;
+		mCurrentHeight = height;
+		mCurrentBandwidthFactor = bandwidthFactor;
+		mPreviewState = new PreviewState(width, height, frameFormat);
+		return result;
+	}
+
+	/**
+	 * get supported sizes of current frame format with frame intervals/fps.
+	 * the list is built once and cached until #close, do not modify returned list and Size in it
+	 * 获取当前帧格式支持的尺寸(包括帧间隔/帧率)
+	 * 列表只生成一次并缓存到#close，不要修改返回的列表及其中的Size
+	 * @return immutable list 不可变列表
+	 */
 	public List<Size> getSupportedSizeList() {
-		final int type = (mCurrentFrameFormat > 0) ? 6 : 4;
-		return getSupportedSize(type, mSupportedSize);
+		final int type = (mPreviewState.frameFormat > 0) ? 6 : 4;
+		final List<Size> result = getSupportedSizeList(type);
+		mCurrentSizeList = result;
+		return result;
+	}
+
+	/**
+	 * get supported sizes of specific format type with frame intervals/fps, cached until #close
+	 * 获取指定格式类型支持的尺寸(包括帧间隔/帧率)，缓存到#close
+	 * @param type 4: UNCOMPRESSED(YUYV), 6: MJPEG, -1: all formats 所有格式
+	 * @return immutable list 不可变列表
+	 */
+	public List<Size> getSupportedSizeList(final int type) {
+		List<Size> result = mSizeListCache.get(type);
+		if (result == null) {
+			// usually built in #open, racing readers build the same immutable list
+			// 通常已在#open中生成，竞争的读取者生成相同的不可变列表
+			mStateLock.readLock().lock();
+			try {
+				List<Size> all = mSupportedSizeList;
+				if (all == null) {
+					final int[] values = (mNativePtr != 0) && !mSynthetic
+						? nativeGetSupportedSizeArray(mNativePtr) : null;
+					all = Collections.unmodifiableList(values != null
+						? toSizeList(values) : getSupportedSize(-1, getSupportedSize()));
+					mSupportedSizeList = all;
+				}
+				final List<Size> list = new ArrayList<Size>();
+				for (final Size sz: all) {
+					if ((sz.type == type) || (type == -1)) {
+						list.add(sz);
+					}
+				}
+				result = Collections.unmodifiableList(list);
+				mSizeListCache.put(type, result);
+			} finally {
+				mStateLock.readLock().unlock();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * convert int array from #nativeGetSupportedSizeArray to Size list
+	 * each frame size is {type, index, width, height, interval_type, intervals...},
+	 * interval_type>0: number of discrete intervals, 0: continuous {min, max, step}
+	 * 将#nativeGetSupportedSizeArray返回的int数组转换为Size列表
+	 * 每个帧尺寸为{type, index, width, height, interval_type, intervals...}，
+	 * interval_type>0时为离散帧间隔的个数，0时为连续的{min, max, step}
+	 */
+	private static List<Size> toSizeList(final int[] values) {
+		final List<Size> result = new ArrayList<Size>();
+		final int n = values.length;
+		int i = 0;
+		while (i + 5 <= n) {
+			final int type = values[i];
+			final int index = values[i + 1];
+			final int width = values[i + 2];
+			final int height = values[i + 3];
+			final int intervalType = values[i + 4];
+			i += 5;
+			final int num = intervalType > 0 ? intervalType : 3;
+			if (i + num > n) break;
+			if (intervalType > 0) {
+				result.add(new Size(type, 0, index, width, height, Arrays.copyOfRange(values, i, i + num)));
+			} else {
+				result.add(new Size(type, 0, index, width, height, values[i], values[i + 1], values[i + 2]));
+			}
+			i += num;
+		}
+		return result;
 	}
 
 	public static List<Size> getSupportedSize(final int type, final String supportedSize) {
@@ -446,11 +755,23 @@ public class UVCCamera {
 		}
 	}
 
+	/**
+	 * set callback that receives frames converted straight into the planes it supplies,
+	 * e.g. the input image of MediaCodec, instead of the frame buffer of the native library
+	 * 设置回调，帧直接转换到回调提供的平面(例如MediaCodec的输入图像)，而不是本地库的帧缓冲区
+	 * @param callback null to remove 为null时移除
+	 */
+	public void setEncoderFrameCallback(final IEncoderFrameCallback callback) {
+		if (mNativePtr != 0) {
+			nativeSetEncoderFrameCallback(mNativePtr, callback);
+		}
+	}
+
 	/**
 	 * start preview
 	 */
 	public synchronized void startPreview() {
-		if (mCtrlBlock != null) {
+		if ((mCtrlBlock != null) || mSynthetic) {
 			nativeStartPreview(mNativePtr);
 			Log.e(TAG,"startPreview成功调用了UVC底层预览");
 			return;
@@ -463,20 +784,252 @@ public class UVCCamera {
 	 */
 	public synchronized void stopPreview() {
 		setFrameCallback(null, 0);
-		if (mCtrlBlock != null) {
+		setEncoderFrameCallback(null);
+		if ((mCtrlBlock != null) || mSynthetic) {
 			nativeStopPreview(mNativePtr);
 			Log.e(TAG,"stopPreview成功调用了UVC底层停止预览");
 		}
 	}
 
+	/**
+	 * pause preview while keeping the stream, native threads and frame pool,
+	 * drawing, frame callback and capture stop until #resumePreview and CPU usage drops to near zero.
+	 * use this instead of #stopPreview when the preview is hidden only for a while.
+	 * MJPEG recording by #startMjpegRecording is not paused and keeps writing frames
+	 * 暂停预览，保留视频流、本地线程和帧池，绘制、帧回调和抓拍停止到#resumePreview，CPU占用接近0
+	 * 预览只是暂时隐藏时使用此方法代替#stopPreview
+	 * #startMjpegRecording的MJPEG录像不暂停，继续写入帧
+	 * @return true if paused, false if preview is not running 预览未运行时返回false
+	 */
+	public synchronized boolean pausePreview() {
+		if ((mCtrlBlock != null) || mSynthetic) {
+			return nativePausePreview(mNativePtr) == 0;
+		}
+		return false;
+	}
+
+	/**
+	 * resume preview paused by #pausePreview, frames are shown again from the next frame
+	 * 恢复#pausePreview暂停的预览，从下一帧开始重新显示
+	 * @return true if resumed, false if preview is not running 预览未运行时返回false
+	 */
+	public synchronized boolean resumePreview() {
+		if ((mCtrlBlock != null) || mSynthetic) {
+			return nativeResumePreview(mNativePtr) == 0;
+		}
+		return false;
+	}
+
+	/**
+	 * write the MJPEG frames from the camera into an AVI file as they are, without decoding/re-encoding.
+	 * only available while previewing in MJPEG mode(FRAME_FORMAT_MJPEG), the frames are written on a native
+	 * writer thread and the recording is also stopped by #stopPreview
+	 * 将摄像头的MJPEG帧原样写入AVI文件，不解码/重新编码
+	 * 仅在MJPEG模式(FRAME_FORMAT_MJPEG)预览时可用，帧在本地写入线程上写入，#stopPreview也会停止录像
+	 * @param path path of the AVI file AVI文件路径
+	 * @param decimation write one frame out of this number of frames, 1: all frames 每隔此帧数写入一帧，1:全部帧
+	 * @return 0 if started, negative error code otherwise 开始时返回0，否则为负的错误码
+	 */
+	public synchronized int startMjpegRecording(final String path, final int decimation) {
+		if (TextUtils.isEmpty(path) || (decimation < 1)) {
+			throw new IllegalArgumentException("invalid path or decimation");
+		}
+		if ((mCtrlBlock != null) || mSynthetic) {
+			return nativeStartMjpegRecording(mNativePtr, path, decimation);
+		}
+		return -1;
+	}
+
+	/**
+	 * stop the recording started by #startMjpegRecording and finish the file(index and headers)
+	 * 停止#startMjpegRecording开始的录像并完成文件(索引和头)
+	 * @return number of frames in the file, negative error code if not recording 文件中的帧数，未录像时为负的错误码
+	 */
+	public synchronized int stopMjpegRecording() {
+		if ((mCtrlBlock != null) || mSynthetic) {
+			return nativeStopMjpegRecording(mNativePtr);
+		}
+		return -1;
+	}
+
+	/**
+	 * get number of bytes currently used by stream buffers(frame buffers, transfer buffers and frame pool)
+	 * 获取视频流缓存(帧缓存、传输缓冲区和帧池)当前占用的内存字节数
+	 * @return 0 if camera is not opened
+	 */
+	public long getMemoryUsage() {
+		mStateLock.readLock().lock();
+		try {
+			if (mNativePtr != 0) {
+				return nativeGetMemoryUsage(mNativePtr);
+			}
+			return 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * get open-to-first-frame latency breakdown of current session.
+	 * each phase is also emitted as trace section "uvc:<phase>" while systrace/perfetto is capturing(API>=23)
+	 * 获取当前会话从打开到第一帧的延迟分解
+	 * systrace/perfetto采集中时各阶段同时输出为trace片段"uvc:<phase>"(API>=23)
+	 * @return elapsed microseconds from start of #open to each phase indexed by STARTUP_XXX,
+	 * -1 if the phase is not reached yet, null if camera is not opened
+	 * 从#open开始到各阶段(按STARTUP_XXX索引)的经过时间(微秒)，尚未到达时为-1，相机未打开时为null
+	 */
+	public long[] getStartupTimes() {
+		mStateLock.readLock().lock();
+		try {
+			if (mNativePtr != 0) {
+				return nativeGetStartupTimes(mNativePtr);
+			}
+			return null;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * get statistics of the stream since the preview started/switched, see UVCFormatSelector
+	 * 获取从开始/切换预览以来的视频流统计，参见UVCFormatSelector
+	 * @return values indexed by PREVIEW_STATS_XXX, null if not previewing 按PREVIEW_STATS_XXX索引的值，未预览时为null
+	 */
+	public long[] getPreviewStats() {
+		mStateLock.readLock().lock();
+		try {
+			if (mNativePtr != 0) {
+				return nativeGetPreviewStats(mNativePtr);
+			}
+			return null;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * frame rate negotiated with the camera(or set to the synthetic source)
+	 * 与相机协商的帧率(或虚拟帧源设置的帧率)
+	 * @return [fps], 0 if unknown or not previewing 未知或未预览时为0
+	 */
+	public float getPreviewFrameRate() {
+		final long[] stats = getPreviewStats();
+		if ((stats != null) && (stats.length > PREVIEW_STATS_FRAME_INTERVAL)
+			&& (stats[PREVIEW_STATS_FRAME_INTERVAL] > 0)) {
+
+			return 10000000.0f / stats[PREVIEW_STATS_FRAME_INTERVAL];
+		}
+		return 0;
+	}
+
+	/**
+	 * get bus speed and packet size of each alt-setting of the video streaming interface,
+	 * see UVCBandwidthPlanner
+	 * 获取总线速度和视频流接口各alt-setting的数据包大小，参见UVCBandwidthPlanner
+	 * @return {bus number, device address, speed(0:unknown, 1:low, 2:full, 3:high, 4:super),
+	 * (micro)frames per second, isochronous(1) or bulk(0), number of alt-settings,
+	 * bytes per (micro)frame of each alt-setting...}, null if camera is not opened
+	 * 相机未打开时为null
+	 */
+	public synchronized int[] getBandwidthInfo() {
+		if ((mNativePtr != 0) && !mSynthetic) {
+			return nativeGetBandwidthInfo(mNativePtr);
+		}
+		return null;
+	}
+
+	/**
+	 * snapshot raw values of all supported controls in the native control registry(CTRL_INDEX_XXX)
+	 * 获取本地控制注册表(CTRL_INDEX_XXX)中所有支持的控制的原始值快照
+	 * @return null if camera is not opened 相机未打开时为null
+	 */
+	public synchronized UVCControlProfile getControlProfile() {
+		if ((mNativePtr != 0) && !mSynthetic && (mCtrlBlock != null)) {
+			final int[] table = nativeGetControlTable(mNativePtr);
+			if (table != null) {
+				return UVCControlProfile.fromControlTable(mCtrlBlock.getVenderId(), mCtrlBlock.getProductId(), table);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * apply the profile in one native call, only the values that differ from the current ones are sent
+	 * 通过一次本地调用应用配置，只发送与当前值不同的值
+	 * @param profile
+	 * @return number of controls sent to the camera, negative value on error 发送给相机的控制数，出错时为负值
+	 */
+	public synchronized int applyControlProfile(final UVCControlProfile profile) {
+		if ((mNativePtr != 0) && !mSynthetic && (profile != null)) {
+			if ((mCtrlBlock != null) && !profile.isCompatible(mCtrlBlock.getVenderId(), mCtrlBlock.getProductId())) {
+				Log.w(TAG, "applyControlProfile:profile was taken from another camera model," + profile);
+			}
+			return nativeApplyControls(mNativePtr, profile.getValues());
+		}
+		return -1;
+	}
+
+	/**
+	 * drop the cached current value of the control so that the next getter reads it from the camera
+	 * 丢弃控制的缓存当前值，使下一次getter从相机读取
+	 * @param index CTRL_INDEX_XXX
+	 */
+	public synchronized void invalidateControl(final int index) {
+		if ((mNativePtr != 0) && !mSynthetic) {
+			nativeInvalidateControl(mNativePtr, index);
+		}
+	}
+
+	/**
+	 * get dwMaxPayloadTransferSize that the camera requests for the specific size/frame rate/format.
+	 * this negotiates(or takes from the cache) the stream ctrl but does not start streaming
+	 * 获取相机对指定尺寸/帧率/格式要求的dwMaxPayloadTransferSize，会协商(或从缓存获取)流控制但不启动流
+	 * @param frameFormat either FRAME_FORMAT_YUYV(0) or FRAME_FORMAT_MJPEG(1)
+	 * @return bytes per (micro)frame, negative value if the mode is not supported 每(微)帧字节数，不支持时为负值
+	 */
+	public synchronized int getMaxPayloadSize(final int width, final int height, final int min_fps, final int max_fps, final int frameFormat) {
+		if ((mNativePtr != 0) && !mSynthetic) {
+			return nativeGetMaxPayloadSize(mNativePtr, width, height, min_fps, max_fps, frameFormat);
+		}
+		return -1;
+	}
+
+	/**
+	 * record raw iso/bulk payloads of the stream into the file for replay, takes effect on next startPreview
+	 * 将视频流的原始同步/块传输有效负载记录到文件用于回放，下次startPreview时生效
+	 * @param path null: stop recording
+	 */
+	public synchronized void setPayloadRecord(final String path) {
+		if (mNativePtr != 0) {
+			nativeSetPayloadRecord(mNativePtr, path);
+		}
+	}
+
+	/**
+	 * replay payloads recorded by #setPayloadRecord instead of streaming from camera, takes effect on next startPreview
+	 * 用#setPayloadRecord记录的有效负载代替相机视频流，下次startPreview时生效
+	 * @param path null: stream from camera
+	 * @param realtime true: replay with recorded timing, false: as fast as possible
+	 */
+	public synchronized void setReplaySource(final String path, final boolean realtime) {
+		if (mNativePtr != 0) {
+			nativeSetReplaySource(mNativePtr, path, realtime);
+		}
+	}
+
 	/**
 	 * destroy UVCCamera object
 	 */
 	public synchronized void destroy() {
 		close();
-		if (mNativePtr != 0) {
-			nativeDestroy(mNativePtr);
-			mNativePtr = 0;
+		mStateLock.writeLock().lock();
+		try {
+			if (mNativePtr != 0) {
+				nativeDestroy(mNativePtr);
+				mNativePtr = 0;
+			}
+		} finally {
+			mStateLock.writeLock().unlock();
 		}
 	}
 
@@ -485,7 +1038,25 @@ public class UVCCamera {
 	// 打开相机后立即调用此错误结果可能会返回。
 	// 最好等待几百毫秒。
 	public boolean checkSupportFlag(final long flag) {
-		updateCameraParams();
+		if (!mControlLimitsLoaded) {
+			// flags are usually taken in #open, only ask the camera again when it did not report them then.
+			// only the flags are read under the read lock, so this never waits for the monitor(#startPreview etc.)
+			// 标志通常在#open中获取，仅当相机当时没有报告时再次查询
+			// 只在读锁下读取标志，因此不会等待监视器(#startPreview等)
+			mStateLock.readLock().lock();
+			try {
+				if (mNativePtr != 0) {
+					if (mControlSupports == 0) {
+						mControlSupports = nativeGetCtrlSupports(mNativePtr);
+					}
+					if (mProcSupports == 0) {
+						mProcSupports = nativeGetProcSupports(mNativePtr);
+					}
+				}
+			} finally {
+				mStateLock.readLock().unlock();
+			}
+		}
 		if ((flag & 0x80000000) == 0x80000000) {
 			return ((mProcSupports & flag) == (flag & 0x7ffffffF));
 		} else {
@@ -500,10 +1071,15 @@ public class UVCCamera {
 		}
 	}
 
-	public synchronized boolean getAutoFocus() {
+	public boolean getAutoFocus() {
 		boolean result = true;
-		if (mNativePtr != 0) {
-			result = nativeGetAutoFocus(mNativePtr) > 0;
+		mStateLock.readLock().lock();
+		try {
+			if (mNativePtr != 0) {
+				result = nativeGetAutoFocus(mNativePtr) > 0;
+			}
+		} finally {
+			mStateLock.readLock().unlock();
 		}
 		return result;
 	}
@@ -524,10 +1100,9 @@ public class UVCCamera {
 	 * @param focus_abs
 	 * @return focus[%]
 	 */
-	public synchronized int getFocus(final int focus_abs) {
+	public int getFocus(final int focus_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateFocusLimit(mNativePtr);
 			final float range = Math.abs(mFocusMax - mFocusMin);
 			if (range > 0) {
 				result = (int)((focus_abs - mFocusMin) * 100.f / range);
@@ -539,8 +1114,13 @@ public class UVCCamera {
 	/**
 	 * @return focus[%]
 	 */
-	public synchronized int getFocus() {
-		return getFocus(nativeGetFocus(mNativePtr));
+	public int getFocus() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getFocus(nativeGetFocus(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetFocus() {
@@ -556,10 +1136,15 @@ public class UVCCamera {
 		}
 	}
 
-	public synchronized boolean getAutoWhiteBlance() {
+	public boolean getAutoWhiteBlance() {
 		boolean result = true;
-		if (mNativePtr != 0) {
-			result = nativeGetAutoWhiteBlance(mNativePtr) > 0;
+		mStateLock.readLock().lock();
+		try {
+			if (mNativePtr != 0) {
+				result = nativeGetAutoWhiteBlance(mNativePtr) > 0;
+			}
+		} finally {
+			mStateLock.readLock().unlock();
 		}
 		return result;
 	}
@@ -581,10 +1166,9 @@ public class UVCCamera {
 	 * @param whiteBlance_abs
 	 * @return whiteBlance[%]
 	 */
-	public synchronized int getWhiteBlance(final int whiteBlance_abs) {
+	public int getWhiteBlance(final int whiteBlance_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateWhiteBlanceLimit(mNativePtr);
 			final float range = Math.abs(mWhiteBlanceMax - mWhiteBlanceMin);
 			if (range > 0) {
 				result = (int)((whiteBlance_abs - mWhiteBlanceMin) * 100.f / range);
@@ -596,8 +1180,13 @@ public class UVCCamera {
 	/**
 	 * @return white blance[%]
 	 */
-	public synchronized int getWhiteBlance() {
-		return getFocus(nativeGetWhiteBlance(mNativePtr));
+	public int getWhiteBlance() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getWhiteBlance(nativeGetWhiteBlance(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetWhiteBlance() {
@@ -622,10 +1211,9 @@ public class UVCCamera {
 	 * @param brightness_abs
 	 * @return brightness[%]
 	 */
-	public synchronized int getBrightness(final int brightness_abs) {
+	public int getBrightness(final int brightness_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateBrightnessLimit(mNativePtr);
 			final float range = Math.abs(mBrightnessMax - mBrightnessMin);
 			if (range > 0) {
 				result = (int)((brightness_abs - mBrightnessMin) * 100.f / range);
@@ -637,8 +1225,13 @@ public class UVCCamera {
 	/**
 	 * @return brightness[%]
 	 */
-	public synchronized int getBrightness() {
-		return getBrightness(nativeGetBrightness(mNativePtr));
+	public int getBrightness() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getBrightness(nativeGetBrightness(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetBrightness() {
@@ -653,7 +1246,7 @@ public class UVCCamera {
 	 */
 	public synchronized void setContrast(final int contrast) {
 		if (mNativePtr != 0) {
-			nativeUpdateContrastLimit(mNativePtr);
+			updateCameraParams();
 			final float range = Math.abs(mContrastMax - mContrastMin);
 			if (range > 0){
 				nativeSetContrast(mNativePtr, (int)(contrast / 100.f * range) + mContrastMin);
@@ -665,7 +1258,7 @@ public class UVCCamera {
 	 * @param contrast_abs
 	 * @return contrast[%]
 	 */
-	public synchronized int getContrast(final int contrast_abs) {
+	public int getContrast(final int contrast_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
 			final float range = Math.abs(mContrastMax - mContrastMin);
@@ -679,8 +1272,13 @@ public class UVCCamera {
 	/**
 	 * @return contrast[%]
 	 */
-	public synchronized int getContrast() {
-		return getContrast(nativeGetContrast(mNativePtr));
+	public int getContrast() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getContrast(nativeGetContrast(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetContrast() {
@@ -706,10 +1304,9 @@ public class UVCCamera {
 	 * @param sharpness_abs
 	 * @return sharpness[%]
 	 */
-	public synchronized int getSharpness(final int sharpness_abs) {
+	public int getSharpness(final int sharpness_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateSharpnessLimit(mNativePtr);
 			final float range = Math.abs(mSharpnessMax - mSharpnessMin);
 			if (range > 0) {
 				result = (int)((sharpness_abs - mSharpnessMin) * 100.f / range);
@@ -721,8 +1318,13 @@ public class UVCCamera {
 	/**
 	 * @return sharpness[%]
 	 */
-	public synchronized int getSharpness() {
-		return getSharpness(nativeGetSharpness(mNativePtr));
+	public int getSharpness() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getSharpness(nativeGetSharpness(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetSharpness() {
@@ -747,10 +1349,9 @@ public class UVCCamera {
 	 * @param gain_abs
 	 * @return gain[%]
 	 */
-	public synchronized int getGain(final int gain_abs) {
+	public int getGain(final int gain_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateGainLimit(mNativePtr);
 			final float range = Math.abs(mGainMax - mGainMin);
 			if (range > 0) {
 				result = (int)((gain_abs - mGainMin) * 100.f / range);
@@ -762,8 +1363,13 @@ public class UVCCamera {
 	/**
 	 * @return gain[%]
 	 */
-	public synchronized int getGain() {
-		return getGain(nativeGetGain(mNativePtr));
+	public int getGain() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getGain(nativeGetGain(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetGain() {
@@ -789,10 +1395,9 @@ public class UVCCamera {
 	 * @param gamma_abs
 	 * @return gamma[%]
 	 */
-	public synchronized int getGamma(final int gamma_abs) {
+	public int getGamma(final int gamma_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateGammaLimit(mNativePtr);
 			final float range = Math.abs(mGammaMax - mGammaMin);
 			if (range > 0) {
 				result = (int)((gamma_abs - mGammaMin) * 100.f / range);
@@ -804,8 +1409,13 @@ public class UVCCamera {
 	/**
 	 * @return gamma[%]
 	 */
-	public synchronized int getGamma() {
-		return getGamma(nativeGetGamma(mNativePtr));
+	public int getGamma() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getGamma(nativeGetGamma(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetGamma() {
@@ -831,10 +1441,9 @@ public class UVCCamera {
 	 * @param saturation_abs
 	 * @return saturation[%]
 	 */
-	public synchronized int getSaturation(final int saturation_abs) {
+	public int getSaturation(final int saturation_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateSaturationLimit(mNativePtr);
 			final float range = Math.abs(mSaturationMax - mSaturationMin);
 			if (range > 0) {
 				result = (int)((saturation_abs - mSaturationMin) * 100.f / range);
@@ -846,8 +1455,13 @@ public class UVCCamera {
 	/**
 	 * @return saturation[%]
 	 */
-	public synchronized int getSaturation() {
-		return getSaturation(nativeGetSaturation(mNativePtr));
+	public int getSaturation() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getSaturation(nativeGetSaturation(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetSaturation() {
@@ -872,10 +1486,9 @@ public class UVCCamera {
 	 * @param hue_abs
 	 * @return hue[%]
 	 */
-	public synchronized int getHue(final int hue_abs) {
+	public int getHue(final int hue_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateHueLimit(mNativePtr);
 			final float range = Math.abs(mHueMax - mHueMin);
 			if (range > 0) {
 				result = (int)((hue_abs - mHueMin) * 100.f / range);
@@ -887,8 +1500,13 @@ public class UVCCamera {
 	/**
 	 * @return hue[%]
 	 */
-	public synchronized int getHue() {
-		return getHue(nativeGetHue(mNativePtr));
+	public int getHue() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getHue(nativeGetHue(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetHue() {
@@ -928,10 +1546,9 @@ public class UVCCamera {
 	 * @param zoom_abs
 	 * @return zoom[%]
 	 */
-	public synchronized int getZoom(final int zoom_abs) {
+	public int getZoom(final int zoom_abs) {
 		int result = 0;
 		if (mNativePtr != 0) {
-			nativeUpdateZoomLimit(mNativePtr);
 			final float range = Math.abs(mZoomMax - mZoomMin);
 			if (range > 0) {
 				result = (int)((zoom_abs - mZoomMin) * 100.f / range);
@@ -943,8 +1560,13 @@ public class UVCCamera {
 	/**
 	 * @return zoom[%]
 	 */
-	public synchronized int getZoom() {
-		return getZoom(nativeGetZoom(mNativePtr));
+	public int getZoom() {
+		mStateLock.readLock().lock();
+		try {
+			return mNativePtr != 0 ? getZoom(nativeGetZoom(mNativePtr)) : 0;
+		} finally {
+			mStateLock.readLock().unlock();
+		}
 	}
 
 	public synchronized void resetZoom() {
@@ -956,7 +1578,7 @@ public class UVCCamera {
 	//================================================================================
 	public synchronized void updateCameraParams() {
 		if (mNativePtr != 0) {
-			if ((mControlSupports == 0) || (mProcSupports == 0)) {
+			if (!mControlLimitsLoaded) {
 				// サポートしている機能フラグを取得
 				// 获取支持的功能标志
 				if (mControlSupports == 0){
@@ -967,17 +1589,46 @@ public class UVCCamera {
 				}
 				// 設定値を取得
 				// 获取设定值
-				if ((mControlSupports != 0) && (mProcSupports != 0)) {
-					nativeUpdateBrightnessLimit(mNativePtr);
-					nativeUpdateContrastLimit(mNativePtr);
-					nativeUpdateSharpnessLimit(mNativePtr);
-					nativeUpdateGainLimit(mNativePtr);
-					nativeUpdateGammaLimit(mNativePtr);
-					nativeUpdateSaturationLimit(mNativePtr);
-					nativeUpdateHueLimit(mNativePtr);
-					nativeUpdateZoomLimit(mNativePtr);
-					nativeUpdateWhiteBlanceLimit(mNativePtr);
-					nativeUpdateFocusLimit(mNativePtr);
+				if ((mControlSupports != 0) || (mProcSupports != 0)) {
+					// discover limits of all controls by one native call instead of one call(and usb transfers) per control,
+					// the table only marks the controls the camera supports as available
+					// 通过一次本地调用获取所有控制的范围，而不是每个控制一次调用(和usb传输)，
+					// 表中只有相机支持的控制标记为可用
+					final int[] table = nativeGetControlTable(mNativePtr);
+					if (table != null) {
+						mControlLimitsLoaded = true;
+						int[] limits;
+						if ((limits = getControlLimits(table, CTRL_INDEX_BRIGHTNESS)) != null) {
+							mBrightnessMin = limits[0]; mBrightnessMax = limits[1]; mBrightnessDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_CONTRAST)) != null) {
+							mContrastMin = limits[0]; mContrastMax = limits[1]; mContrastDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_SHARPNESS)) != null) {
+							mSharpnessMin = limits[0]; mSharpnessMax = limits[1]; mSharpnessDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_GAIN)) != null) {
+							mGainMin = limits[0]; mGainMax = limits[1]; mGainDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_GAMMA)) != null) {
+							mGammaMin = limits[0]; mGammaMax = limits[1]; mGammaDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_SATURATION)) != null) {
+							mSaturationMin = limits[0]; mSaturationMax = limits[1]; mSaturationDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_HUE)) != null) {
+							mHueMin = limits[0]; mHueMax = limits[1]; mHueDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_ZOOM)) != null) {
+							mZoomMin = limits[0]; mZoomMax = limits[1]; mZoomDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_WHITE_BLANCE)) != null) {
+							mWhiteBlanceMin = limits[0]; mWhiteBlanceMax = limits[1]; mWhiteBlanceDef = limits[2];
+						}
+						if ((limits = getControlLimits(table, CTRL_INDEX_FOCUS)) != null) {
+							mFocusMin = limits[0]; mFocusMax = limits[1]; mFocusDef = limits[2];
+						}
+					}
 				}
 				if (DEBUG) {
 					dumpControls(mControlSupports);
@@ -996,10 +1647,29 @@ public class UVCCamera {
 			}
 		} else {
 			mControlSupports = mProcSupports = 0;
+			mControlLimitsLoaded = false;
+		}
+	}
+
+	/**
+	 * get {min, max, def} of the control from the table returned by #nativeGetControlTable
+	 * 从#nativeGetControlTable返回的表中获取控制的{最小值, 最大值, 默认值}
+	 * @param table
+	 * @param index CTRL_INDEX_XXX
+	 * @return null if the control is not available 控制不可用时返回null
+	 */
+	private static int[] getControlLimits(final int[] table, final int index) {
+		final int offset = index * CTRL_TABLE_STRIDE;
+		if ((offset + CTRL_TABLE_STRIDE <= table.length) && (table[offset] != 0)) {
+			return new int[] {table[offset + 1], table[offset + 2], table[offset + 3]};
 		}
+		return null;
 	}
 
 	// 设置帧缓存大小，根据帧分辨率调整
+	// frame buffers are sized from the negotiated dwMaxVideoFrameSize of each stream,
+	// this value is only used when the camera reports neither dwMaxVideoFrameSize nor dwMaxVideoFrameBufferSize
+	// 帧缓存已按每个流协商的dwMaxVideoFrameSize分配，仅当相机没有给出帧大小时才使用此值
 	public static final void setFrameBufferSize(final int frameBufferSize){
 		nativeFrameBufferSize(frameBufferSize);
 	}
@@ -1116,18 +1786,29 @@ public class UVCCamera {
 	private final native long nativeCreate();
 	private final native void nativeDestroy(final long id_camera);
 
+	private static final native int nativeSetCacheDir(final long id_camera, final String dir);
 	private final native int nativeConnect(long id_camera, int venderId, int productId, int fileDescriptor, int busNum, int devAddr, String usbfs);
 	private static final native int nativeRelease(final long id_camera);
 
 	private static final native int nativeSetStatusCallback(final long mNativePtr, final IStatusCallback callback);
 	private static final native int nativeSetButtonCallback(final long mNativePtr, final IButtonCallback callback);
+	private static final native int nativeSetStatusCoalescing(final long mNativePtr, final boolean coalesce);
 
 	private static final native int nativeSetPreviewSize(final long id_camera, final int width, final int height, final int cameraAngle, final int min_fps, final int max_fps, final int mode, final float bandwidth);
 	private static final native String nativeGetSupportedSize(final long id_camera);
+	private static final native int[] nativeGetSupportedSizeArray(final long id_camera);
+	private static final native long[] nativeGetStartupTimes(final long id_camera);
+	private static final native int[] nativeGetBandwidthInfo(final long id_camera);
+	private static final native int nativeGetMaxPayloadSize(final long id_camera, final int width, final int height, final int min_fps, final int max_fps, final int mode);
+	private static final native long[] nativeGetPreviewStats(final long id_camera);
 	private static final native int nativeStartPreview(final long id_camera);
 	private static final native int nativeStopPreview(final long id_camera);
+	private static final native int nativePausePreview(final long id_camera);
+	private static final native int nativeResumePreview(final long id_camera);
+	private static final native long nativeSwitchPreviewSize(final long id_camera, final int width, final int height, final int min_fps, final int max_fps, final int mode, final float bandwidth);
 	private static final native int nativeSetPreviewDisplay(final long id_camera, final Surface surface);
 	private static final native int nativeSetFrameCallback(final long mNativePtr, final IFrameCallback callback, final int pixelFormat);
+	private static final native int nativeSetEncoderFrameCallback(final long mNativePtr, final IEncoderFrameCallback callback);
 
 //**********************************************************************
 	/**
@@ -1151,9 +1832,18 @@ public class UVCCamera {
 		}
 	}
 	private static final native int nativeSetCaptureDisplay(final long id_camera, final Surface surface);
+	private static final native long nativeGetMemoryUsage(final long id_camera);
+	private static final native int nativeSetPayloadRecord(final long id_camera, final String path);
+	private static final native int nativeSetReplaySource(final long id_camera, final String path, final boolean realtime);
+	private static final native int nativeSetSyntheticSource(final long id_camera, final int fps, final int jitter_us);
+	private static final native int nativeStartMjpegRecording(final long id_camera, final String path, final int decimation);
+	private static final native int nativeStopMjpegRecording(final long id_camera);
 
 	private static final native long nativeGetCtrlSupports(final long id_camera);
 	private static final native long nativeGetProcSupports(final long id_camera);
+	private static final native int[] nativeGetControlTable(final long id_camera);
+	private static final native int nativeApplyControls(final long id_camera, final int[] values);
+	private static final native void nativeInvalidateControl(final long id_camera, final int index);
 
 	private final native int nativeUpdateScanningModeLimit(final long id_camera);
 	private static final native int nativeSetScanningMode(final long id_camera, final int scanning_mode);
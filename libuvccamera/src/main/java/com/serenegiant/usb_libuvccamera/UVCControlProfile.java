@@ -0,0 +1,179 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb_libuvccamera;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Snapshot of the raw values of the camera controls in the native control registry
+ * (UVCCamera.CTRL_INDEX_XXX), taken by UVCCamera#getControlProfile and restored by
+ * UVCCamera#applyControlProfile in one native call that sends only the values that differ.
+ * Raw values depend on the camera model, vendor/product id are kept for checking it.
+ * 本地控制注册表中相机控制(UVCCamera.CTRL_INDEX_XXX)原始值的快照，由UVCCamera#getControlProfile获取，
+ * 由UVCCamera#applyControlProfile通过一次本地调用恢复，只发送不同的值
+ * 原始值依赖于相机型号，保存厂商/产品id用于检查
+ */
+public class UVCControlProfile {
+	private static final int MAGIC = 0x55564350;	// 'UVCP'
+	private static final int VERSION = 1;
+
+	private final int mVendorId;
+	private final int mProductId;
+	/** pairs of {CTRL_INDEX_XXX, raw value} in ascending order of index {CTRL_INDEX_XXX, 原始值}对，按索引升序 */
+	private final int[] mValues;
+
+	/**
+	 * @param vendorId
+	 * @param productId
+	 * @param values pairs of {CTRL_INDEX_XXX, raw value}, auto modes should precede the controls depending on them
+	 * 				{CTRL_INDEX_XXX, 原始值}对，自动模式应位于依赖它的控制之前
+	 */
+	public UVCControlProfile(final int vendorId, final int productId, final int[] values) {
+		if ((values == null) || (values.length % 2 != 0)) {
+			throw new IllegalArgumentException("values should be pairs of {index, value}");
+		}
+		mVendorId = vendorId;
+		mProductId = productId;
+		mValues = values.clone();
+	}
+
+	/**
+	 * build from the table returned by UVCCamera#nativeGetControlTable, unavailable controls are skipped
+	 * 从UVCCamera#nativeGetControlTable返回的表构建，跳过不可用的控制
+	 */
+	/*package*/static UVCControlProfile fromControlTable(final int vendorId, final int productId, final int[] table) {
+		final int n = table != null ? table.length / UVCCamera.CTRL_TABLE_STRIDE : 0;
+		final int[] values = new int[n * 2];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			final int offset = i * UVCCamera.CTRL_TABLE_STRIDE;
+			if (table[offset] != 0) {
+				values[count++] = i;
+				values[count++] = table[offset + 4];
+			}
+		}
+		return new UVCControlProfile(vendorId, productId, Arrays.copyOf(values, count));
+	}
+
+	public int getVendorId() {
+		return mVendorId;
+	}
+
+	public int getProductId() {
+		return mProductId;
+	}
+
+	/**
+	 * whether this profile was taken from the same camera model 此配置是否取自相同型号的相机
+	 */
+	public boolean isCompatible(final int vendorId, final int productId) {
+		return (mVendorId == vendorId) && (mProductId == productId);
+	}
+
+	/**
+	 * @param index UVCCamera.CTRL_INDEX_XXX
+	 * @return whether the profile has the value of the control 配置是否包含该控制的值
+	 */
+	public boolean has(final int index) {
+		return find(index) >= 0;
+	}
+
+	/**
+	 * @param index UVCCamera.CTRL_INDEX_XXX
+	 * @param defaultValue value to return if the profile does not have the control 配置不包含该控制时返回的值
+	 * @return raw value 原始值
+	 */
+	public int get(final int index, final int defaultValue) {
+		final int pos = find(index);
+		return pos >= 0 ? mValues[pos + 1] : defaultValue;
+	}
+
+	/**
+	 * pairs of {CTRL_INDEX_XXX, raw value} for UVCCamera#nativeApplyControls
+	 * 用于UVCCamera#nativeApplyControls的{CTRL_INDEX_XXX, 原始值}对
+	 */
+	/*package*/int[] getValues() {
+		return mValues;
+	}
+
+	private int find(final int index) {
+		for (int i = 0; i < mValues.length; i += 2) {
+			if (mValues[i] == index) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * serialize to a compact byte array: magic, version, vendor id, product id, number of pairs, pairs...
+	 * 序列化为紧凑的字节数组: magic, 版本, 厂商id, 产品id, 对数, 各对...
+	 */
+	public byte[] toByteArray() {
+		final ByteBuffer buf = ByteBuffer.allocate(20 + mValues.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(mVendorId).putInt(mProductId).putInt(mValues.length / 2);
+		for (final int v: mValues) {
+			buf.putInt(v);
+		}
+		return buf.array();
+	}
+
+	/**
+	 * @param bytes byte array made by #toByteArray 由#toByteArray生成的字节数组
+	 * @throws IllegalArgumentException if bytes is not a profile 不是配置数据时
+	 */
+	public static UVCControlProfile fromByteArray(final byte[] bytes) throws IllegalArgumentException {
+		if (bytes == null) {
+			throw new IllegalArgumentException("bytes should not be null");
+		}
+		final ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if ((buf.getInt() != MAGIC) || (buf.getInt() != VERSION)) {
+				throw new IllegalArgumentException("not a control profile or unsupported version");
+			}
+			final int vendorId = buf.getInt();
+			final int productId = buf.getInt();
+			final int num = buf.getInt();
+			if ((num < 0) || ((long)num * 8 > buf.remaining())) {
+				throw new IllegalArgumentException("wrong number of values:" + num);
+			}
+			final int[] values = new int[num * 2];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = buf.getInt();
+			}
+			return new UVCControlProfile(vendorId, productId, values);
+		} catch (final BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated control profile", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "UVCControlProfile(%04x:%04x)%s", mVendorId, mProductId, Arrays.toString(mValues));
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb_libuvccamera;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies camera control values on a worker thread of its own so that the callers(UI, preview)
+ * never wait for the usb control transfers.
+ * Requests for the same control are coalesced, only the last value queued before the worker
+ * picks it up is sent to the camera(last write wins). Optionally the same control is not sent
+ * more often than #setMinInterval.
+ * Controls are identified by UVCCamera.CTRL_INDEX_XXX, values are [%] for the absolute controls
+ * same as UVCCamera#setBrightness etc., 0/1 for UVCCamera.CTRL_INDEX_AUTO_FOCUS/AUTO_WHITE_BLANCE.
+ * 在自己的工作线程上应用相机控制值，调用者(UI、预览)不必等待usb控制传输
+ * 同一控制的请求会被合并，只有工作线程取出之前最后一次排队的值会发送给相机(最后写入者胜出)
+ * 可选地，同一控制的发送频率不超过#setMinInterval
+ * 控制由UVCCamera.CTRL_INDEX_XXX标识，绝对值控制的值与UVCCamera#setBrightness等相同为[%]，
+ * UVCCamera.CTRL_INDEX_AUTO_FOCUS/AUTO_WHITE_BLANCE为0/1
+ */
+public class UVCControlQueue {
+	private static final boolean DEBUG = false;	// TODO set false when releasing
+	private static final String TAG = UVCControlQueue.class.getSimpleName();
+
+	/**
+	 * callback of the result, called on the worker thread, do not block in it
+	 * 结果回调，在工作线程上调用，不要在其中阻塞
+	 */
+	public interface ControlCallback {
+		/**
+		 * @param index UVCCamera.CTRL_INDEX_XXX
+		 * @param requested requested value, for the requests superseded by later one the value actually requested last
+		 * 					请求的值，被后续请求取代的请求为实际最后请求的值
+		 * @param applied value read back from the camera after setting 设置后从相机读回的值
+		 */
+		public void onApplied(final int index, final int requested, final int applied);
+		public void onError(final int index, final Exception e);
+	}
+
+	private static final class Request {
+		private int value;
+		private boolean reset;
+		private final List<ControlCallback> callbacks = new ArrayList<ControlCallback>();
+	}
+
+	private final Object mSync = new Object();
+	private final UVCCamera mCamera;
+	/** pending requests by control index, at most one for each control 按控制索引的待处理请求，每个控制最多一个 */
+	private final SparseArray<Request> mPending = new SparseArray<Request>();
+	/** last time each control was sent[ms] 各控制最后发送时间[ms] */
+	private final SparseArray<Long> mLastSent = new SparseArray<Long>();
+	private long mMinIntervalMs;
+	private volatile boolean mIsRunning = true;
+	private final Thread mWorkerThread;
+
+	public UVCControlQueue(final UVCCamera camera) {
+		if (camera == null) {
+			throw new NullPointerException("camera should not be null");
+		}
+		mCamera = camera;
+		mWorkerThread = new Thread(mWorkerTask, TAG);
+		mWorkerThread.start();
+	}
+
+	/**
+	 * stop the worker thread, pending requests are discarded. this does not close the camera
+	 * 停止工作线程，丢弃待处理的请求，不关闭相机
+	 */
+	public void release() {
+		synchronized (mSync) {
+			mIsRunning = false;
+			mPending.clear();
+			mSync.notifyAll();
+		}
+		if (Thread.currentThread() != mWorkerThread) {
+			try {
+				mWorkerThread.join();
+			} catch (final InterruptedException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * minimum interval between two transfers of the same control, 0 means no rate limiting(default)
+	 * 同一控制两次传输之间的最小间隔，0表示不限制(默认)
+	 * @param intervalMs
+	 */
+	public void setMinInterval(final long intervalMs) {
+		synchronized (mSync) {
+			mMinIntervalMs = Math.max(0, intervalMs);
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * queue value of the control, returns immediately 将控制的值排队，立即返回
+	 * @param index UVCCamera.CTRL_INDEX_XXX
+	 * @param value
+	 * @param callback nullable
+	 */
+	public void set(final int index, final int value, final ControlCallback callback) {
+		queue(index, value, false, callback);
+	}
+
+	public void set(final int index, final int value) {
+		queue(index, value, false, null);
+	}
+
+	/**
+	 * queue reset of the control to its default value 将控制重置为默认值排队
+	 * @param index UVCCamera.CTRL_INDEX_XXX other than the auto modes 自动模式以外的UVCCamera.CTRL_INDEX_XXX
+	 * @param callback nullable
+	 */
+	public void reset(final int index, final ControlCallback callback) {
+		queue(index, 0, true, callback);
+	}
+
+	/**
+	 * whether the queue has requests that have not been sent yet 是否有尚未发送的请求
+	 */
+	public boolean hasPending() {
+		synchronized (mSync) {
+			return mPending.size() > 0;
+		}
+	}
+
+	private void queue(final int index, final int value, final boolean reset, final ControlCallback callback) {
+		if ((index < UVCCamera.CTRL_INDEX_AUTO_FOCUS) || (index > UVCCamera.CTRL_INDEX_ZOOM)) {
+			throw new IllegalArgumentException("unknown control index:" + index);
+		}
+		if (reset && ((index == UVCCamera.CTRL_INDEX_AUTO_FOCUS) || (index == UVCCamera.CTRL_INDEX_AUTO_WHITE_BLANCE))) {
+			// auto modes have no default value to reset to 自动模式没有可重置的默认值
+			throw new IllegalArgumentException("can not reset control index:" + index);
+		}
+		synchronized (mSync) {
+			if (!mIsRunning) {
+				throw new IllegalStateException("already released");
+			}
+			Request request = mPending.get(index);
+			if (request == null) {
+				request = new Request();
+				mPending.put(index, request);
+			}
+			// last write wins, callbacks of superseded requests are notified with the last value
+			// 最后写入者胜出，被取代请求的回调以最后的值通知
+			request.value = value;
+			request.reset = reset;
+			if (callback != null) {
+				request.callbacks.add(callback);
+			}
+			mSync.notifyAll();
+		}
+	}
+
+	private final Runnable mWorkerTask = new Runnable() {
+		@Override
+		public void run() {
+			for ( ; ; ) {
+				int index = -1;
+				Request request = null;
+				synchronized (mSync) {
+					while (mIsRunning && (request == null)) {
+						final long now = SystemClock.elapsedRealtime();
+						long wait = 0;
+						final int n = mPending.size();
+						for (int i = 0; i < n; i++) {
+							final int key = mPending.keyAt(i);
+							final Long last = mLastSent.get(key);
+							final long remain = last != null ? last + mMinIntervalMs - now : 0;
+							if (remain <= 0) {
+								index = key;
+								request = mPending.valueAt(i);
+								mPending.removeAt(i);
+								break;
+							} else if ((wait == 0) || (remain < wait)) {
+								wait = remain;
+							}
+						}
+						if (request == null) {
+							try {
+								mSync.wait(wait);
+							} catch (final InterruptedException e) {
+								mIsRunning = false;
+							}
+						}
+					}
+					if (!mIsRunning) break;
+					mLastSent.put(index, SystemClock.elapsedRealtime());
+				}
+				apply(index, request);
+			}
+			if (DEBUG) Log.v(TAG, "worker finished");
+		}
+	};
+
+	private void apply(final int index, final Request request) {
+		final int applied;
+		try {
+			if (request.reset) {
+				resetControl(index);
+			} else {
+				setControl(index, request.value);
+			}
+			// the getters return the cached value, read back what the camera actually took
+			// getter返回缓存的值，读回相机实际接受的值
+			mCamera.invalidateControl(index);
+			applied = getControl(index);
+		} catch (final Exception e) {
+			Log.w(TAG, e);
+			for (final ControlCallback callback: request.callbacks) {
+				callback.onError(index, e);
+			}
+			return;
+		}
+		if (DEBUG) Log.v(TAG, "apply:index=" + index + ",requested=" + request.value + ",applied=" + applied);
+		for (final ControlCallback callback: request.callbacks) {
+			try {
+				callback.onApplied(index, request.reset ? applied : request.value, applied);
+			} catch (final Exception e) {
+				Log.w(TAG, e);
+			}
+		}
+	}
+
+	private void setControl(final int index, final int value) {
+		final UVCCamera camera = mCamera;
+		switch (index) {
+		case UVCCamera.CTRL_INDEX_AUTO_FOCUS:
+			camera.setAutoFocus(value != 0);
+			break;
+		case UVCCamera.CTRL_INDEX_FOCUS:
+			camera.setFocus(value);
+			break;
+		case UVCCamera.CTRL_INDEX_AUTO_WHITE_BLANCE:
+			camera.setAutoWhiteBlance(value != 0);
+			break;
+		case UVCCamera.CTRL_INDEX_WHITE_BLANCE:
+			camera.setWhiteBlance(value);
+			break;
+		case UVCCamera.CTRL_INDEX_BRIGHTNESS:
+			camera.setBrightness(value);
+			break;
+		case UVCCamera.CTRL_INDEX_CONTRAST:
+			camera.setContrast(value);
+			break;
+		case UVCCamera.CTRL_INDEX_SHARPNESS:
+			camera.setSharpness(value);
+			break;
+		case UVCCamera.CTRL_INDEX_GAIN:
+			camera.setGain(value);
+			break;
+		case UVCCamera.CTRL_INDEX_GAMMA:
+			camera.setGamma(value);
+			break;
+		case UVCCamera.CTRL_INDEX_SATURATION:
+			camera.setSaturation(value);
+			break;
+		case UVCCamera.CTRL_INDEX_HUE:
+			camera.setHue(value);
+			break;
+		case UVCCamera.CTRL_INDEX_ZOOM:
+			camera.setZoom(value);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown control index:" + index);
+		}
+	}
+
+	private void resetControl(final int index) {
+		final UVCCamera camera = mCamera;
+		switch (index) {
+		case UVCCamera.CTRL_INDEX_FOCUS:
+			camera.resetFocus();
+			break;
+		case UVCCamera.CTRL_INDEX_WHITE_BLANCE:
+			camera.resetWhiteBlance();
+			break;
+		case UVCCamera.CTRL_INDEX_BRIGHTNESS:
+			camera.resetBrightness();
+			break;
+		case UVCCamera.CTRL_INDEX_CONTRAST:
+			camera.resetContrast();
+			break;
+		case UVCCamera.CTRL_INDEX_SHARPNESS:
+			camera.resetSharpness();
+			break;
+		case UVCCamera.CTRL_INDEX_GAIN:
+			camera.resetGain();
+			break;
+		case UVCCamera.CTRL_INDEX_GAMMA:
+			camera.resetGamma();
+			break;
+		case UVCCamera.CTRL_INDEX_SATURATION:
+			camera.resetSaturation();
+			break;
+		case UVCCamera.CTRL_INDEX_HUE:
+			camera.resetHue();
+			break;
+		case UVCCamera.CTRL_INDEX_ZOOM:
+			camera.resetZoom();
+			break;
+		default:
+			throw new IllegalArgumentException("can not reset control index:" + index);
+		}
+	}
+
+	private int getControl(final int index) {
+		final UVCCamera camera = mCamera;
+		switch (index) {
+		case UVCCamera.CTRL_INDEX_AUTO_FOCUS:
+			return camera.getAutoFocus() ? 1 : 0;
+		case UVCCamera.CTRL_INDEX_FOCUS:
+			return camera.getFocus();
+		case UVCCamera.CTRL_INDEX_AUTO_WHITE_BLANCE:
+			return camera.getAutoWhiteBlance() ? 1 : 0;
+		case UVCCamera.CTRL_INDEX_WHITE_BLANCE:
+			return camera.getWhiteBlance();
+		case UVCCamera.CTRL_INDEX_BRIGHTNESS:
+			return camera.getBrightness();
+		case UVCCamera.CTRL_INDEX_CONTRAST:
+			return camera.getContrast();
+		case UVCCamera.CTRL_INDEX_SHARPNESS:
+			return camera.getSharpness();
+		case UVCCamera.CTRL_INDEX_GAIN:
+			return camera.getGain();
+		case UVCCamera.CTRL_INDEX_GAMMA:
+			return camera.getGamma();
+		case UVCCamera.CTRL_INDEX_SATURATION:
+			return camera.getSaturation();
+		case UVCCamera.CTRL_INDEX_HUE:
+			return camera.getHue();
+		case UVCCamera.CTRL_INDEX_ZOOM:
+			return camera.getZoom();
+		default:
+			throw new IllegalArgumentException("unknown control index:" + index);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.usb_libuvccamera;
+
+import android.hardware.usb.UsbDevice;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Chooses YUYV or MJPEG for the requested size/frame rate by cost.
+ * YUYV costs bus bandwidth(share of what the camera's endpoint can carry), MJPEG costs CPU time
+ * for decoding(measured on this device, share of one core weighted by #setCpuWeight).
+ * While previewing, #reevaluate checks UVCCamera#getPreviewStats and moves away from a format
+ * that drops frames: incomplete frames mean the bus is short for YUYV, overrun frames
+ * mean the decoder can not keep up with MJPEG.
+ * 按成本为请求的尺寸/帧率选择YUYV或MJPEG
+ * YUYV消耗总线带宽(占相机端点可传输量的比例)，MJPEG消耗解码的CPU时间(在本设备上测得，
+ * 占一个核心的比例，按#setCpuWeight加权)
+ * 预览中#reevaluate检查UVCCamera#getPreviewStats，离开丢帧的格式:
+ * 不完整帧表示YUYV的总线带宽不足，溢出帧表示MJPEG的解码跟不上
+ */
+public class UVCFormatSelector {
+	private static final boolean DEBUG = false;	// TODO set false when releasing
+	private static final String TAG = UVCFormatSelector.class.getSimpleName();
+
+	/**
+	 * frame format for AbstractUVCCameraHandler to let this class choose YUYV/MJPEG,
+	 * never pass this to UVCCamera directly
+	 * 让此类选择YUYV/MJPEG的帧格式(用于AbstractUVCCameraHandler)，不要直接传给UVCCamera
+	 */
+	public static final int FRAME_FORMAT_AUTO = -1;
+	/**
+	 * default weight of CPU share against bus share, CPU time costs battery while
+	 * bus bandwidth only costs the other cameras on the bus
+	 * CPU占用相对于总线占用的默认权重，CPU时间消耗电池，而总线带宽只影响同一总线上的其他相机
+	 */
+	public static final float DEFAULT_CPU_WEIGHT = 4.0f;
+	/**
+	 * MJPEG decode time before it is measured on this device
+	 * 在本设备上测得之前的MJPEG解码时间
+	 */
+	private static final float DEFAULT_DECODE_US_PER_PIXEL = 0.012f;
+	/**
+	 * ratio of dropped frames to give up the current format 放弃当前格式的丢帧比例
+	 */
+	private static final float DROP_RATIO = 0.1f;
+	/**
+	 * minimum number of frames to judge 判断所需的最小帧数
+	 */
+	private static final int MIN_FRAMES = 30;
+	/**
+	 * the other format should be this much cheaper to switch without drops
+	 * 没有丢帧时，另一种格式需要便宜这么多才切换
+	 */
+	private static final float HYSTERESIS = 0.8f;
+	private static final int HEADER_BYTES = 12;
+	// rough throughput of bulk transfer 批量传输的大致吞吐量
+	private static final long BULK_BYTES_PER_SEC_HIGH = 40000000L;
+	private static final long BULK_BYTES_PER_SEC_FULL = 1000000L;
+	private static final long BULK_BYTES_PER_SEC_SUPER = 300000000L;
+	private static final int SPEED_HIGH = 3;
+	private static final int SPEED_SUPER = 4;
+
+	/**
+	 * measured MJPEG decode time of each camera model, kept while the process lives
+	 * because the cost differs per device/camera
+	 * 每种相机型号测得的MJPEG解码时间，在进程存活期间保留，因为成本因设备/相机而异
+	 */
+	private static final Map<String, Float> sDecodeUsPerPixel = new HashMap<String, Float>();
+
+	private final UVCCamera mCamera;
+	private final String mKey;
+	private final int mWidth, mHeight, mFps;
+	private float mCpuWeight = DEFAULT_CPU_WEIGHT;
+	private boolean mYuyvFailed, mMjpegFailed;
+	private int mCurrentFormat = FRAME_FORMAT_AUTO;
+	private long[] mPrevStats;
+
+	/**
+	 * @param camera opened camera 已打开的相机
+	 * @param width
+	 * @param height
+	 * @param fps requested frame rate 请求的帧率
+	 */
+	public UVCFormatSelector(final UVCCamera camera, final int width, final int height, final int fps) {
+		mCamera = camera;
+		final UsbDevice device = camera.getDevice();
+		mKey = device != null
+			? String.format(Locale.US, "%04x:%04x", device.getVendorId(), device.getProductId()) : "";
+		mWidth = width;
+		mHeight = height;
+		mFps = fps;
+	}
+
+	/**
+	 * set weight of CPU share against bus share
+	 * 设置CPU占用相对于总线占用的权重
+	 * @param weight default is DEFAULT_CPU_WEIGHT, larger value prefers YUYV 值越大越倾向YUYV
+	 */
+	public synchronized void setCpuWeight(final float weight) {
+		if (weight <= 0) {
+			throw new IllegalArgumentException("weight should be positive");
+		}
+		mCpuWeight = weight;
+	}
+
+	/**
+	 * choose the cheaper format 选择成本较低的格式
+	 * @return UVCCamera.FRAME_FORMAT_YUYV or UVCCamera.FRAME_FORMAT_MJPEG,
+	 * UVCCamera.DEFAULT_PREVIEW_MODE if the camera supports neither at the size/frame rate
+	 * 相机在该尺寸/帧率下都不支持时为UVCCamera.DEFAULT_PREVIEW_MODE
+	 */
+	public synchronized int select() {
+		final float yuyv = getCost(UVCCamera.FRAME_FORMAT_YUYV);
+		final float mjpeg = getCost(UVCCamera.FRAME_FORMAT_MJPEG);
+		int result = UVCCamera.DEFAULT_PREVIEW_MODE;
+		if ((yuyv != Float.MAX_VALUE) || (mjpeg != Float.MAX_VALUE)) {
+			result = yuyv <= mjpeg ? UVCCamera.FRAME_FORMAT_YUYV : UVCCamera.FRAME_FORMAT_MJPEG;
+		}
+		if (DEBUG) Log.v(TAG, String.format(Locale.US, "select:%dx%d@%d,yuyv=%.3f,mjpeg=%.3f,result=%d",
+			mWidth, mHeight, mFps, yuyv, mjpeg, result));
+		setCurrentFormat(result);
+		return result;
+	}
+
+	/**
+	 * set the format actually used, e.g. after falling back
+	 * 设置实际使用的格式，例如回退后
+	 */
+	public synchronized void setCurrentFormat(final int format) {
+		if (mCurrentFormat != format) {
+			mCurrentFormat = format;
+			mPrevStats = null;
+		}
+	}
+
+	public synchronized int getCurrentFormat() {
+		return mCurrentFormat;
+	}
+
+	/**
+	 * check the statistics of the stream, call this periodically while previewing
+	 * 检查视频流的统计，预览中定期调用
+	 * @return format that should be used from now, same as #getCurrentFormat if no need to switch
+	 * 今后应使用的格式，不需要切换时与#getCurrentFormat相同
+	 */
+	public synchronized int reevaluate() {
+		final long[] stats = mCamera.getPreviewStats();
+		if ((stats == null) || (stats.length <= UVCCamera.PREVIEW_STATS_DECODE_US)) {
+			return mCurrentFormat;
+		}
+		long[] prev = mPrevStats;
+		if ((prev == null) || (stats[UVCCamera.PREVIEW_STATS_RECEIVED] < prev[UVCCamera.PREVIEW_STATS_RECEIVED])) {
+			// statistics are reset when the stream is (re)started 视频流(重新)开始时统计会重置
+			prev = new long[stats.length];
+		}
+		final long received = stats[UVCCamera.PREVIEW_STATS_RECEIVED] - prev[UVCCamera.PREVIEW_STATS_RECEIVED];
+		if (received < MIN_FRAMES) {
+			return mCurrentFormat;
+		}
+		mPrevStats = stats;
+		final long incomplete = stats[UVCCamera.PREVIEW_STATS_INCOMPLETE] - prev[UVCCamera.PREVIEW_STATS_INCOMPLETE];
+		final long overrun = stats[UVCCamera.PREVIEW_STATS_OVERRUN] - prev[UVCCamera.PREVIEW_STATS_OVERRUN];
+		final long decoded = stats[UVCCamera.PREVIEW_STATS_DECODED] - prev[UVCCamera.PREVIEW_STATS_DECODED];
+		final long decodeUs = stats[UVCCamera.PREVIEW_STATS_DECODE_US] - prev[UVCCamera.PREVIEW_STATS_DECODE_US];
+		boolean failed = false;
+		if (mCurrentFormat == UVCCamera.FRAME_FORMAT_MJPEG) {
+			if ((decoded > 0) && (decodeUs > 0)) {
+				updateDecodeUsPerPixel(decodeUs / (float)decoded / (mWidth * mHeight));
+			}
+			if (overrun > received * DROP_RATIO) {
+				mMjpegFailed = failed = true;
+			}
+		} else if (incomplete > received * DROP_RATIO) {
+			mYuyvFailed = failed = true;
+		}
+		final int other = mCurrentFormat == UVCCamera.FRAME_FORMAT_MJPEG
+			? UVCCamera.FRAME_FORMAT_YUYV : UVCCamera.FRAME_FORMAT_MJPEG;
+		final float currentCost = getCost(mCurrentFormat);
+		final float otherCost = getCost(other);
+		if (DEBUG) Log.v(TAG, String.format(Locale.US,
+			"reevaluate:format=%d,received=%d,incomplete=%d,overrun=%d,cost=%.3f/%.3f",
+			mCurrentFormat, received, incomplete, overrun, currentCost, otherCost));
+		if ((otherCost != Float.MAX_VALUE)
+			&& (failed || (otherCost < currentCost * HYSTERESIS))) {
+
+			Log.i(TAG, "reevaluate:switch format " + mCurrentFormat + "=>" + other
+				+ (failed ? " because of dropped frames" : ""));
+			setCurrentFormat(other);
+		}
+		return mCurrentFormat;
+	}
+
+	/**
+	 * cost of the format at the size/frame rate 该格式在该尺寸/帧率下的成本
+	 * @return Float.MAX_VALUE if the format can not be used 无法使用该格式时为Float.MAX_VALUE
+	 */
+	public synchronized float getCost(final int format) {
+		if (!isSupported(format)) {
+			return Float.MAX_VALUE;
+		}
+		final double pixelsPerSec = (double)mWidth * mHeight * mFps;
+		if (format == UVCCamera.FRAME_FORMAT_MJPEG) {
+			if (mMjpegFailed) return Float.MAX_VALUE;
+			return (float)(pixelsPerSec * getDecodeUsPerPixel() / 1000000.0 * mCpuWeight);
+		} else {
+			if (mYuyvFailed) return Float.MAX_VALUE;
+			final double capacity = getCapacityBytesPerSec();
+			final double required = pixelsPerSec * 2;
+			return capacity > required ? (float)(required / capacity) : Float.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * whether the camera supports the format at the size/frame rate
+	 * 相机是否在该尺寸/帧率下支持该格式
+	 */
+	private boolean isSupported(final int format) {
+		final List<Size> sizes = mCamera.getSupportedSizeList(
+			format == UVCCamera.FRAME_FORMAT_MJPEG ? 6 : 4);
+		for (final Size size: sizes) {
+			if ((size.width == mWidth) && (size.height == mHeight) && (size.fps != null)) {
+				for (final float f: size.fps) {
+					if (Math.round(f) == mFps) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * payload bytes per second that the largest alt-setting(or bulk endpoint) can carry
+	 * 最大alt-setting(或批量传输端点)每秒可传输的有效负载字节数
+	 */
+	private double getCapacityBytesPerSec() {
+		final int[] info = mCamera.getBandwidthInfo();
+		if ((info == null) || (info.length < 6)) {
+			// unknown(synthetic source), assume high speed bulk 未知(虚拟帧源)，假定为高速批量传输
+			return BULK_BYTES_PER_SEC_HIGH;
+		}
+		if (info[4] == 0) {
+			return info[2] >= SPEED_SUPER ? BULK_BYTES_PER_SEC_SUPER
+				: (info[2] == SPEED_HIGH ? BULK_BYTES_PER_SEC_HIGH : BULK_BYTES_PER_SEC_FULL);
+		}
+		int max = 0;
+		for (int i = 6; i < info.length; i++) {
+			max = Math.max(max, info[i]);
+		}
+		return (double)Math.max(0, max - HEADER_BYTES) * info[3];
+	}
+
+	private float getDecodeUsPerPixel() {
+		synchronized (sDecodeUsPerPixel) {
+			final Float value = sDecodeUsPerPixel.get(mKey);
+			return value != null ? value : DEFAULT_DECODE_US_PER_PIXEL;
+		}
+	}
+
+	private void updateDecodeUsPerPixel(final float measured) {
+		synchronized (sDecodeUsPerPixel) {
+			final Float value = sDecodeUsPerPixel.get(mKey);
+			// moving average to smooth scene dependent variation 移动平均以平滑随场景的变化
+			sDecodeUsPerPixel.put(mKey, value != null ? value * 0.7f + measured * 0.3f : measured);
+		}
+	}
+}
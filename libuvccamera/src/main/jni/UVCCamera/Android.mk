@@ -60,6 +60,8 @@ LOCAL_SRC_FILES := \
 		UVCPreview.cpp \
 		UVCButtonCallback.cpp \
 		UVCStatusCallback.cpp \
+		UVCEventDispatcher.cpp \
+		MJPEGRecorder.cpp \
 		Parameters.cpp \
 		serenegiant_usb_UVCCamera.cpp
 
@@ -0,0 +1,435 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: MJPEGRecorder.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/uio.h>
+#include "utilbase.h"
+#include "MJPEGRecorder.h"
+
+#define	LOCAL_DEBUG 0
+
+#define FOURCC(a, b, c, d) ((uint32_t)(a) | ((uint32_t)(b) << 8) | ((uint32_t)(c) << 16) | ((uint32_t)(d) << 24))
+
+#define AVIF_HASINDEX 0x00000010
+#define AVIIF_KEYFRAME 0x00000010
+
+// offsets in the AVI header written by #write_header 由#write_header写入的AVI头中的偏移
+#define AVI_OFFSET_RIFF_SIZE 4
+#define AVI_OFFSET_AVIH_MAX_BYTES_PER_SEC 36
+#define AVI_OFFSET_AVIH_TOTAL_FRAMES 48
+#define AVI_OFFSET_AVIH_SUGGESTED_BUFFER 60
+#define AVI_OFFSET_STRH_LENGTH 140
+#define AVI_OFFSET_STRH_SUGGESTED_BUFFER 144
+#define AVI_OFFSET_MOVI_SIZE 216
+#define AVI_HEADER_BYTES 224		// chunks of 'movi' start here 'movi'的数据块从这里开始
+// sizes of AVI 1.0 are 32 bit, some players treat them as signed
+// OpenDML(AVI 2.0) extension is not supported, the recording stops before this size
+// AVI 1.0的大小是32位，部分播放器将其视为有符号数
+// 不支持OpenDML(AVI 2.0)扩展，录像在达到此大小前停止
+#define AVI_MAX_FILE_BYTES 0x7F000000LL
+
+#define INDEX_INITIAL_CAPACITY 1024
+
+static inline void put16(uint8_t *p, const uint16_t v) {
+	p[0] = (uint8_t)v; p[1] = (uint8_t)(v >> 8);
+}
+
+static inline void put32(uint8_t *p, const uint32_t v) {
+	p[0] = (uint8_t)v; p[1] = (uint8_t)(v >> 8); p[2] = (uint8_t)(v >> 16); p[3] = (uint8_t)(v >> 24);
+}
+
+static bool pwrite32(const int fd, const off_t offset, const uint32_t v) {
+	uint8_t buf[4];
+	put32(buf, v);
+	return pwrite(fd, buf, 4, offset) == 4;
+}
+
+MJPEGRecorder::MJPEGRecorder(int width, int height, int us_per_frame, int decimation)
+:	mFd(-1),
+	mWidth(width),
+	mHeight(height),
+	mUsPerFrame(us_per_frame > 0 ? us_per_frame : 33333),
+	mDecimation(decimation > 1 ? decimation : 1),
+	mDecimationCount(0),
+	mIsRunning(false),
+	mThread(0),
+	mFreeCount(0),
+	mQueueHead(0),
+	mQueueCount(0),
+	mIndex(NULL),
+	mIndexCount(0),
+	mIndexCapacity(0),
+	mMoviBytes(0),
+	mMaxChunkBytes(0),
+	mStartPtsUs(-1),
+	mFrames(0),
+	mFull(false),
+	mDropped(0),
+	mMismatched(0) {
+
+	ENTER();
+	memset(mBuffers, 0, sizeof(mBuffers));
+	pthread_mutex_init(&mMutex, NULL);
+	pthread_cond_init(&mCond, NULL);
+	EXIT();
+}
+
+MJPEGRecorder::~MJPEGRecorder() {
+
+	ENTER();
+	close();
+	for (int i = 0; i < MJPEG_QUEUE_SIZE; i++) {
+		SAFE_FREE(mBuffers[i].data);
+	}
+	SAFE_FREE(mIndex);
+	pthread_cond_destroy(&mCond);
+	pthread_mutex_destroy(&mMutex);
+	EXIT();
+}
+
+/**
+ * create the file and start the writer thread
+ * 创建文件并启动写入线程
+ */
+int MJPEGRecorder::open(const char *path) {
+	ENTER();
+	if (UNLIKELY(mFd >= 0)) RETURN(UVC_ERROR_BUSY, int);
+	mFd = ::open(path, O_WRONLY | O_CREAT | O_TRUNC, 0644);
+	if (UNLIKELY(mFd < 0)) {
+		LOGE("could not create %s:errno=%d", path, errno);
+		RETURN(UVC_ERROR_IO, int);
+	}
+	int result = write_header();
+	if (LIKELY(!result)) {
+		mFreeCount = 0;
+		for (int i = 0; i < MJPEG_QUEUE_SIZE; i++) {
+			mFree[mFreeCount++] = &mBuffers[i];
+		}
+		mQueueHead = mQueueCount = 0;
+		mIsRunning = true;
+		result = pthread_create(&mThread, NULL, writer_thread_func, (void *)this);
+		if (UNLIKELY(result)) {
+			LOGW("failed to create writer thread:%d", result);
+			mIsRunning = false;
+		}
+	}
+	if (UNLIKELY(result)) {
+		::close(mFd);
+		mFd = -1;
+		unlink(path);
+		RETURN(UVC_ERROR_IO, int);
+	}
+	RETURN(0, int);
+}
+
+/**
+ * write the frames left in the queue, the index and the sizes, then close the file
+ * 写入队列中剩余的帧、索引和大小，然后关闭文件
+ * @return number of frames in the file or error code 文件中的帧数或错误码
+ */
+int MJPEGRecorder::close() {
+	ENTER();
+	if (mFd < 0) RETURN(UVC_ERROR_INVALID_PARAM, int);
+	if (mIsRunning) {
+		pthread_mutex_lock(&mMutex);
+		{
+			mIsRunning = false;
+			pthread_cond_signal(&mCond);
+		}
+		pthread_mutex_unlock(&mMutex);
+		if (pthread_join(mThread, NULL) != EXIT_SUCCESS) {
+			LOGW("MJPEGRecorder:pthread_join failed");
+		}
+	}
+	int result = finish();
+	::close(mFd);
+	mFd = -1;
+	if (mDropped) {
+		LOGW("MJPEGRecorder:%u frames were dropped", mDropped);
+	}
+	if (mMismatched) {
+		LOGW("MJPEGRecorder:%u frames of another size were dropped", mMismatched);
+	}
+	RETURN(result ? result : (int)mFrames, int);
+}
+
+/**
+ * copy the frame into the queue, called on the thread of the frame callback, never blocks on the file
+ * 将帧复制到队列，在帧回调线程上调用，从不因文件而阻塞
+ */
+void MJPEGRecorder::post(uvc_frame_t *frame) {
+	if (UNLIKELY(!mIsRunning || !frame->actual_bytes)) return;
+	if ((mDecimation > 1) && (mDecimationCount++ % mDecimation)) return;
+	mjpeg_buffer_t *buf = NULL;
+	pthread_mutex_lock(&mMutex);
+	{
+		if (LIKELY(mFreeCount > 0)) {
+			buf = mFree[--mFreeCount];
+		}
+	}
+	pthread_mutex_unlock(&mMutex);
+	if (UNLIKELY(!buf)) {
+		// the writer does not keep up 写入跟不上
+		__atomic_add_fetch(&mDropped, 1, __ATOMIC_RELAXED);
+		return;
+	}
+	// the buffers only grow until they fit the largest frame 缓冲区只增长到能容纳最大的帧
+	if (UNLIKELY(buf->capacity < frame->actual_bytes)) {
+		const size_t capacity = frame->actual_bytes + (frame->actual_bytes >> 1);
+		uint8_t *data = (uint8_t *)realloc(buf->data, capacity);
+		if (LIKELY(data)) {
+			buf->data = data;
+			buf->capacity = capacity;
+		} else {
+			pthread_mutex_lock(&mMutex);
+			{
+				mFree[mFreeCount++] = buf;
+			}
+			pthread_mutex_unlock(&mMutex);
+			__atomic_add_fetch(&mDropped, 1, __ATOMIC_RELAXED);
+			return;
+		}
+	}
+	memcpy(buf->data, frame->data, frame->actual_bytes);
+	buf->bytes = frame->actual_bytes;
+	buf->pts_us = (int64_t)frame->capture_time.tv_sec * 1000000LL + frame->capture_time.tv_usec;
+	pthread_mutex_lock(&mMutex);
+	{
+		mQueue[(mQueueHead + mQueueCount++) % MJPEG_QUEUE_SIZE] = buf;
+		pthread_cond_signal(&mCond);
+	}
+	pthread_mutex_unlock(&mMutex);
+}
+
+/**
+ * count the frame that was not posted because its size differs from the file,
+ * called on the thread of the frame callback
+ * 计数因尺寸与文件不同而未提交的帧，在帧回调线程上调用
+ * @return number of such frames so far 到目前为止此类帧的数量
+ */
+uint32_t MJPEGRecorder::dropMismatched() {
+	return __atomic_add_fetch(&mMismatched, 1, __ATOMIC_RELAXED);
+}
+
+/*
+ * thread function
+ * @param vptr_args pointer to MJPEGRecorder instance
+ * 写入线程方法
+ */
+// static
+void *MJPEGRecorder::writer_thread_func(void *vptr_args) {
+	ENTER();
+	MJPEGRecorder *recorder = reinterpret_cast<MJPEGRecorder *>(vptr_args);
+	if (LIKELY(recorder)) {
+		recorder->do_write();	// never return until stopped 直到停止才返回
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+void MJPEGRecorder::do_write() {
+	ENTER();
+	for ( ; ; ) {
+		mjpeg_buffer_t *buf = NULL;
+		pthread_mutex_lock(&mMutex);
+		{
+			while (mIsRunning && !mQueueCount) {
+				pthread_cond_wait(&mCond, &mMutex);
+			}
+			if (mQueueCount) {
+				buf = mQueue[mQueueHead];
+				mQueueHead = (mQueueHead + 1) % MJPEG_QUEUE_SIZE;
+				mQueueCount--;
+			}
+		}
+		pthread_mutex_unlock(&mMutex);
+		if (!buf) break;	// stopped and the queue is empty 已停止且队列为空
+		write_frame(buf);
+		pthread_mutex_lock(&mMutex);
+		{
+			mFree[mFreeCount++] = buf;
+		}
+		pthread_mutex_unlock(&mMutex);
+	}
+	EXIT();
+}
+
+/**
+ * write the frame at the position of its capture time, the previous frame is repeated for missing periods
+ * 在其抓取时间的位置写入帧，缺失的周期重复前一帧
+ */
+void MJPEGRecorder::write_frame(mjpeg_buffer_t *buf) {
+	if (UNLIKELY(mFull)) return;
+	if (mStartPtsUs < 0) {
+		mStartPtsUs = buf->pts_us;
+	} else if (LIKELY(buf->pts_us > mStartPtsUs)) {
+		const int64_t slot = (buf->pts_us - mStartPtsUs + mUsPerFrame / 2) / mUsPerFrame;
+		if (UNLIKELY(slot + 1 < mFrames)) {
+			// more than one period earlier than expected, the camera is faster than its frame interval
+			// 比预期提前超过一个周期，摄像头比其帧间隔快
+			__atomic_add_fetch(&mDropped, 1, __ATOMIC_RELAXED);
+			return;
+		}
+		for ( ; (mFrames < slot) && !mFull ; ) {
+			write_chunk(NULL, 0);
+		}
+	}
+	write_chunk(buf->data, (uint32_t)buf->bytes);
+}
+
+bool MJPEGRecorder::write_chunk(const uint8_t *data, uint32_t bytes) {
+	const uint32_t padded = bytes + (bytes & 1);
+	if (UNLIKELY(AVI_HEADER_BYTES + mMoviBytes + 8 + padded
+		+ 8 + (uint64_t)(mIndexCount + 1) * sizeof(avi_index_entry_t) > AVI_MAX_FILE_BYTES)) {
+
+		LOGW("MJPEGRecorder:reached the size limit of AVI, stop recording");
+		mFull = true;
+		return false;
+	}
+	if (UNLIKELY(mIndexCount >= mIndexCapacity)) {
+		const uint32_t capacity = mIndexCapacity ? mIndexCapacity * 2 : INDEX_INITIAL_CAPACITY;
+		avi_index_entry_t *index = (avi_index_entry_t *)realloc(mIndex, capacity * sizeof(avi_index_entry_t));
+		if (UNLIKELY(!index)) {
+			LOGE("MJPEGRecorder:failed to allocate index");
+			mFull = true;
+			return false;
+		}
+		mIndex = index;
+		mIndexCapacity = capacity;
+	}
+	uint8_t header[8];
+	uint8_t pad = 0;
+	put32(header, FOURCC('0', '0', 'd', 'c'));
+	put32(header + 4, bytes);
+	struct iovec iov[3];
+	int n = 0;
+	iov[n].iov_base = header; iov[n++].iov_len = sizeof(header);
+	if (bytes) {
+		iov[n].iov_base = (void *)data; iov[n++].iov_len = bytes;
+	}
+	if (padded != bytes) {
+		iov[n].iov_base = &pad; iov[n++].iov_len = 1;
+	}
+	const ssize_t written = writev(mFd, iov, n);
+	if (UNLIKELY(written != (ssize_t)(sizeof(header) + padded))) {
+		LOGE("MJPEGRecorder:failed to write:errno=%d", errno);
+		mFull = true;
+		return false;
+	}
+	avi_index_entry_t &entry = mIndex[mIndexCount++];
+	entry.ckid = FOURCC('0', '0', 'd', 'c');
+	// a zero-length chunk repeats the previous frame 零长度数据块重复前一帧
+	entry.flags = bytes ? AVIIF_KEYFRAME : 0;
+	// relative to the 'movi' fourcc 相对于'movi'四字符码
+	entry.offset = (uint32_t)(4 + mMoviBytes);
+	entry.size = bytes;
+	mMoviBytes += sizeof(header) + padded;
+	if (bytes > mMaxChunkBytes) {
+		mMaxChunkBytes = bytes;
+	}
+	mFrames++;
+	return true;
+}
+
+/**
+ * write the headers with the sizes and counts left zero, they are fixed up by #finish
+ * 写入头，大小和计数保留为0，由#finish修正
+ */
+int MJPEGRecorder::write_header() {
+	ENTER();
+	uint8_t hdr[AVI_HEADER_BYTES];
+	memset(hdr, 0, sizeof(hdr));
+	uint8_t *p = hdr;
+	put32(p, FOURCC('R', 'I', 'F', 'F')); put32(p + 8, FOURCC('A', 'V', 'I', ' ')); p += 12;
+	put32(p, FOURCC('L', 'I', 'S', 'T')); put32(p + 4, 192); put32(p + 8, FOURCC('h', 'd', 'r', 'l')); p += 12;
+	// MainAVIHeader
+	put32(p, FOURCC('a', 'v', 'i', 'h')); put32(p + 4, 56); p += 8;
+	put32(p, mUsPerFrame);				// dwMicroSecPerFrame
+	put32(p + 12, AVIF_HASINDEX);		// dwFlags
+	put32(p + 24, 1);					// dwStreams
+	put32(p + 32, mWidth);
+	put32(p + 36, mHeight);
+	p += 56;
+	put32(p, FOURCC('L', 'I', 'S', 'T')); put32(p + 4, 116); put32(p + 8, FOURCC('s', 't', 'r', 'l')); p += 12;
+	// AVIStreamHeader
+	put32(p, FOURCC('s', 't', 'r', 'h')); put32(p + 4, 56); p += 8;
+	put32(p, FOURCC('v', 'i', 'd', 's'));
+	put32(p + 4, FOURCC('M', 'J', 'P', 'G'));
+	put32(p + 20, mUsPerFrame);		// dwScale
+	put32(p + 24, 1000000);			// dwRate
+	put32(p + 40, 0xffffffff);		// dwQuality
+	put16(p + 52, (uint16_t)mWidth);	// rcFrame.right
+	put16(p + 54, (uint16_t)mHeight);	// rcFrame.bottom
+	p += 56;
+	// BITMAPINFOHEADER
+	put32(p, FOURCC('s', 't', 'r', 'f')); put32(p + 4, 40); p += 8;
+	put32(p, 40);
+	put32(p + 4, mWidth);
+	put32(p + 8, mHeight);
+	put16(p + 12, 1);					// biPlanes
+	put16(p + 14, 24);					// biBitCount
+	put32(p + 16, FOURCC('M', 'J', 'P', 'G'));
+	put32(p + 20, mWidth * mHeight * 3);
+	p += 40;
+	put32(p, FOURCC('L', 'I', 'S', 'T')); put32(p + 8, FOURCC('m', 'o', 'v', 'i'));
+	const int result = write(mFd, hdr, sizeof(hdr)) == sizeof(hdr) ? 0 : UVC_ERROR_IO;
+	RETURN(result, int);
+}
+
+/**
+ * append the index and fix up the sizes and counts in the headers
+ * 追加索引并修正头中的大小和计数
+ */
+int MJPEGRecorder::finish() {
+	ENTER();
+	const uint32_t index_bytes = mIndexCount * sizeof(avi_index_entry_t);
+	uint8_t header[8];
+	put32(header, FOURCC('i', 'd', 'x', '1'));
+	put32(header + 4, index_bytes);
+	struct iovec iov[2];
+	iov[0].iov_base = header; iov[0].iov_len = sizeof(header);
+	iov[1].iov_base = mIndex; iov[1].iov_len = index_bytes;
+	// the entries are written as they are, same as the other chunks this assumes little endian
+	// 条目按原样写入，与其他数据块一样假定为小端
+	bool ok = writev(mFd, iov, index_bytes ? 2 : 1) == (ssize_t)(sizeof(header) + index_bytes);
+	const uint64_t file_bytes = AVI_HEADER_BYTES + mMoviBytes + sizeof(header) + index_bytes;
+	const int64_t duration_us = (int64_t)mFrames * mUsPerFrame;
+	const uint32_t bytes_per_sec = duration_us > 0 ? (uint32_t)(mMoviBytes * 1000000LL / duration_us) : 0;
+	ok = ok
+		&& pwrite32(mFd, AVI_OFFSET_RIFF_SIZE, (uint32_t)(file_bytes - 8))
+		&& pwrite32(mFd, AVI_OFFSET_AVIH_MAX_BYTES_PER_SEC, bytes_per_sec)
+		&& pwrite32(mFd, AVI_OFFSET_AVIH_TOTAL_FRAMES, mFrames)
+		&& pwrite32(mFd, AVI_OFFSET_AVIH_SUGGESTED_BUFFER, mMaxChunkBytes)
+		&& pwrite32(mFd, AVI_OFFSET_STRH_LENGTH, mFrames)
+		&& pwrite32(mFd, AVI_OFFSET_STRH_SUGGESTED_BUFFER, mMaxChunkBytes)
+		&& pwrite32(mFd, AVI_OFFSET_MOVI_SIZE, (uint32_t)(4 + mMoviBytes));
+	if (UNLIKELY(!ok)) {
+		LOGE("MJPEGRecorder:failed to finish the file:errno=%d", errno);
+	}
+	RETURN(ok ? 0 : UVC_ERROR_IO, int);
+}
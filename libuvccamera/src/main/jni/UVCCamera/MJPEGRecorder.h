@@ -0,0 +1,109 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: MJPEGRecorder.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef MJPEGRECORDER_H_
+#define MJPEGRECORDER_H_
+
+#include "libUVCCamera.h"
+#include <pthread.h>
+
+#pragma interface
+
+// number of frames waiting to be written, frames are dropped when all of them are in use
+// 等待写入的帧数，全部使用中时丢弃帧
+#define MJPEG_QUEUE_SIZE 8
+
+typedef struct mjpeg_buffer {
+	uint8_t *data;
+	size_t capacity;
+	size_t bytes;
+	int64_t pts_us;
+} mjpeg_buffer_t;
+
+// same layout as an entry of the 'idx1' chunk 与'idx1'数据块的条目布局相同
+typedef struct avi_index_entry {
+	uint32_t ckid;
+	uint32_t flags;
+	uint32_t offset;
+	uint32_t size;
+} avi_index_entry_t;
+
+/**
+ * Writes the MJPEG frames of the camera into an AVI file as they are, without decoding/re-encoding.
+ * #post only copies the frame into one of the pooled buffers and never blocks on the file,
+ * the chunks and the index are written on a writer thread of its own.
+ * AVI has a constant frame rate, so the capture timestamps are kept by repeating the previous frame
+ * (zero-length chunk) for each missing frame period.
+ * 将摄像头的MJPEG帧原样写入AVI文件，不解码/重新编码
+ * #post只将帧复制到池中的一个缓冲区，从不因文件而阻塞，数据块和索引在自己的写入线程上写入
+ * AVI是固定帧率，因此对每个缺失的帧周期重复前一帧(零长度数据块)以保持抓取时间戳
+ */
+class MJPEGRecorder {
+private:
+	int mFd;
+	const int mWidth, mHeight;
+	const int mUsPerFrame;		// duration of one frame in the file, decimation included 文件中一帧的时长，包括抽帧
+	const int mDecimation;
+	int mDecimationCount;
+	volatile bool mIsRunning;
+	pthread_t mThread;
+	pthread_mutex_t mMutex;
+	pthread_cond_t mCond;
+	mjpeg_buffer_t mBuffers[MJPEG_QUEUE_SIZE];
+	mjpeg_buffer_t *mFree[MJPEG_QUEUE_SIZE];
+	int mFreeCount;
+	mjpeg_buffer_t *mQueue[MJPEG_QUEUE_SIZE];
+	int mQueueHead, mQueueCount;
+	// accessed only by the writer thread(and #close after joining it) 仅由写入线程访问(以及join之后的#close)
+	avi_index_entry_t *mIndex;
+	uint32_t mIndexCount, mIndexCapacity;
+	uint64_t mMoviBytes;
+	uint32_t mMaxChunkBytes;
+	int64_t mStartPtsUs;
+	uint32_t mFrames;			// written frames, repeated ones included 已写入的帧，包括重复帧
+	bool mFull;
+	volatile uint32_t mDropped;
+	volatile uint32_t mMismatched;	// frames of another size than the file 与文件尺寸不同的帧
+	static void *writer_thread_func(void *vptr_args);
+	void do_write();
+	void write_frame(mjpeg_buffer_t *buf);
+	bool write_chunk(const uint8_t *data, uint32_t bytes);
+	int write_header();
+	int finish();
+public:
+	MJPEGRecorder(int width, int height, int us_per_frame, int decimation);
+	~MJPEGRecorder();
+
+	int open(const char *path);
+	int close();
+	void post(uvc_frame_t *frame);
+	uint32_t dropMismatched();
+	inline const int getWidth() const { return mWidth; };
+	inline const int getHeight() const { return mHeight; };
+	inline const uint32_t getFrames() const { return mFrames; };
+	inline const uint32_t getDropped() const { return mDropped; };
+	inline const uint32_t getMismatched() const { return mMismatched; };
+};
+
+#endif /* MJPEGRECORDER_H_ */
@@ -392,3 +392,69 @@ char *UVCDiags::getSupportedSize(const uvc_device_handle_t *deviceHandle) {
 	writer.EndObject();
 	RETURN(strdup(buffer.GetString()), char *);
 }
+
+/**
+ * flat int array of supported frame sizes(UNCOMPRESSED/MJPEG only) with frame intervals,
+ * so Java side does not need to parse json. each frame descriptor is stored as
+ * {type, index, width, height, interval_type, intervals...}
+ * interval_type>0: number of following discrete intervals, 0: continuous {min, max, step}
+ * index is the position in the format(same as #getSupportedSize), intervals are 100ns units
+ * 以int数组返回支持的帧尺寸(仅UNCOMPRESSED/MJPEG)和帧间隔，Java端无需解析json
+ * 每个帧描述符存储为{type, index, width, height, interval_type, intervals...}
+ * interval_type>0时为后续离散帧间隔的个数，0时为连续的{min, max, step}
+ * index为在格式内的位置(与#getSupportedSize相同)，帧间隔以100ns为单位
+ * @param num number of int values in returned array 返回数组中的int个数
+ * @return malloced array, caller should free, NULL if no frame size 调用方需free
+ */
+int *UVCDiags::getSupportedSizeArray(const uvc_device_handle_t *deviceHandle, int &num) {
+	ENTER();
+	num = 0;
+	uvc_streaming_interface_t *stream_if;
+	uvc_format_desc_t *fmt_desc;
+	uvc_frame_desc_t *frame_desc;
+	// first pass: count values 第一遍统计数量
+	int n = 0;
+	DL_FOREACH(deviceHandle->info->stream_ifs, stream_if) {
+		DL_FOREACH(stream_if->format_descs, fmt_desc) {
+			if ((fmt_desc->bDescriptorSubtype != UVC_VS_FORMAT_UNCOMPRESSED)
+				&& (fmt_desc->bDescriptorSubtype != UVC_VS_FORMAT_MJPEG)) continue;
+			DL_FOREACH(fmt_desc->frame_descs, frame_desc) {
+				n += 5 + (frame_desc->bFrameIntervalType ? frame_desc->bFrameIntervalType : 3);
+			}
+		}
+	}
+	int *result = n ? (int *)malloc(sizeof(int) * n) : NULL;
+	if (UNLIKELY(!result)) {
+		RETURN(NULL, int *);
+	}
+	// second pass: fill values 第二遍填充
+	int *p = result;
+	DL_FOREACH(deviceHandle->info->stream_ifs, stream_if) {
+		DL_FOREACH(stream_if->format_descs, fmt_desc) {
+			if ((fmt_desc->bDescriptorSubtype != UVC_VS_FORMAT_UNCOMPRESSED)
+				&& (fmt_desc->bDescriptorSubtype != UVC_VS_FORMAT_MJPEG)) continue;
+			int index = 0;
+			DL_FOREACH(fmt_desc->frame_descs, frame_desc) {
+				*p++ = fmt_desc->bDescriptorSubtype;
+				*p++ = index++;
+				*p++ = frame_desc->wWidth;
+				*p++ = frame_desc->wHeight;
+				const int interval_type = frame_desc->bFrameIntervalType;
+				*p++ = interval_type;
+				if (interval_type) {
+					for (int i = 0; i < interval_type; i++) {
+						// intervals is zero-terminated, keep the count consistent with interval_type
+						// intervals以0结尾，保持与interval_type一致的数量
+						*p++ = frame_desc->intervals ? frame_desc->intervals[i] : 0;
+					}
+				} else {
+					*p++ = frame_desc->dwMinFrameInterval;
+					*p++ = frame_desc->dwMaxFrameInterval;
+					*p++ = frame_desc->dwFrameIntervalStep;
+				}
+			}
+		}
+	}
+	num = n;
+	RETURN(result, int *);
+}
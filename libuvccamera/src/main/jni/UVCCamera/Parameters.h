@@ -36,6 +36,7 @@ public:
 	char *getDescriptions(const uvc_device_handle_t *deviceHandle);
 	char *getCurrentStream(const uvc_stream_ctrl_t *ctrl);
 	char *getSupportedSize(const uvc_device_handle_t *deviceHandle);
+	int *getSupportedSizeArray(const uvc_device_handle_t *deviceHandle, int &num);
 };
 
 #endif /* PARAMETERS_H_ */
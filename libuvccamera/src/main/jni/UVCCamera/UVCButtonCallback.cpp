@@ -1,4 +1,5 @@
 #include <stdlib.h>
+#include <string.h>
 #include <linux/time.h>
 #include <unistd.h>
 #include "utilbase.h"
@@ -8,11 +9,13 @@
 #define	LOCAL_DEBUG 0
 
 UVCButtonCallback::UVCButtonCallback(uvc_device_handle_t *devh)
-:	mDeviceHandle(devh),
+:	UVCEventDispatcher("UVCButtonCallback"),
+	mDeviceHandle(devh),
 	mButtonCallbackObj(NULL) {
 
 	ENTER();
 	pthread_mutex_init(&button_mutex, NULL);
+	start();
 
 	uvc_set_button_callback(mDeviceHandle, uvc_button_callback, (void *)this);
 	EXIT();
@@ -21,6 +24,10 @@ UVCButtonCallback::UVCButtonCallback(uvc_device_handle_t *devh)
 UVCButtonCallback::~UVCButtonCallback() {
 
 	ENTER();
+	// unregister first so that the libusb event thread never posts to the dispatcher being stopped
+	// 先注销，使libusb事件线程不会向正在停止的分发器投递
+	uvc_set_button_callback(mDeviceHandle, NULL, NULL);
+	stop();
 	pthread_mutex_destroy(&button_mutex);
 	EXIT();
 }
@@ -70,16 +77,25 @@ void UVCButtonCallback::notifyButtonCallback(JNIEnv* env, int button, int state)
 	pthread_mutex_unlock(&button_mutex);
 }
 
+void UVCButtonCallback::dispatch(JNIEnv *env, const uvc_event_t &event) {
+	notifyButtonCallback(env, event.button, event.state);
+}
+
+/**
+ * called on the libusb event thread, only queues the event so that Java listeners never delay usb event handling.
+ * button events are never coalesced, every press/release is delivered
+ * 在libusb事件线程上调用，只将事件排队，Java监听器不会延迟usb事件处理
+ * 按钮事件从不合并，每次按下/释放都会传递
+ */
 void UVCButtonCallback::uvc_button_callback(int button, int state, void *user_ptr) {
 
 	UVCButtonCallback *buttonCallback = reinterpret_cast<UVCButtonCallback *>(user_ptr);
 
-	JavaVM *vm = getVM();
-	JNIEnv *env;
-	// attach to JavaVM
-	vm->AttachCurrentThread(&env, NULL);
-
-	buttonCallback->notifyButtonCallback(env, button, state);
-	
-	vm->DetachCurrentThread();
+	uvc_event_t ev;
+	memset(&ev, 0, sizeof(ev));
+	ev.button = button;
+	ev.state = state;
+	if (UNLIKELY(!buttonCallback->post(ev))) {
+		LOGW("button event dropped, dispatcher does not keep up");
+	}
 }
@@ -5,6 +5,7 @@
 #include <pthread.h>
 #include <android/native_window.h>
 #include "objectarray.h"
+#include "UVCEventDispatcher.h"
 
 #pragma interface
 
@@ -13,7 +14,7 @@ typedef struct {
 	jmethodID onButton;
 } Fields_ibuttoncallback;
 
-class UVCButtonCallback {
+class UVCButtonCallback : public UVCEventDispatcher {
 private:
 	uvc_device_handle_t *mDeviceHandle;
  	pthread_mutex_t button_mutex;
@@ -21,9 +22,11 @@ private:
  	Fields_ibuttoncallback ibuttoncallback_fields;
  	void notifyButtonCallback(JNIEnv *env, int button, int state);
  	static void uvc_button_callback(int button, int state, void *user_ptr);
+protected:
+	virtual void dispatch(JNIEnv *env, const uvc_event_t &event);
 public:
 	UVCButtonCallback(uvc_device_handle_t *devh);
-	~UVCButtonCallback();
+	virtual ~UVCButtonCallback();
 
 	int setCallback(JNIEnv *env, jobject button_callback_obj);
 };
@@ -57,6 +57,7 @@
 UVCCamera::UVCCamera()
 :	mFd(0),
 	mUsbFs(NULL),
+	mCacheDir(NULL),
 	mContext(NULL),
 	mDevice(NULL),
 	mDeviceHandle(NULL),
@@ -67,6 +68,11 @@ UVCCamera::UVCCamera()
 	mPUSupports(0) {
 
 	ENTER();
+	pthread_mutex_init(&mCacheMutex, NULL);
+	for (int i = 0; i < CTRL_INDEX_NUM; i++) {
+		getControlValue(i)->generation = 0;
+	}
+	mExposureMode.generation = 0;
 	clearCameraParams();
 	EXIT();
 }
@@ -85,6 +91,8 @@ UVCCamera::~UVCCamera() {
 		free(mUsbFs);
 		mUsbFs = NULL;
 	}
+	SAFE_FREE(mCacheDir);
+	pthread_mutex_destroy(&mCacheMutex);
 	EXIT();
 }
 
@@ -128,14 +136,35 @@ void UVCCamera::clearCameraParams() {
 	mMultiplierLimit.min = mMultiplierLimit.max = mMultiplierLimit.def = 0;
 	mAnalogVideoStandard.min = mAnalogVideoStandard.max = mAnalogVideoStandard.def = 0;
 	mAnalogVideoLockState.min = mAnalogVideoLockState.max = mAnalogVideoLockState.def = 0;
+	for (int i = 0; i < CTRL_INDEX_NUM; i++) {
+		control_value_t *values = getControlValue(i);
+		values->limits = 0;
+		dropCache(*values);
+	}
+	dropCache(mExposureMode);
 }
 
 //======================================================================
+/**
+ * 设置描述符/协商结果缓存目录，下次连接时生效
+ * set the directory to keep descriptor/negotiation cache, takes effect on next connect
+ * @param dir NULL: do not cache 不缓存
+ */
+int UVCCamera::setCacheDir(const char *dir) {
+	ENTER();
+	SAFE_FREE(mCacheDir);
+	if (dir && *dir) {
+		mCacheDir = strdup(dir);
+	}
+	RETURN(0, int);
+}
+
 /**
  * 连接相机
  */
 int UVCCamera::connect(int vid, int pid, int fd, int busnum, int devaddr, const char *usbfs) {
 	ENTER();
+	const uint64_t connect_start = uvc_startup_time_us();
 	uvc_error_t result = UVC_ERROR_BUSY;
 	if (!mDeviceHandle && fd) {
 		if (mUsbFs)
@@ -164,10 +193,17 @@ int UVCCamera::connect(int vid, int pid, int fd, int busnum, int devaddr, const
 #if LOCAL_DEBUG
 				uvc_print_diag(mDeviceHandle, stderr);
 #endif
+				if (mCacheDir) {
+					// reuse the negotiation results of last time 重用上次的协商结果
+					uvc_open_ctrl_cache(mDeviceHandle, mCacheDir);
+				}
 				mFd = fd;
 				mStatusCallback = new UVCStatusCallback(mDeviceHandle);
+				mStatusCallback->setControlChangedListener(control_changed_callback, this);
 				mButtonCallback = new UVCButtonCallback(mDeviceHandle);
 				mPreview = new UVCPreview(mDeviceHandle);
+				uvc_mark_startup(mDeviceHandle, UVC_STARTUP_CONNECT, connect_start);
+				uvc_mark_startup(mDeviceHandle, UVC_STARTUP_CONNECTED, 0);
 			} else {
 				// 当你无法打开
 				LOGE("could not open camera:err=%d", result);
@@ -203,6 +239,9 @@ int UVCCamera::release() {
 		// 关闭相机
 		uvc_close(mDeviceHandle);
 		mDeviceHandle = NULL;
+	} else {
+		// preview of synthetic source without camera 没有相机时的虚拟帧源预览
+		SAFE_DELETE(mPreview);
 	}
 	if (LIKELY(mDevice)) {
 		MARK("打开相机");
@@ -238,15 +277,129 @@ int UVCCamera::setButtonCallback(JNIEnv *env, jobject button_callback_obj) {
 	RETURN(result, int);
 }
 
+/**
+ * coalesce repeated value-change events of the same control into the last one while
+ * the status callback does not keep up
+ * 状态回调跟不上时，将同一控制的重复值变化事件合并为最后一个
+ */
+int UVCCamera::setStatusCoalescing(const bool coalesce) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mStatusCallback) {
+		mStatusCallback->setCoalesce(coalesce);
+		result = EXIT_SUCCESS;
+	}
+	RETURN(result, int);
+}
+
 char *UVCCamera::getSupportedSize() {
 	ENTER();
 	if (mDeviceHandle) {
+		char *cached = uvc_ctrl_cache_get_supported_size(mDeviceHandle);
+		if (cached) {
+			uvc_mark_startup(mDeviceHandle, UVC_STARTUP_SUPPORTED_SIZE, 0);
+			RETURN(cached, char *);
+		}
 		UVCDiags params;
-		RETURN(params.getSupportedSize(mDeviceHandle), char *)
+		char *result = params.getSupportedSize(mDeviceHandle);
+		if (result) {
+			uvc_ctrl_cache_set_supported_size(mDeviceHandle, result);
+			uvc_mark_startup(mDeviceHandle, UVC_STARTUP_SUPPORTED_SIZE, 0);
+		}
+		RETURN(result, char *)
 	}
 	RETURN(NULL, char *);
 }
 
+/**
+ * supported frame sizes and frame intervals as flat int array, see UVCDiags::getSupportedSizeArray
+ * 以int数组返回支持的帧尺寸和帧间隔，参见UVCDiags::getSupportedSizeArray
+ */
+int *UVCCamera::getSupportedSizeArray(int &num) {
+	ENTER();
+	num = 0;
+	if (mDeviceHandle) {
+		UVCDiags params;
+		int *result = params.getSupportedSizeArray(mDeviceHandle, num);
+		if (result) {
+			uvc_mark_startup(mDeviceHandle, UVC_STARTUP_SUPPORTED_SIZE, 0);
+		}
+		RETURN(result, int *);
+	}
+	RETURN(NULL, int *);
+}
+
+/**
+ * elapsed time of each startup phase from the start of #connect
+ * 从#connect开始到各启动阶段的经过时间
+ * @param times_us [out] microseconds, -1 if the phase is not reached yet 微秒，尚未到达时为-1
+ * @param num number of elements of times_us times_us的元素数
+ * @return number of phases stored, 0 if camera is not opened 存储的阶段数，相机未打开时为0
+ */
+int UVCCamera::getStartupTimes(int64_t *times_us, int num) {
+	ENTER();
+	uint64_t times[UVC_STARTUP_PHASE_NUM];
+	int result = 0;
+	if (mDeviceHandle) {
+		result = uvc_get_startup_times(mDeviceHandle, times, num < UVC_STARTUP_PHASE_NUM ? num : UVC_STARTUP_PHASE_NUM);
+		const uint64_t start = times[UVC_STARTUP_CONNECT];
+		for (int i = 0; i < result; i++) {
+			times_us[i] = times[i] && (times[i] >= start) ? (int64_t)(times[i] - start) : -1;
+		}
+	}
+	RETURN(result, int);
+}
+
+/**
+ * bus speed and packet size of each alt-setting of the video streaming interface
+ * 总线速度和视频流接口各alt-setting的数据包大小
+ * @param values [out] {bus number, device address, speed(enum libusb_speed), (micro)frames per second,
+ * 					isochronous(1) or bulk(0), number of alt-settings, bytes per (micro)frame of each alt-setting...}
+ * @param num number of elements of values values的元素数
+ * @return number of values stored, 0 if camera is not opened 存储的值的数量，相机未打开时为0
+ */
+int UVCCamera::getBandwidthInfo(int *values, int num) {
+	ENTER();
+	int result = 0;
+	if (mDeviceHandle && (num >= 6)) {
+		uvc_bandwidth_info_t info;
+		if (!uvc_get_bandwidth_info(mDeviceHandle, &info)) {
+			values[0] = info.bus_number;
+			values[1] = info.device_address;
+			values[2] = info.speed;
+			values[3] = info.intervals_per_sec;
+			values[4] = info.isochronous;
+			values[5] = info.num_altsetting;
+			result = 6;
+			for (int i = 0; (i < info.num_altsetting) && (result < num); i++) {
+				values[result++] = info.bytes_per_interval[i];
+			}
+		}
+	}
+	RETURN(result, int);
+}
+
+/**
+ * dwMaxPayloadTransferSize that the camera requests for the specific size/frame rate/format,
+ * the stream ctrl is negotiated(or taken from the cache) but the stream is not started
+ * 相机对指定尺寸/帧率/格式要求的dwMaxPayloadTransferSize，会协商(或从缓存获取)流控制但不启动流
+ * @return bytes per (micro)frame, negative value if the mode is not supported 每(微)帧字节数，不支持时为负值
+ */
+int UVCCamera::getMaxPayloadSize(int width, int height, int min_fps, int max_fps, int mode) {
+	ENTER();
+	int result = UVC_ERROR_NO_DEVICE;
+	if (mDeviceHandle) {
+		uvc_stream_ctrl_t ctrl;
+		result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, &ctrl,
+			!mode ? UVC_FRAME_FORMAT_YUYV : UVC_FRAME_FORMAT_MJPEG,
+			width, height, min_fps, max_fps);
+		if (!result) {
+			result = (int)ctrl.dwMaxPayloadTransferSize;
+		}
+	}
+	RETURN(result, int);
+}
+
 int UVCCamera::setPreviewSize(int width, int height, int cameraAngle, int min_fps, int max_fps, int mode, float bandwidth) {
 	ENTER();
 	int result = EXIT_FAILURE;
@@ -274,11 +427,21 @@ int UVCCamera::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pix
 	RETURN(result, int);
 }
 
+int UVCCamera::setEncoderFrameCallback(JNIEnv *env, jobject callback_obj) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setEncoderFrameCallback(env, callback_obj);
+	}
+	RETURN(result, int);
+}
+
 int UVCCamera::startPreview() {
 	ENTER();
 
 	int result = EXIT_FAILURE;
-	if (mDeviceHandle) {
+	// mPreview also exists without camera when synthetic source is set 设置虚拟帧源时没有相机也有mPreview
+	if (mPreview) {
 		return mPreview->startPreview();
 	}
 	RETURN(result, int);
@@ -292,6 +455,34 @@ int UVCCamera::stopPreview() {
 	RETURN(0, int);
 }
 
+int UVCCamera::pausePreview() {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (LIKELY(mPreview)) {
+		result = mPreview->pausePreview();
+	}
+	RETURN(result, int);
+}
+
+// 预览中切换尺寸/格式，返回画面中断时长(微秒)或负的错误码
+int64_t UVCCamera::switchPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth) {
+	ENTER();
+	int64_t result = UVC_ERROR_NO_DEVICE;
+	if (LIKELY(mPreview)) {
+		result = mPreview->switchPreviewSize(width, height, min_fps, max_fps, mode, bandwidth);
+	}
+	RETURN(result, int64_t);
+}
+
+int UVCCamera::resumePreview() {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (LIKELY(mPreview)) {
+		result = mPreview->resumePreview();
+	}
+	RETURN(result, int);
+}
+
 int UVCCamera::setCaptureDisplay(ANativeWindow *capture_window) {
 	ENTER();
 	int result = EXIT_FAILURE;
@@ -301,6 +492,85 @@ int UVCCamera::setCaptureDisplay(ANativeWindow *capture_window) {
 	RETURN(result, int);
 }
 
+// 获取视频流占用的内存字节数
+size_t UVCCamera::getMemoryUsage() {
+	ENTER();
+	size_t result = 0;
+	if (mPreview) {
+		result = mPreview->getMemoryUsage();
+	} else if (mDeviceHandle) {
+		result = uvc_get_stream_memory_usage(mDeviceHandle);
+	}
+	RETURN(result, size_t);
+}
+
+/**
+ * statistics of the stream, see UVCPreview::getPreviewStats
+ * 视频流统计，参见UVCPreview::getPreviewStats
+ */
+int UVCCamera::getPreviewStats(int64_t *values, int num) {
+	ENTER();
+	int result = 0;
+	if (mPreview) {
+		result = mPreview->getPreviewStats(values, num);
+	}
+	RETURN(result, int);
+}
+
+// 设置原始有效负载记录文件，下次开始预览时生效
+int UVCCamera::setPayloadRecord(const char *path) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mDeviceHandle) {
+		result = uvc_set_payload_record(mDeviceHandle, path);
+	}
+	RETURN(result, int);
+}
+
+// 设置回放源，下次开始预览时生效
+int UVCCamera::setReplaySource(const char *path, int realtime) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->setReplaySource(path, realtime);
+	}
+	RETURN(result, int);
+}
+
+// 设置虚拟帧源，下次开始预览时生效，没有连接相机时也可以使用
+int UVCCamera::setSyntheticSource(int fps, int jitter_us) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (!mPreview && !mDeviceHandle && (fps >= 0)) {
+		// run preview without camera 没有相机时也运行预览
+		mPreview = new UVCPreview(NULL);
+	}
+	if (mPreview) {
+		result = mPreview->setSyntheticSource(fps, jitter_us);
+	}
+	RETURN(result, int);
+}
+
+// 开始MJPEG直接录像，仅在MJPEG模式预览时可用
+int UVCCamera::startMJPEGRecording(const char *path, int decimation) {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->startMJPEGRecording(path, decimation);
+	}
+	RETURN(result, int);
+}
+
+// 停止MJPEG直接录像
+int UVCCamera::stopMJPEGRecording() {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (mPreview) {
+		result = mPreview->stopMJPEGRecording();
+	}
+	RETURN(result, int);
+}
+
 //======================================================================
 // 获取相机支持的控制功能
 int UVCCamera::getCtrlSupports(uint64_t *supports) {
@@ -354,12 +624,6 @@ int UVCCamera::getProcSupports(uint64_t *supports) {
 }
 
 //======================================================================
-#define CTRL_BRIGHTNESS		0
-#define CTRL_CONTRAST		1
-#define	CTRL_SHARPNESS		2
-#define CTRL_GAIN			3
-#define CTRL_WHITEBLANCE	4
-#define CTRL_FOCUS			5
 
 static uvc_error_t update_ctrl_values(uvc_device_handle_t *devh, control_value_t &values,
 	paramget_func_i16 get_func) {
@@ -687,7 +951,12 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int8_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		const int generation = cacheGeneration(values);
+		if (LIKELY(!set_func(mDeviceHandle, value))) {
+			commitCache(values, generation, value);
+		} else {
+			dropCache(values);
+		}
 	}
 	RETURN(ret, int);
 }
@@ -699,7 +968,12 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint8_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		const int generation = cacheGeneration(values);
+		if (LIKELY(!set_func(mDeviceHandle, value))) {
+			commitCache(values, generation, value);
+		} else {
+			dropCache(values);
+		}
 	}
 	RETURN(ret, int);
 }
@@ -776,7 +1050,12 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int16_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		const int generation = cacheGeneration(values);
+		if (LIKELY(!set_func(mDeviceHandle, value))) {
+			commitCache(values, generation, value);
+		} else {
+			dropCache(values);
+		}
 	}
 	RETURN(ret, int);
 }
@@ -791,7 +1070,12 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint16_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		const int generation = cacheGeneration(values);
+		if (LIKELY(!set_func(mDeviceHandle, value))) {
+			commitCache(values, generation, value);
+		} else {
+			dropCache(values);
+		}
 	}
 	RETURN(ret, int);
 }
@@ -806,7 +1090,12 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, int32_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		const int generation = cacheGeneration(values);
+		if (LIKELY(!set_func(mDeviceHandle, value))) {
+			commitCache(values, generation, value);
+		} else {
+			dropCache(values);
+		}
 	}
 	RETURN(ret, int);
 }
@@ -821,11 +1110,387 @@ int UVCCamera::internalSetCtrlValue(control_value_t &values, uint32_t value,
 		value = value < values.min
 			? values.min
 			: (value > values.max ? values.max : value);
-		set_func(mDeviceHandle, value);
+		const int generation = cacheGeneration(values);
+		if (LIKELY(!set_func(mDeviceHandle, value))) {
+			commitCache(values, generation, value);
+		} else {
+			dropCache(values);
+		}
 	}
 	RETURN(ret, int);
 }
 
+//======================================================================
+// Control registry: limits and current values of frequently used controls are discovered in one pass
+// and cached, getters return the cached value without usb transfer until the status interrupt
+// reports the change of the control.
+// 控制注册表: 一次性发现常用控制的范围和当前值并缓存，在状态中断报告该控制变化之前，
+// getter直接返回缓存值而不进行usb传输
+typedef uvc_error_t (*control_read_func_t)(uvc_device_handle_t *devh, int &value, enum uvc_req_code req_code);
+typedef uvc_error_t (*control_write_func_t)(uvc_device_handle_t *devh, int value);
+
+/**
+ * adapter from the typed getter of libuvc to int
+ * 从libuvc的类型化getter到int的适配器
+ */
+template<typename T, uvc_error_t (*FUNC)(uvc_device_handle_t *, T *, enum uvc_req_code)>
+static uvc_error_t read_control(uvc_device_handle_t *devh, int &value, enum uvc_req_code req_code) {
+	T v;
+	uvc_error_t ret = FUNC(devh, &v, req_code);
+	if (LIKELY(!ret)) {
+		value = v;
+	}
+	return ret;
+}
+
+/**
+ * adapter from int to the typed setter of libuvc
+ * 从int到libuvc的类型化setter的适配器
+ */
+template<typename T, uvc_error_t (*FUNC)(uvc_device_handle_t *, T)>
+static uvc_error_t write_control(uvc_device_handle_t *devh, int value) {
+	return FUNC(devh, (T)value);
+}
+
+// auto modes outside of the registry 注册表外的自动模式
+#define AUTO_DEPENDS_NONE		0
+#define AUTO_DEPENDS_EXPOSURE	1	// gain/brightness may be adjusted by auto exposure 增益/亮度可能由自动曝光调整
+#define AUTO_DEPENDS_CONTRAST	2
+#define AUTO_DEPENDS_HUE		3
+// manual mode of UVC_CT_AE_MODE_CONTROL UVC_CT_AE_MODE_CONTROL的手动模式
+#define AE_MODE_MANUAL			0x01
+
+typedef struct control_entry {
+	bool is_pu;					// false: camera terminal(mCtrlSupports), true: processing unit(mPUSupports)
+	uint64_t flag;				// bit of bmControls
+	int selector;				// control selector of the status interrupt 状态中断的控制选择器
+	control_read_func_t read;
+	control_write_func_t write;
+	int auto_index;				// auto mode in which the camera changes the value by itself, -1: none
+								// 相机自己改变值的自动模式，-1: 无
+	int auto_depends;			// auto mode outside of the registry that changes the value, AUTO_DEPENDS_XXX
+								// 改变该值的注册表外的自动模式，AUTO_DEPENDS_XXX
+} control_entry_t;
+
+static const control_entry_t CONTROL_ENTRIES[CTRL_INDEX_NUM] = {
+	{ false, CTRL_FOCUS_AUTO, UVC_CT_FOCUS_AUTO_CONTROL,
+		read_control<uint8_t, uvc_get_focus_auto>, write_control<uint8_t, uvc_set_focus_auto>, -1, AUTO_DEPENDS_NONE },
+	{ false, CTRL_FOCUS_ABS, UVC_CT_FOCUS_ABSOLUTE_CONTROL,
+		read_control<short, uvc_get_focus_abs>, write_control<short, uvc_set_focus_abs>, CTRL_INDEX_AUTO_FOCUS, AUTO_DEPENDS_NONE },
+	{ true, PU_WB_TEMP_AUTO, UVC_PU_WHITE_BALANCE_TEMPERATURE_AUTO_CONTROL,
+		read_control<uint8_t, uvc_get_white_balance_temperature_auto>, write_control<uint8_t, uvc_set_white_balance_temperature_auto>, -1, AUTO_DEPENDS_NONE },
+	{ true, PU_WB_TEMP, UVC_PU_WHITE_BALANCE_TEMPERATURE_CONTROL,
+		read_control<uint16_t, uvc_get_white_balance_temperature>, write_control<uint16_t, uvc_set_white_balance_temperature>, CTRL_INDEX_AUTO_WHITE_BLANCE, AUTO_DEPENDS_NONE },
+	{ true, PU_BRIGHTNESS, UVC_PU_BRIGHTNESS_CONTROL,
+		read_control<int16_t, uvc_get_brightness>, write_control<int16_t, uvc_set_brightness>, -1, AUTO_DEPENDS_EXPOSURE },
+	{ true, PU_CONTRAST, UVC_PU_CONTRAST_CONTROL,
+		read_control<uint16_t, uvc_get_contrast>, write_control<uint16_t, uvc_set_contrast>, -1, AUTO_DEPENDS_CONTRAST },
+	{ true, PU_SHARPNESS, UVC_PU_SHARPNESS_CONTROL,
+		read_control<uint16_t, uvc_get_sharpness>, write_control<uint16_t, uvc_set_sharpness>, -1, AUTO_DEPENDS_NONE },
+	{ true, PU_GAIN, UVC_PU_GAIN_CONTROL,
+		read_control<uint16_t, uvc_get_gain>, write_control<uint16_t, uvc_set_gain>, -1, AUTO_DEPENDS_EXPOSURE },
+	{ true, PU_GAMMA, UVC_PU_GAMMA_CONTROL,
+		read_control<uint16_t, uvc_get_gamma>, write_control<uint16_t, uvc_set_gamma>, -1, AUTO_DEPENDS_NONE },
+	{ true, PU_SATURATION, UVC_PU_SATURATION_CONTROL,
+		read_control<uint16_t, uvc_get_saturation>, write_control<uint16_t, uvc_set_saturation>, -1, AUTO_DEPENDS_NONE },
+	{ true, PU_HUE, UVC_PU_HUE_CONTROL,
+		read_control<int16_t, uvc_get_hue>, write_control<int16_t, uvc_set_hue>, -1, AUTO_DEPENDS_HUE },
+	{ false, CTRL_ZOOM_ABS, UVC_CT_ZOOM_ABSOLUTE_CONTROL,
+		read_control<uint16_t, uvc_get_zoom_abs>, write_control<uint16_t, uvc_set_zoom_abs>, -1, AUTO_DEPENDS_NONE },
+};
+
+control_value_t *UVCCamera::getControlValue(int index) {
+	switch (index) {
+	case CTRL_INDEX_AUTO_FOCUS:			return &mAutoFocus;
+	case CTRL_INDEX_FOCUS:				return &mFocus;
+	case CTRL_INDEX_AUTO_WHITE_BLANCE:	return &mAutoWhiteBlance;
+	case CTRL_INDEX_WHITE_BLANCE:		return &mWhiteBlance;
+	case CTRL_INDEX_BRIGHTNESS:			return &mBrightness;
+	case CTRL_INDEX_CONTRAST:			return &mContrast;
+	case CTRL_INDEX_SHARPNESS:			return &mSharpness;
+	case CTRL_INDEX_GAIN:				return &mGain;
+	case CTRL_INDEX_GAMMA:				return &mGamma;
+	case CTRL_INDEX_SATURATION:			return &mSaturation;
+	case CTRL_INDEX_HUE:				return &mHue;
+	case CTRL_INDEX_ZOOM:				return &mZoom;
+	default:							return NULL;
+	}
+}
+
+bool UVCCamera::isControlSupported(int index) {
+	const control_entry_t &entry = CONTROL_ENTRIES[index];
+	return mDeviceHandle && ((entry.is_pu ? mPUSupports : mCtrlSupports) & entry.flag);
+}
+
+/**
+ * get current value of the control from the cache, read it from the camera only when it is not cached
+ * or the camera may have changed it in auto mode
+ * 从缓存获取控制的当前值，仅在未缓存或相机可能在自动模式下改变了它时从相机读取
+ */
+int UVCCamera::getCachedControl(int index, int &value) {
+	if (UNLIKELY(!isControlSupported(index))) {
+		return UVC_ERROR_NOT_SUPPORTED;
+	}
+	const control_entry_t &entry = CONTROL_ENTRIES[index];
+	control_value_t *values = getControlValue(index);
+	// snapshot the generation first, an invalidation during the usb transfer below keeps the value uncached
+	// 先获取generation快照，下面usb传输期间发生的失效会使该值保持未缓存
+	const int generation = cacheGeneration(*values);
+	int cached_value;
+	bool use_cache = readCache(*values, cached_value);
+	if (use_cache && (entry.auto_index >= 0)) {
+		int auto_mode;
+		use_cache = !getCachedControl(entry.auto_index, auto_mode) && !auto_mode;
+	}
+	if (use_cache && (entry.auto_depends != AUTO_DEPENDS_NONE)) {
+		use_cache = !isAutoAdjusting(entry.auto_depends);
+	}
+	if (LIKELY(use_cache)) {
+		value = cached_value;
+		return UVC_SUCCESS;
+	}
+	int ret = entry.read(mDeviceHandle, value, UVC_GET_CUR);
+	if (LIKELY(!ret)) {
+		commitCache(*values, generation, value);
+	}
+	return ret;
+}
+
+/**
+ * whether the auto mode outside of the registry may be changing the value now,
+ * the auto exposure mode is cached as the controls in the registry,
+ * contrast/hue auto are treated as on whenever the camera supports them
+ * 注册表外的自动模式现在是否可能正在改变该值，自动曝光模式与注册表中的控制一样被缓存，
+ * 只要相机支持，对比度/色调自动就视为开启
+ * @param auto_depends AUTO_DEPENDS_XXX
+ */
+bool UVCCamera::isAutoAdjusting(int auto_depends) {
+	switch (auto_depends) {
+	case AUTO_DEPENDS_EXPOSURE:
+	{
+		if (!(mCtrlSupports & CTRL_AE)) return false;
+		const int generation = cacheGeneration(mExposureMode);
+		int mode;
+		if (!readCache(mExposureMode, mode)) {
+			uint8_t ae_mode;
+			if (UNLIKELY(uvc_get_ae_mode(mDeviceHandle, &ae_mode, UVC_GET_CUR))) return true;
+			mode = ae_mode;
+			commitCache(mExposureMode, generation, mode);
+		}
+		return mode != AE_MODE_MANUAL;
+	}
+	case AUTO_DEPENDS_CONTRAST:
+		return (mPUSupports & PU_CONTRAST_AUTO) != 0;
+	case AUTO_DEPENDS_HUE:
+		return (mPUSupports & PU_HUE_AUTO) != 0;
+	default:
+		return false;
+	}
+}
+
+/**
+ * generation of the cached value, take it before reading/writing the camera and pass it to commitCache
+ * 缓存值的generation，在读/写相机之前获取并传给commitCache
+ */
+int UVCCamera::cacheGeneration(control_value_t &values) {
+	pthread_mutex_lock(&mCacheMutex);
+	const int generation = values.generation;
+	pthread_mutex_unlock(&mCacheMutex);
+	return generation;
+}
+
+/**
+ * get the cached value
+ * 获取缓存值
+ * @return true if the value is cached 已缓存时返回true
+ */
+bool UVCCamera::readCache(control_value_t &values, int &value) {
+	pthread_mutex_lock(&mCacheMutex);
+	const bool cached = values.cached;
+	if (cached) {
+		value = values.current;
+	}
+	pthread_mutex_unlock(&mCacheMutex);
+	return cached;
+}
+
+/**
+ * cache the value read from/written to the camera, nothing is cached if it was invalidated after
+ * the generation was taken because the value may be stale already
+ * 缓存从相机读取/写入相机的值，如果获取generation之后发生了失效，该值可能已经过时，因此不缓存
+ */
+void UVCCamera::commitCache(control_value_t &values, int generation, int value) {
+	pthread_mutex_lock(&mCacheMutex);
+	if (values.generation == generation) {
+		values.current = value;
+		values.cached = 1;
+	}
+	pthread_mutex_unlock(&mCacheMutex);
+}
+
+/**
+ * invalidate the cached value
+ * 使缓存值失效
+ */
+void UVCCamera::dropCache(control_value_t &values) {
+	pthread_mutex_lock(&mCacheMutex);
+	values.cached = 0;
+	values.generation++;
+	pthread_mutex_unlock(&mCacheMutex);
+}
+
+/**
+ * discover limits and current values of all controls in the registry in one pass,
+ * controls already discovered are not read again
+ * 一次性发现注册表中所有控制的范围和当前值，已发现的控制不会再次读取
+ * @return number of available controls 可用控制的数量
+ */
+int UVCCamera::updateControls() {
+	ENTER();
+	int result = 0;
+	if (LIKELY(mDeviceHandle)) {
+		getCtrlSupports(NULL);
+		getProcSupports(NULL);
+		for (int i = 0; i < CTRL_INDEX_NUM; i++) {
+			if (!isControlSupported(i)) continue;
+			control_value_t *values = getControlValue(i);
+			if (!values->limits) {
+				const control_entry_t &entry = CONTROL_ENTRIES[i];
+				int min, max, def;
+				// boolean controls like auto focus may not support GET_MIN/GET_MAX
+				// 自动对焦等布尔控制可能不支持GET_MIN/GET_MAX
+				if (!entry.read(mDeviceHandle, min, UVC_GET_MIN)
+					&& !entry.read(mDeviceHandle, max, UVC_GET_MAX)
+					&& !entry.read(mDeviceHandle, def, UVC_GET_DEF)) {
+
+					values->min = min;
+					values->max = max;
+					values->def = def;
+					values->limits = 1;
+				} else {
+					values->limits = -1;
+				}
+			}
+			int value;
+			if (LIKELY(!getCachedControl(i, value))) {
+				result++;
+			}
+		}
+	}
+	RETURN(result, int);
+}
+
+/**
+ * limits and current values of all controls in the registry
+ * 注册表中所有控制的范围和当前值
+ * @param values [out] CTRL_TABLE_STRIDE values for each CTRL_INDEX_XXX: {available(1) or not(0), min, max, def, current}
+ * 					每个CTRL_INDEX_XXX有CTRL_TABLE_STRIDE个值: {可用(1)或不可用(0), 最小值, 最大值, 默认值, 当前值}
+ * @param num number of elements of values values的元素数
+ * @return number of values stored 存储的值的数量
+ */
+int UVCCamera::getControlTable(int *values, int num) {
+	ENTER();
+	int result = 0;
+	if (LIKELY(mDeviceHandle)) {
+		updateControls();
+		for (int i = 0; (i < CTRL_INDEX_NUM) && (result + CTRL_TABLE_STRIDE <= num); i++) {
+			control_value_t *v = getControlValue(i);
+			int current = v->current;
+			const bool available = isControlSupported(i) && readCache(*v, current);
+			values[result++] = available ? 1 : 0;
+			values[result++] = v->min;
+			values[result++] = v->max;
+			values[result++] = v->def;
+			values[result++] = current;
+		}
+	}
+	RETURN(result, int);
+}
+
+/**
+ * invalidate cached values that the status interrupt reported as changed
+ * 使状态中断报告已变化的缓存值失效
+ * @param status_class uvc_status_class
+ * @param selector control selector, negative value invalidates all 控制选择器，负值时全部失效
+ */
+void UVCCamera::invalidateControls(int status_class, int selector) {
+	ENTER();
+	for (int i = 0; i < CTRL_INDEX_NUM; i++) {
+		const control_entry_t &entry = CONTROL_ENTRIES[i];
+		const int entry_class = entry.is_pu ? UVC_STATUS_CLASS_CONTROL_PROCESSING : UVC_STATUS_CLASS_CONTROL_CAMERA;
+		if ((selector < 0) || (status_class == UVC_STATUS_CLASS_CONTROL)
+			|| ((status_class == entry_class) && (selector == entry.selector))) {
+			dropCache(*getControlValue(i));
+		}
+	}
+	if ((selector < 0) || (status_class == UVC_STATUS_CLASS_CONTROL)
+		|| ((status_class == UVC_STATUS_CLASS_CONTROL_CAMERA) && (selector == UVC_CT_AE_MODE_CONTROL))) {
+		dropCache(mExposureMode);
+	}
+	EXIT();
+}
+
+/**
+ * drop the cached current value of the control, the next read comes from the camera
+ * 丢弃控制的缓存当前值，下一次读取来自相机
+ * @param index CTRL_INDEX_XXX
+ */
+void UVCCamera::invalidateControl(int index) {
+	ENTER();
+	if (LIKELY((index >= 0) && (index < CTRL_INDEX_NUM))) {
+		dropCache(*getControlValue(index));
+	}
+	EXIT();
+}
+
+/**
+ * apply values of the controls in one call, values equal to the current(cached) value and
+ * values of the controls whose auto mode is on are not sent to the camera.
+ * the pairs are applied in order, so auto modes should precede the controls depending on them
+ * 一次调用应用多个控制的值，与当前(缓存)值相同的值和自动模式开启的控制的值不发送给相机
+ * 按顺序应用，自动模式应位于依赖它的控制之前
+ * @param values pairs of {CTRL_INDEX_XXX, raw value} {CTRL_INDEX_XXX, 原始值}对
+ * @param num number of elements of values(twice the number of pairs) values的元素数(对数的2倍)
+ * @return number of controls sent to the camera 发送给相机的控制数
+ */
+int UVCCamera::applyControls(const int *values, int num) {
+	ENTER();
+	int result = 0;
+	if (LIKELY(mDeviceHandle)) {
+		updateControls();
+		for (int i = 0; i + 1 < num; i += 2) {
+			const int index = values[i];
+			int value = values[i + 1];
+			if (UNLIKELY((index < 0) || (index >= CTRL_INDEX_NUM) || !isControlSupported(index))) continue;
+			const control_entry_t &entry = CONTROL_ENTRIES[index];
+			control_value_t *v = getControlValue(index);
+			int current;
+			if (entry.auto_index >= 0) {
+				if (!getCachedControl(entry.auto_index, current) && current) continue;
+			}
+			if (v->limits > 0) {
+				value = value < v->min ? v->min : (value > v->max ? v->max : value);
+			}
+			if (!getCachedControl(index, current) && (current == value)) continue;
+			const int generation = cacheGeneration(*v);
+			if (LIKELY(!entry.write(mDeviceHandle, value))) {
+				commitCache(*v, generation, value);
+				result++;
+			} else {
+				dropCache(*v);
+			}
+		}
+	}
+	RETURN(result, int);
+}
+
+void UVCCamera::control_changed_callback(uvc_status_class status_class, int selector, void *ptr) {
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(ptr);
+	if (LIKELY(camera)) {
+		camera->invalidateControls(status_class, selector);
+	}
+}
+
 //======================================================================
 // 扫描方式
 int UVCCamera::updateScanningModeLimit(int &min, int &max, int &def) {
@@ -881,7 +1546,13 @@ int UVCCamera::setExposureMode(int mode) {
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_AE)) {
 //		LOGI("ae:%d", mode);
+		const int generation = cacheGeneration(mExposureMode);
 		r = uvc_set_ae_mode(mDeviceHandle, mode/* & 0xff*/);
+		if (LIKELY(!r)) {
+			commitCache(mExposureMode, generation, mode);
+		} else {
+			dropCache(mExposureMode);
+		}
 	}
 	RETURN(r, int);
 }
@@ -892,10 +1563,12 @@ int UVCCamera::getExposureMode() {
 	ENTER();
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_AE)) {
+		const int generation = cacheGeneration(mExposureMode);
 		uint8_t mode;
 		r = uvc_get_ae_mode(mDeviceHandle, &mode, UVC_GET_CUR);
 //		LOGI("ae:%d", mode);
 		if (LIKELY(!r)) {
+			commitCache(mExposureMode, generation, mode);
 			r = mode;
 		}
 	}
@@ -1033,7 +1706,12 @@ int UVCCamera::setAutoFocus(bool autoFocus) {
 
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_FOCUS_AUTO)) {
+		control_value_t &values = *getControlValue(CTRL_INDEX_AUTO_FOCUS);
+		const int generation = cacheGeneration(values);
 		r = uvc_set_focus_auto(mDeviceHandle, autoFocus);
+		if (LIKELY(!r)) {
+			commitCache(values, generation, autoFocus);
+		}
 	}
 	RETURN(r, int);
 }
@@ -1043,8 +1721,8 @@ bool UVCCamera::getAutoFocus() {
 	ENTER();
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mCtrlSupports & CTRL_FOCUS_AUTO)) {
-		uint8_t autoFocus;
-		r = uvc_get_focus_auto(mDeviceHandle, &autoFocus, UVC_GET_CUR);
+		int autoFocus;
+		r = getCachedControl(CTRL_INDEX_AUTO_FOCUS, autoFocus);
 		if (LIKELY(!r))
 			r = autoFocus;
 	}
@@ -1076,13 +1754,9 @@ int UVCCamera::setFocus(int focus) {
 int UVCCamera::getFocus() {
 	ENTER();
 	if (mCtrlSupports & CTRL_FOCUS_ABS) {
-		int ret = update_ctrl_values(mDeviceHandle, mFocus, uvc_get_focus_abs);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			int16_t value;
-			ret = uvc_get_focus_abs(mDeviceHandle, &value, UVC_GET_CUR);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_FOCUS, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -1574,13 +2248,9 @@ int UVCCamera::setBrightness(int brightness) {
 int UVCCamera::getBrightness() {
 	ENTER();
 	if (mPUSupports & PU_BRIGHTNESS) {
-		int ret = update_ctrl_values(mDeviceHandle, mBrightness, uvc_get_brightness);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			int16_t value;
-			ret = uvc_get_brightness(mDeviceHandle, &value, UVC_GET_CUR);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_BRIGHTNESS, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -1610,13 +2280,9 @@ int UVCCamera::setContrast(uint16_t contrast) {
 int UVCCamera::getContrast() {
 	ENTER();
 	if (mPUSupports & PU_CONTRAST) {
-		int ret = update_ctrl_values(mDeviceHandle, mContrast, uvc_get_contrast);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			uint16_t value;
-			ret = uvc_get_contrast(mDeviceHandle, &value, UVC_GET_CUR);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_CONTRAST, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -1681,13 +2347,9 @@ int UVCCamera::setSharpness(int sharpness) {
 int UVCCamera::getSharpness() {
 	ENTER();
 	if (mPUSupports & PU_SHARPNESS) {
-		int ret = update_ctrl_values(mDeviceHandle, mSharpness, uvc_get_sharpness);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			uint16_t value;
-			ret = uvc_get_sharpness(mDeviceHandle, &value, UVC_GET_CUR);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_SHARPNESS, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -1718,14 +2380,9 @@ int UVCCamera::setGain(int gain) {
 int UVCCamera::getGain() {
 	ENTER();
 	if (mPUSupports & PU_GAIN) {
-		int ret = update_ctrl_values(mDeviceHandle, mGain, uvc_get_gain);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			uint16_t value;
-			ret = uvc_get_gain(mDeviceHandle, &value, UVC_GET_CUR);
-//			LOGI("gain:%d", value);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_GAIN, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -1746,7 +2403,12 @@ int UVCCamera::setAutoWhiteBlance(bool autoWhiteBlance) {
 	ENTER();
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_WB_TEMP_AUTO)) {
+		control_value_t &values = *getControlValue(CTRL_INDEX_AUTO_WHITE_BLANCE);
+		const int generation = cacheGeneration(values);
 		r = uvc_set_white_balance_temperature_auto(mDeviceHandle, autoWhiteBlance);
+		if (LIKELY(!r)) {
+			commitCache(values, generation, autoWhiteBlance);
+		}
 	}
 	RETURN(r, int);
 }
@@ -1756,8 +2418,8 @@ bool UVCCamera::getAutoWhiteBlance() {
 	ENTER();
 	int r = UVC_ERROR_ACCESS;
 	if LIKELY((mDeviceHandle) && (mPUSupports & PU_WB_TEMP_AUTO)) {
-		uint8_t autoWhiteBlance;
-		r = uvc_get_white_balance_temperature_auto(mDeviceHandle, &autoWhiteBlance, UVC_GET_CUR);
+		int autoWhiteBlance;
+		r = getCachedControl(CTRL_INDEX_AUTO_WHITE_BLANCE, autoWhiteBlance);
 		if (LIKELY(!r))
 			r = autoWhiteBlance;
 	}
@@ -1824,13 +2486,9 @@ int UVCCamera::setWhiteBlance(int white_blance) {
 int UVCCamera::getWhiteBlance() {
 	ENTER();
 	if (mPUSupports & PU_WB_TEMP) {
-		int ret = update_ctrl_values(mDeviceHandle, mWhiteBlance, uvc_get_white_balance_temperature);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			uint16_t value;
-			ret = uvc_get_white_balance_temperature(mDeviceHandle, &value, UVC_GET_CUR);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_WHITE_BLANCE, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -1898,14 +2556,9 @@ int UVCCamera::setGamma(int gamma) {
 int UVCCamera::getGamma() {
 	ENTER();
 	if (mPUSupports & PU_GAMMA) {
-		int ret = update_ctrl_values(mDeviceHandle, mGamma, uvc_get_gamma);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			uint16_t value;
-			ret = uvc_get_gamma(mDeviceHandle, &value, UVC_GET_CUR);
-//			LOGI("gamma:%d", ret);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_GAMMA, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -1935,13 +2588,9 @@ int UVCCamera::setSaturation(int saturation) {
 int UVCCamera::getSaturation() {
 	ENTER();
 	if (mPUSupports & PU_SATURATION) {
-		int ret = update_ctrl_values(mDeviceHandle, mSaturation, uvc_get_saturation);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			uint16_t value;
-			ret = uvc_get_saturation(mDeviceHandle, &value, UVC_GET_CUR);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_SATURATION, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -1971,13 +2620,9 @@ int UVCCamera::setHue(int hue) {
 int UVCCamera::getHue() {
 	ENTER();
 	if (mPUSupports & PU_HUE) {
-		int ret = update_ctrl_values(mDeviceHandle, mHue, uvc_get_hue);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			int16_t value;
-			ret = uvc_get_hue(mDeviceHandle, &value, UVC_GET_CUR);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_HUE, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
@@ -2086,13 +2731,9 @@ int UVCCamera::setZoom(int zoom) {
 int UVCCamera::getZoom() {
 	ENTER();
 	if (mCtrlSupports & CTRL_ZOOM_ABS) {
-		int ret = update_ctrl_values(mDeviceHandle, mZoom, uvc_get_zoom_abs);
-		if (LIKELY(!ret)) {	// 当可以正常获得最大值和最小值时
-			uint16_t value;
-			ret = uvc_get_zoom_abs(mDeviceHandle, &value, UVC_GET_CUR);
-			if (LIKELY(!ret))
-				return value;
-		}
+		int value;
+		if (LIKELY(!getCachedControl(CTRL_INDEX_ZOOM, value)))
+			return value;
 	}
 	RETURN(0, int);
 }
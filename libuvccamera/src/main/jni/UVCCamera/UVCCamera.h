@@ -83,8 +83,37 @@ typedef struct control_value {
 	int max;
 	int def;
 	int current;
+	// for the control registry, 1: current is valid, cleared by the status interrupt
+	// 用于控制注册表，1: current有效，由状态中断清除
+	volatile int cached;
+	// for the control registry, bumped on every invalidation so that a value read before it is not cached
+	// 用于控制注册表，每次失效时递增，使失效前读取的值不会被缓存
+	int generation;
+	// for the control registry, 0: limits are not queried yet, 1: valid, -1: not available
+	// 用于控制注册表，0: 尚未查询范围，1: 有效，-1: 不可用
+	int limits;
 } control_value_t;
 
+// controls kept in the control registry, same order as UVCCamera.CTRL_INDEX_XXX of Java
+// 控制注册表中保存的控制，与Java的UVCCamera.CTRL_INDEX_XXX顺序相同
+enum control_index {
+	CTRL_INDEX_AUTO_FOCUS = 0,
+	CTRL_INDEX_FOCUS,
+	CTRL_INDEX_AUTO_WHITE_BLANCE,
+	CTRL_INDEX_WHITE_BLANCE,
+	CTRL_INDEX_BRIGHTNESS,
+	CTRL_INDEX_CONTRAST,
+	CTRL_INDEX_SHARPNESS,
+	CTRL_INDEX_GAIN,
+	CTRL_INDEX_GAMMA,
+	CTRL_INDEX_SATURATION,
+	CTRL_INDEX_HUE,
+	CTRL_INDEX_ZOOM,
+	CTRL_INDEX_NUM,
+};
+// number of values of each control in UVCCamera::getControlTable UVCCamera::getControlTable中每个控制的值的数量
+#define CTRL_TABLE_STRIDE 5
+
 typedef uvc_error_t (*paramget_func_i8)(uvc_device_handle_t *devh, int8_t *value, enum uvc_req_code req_code);
 typedef uvc_error_t (*paramget_func_i16)(uvc_device_handle_t *devh, int16_t *value, enum uvc_req_code req_code);
 typedef uvc_error_t (*paramget_func_i32)(uvc_device_handle_t *devh, int32_t *value, enum uvc_req_code req_code);
@@ -109,6 +138,8 @@ typedef uvc_error_t (*paramset_func_i32i32)(uvc_device_handle_t *devh, int32_t v
 
 class UVCCamera {
 	char *mUsbFs;
+	// 描述符/协商结果缓存目录，为NULL时不缓存
+	char *mCacheDir;
 	uvc_context_t *mContext;
 	int mFd;
 	uvc_device_t *mDevice;
@@ -117,6 +148,9 @@ class UVCCamera {
 	UVCButtonCallback *mButtonCallback;
 	// プレビュー用  预览
 	UVCPreview *mPreview;
+	// guards current/cached/generation of the controls, the status interrupt invalidates them on the libusb thread
+	// 保护控制的current/cached/generation，状态中断在libusb线程上使其失效
+	pthread_mutex_t mCacheMutex;
 	uint64_t mCtrlSupports;
 	uint64_t mPUSupports;
 	control_value_t mScanningMode;
@@ -177,26 +211,57 @@ class UVCCamera {
 		paramget_func_i32 get_func, paramset_func_i32 set_func);
 	int internalSetCtrlValue(control_value_t &values, uint32_t value,
 		paramget_func_u32 get_func, paramset_func_u32 set_func);
+	control_value_t *getControlValue(int index);
+	bool isControlSupported(int index);
+	int getCachedControl(int index, int &value);
+	int cacheGeneration(control_value_t &values);
+	bool readCache(control_value_t &values, int &value);
+	void commitCache(control_value_t &values, int generation, int value);
+	void dropCache(control_value_t &values);
+	bool isAutoAdjusting(int auto_depends);
+	static void control_changed_callback(uvc_status_class status_class, int selector, void *ptr);
 public:
 	UVCCamera();
 	~UVCCamera();
 
+	int setCacheDir(const char *dir);
 	int connect(int vid, int pid, int fd, int busnum, int devaddr, const char *usbfs);
 	int release();
 
 	int setStatusCallback(JNIEnv *env, jobject status_callback_obj);
 	int setButtonCallback(JNIEnv *env, jobject button_callback_obj);
+	int setStatusCoalescing(const bool coalesce);
 
 	char *getSupportedSize();
+	int *getSupportedSizeArray(int &num);
+	int getStartupTimes(int64_t *times_us, int num);
+	int getBandwidthInfo(int *values, int num);
+	int getMaxPayloadSize(int width, int height, int min_fps, int max_fps, int mode);
+	int getPreviewStats(int64_t *values, int num);
 	int setPreviewSize(int width, int height, int cameraAngle, int min_fps, int max_fps, int mode, float bandwidth = DEFAULT_BANDWIDTH);
 	int setPreviewDisplay(ANativeWindow *preview_window);
 	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setEncoderFrameCallback(JNIEnv *env, jobject callback_obj);
 	int startPreview();
 	int stopPreview();
+	int pausePreview();
+	int resumePreview();
+	int64_t switchPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth);
 	int setCaptureDisplay(ANativeWindow *capture_window);
+	size_t getMemoryUsage();
+	int setPayloadRecord(const char *path);
+	int setReplaySource(const char *path, int realtime);
+	int setSyntheticSource(int fps, int jitter_us);
+	int startMJPEGRecording(const char *path, int decimation);
+	int stopMJPEGRecording();
 
 	int getCtrlSupports(uint64_t *supports);
 	int getProcSupports(uint64_t *supports);
+	int updateControls();
+	int getControlTable(int *values, int num);
+	int applyControls(const int *values, int num);
+	void invalidateControls(int status_class, int selector);
+	void invalidateControl(int index);
 
 	int updateScanningModeLimit(int &min, int &max, int &def);
 	int setScanningMode(int mode);
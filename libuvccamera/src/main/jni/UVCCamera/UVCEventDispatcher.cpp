@@ -0,0 +1,184 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: UVCEventDispatcher.cpp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include "utilbase.h"
+#include "UVCEventDispatcher.h"
+
+#define	LOCAL_DEBUG 0
+
+UVCEventDispatcher::UVCEventDispatcher(const char *name)
+:	mName(name),
+	mHead(0),
+	mTail(0),
+	mDropped(0),
+	mIsRunning(false),
+	mCoalesce(false),
+	mThread(0) {
+
+	ENTER();
+	pthread_mutex_init(&mMutex, NULL);
+	pthread_cond_init(&mCond, NULL);
+	EXIT();
+}
+
+UVCEventDispatcher::~UVCEventDispatcher() {
+
+	ENTER();
+	stop();
+	pthread_cond_destroy(&mCond);
+	pthread_mutex_destroy(&mMutex);
+	EXIT();
+}
+
+int UVCEventDispatcher::start() {
+	ENTER();
+	int result = 0;
+	if (!mIsRunning) {
+		mIsRunning = true;
+		result = pthread_create(&mThread, NULL, dispatcher_thread_func, (void *)this);
+		if (UNLIKELY(result)) {
+			LOGW("%s:failed to create dispatcher thread:%d", mName, result);
+			mIsRunning = false;
+		}
+	}
+	RETURN(result, int);
+}
+
+void UVCEventDispatcher::stop() {
+	ENTER();
+	if (mIsRunning) {
+		pthread_mutex_lock(&mMutex);
+		{
+			mIsRunning = false;
+			pthread_cond_signal(&mCond);
+		}
+		pthread_mutex_unlock(&mMutex);
+		if (pthread_join(mThread, NULL) != EXIT_SUCCESS) {
+			LOGW("%s:pthread_join failed", mName);
+		}
+	}
+	EXIT();
+}
+
+/**
+ * enable/disable coalescing of repeated events for the same target
+ * 启用/禁用同一目标重复事件的合并
+ */
+void UVCEventDispatcher::setCoalesce(const bool coalesce) {
+	mCoalesce = coalesce;
+}
+
+/**
+ * queue the event, called on the libusb event thread, never waits for the dispatcher to call Java:
+ * mMutex is held by the dispatcher only while it checks the ring and waits
+ * 将事件排队，在libusb事件线程上调用，从不等待分发线程调用Java: 分发线程仅在检查环形缓冲区和等待时持有mMutex
+ * @return false if the queue is full and the event was dropped 队列已满事件被丢弃时返回false
+ */
+bool UVCEventDispatcher::post(const uvc_event_t &event) {
+	const uint32_t head = __atomic_load_n(&mHead, __ATOMIC_RELAXED);
+	const uint32_t tail = __atomic_load_n(&mTail, __ATOMIC_ACQUIRE);
+	if (UNLIKELY(head - tail >= EVENT_QUEUE_SIZE)) {
+		__atomic_add_fetch(&mDropped, 1, __ATOMIC_RELAXED);
+		return false;
+	}
+	mEvents[head & (EVENT_QUEUE_SIZE - 1)] = event;
+	__atomic_store_n(&mHead, head + 1, __ATOMIC_RELEASE);
+	// signal under the mutex so that the wake up is not lost between the check and the wait of the dispatcher
+	// 在互斥锁下发信号，以免唤醒在分发线程的检查和等待之间丢失
+	pthread_mutex_lock(&mMutex);
+	{
+		pthread_cond_signal(&mCond);
+	}
+	pthread_mutex_unlock(&mMutex);
+	return true;
+}
+
+/*
+ * thread function
+ * @param vptr_args pointer to UVCEventDispatcher instance
+ * 分发线程方法
+ */
+// static
+void *UVCEventDispatcher::dispatcher_thread_func(void *vptr_args) {
+	ENTER();
+	UVCEventDispatcher *dispatcher = reinterpret_cast<UVCEventDispatcher *>(vptr_args);
+	if (LIKELY(dispatcher)) {
+		JavaVM *vm = getVM();
+		JNIEnv *env;
+		// attach to JavaVM once instead of attaching/detaching for each event
+		// 只附加一次Java虚拟机，而不是每个事件附加/分离一次
+		vm->AttachCurrentThread(&env, NULL);
+		dispatcher->do_dispatch(env);	// never return until stopped 直到停止才返回
+		vm->DetachCurrentThread();
+		MARK("DetachCurrentThread");
+	}
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
+void UVCEventDispatcher::do_dispatch(JNIEnv *env) {
+	ENTER();
+	uvc_event_t batch[EVENT_QUEUE_SIZE];
+	for ( ; mIsRunning ; ) {
+		const uint32_t tail = __atomic_load_n(&mTail, __ATOMIC_RELAXED);
+		const uint32_t head = __atomic_load_n(&mHead, __ATOMIC_ACQUIRE);
+		if (head == tail) {
+			pthread_mutex_lock(&mMutex);
+			{
+				// check again under the mutex, #post signals while holding it
+				// 在互斥锁下再次检查，#post在持有互斥锁时发信号
+				while (mIsRunning && (__atomic_load_n(&mHead, __ATOMIC_ACQUIRE) == tail)) {
+					pthread_cond_wait(&mCond, &mMutex);
+				}
+			}
+			pthread_mutex_unlock(&mMutex);
+			continue;
+		}
+		// take all queued events at once so that the producer gets the slots back before calling Java
+		// 一次取出所有排队的事件，使生产者在调用Java之前取回空间
+		const uint32_t n = head - tail;
+		for (uint32_t i = 0; i < n; i++) {
+			batch[i] = mEvents[(tail + i) & (EVENT_QUEUE_SIZE - 1)];
+		}
+		__atomic_store_n(&mTail, head, __ATOMIC_RELEASE);
+		const bool coalesce = mCoalesce;
+		for (uint32_t i = 0; (i < n) && mIsRunning; i++) {
+			if (coalesce) {
+				bool superseded = false;
+				for (uint32_t j = i + 1; j < n; j++) {
+					if (isCoalescable(batch[i], batch[j])) {
+						superseded = true;
+						break;
+					}
+				}
+				if (superseded) continue;
+			}
+			dispatch(env, batch[i]);
+		}
+	}
+	EXIT();
+}
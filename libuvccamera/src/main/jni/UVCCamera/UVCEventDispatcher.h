@@ -0,0 +1,95 @@
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ * File name: UVCEventDispatcher.h
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+#ifndef UVCEVENTDISPATCHER_H_
+#define UVCEVENTDISPATCHER_H_
+
+#include "libUVCCamera.h"
+#include <pthread.h>
+
+#pragma interface
+
+// number of events the queue can hold, must be power of 2 队列可容纳的事件数，必须是2的幂
+#define EVENT_QUEUE_SIZE 64
+// same as size of uvc_device_handle::status_buf 与uvc_device_handle::status_buf的大小相同
+#define EVENT_DATA_SIZE 32
+
+typedef struct uvc_event {
+	int status_class;
+	int event;
+	int selector;
+	int attribute;
+	int button;
+	int state;
+	size_t data_len;
+	uint8_t data[EVENT_DATA_SIZE];
+} uvc_event_t;
+
+/**
+ * Delivers events from the libusb event thread to Java on a dispatcher thread of its own.
+ * #post never waits for nor calls into Java: events are copied into a single-producer/single-consumer
+ * ring buffer and dropped(and counted) when the ring is full, the mutex is only taken to signal the dispatcher,
+ * so a slow Java listener can not delay usb event handling of the streaming endpoint.
+ * 在自己的分发线程上将libusb事件线程的事件传递给Java
+ * #post既不等待也不调用Java: 事件被复制到单生产者/单消费者的环形缓冲区，缓冲区满时丢弃(并计数)，互斥锁仅用于通知分发线程，
+ * 因此慢的Java监听器不会延迟视频流端点的usb事件处理
+ */
+class UVCEventDispatcher {
+private:
+	const char *mName;
+	uvc_event_t mEvents[EVENT_QUEUE_SIZE];
+	volatile uint32_t mHead;		// written only by the producer(libusb event thread) 仅由生产者写入
+	volatile uint32_t mTail;		// written only by the dispatcher thread 仅由分发线程写入
+	volatile uint32_t mDropped;
+	volatile bool mIsRunning;
+	volatile bool mCoalesce;
+	pthread_t mThread;
+	pthread_mutex_t mMutex;
+	pthread_cond_t mCond;
+	static void *dispatcher_thread_func(void *vptr_args);
+	void do_dispatch(JNIEnv *env);
+protected:
+	/**
+	 * called on the dispatcher thread 在分发线程上调用
+	 */
+	virtual void dispatch(JNIEnv *env, const uvc_event_t &event) = 0;
+	/**
+	 * whether the event may be dropped when a later event for the same target is queued
+	 * 当同一目标的后续事件已排队时是否可以丢弃该事件
+	 */
+	virtual bool isCoalescable(const uvc_event_t &event, const uvc_event_t &later) { return false; }
+	// derived classes must call start in its constructor and stop in its destructor
+	// because #dispatch is pure virtual 由于#dispatch是纯虚函数，派生类必须在构造函数中调用start，在析构函数中调用stop
+	int start();
+	void stop();
+public:
+	UVCEventDispatcher(const char *name);
+	virtual ~UVCEventDispatcher();
+
+	bool post(const uvc_event_t &event);
+	void setCoalesce(const bool coalesce);
+	inline const uint32_t getDropped() const { return mDropped; };
+};
+
+#endif /* UVCEVENTDISPATCHER_H_ */
@@ -23,6 +23,7 @@
 */
 
 #include <stdlib.h>
+#include <errno.h>
 #include <linux/time.h>
 #include <unistd.h>
 
@@ -45,6 +46,8 @@
 #define MAX_FRAME 4
 #define PREVIEW_PIXEL_BYTES 4	// RGBA/RGBX
 #define FRAME_POOL_SZ MAX_FRAME + 2
+// max time to wait the first frame after switching size/format 切换尺寸/格式后等待第一帧的最长时间
+#define SWITCH_TIMEOUT_SEC 3
 
 UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 :	mPreviewWindow(NULL),
@@ -67,22 +70,43 @@ UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 	previewBytes(DEFAULT_PREVIEW_WIDTH * DEFAULT_PREVIEW_HEIGHT * PREVIEW_PIXEL_BYTES),
 	previewFormat(WINDOW_FORMAT_RGBA_8888),
 	mIsRunning(false),
+	mIsPaused(false),
+	mSwitchRequested(false),
+	mSwitchStartUs(0),
+	mSwitchGlitchUs(0),
+	mSwitchResult(0),
+	statsReceived(0),
+	statsIncomplete(0),
+	statsOverrun(0),
+	statsDecoded(0),
+	statsDecodeUs(0),
+	frameInterval(0),
 	mIsCapturing(false),
 	captureQueu(NULL),
 	// 帧回调Java对象
 	mFrameCallbackObj(NULL),
 	// 像素格式转换方法
 	mFrameCallbackFunc(NULL),
-	callbackPixelBytes(2) {
+	mEncoderCallbackObj(NULL),
+	callbackPixelBytes(2),
+	mReplayPath(NULL),
+	mReplayRealtime(1),
+	mReplay(NULL),
+	mSyntheticFps(-1),
+	mSyntheticJitterUs(0),
+	mSynthetic(NULL),
+	mMJPEGRecorder(NULL) {
 
 	ENTER();
 	pthread_cond_init(&preview_sync, NULL);
 	pthread_mutex_init(&preview_mutex, NULL);
+	pthread_cond_init(&switch_sync, NULL);
 //
 	pthread_cond_init(&capture_sync, NULL);
 	pthread_mutex_init(&capture_mutex, NULL);
 //
 	pthread_mutex_init(&pool_mutex, NULL);
+	pthread_mutex_init(&recorder_mutex, NULL);
 
 	EXIT();
 }
@@ -90,6 +114,7 @@ UVCPreview::UVCPreview(uvc_device_handle_t *devh)
 UVCPreview::~UVCPreview() {
 
 	ENTER();
+	stopMJPEGRecording();
 	if(rotateImage){
 		SAFE_DELETE(rotateImage);
 	}
@@ -102,11 +127,14 @@ UVCPreview::~UVCPreview() {
 	clearPreviewFrame();
 	clearCaptureFrame();
 	clear_pool();
+	SAFE_FREE(mReplayPath);
 	pthread_mutex_destroy(&preview_mutex);
 	pthread_cond_destroy(&preview_sync);
+	pthread_cond_destroy(&switch_sync);
 	pthread_mutex_destroy(&capture_mutex);
 	pthread_cond_destroy(&capture_sync);
 	pthread_mutex_destroy(&pool_mutex);
+	pthread_mutex_destroy(&recorder_mutex);
 	EXIT();
 }
 
@@ -198,6 +226,147 @@ void UVCPreview::clear_pool() {
 
 inline const bool UVCPreview::isRunning() const {return mIsRunning; }
 
+/**
+ * get number of bytes used by stream buffers and frame pool
+ * 获取流缓存和帧池占用的内存字节数
+ */
+size_t UVCPreview::getMemoryUsage() {
+	ENTER();
+
+	size_t result = uvc_get_stream_memory_usage(mDeviceHandle);
+	pthread_mutex_lock(&pool_mutex);
+	{
+		const int n = mFramePool.size();
+		for (int i = 0; i < n; i++) {
+			result += mFramePool[i]->data_bytes;
+		}
+	}
+	pthread_mutex_unlock(&pool_mutex);
+
+	RETURN(result, size_t);
+}
+
+/**
+ * statistics of the stream for choosing YUYV/MJPEG
+ * 用于选择YUYV/MJPEG的视频流统计
+ * @param values [out] {received frames, incomplete frames(bus bandwidth is short),
+ * 					overrun frames(processing does not keep up), decoded frames, total decode time[us],
+ * 					negotiated frame interval[100ns]}
+ * 					{收到的帧数, 不完整帧数(总线带宽不足), 溢出帧数(处理跟不上), 解码帧数, 总解码时间[us], 协商的帧间隔[100ns]}
+ * @param num number of elements of values values的元素数
+ * @return number of values stored 存储的值的数量
+ */
+int UVCPreview::getPreviewStats(int64_t *values, int num) {
+	ENTER();
+
+	const int64_t stats[] = {
+		(int64_t)statsReceived, (int64_t)statsIncomplete, (int64_t)statsOverrun,
+		(int64_t)statsDecoded, (int64_t)statsDecodeUs, (int64_t)frameInterval };
+	const int n = num < NUM_ARRAY_ELEMENTS(stats) ? num : NUM_ARRAY_ELEMENTS(stats);
+	for (int i = 0; i < n; i++) {
+		values[i] = stats[i];
+	}
+
+	RETURN(n, int);
+}
+
+/**
+ * replay payloads recorded by uvc_set_payload_record instead of streaming from usb device,
+ * takes effect on next startPreview
+ * 用uvc_set_payload_record记录的有效负载代替USB设备的视频流，下次startPreview时生效
+ * @param path NULL: stream from usb device 从USB设备获取视频流
+ * @param realtime 1: replay with recorded timing, 0: as fast as possible 1:按记录的时间回放，0:尽可能快
+ */
+int UVCPreview::setReplaySource(const char *path, int realtime) {
+	ENTER();
+
+	SAFE_FREE(mReplayPath);
+	if (path && *path) {
+		mReplayPath = strdup(path);
+	}
+	mReplayRealtime = realtime;
+
+	RETURN(0, int);
+}
+
+/**
+ * generate test patterns by uvc_synthetic_open instead of streaming from usb device,
+ * size and format are set by setPreviewSize, takes effect on next startPreview
+ * 用uvc_synthetic_open生成的测试图案代替USB设备的视频流，大小和格式由setPreviewSize设置，下次startPreview时生效
+ * @param fps frame rate, 0: as fast as possible, negative: stream from usb device
+ *            帧率，0为尽可能快，负数时从USB设备获取视频流
+ * @param jitter_us random jitter of frame timing 帧时间的随机抖动
+ */
+int UVCPreview::setSyntheticSource(int fps, int jitter_us) {
+	ENTER();
+
+	mSyntheticFps = fps;
+	mSyntheticJitterUs = jitter_us > 0 ? jitter_us : 0;
+
+	RETURN(0, int);
+}
+
+/**
+ * write the MJPEG frames from the camera into an AVI file without decoding/re-encoding them,
+ * the frames are copied on the thread of the frame callback and written on the writer thread of MJPEGRecorder,
+ * so neither the usb transfers nor the preview thread wait for the file.
+ * only available while previewing in MJPEG mode, stopped by #stopMJPEGRecording or #stopPreview
+ * 将摄像头的MJPEG帧写入AVI文件，不解码/重新编码，
+ * 帧在帧回调线程上复制，在MJPEGRecorder的写入线程上写入，因此usb传输和预览线程都不等待文件
+ * 仅在MJPEG模式预览时可用，由#stopMJPEGRecording或#stopPreview停止
+ * @param decimation write one frame out of this number of frames 每隔此帧数写入一帧
+ */
+int UVCPreview::startMJPEGRecording(const char *path, int decimation) {
+	ENTER();
+	if (UNLIKELY(!path || !*path)) RETURN(UVC_ERROR_INVALID_PARAM, int);
+	if (UNLIKELY(!isRunning() || !frameMode)) RETURN(UVC_ERROR_INVALID_MODE, int);
+	if (decimation < 1) decimation = 1;
+	// dwFrameInterval is in 100ns, 0 when unknown(replay) dwFrameInterval单位为100ns，未知时(回放)为0
+	const int us_per_frame = frameInterval ? (int)(frameInterval / 10) * decimation : 0;
+	int result;
+	// check busy before opening so that the file of the recording in progress is never truncated,
+	// the frame callback takes recorder_mutex only while a recorder is set
+	// 在打开之前检查是否忙，以免截断正在录制的文件，帧回调仅在设置了录像器时才获取recorder_mutex
+	pthread_mutex_lock(&recorder_mutex);
+	{
+		if (!mMJPEGRecorder) {
+			MJPEGRecorder *recorder = new MJPEGRecorder(frameWidth, frameHeight, us_per_frame, decimation);
+			result = recorder->open(path);
+			if (LIKELY(!result)) {
+				mMJPEGRecorder = recorder;
+			} else {
+				SAFE_DELETE(recorder);
+			}
+		} else {
+			result = UVC_ERROR_BUSY;
+		}
+	}
+	pthread_mutex_unlock(&recorder_mutex);
+	RETURN(result, int);
+}
+
+/**
+ * @return number of frames in the file or error code 文件中的帧数或错误码
+ */
+int UVCPreview::stopMJPEGRecording() {
+	ENTER();
+	MJPEGRecorder *recorder;
+	pthread_mutex_lock(&recorder_mutex);
+	{
+		recorder = mMJPEGRecorder;
+		mMJPEGRecorder = NULL;
+	}
+	pthread_mutex_unlock(&recorder_mutex);
+	int result = UVC_ERROR_INVALID_MODE;
+	if (recorder) {
+		// the frame callback does not touch the recorder any more, finishing the file may take a while
+		// 帧回调不再访问录像器，完成文件可能需要一段时间
+		result = recorder->close();
+		SAFE_DELETE(recorder);
+	}
+	RETURN(result, int);
+}
+
 // 设置预览参数
 int UVCPreview::setPreviewSize(int width, int height, int cameraAngle, int min_fps, int max_fps, int mode, float bandwidth) {
 	ENTER();
@@ -211,10 +380,12 @@ int UVCPreview::setPreviewSize(int width, int height, int cameraAngle, int min_f
 		requestMode = mode;
 		requestBandwidth = bandwidth;
 
-		uvc_stream_ctrl_t ctrl;
-		result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, &ctrl,
-			!requestMode ? UVC_FRAME_FORMAT_YUYV : UVC_FRAME_FORMAT_MJPEG,
-			requestWidth, requestHeight, requestMinFps, requestMaxFps);
+		if (LIKELY(mDeviceHandle)) {
+			uvc_stream_ctrl_t ctrl;
+			result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, &ctrl,
+				!requestMode ? UVC_FRAME_FORMAT_YUYV : UVC_FRAME_FORMAT_MJPEG,
+				requestWidth, requestHeight, requestMinFps, requestMaxFps);
+		}
 	}
 
 	// 根据摄像头角度计算图像帧需要旋转的角度
@@ -295,6 +466,51 @@ int UVCPreview::setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pi
 	RETURN(0, int);
 }
 
+/**
+ * set receiver of the frames converted straight into the planes it supplies(IEncoderFrameCallback)
+ * 设置帧直接转换到其提供的平面的接收者(IEncoderFrameCallback)
+ * @param callback_obj global reference, NULL to remove 全局引用，为NULL时移除
+ */
+int UVCPreview::setEncoderFrameCallback(JNIEnv *env, jobject callback_obj) {
+
+	ENTER();
+	int result = 0;
+	// the capture thread takes a local reference of the receiver under capture_mutex,
+	// so it can be replaced without stopping capturing
+	// 抓拍线程在capture_mutex下取得接收者的局部引用，因此无需停止抓拍即可替换
+	pthread_mutex_lock(&capture_mutex);
+	{
+		if (mEncoderCallbackObj) {
+			env->DeleteGlobalRef(mEncoderCallbackObj);
+			mEncoderCallbackObj = NULL;
+		}
+		iencodercallback_fields.onRequestPlanes = NULL;
+		iencodercallback_fields.onFrameWritten = NULL;
+		if (callback_obj) {
+			jclass clazz = env->GetObjectClass(callback_obj);
+			if (LIKELY(clazz)) {
+				iencodercallback_fields.onRequestPlanes = env->GetMethodID(clazz,
+					"onRequestPlanes", "(II[I)[Ljava/nio/ByteBuffer;");
+				iencodercallback_fields.onFrameWritten = env->GetMethodID(clazz,
+					"onFrameWritten", "(IJ)V");
+				env->DeleteLocalRef(clazz);
+			} else {
+				LOGW("failed to get object class");
+			}
+			env->ExceptionClear();
+			if (iencodercallback_fields.onRequestPlanes && iencodercallback_fields.onFrameWritten) {
+				mEncoderCallbackObj = callback_obj;
+			} else {
+				LOGE("Can't find IEncoderFrameCallback#onRequestPlanes/onFrameWritten");
+				env->DeleteGlobalRef(callback_obj);
+				result = -1;
+			}
+		}
+	}
+	pthread_mutex_unlock(&capture_mutex);
+	RETURN(result, int);
+}
+
 // 像素格式转换
 void UVCPreview::callbackPixelFormatChanged() {
 	mFrameCallbackFunc = NULL;
@@ -388,7 +604,12 @@ int UVCPreview::startPreview() {
 	ENTER();
 
 	int result = EXIT_FAILURE;
+	if (isRunning() && mIsPaused) {
+		// already streaming, just resume 已经在传输视频流，只需恢复
+		RETURN(resumePreview(), int);
+	}
 	if (!isRunning()) {
+		mIsPaused = false;
 		mIsRunning = true;
 		pthread_mutex_lock(&preview_mutex);
 		{
@@ -417,6 +638,7 @@ int UVCPreview::stopPreview() {
 	bool b = isRunning();
 	if (LIKELY(b)) {
 		mIsRunning = false;
+		mIsPaused = false;
 		pthread_cond_signal(&preview_sync);
 		pthread_cond_signal(&capture_sync);
 		if (pthread_join(capture_thread, NULL) != EXIT_SUCCESS) {
@@ -427,6 +649,7 @@ int UVCPreview::stopPreview() {
 		}
 		clearDisplay();
 	}
+	stopMJPEGRecording();
 	clearPreviewFrame();
 	clearCaptureFrame();
 	pthread_mutex_lock(&preview_mutex);
@@ -444,12 +667,69 @@ int UVCPreview::stopPreview() {
 	RETURN(0, int);
 }
 
+/**
+ * pause preview without stopping the stream.
+ * usb transfers, preview/capture threads, frame pool and windows are kept,
+ * frames are dropped in the frame callback so conversion/drawing/frame callback stop and
+ * the preview/capture threads sleep until #resumePreview.
+ * MJPEG recording started by #startMJPEGRecording keeps writing frames while paused
+ * 暂停预览但不停止视频流
+ * 保留usb传输、预览/抓拍线程、帧池和窗口，在帧回调中丢弃帧，
+ * 因此转换/绘制/帧回调停止，预览/抓拍线程休眠到#resumePreview
+ * 暂停期间#startMJPEGRecording开始的MJPEG录像继续写入帧
+ */
+int UVCPreview::pausePreview() {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (isRunning()) {
+		mIsPaused = true;
+		// drop queued frames so that resume does not show stale frames 丢弃队列中的帧，恢复时不显示旧帧
+		clearPreviewFrame();
+		clearCaptureFrame();
+		result = EXIT_SUCCESS;
+	}
+	RETURN(result, int);
+}
+
+// 恢复暂停的预览，下一帧开始重新显示
+int UVCPreview::resumePreview() {
+	ENTER();
+	int result = EXIT_FAILURE;
+	if (isRunning()) {
+		mIsPaused = false;
+		result = EXIT_SUCCESS;
+	}
+	RETURN(result, int);
+}
+
 //**********************************************************************
 // UVC预览帧回调
 //**********************************************************************
 void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args) {
 	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
 	if UNLIKELY(!preview->isRunning() || !frame || !frame->frame_format || !frame->data || !frame->data_bytes || !frame->actual_bytes) return;
+	// the recorder is fed before the pause check so that pausing the preview leaves no gap in the recording,
+	// it checks the frame size by itself
+	// 在暂停检查之前写入录像，暂停预览时录像不会出现空白，帧尺寸由录像自己检查
+	if (UNLIKELY(preview->mMJPEGRecorder) && (frame->frame_format == UVC_FRAME_FORMAT_MJPEG)) {
+		// only copied here, written on the writer thread 这里只复制，在写入线程上写入
+		pthread_mutex_lock(&preview->recorder_mutex);
+		{
+			MJPEGRecorder *recorder = preview->mMJPEGRecorder;
+			if (LIKELY(recorder)) {
+				if (LIKELY((recorder->getWidth() == frame->width) && (recorder->getHeight() == frame->height))) {
+					recorder->post(frame);
+				} else if (recorder->dropMismatched() == 1) {
+					// logged once, the total is logged when the file is closed 只记录一次，关闭文件时记录总数
+					LOGW("MJPEG recording:frame size changed %dx%d=>%dx%d, dropped",
+						recorder->getWidth(), recorder->getHeight(), frame->width, frame->height);
+				}
+			}
+		}
+		pthread_mutex_unlock(&preview->recorder_mutex);
+	}
+	if (UNLIKELY(preview->mIsPaused)) return;
+	preview->statsReceived++;
 	if (UNLIKELY(
 		((frame->frame_format != UVC_FRAME_FORMAT_MJPEG) && (frame->actual_bytes < preview->frameBytes))
 		|| (frame->width != preview->frameWidth) || (frame->height != preview->frameHeight) )) {
@@ -459,6 +739,7 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 			frame->frame_format, frame->actual_bytes, preview->frameBytes,
 			frame->width, frame->height, preview->frameWidth, preview->frameHeight);
 #endif
+		preview->statsIncomplete++;
 		return;
 	}
 	if (LIKELY(preview->isRunning())) {
@@ -468,6 +749,7 @@ void UVCPreview::uvc_preview_frame_callback(uvc_frame_t *frame, void *vptr_args)
 #if LOCAL_DEBUG
 			LOGE("uvc_callback:unable to allocate duplicate frame!");
 #endif
+			preview->statsOverrun++;
 			return;
 		}
 		// 复制帧，保留色彩格式
@@ -494,6 +776,8 @@ void UVCPreview::addPreviewFrame(uvc_frame_t *frame) {
 	}
 	pthread_mutex_unlock(&preview_mutex);
 	if (frame) {
+		// queue is full, conversion/drawing does not keep up 队列已满，转换/绘制跟不上
+		statsOverrun++;
 		// 放回帧池
 		recycle_frame(frame);
 	}
@@ -550,6 +834,51 @@ int UVCPreview::prepare_preview(uvc_stream_ctrl_t *ctrl) {
 	uvc_error_t result;
 
 	ENTER();
+	if (mReplayPath || (mSyntheticFps >= 0)) {
+		// the record/synthetic source decides the frame format, no negotiation with camera
+		// 帧格式由记录/虚拟帧源决定，不需要与相机协商
+		enum uvc_frame_format format;
+		if (mReplayPath) {
+			result = uvc_replay_open(mReplayPath, &mReplay);
+			if (LIKELY(!result)) {
+				uvc_replay_get_format(mReplay, &format, &frameWidth, &frameHeight, NULL);
+			}
+		} else {
+			result = uvc_synthetic_open(!requestMode ? UVC_FRAME_FORMAT_YUYV : UVC_FRAME_FORMAT_MJPEG,
+				requestWidth, requestHeight, mSyntheticFps > 0 ? mSyntheticFps : 0, mSyntheticJitterUs, &mSynthetic);
+			if (LIKELY(!result)) {
+				uvc_synthetic_get_format(mSynthetic, &format, &frameWidth, &frameHeight, NULL);
+			}
+		}
+		if (LIKELY(!result)) {
+			requestWidth = frameWidth;
+			requestHeight = frameHeight;
+			requestMode = format == UVC_FRAME_FORMAT_MJPEG ? 1 : 0;
+			// recorded payloads have no frame rate of their own 记录的有效负载没有自己的帧率
+			frameInterval = !mReplayPath && (mSyntheticFps > 0) ? 10000000 / mSyntheticFps : 0;
+			pthread_mutex_lock(&preview_mutex);
+			if (LIKELY(mPreviewWindow)) {
+				if(rotateImage && (frameRotationAngle==90 || frameRotationAngle==270)){
+					ANativeWindow_setBuffersGeometry(mPreviewWindow, frameHeight, frameWidth, previewFormat);
+				}else{
+					ANativeWindow_setBuffersGeometry(mPreviewWindow, frameWidth, frameHeight, previewFormat);
+				}
+			}
+			pthread_mutex_unlock(&preview_mutex);
+			LOGI("%s:frameSize=(%d,%d)@%s", mReplayPath ? mReplayPath : "synthetic",
+				frameWidth, frameHeight, (!requestMode ? "YUYV" : "MJPEG"));
+			frameMode = requestMode;
+			frameBytes = frameWidth * frameHeight * (!requestMode ? 2 : 4);
+			previewBytes = frameWidth * frameHeight * PREVIEW_PIXEL_BYTES;
+		} else {
+			LOGE("could not open replay/synthetic source:err=%d", result);
+		}
+		RETURN(result, int);
+	}
+	if (UNLIKELY(!mDeviceHandle)) {
+		// no camera and no replay/synthetic source 既没有相机也没有回放/虚拟帧源
+		RETURN(UVC_ERROR_NO_DEVICE, int);
+	}
 	result = uvc_get_stream_ctrl_format_size_fps(mDeviceHandle, ctrl,
 		!requestMode ? UVC_FRAME_FORMAT_YUYV : UVC_FRAME_FORMAT_MJPEG,
 		requestWidth, requestHeight, requestMinFps, requestMaxFps
@@ -558,6 +887,7 @@ int UVCPreview::prepare_preview(uvc_stream_ctrl_t *ctrl) {
 #if LOCAL_DEBUG
 		uvc_print_stream_ctrl(ctrl, stderr);
 #endif
+		frameInterval = ctrl->dwFrameInterval;
 		uvc_frame_desc_t *frame_desc;
 		result = uvc_get_frame_desc(mDeviceHandle, ctrl, &frame_desc);
 		if (LIKELY(!result)) {
@@ -615,8 +945,7 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 
 	uvc_frame_t *frame = NULL;
 	uvc_frame_t *frame_mjpeg = NULL;
-	uvc_error_t result = uvc_start_streaming_bandwidth(
-		mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, requestBandwidth, 0);
+	uvc_error_t result = start_streaming(ctrl);
 
 	if (LIKELY(!result)) {
 		// 清空预览帧
@@ -627,20 +956,63 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 #if LOCAL_DEBUG
 		LOGI("Streaming...");
 #endif
-		if (frameMode) {
-			// MJPEG mode
-			for ( ; LIKELY(isRunning()) ; ) {
-				// 等待预览帧
-				frame_mjpeg = waitPreviewFrame();
-				if (LIKELY(frame_mjpeg)) {
-					// 从帧池中获取帧
-					// frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
-					frame = get_frame(frame_mjpeg->width * frame_mjpeg->height << 1);
-					// 将MJPEG转为yuyv
-					result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
-					// 放回帧池
-					recycle_frame(frame_mjpeg);
-					if (LIKELY(!result)) {
+		for ( ; LIKELY(isRunning()) ; ) {
+			if (frameMode) {
+				// MJPEG mode
+				for ( ; LIKELY(isRunning() && !mSwitchRequested) ; ) {
+					// 等待预览帧
+					frame_mjpeg = waitPreviewFrame();
+					if (UNLIKELY(frame_mjpeg && mIsPaused)) {
+						// queued just before pausing 暂停前刚加入队列的帧
+						recycle_frame(frame_mjpeg);
+						continue;
+					}
+					if (LIKELY(frame_mjpeg)) {
+						// 从帧池中获取帧
+						// frame = get_frame(frame_mjpeg->width * frame_mjpeg->height * 2);
+						frame = get_frame(frame_mjpeg->width * frame_mjpeg->height << 1);
+						const uint64_t decode_start = uvc_startup_time_us();
+						// 将MJPEG转为yuyv
+						result = uvc_mjpeg2yuyv(frame_mjpeg, frame);   // MJPEG => yuyv
+						// 放回帧池
+						recycle_frame(frame_mjpeg);
+						if (LIKELY(!result)) {
+							statsDecodeUs += uvc_startup_time_us() - decode_start;
+							statsDecoded++;
+							uvc_mark_startup(mDeviceHandle, UVC_STARTUP_FIRST_DECODED, 0);
+							// 处理图像帧
+							handleFrame(frame);
+
+							// 画预览帧
+							if (LIKELY(mPreviewWindow)) {
+								frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
+							}
+							// 设置抓拍帧
+							addCaptureFrame(frame);
+							if (UNLIKELY(mSwitchStartUs)) {
+								// first frame after switching 切换后的第一帧
+								switch_completed(0);
+							}
+						} else {
+							// 放回帧池
+							recycle_frame(frame);
+						}
+					}
+				}
+			} else {
+				// yuyv mode
+				for ( ; LIKELY(isRunning() && !mSwitchRequested) ; ) {
+					// 等待预览帧
+					frame = waitPreviewFrame();
+					if (UNLIKELY(frame && mIsPaused)) {
+						// queued just before pausing 暂停前刚加入队列的帧
+						recycle_frame(frame);
+						continue;
+					}
+					if (LIKELY(frame)) {
+						// yuyv needs no decoding 不需要解码
+						statsDecoded++;
+						uvc_mark_startup(mDeviceHandle, UVC_STARTUP_FIRST_DECODED, 0);
 						// 处理图像帧
 						handleFrame(frame);
 
@@ -650,45 +1022,278 @@ void UVCPreview::do_preview(uvc_stream_ctrl_t *ctrl) {
 						}
 						// 设置抓拍帧
 						addCaptureFrame(frame);
-					} else {
-						// 放回帧池
-						recycle_frame(frame);
+						if (UNLIKELY(mSwitchStartUs)) {
+							// first frame after switching 切换后的第一帧
+							switch_completed(0);
+						}
 					}
 				}
 			}
-		} else {
-			// yuyv mode
-			for ( ; LIKELY(isRunning()) ; ) {
-				// 等待预览帧
-				frame = waitPreviewFrame();
-				if (LIKELY(frame)) {
-					// 处理图像帧
-					handleFrame(frame);
-
-					// 画预览帧
-					if (LIKELY(mPreviewWindow)) {
-						frame = draw_preview_one(frame, &mPreviewWindow, uvc_any2rgbx, 4);
-					}
-					// 设置抓拍帧
-					addCaptureFrame(frame);
-				}
+			if (mSwitchRequested && isRunning()) {
+				// switch size/format in place, the capture thread and frame callback are kept
+				// 就地切换尺寸/格式，保留抓拍线程和帧回调
+				do_switch(ctrl);
 			}
 		}
 		pthread_cond_signal(&capture_sync);
 #if LOCAL_DEBUG
 		LOGI("preview_thread_func:wait for all callbacks complete");
 #endif
-		uvc_stop_streaming(mDeviceHandle);
+		stop_streaming();
 #if LOCAL_DEBUG
 		LOGI("Streaming finished");
 #endif
 	} else {
 		uvc_perror(result, "failed start_streaming");
+		if (mReplay) {
+			uvc_replay_close(mReplay);
+			mReplay = NULL;
+		}
+		if (mSynthetic) {
+			uvc_synthetic_close(mSynthetic);
+			mSynthetic = NULL;
+		}
+	}
+	// wake up #switchPreviewSize if it is still waiting 唤醒仍在等待的#switchPreviewSize
+	switch_completed(UVC_ERROR_INTERRUPTED);
+
+	EXIT();
+}
+
+/**
+ * restart the stream with the size/format requested by #switchPreviewSize, called on preview thread.
+ * falls back to the previous size/format if the camera refused the new one
+ * 用#switchPreviewSize请求的尺寸/格式重新开始视频流，在预览线程上调用
+ * 相机拒绝新的尺寸/格式时恢复之前的尺寸/格式
+ */
+void UVCPreview::do_switch(uvc_stream_ctrl_t *ctrl) {
+	ENTER();
+
+	const int prev_width = requestWidth, prev_height = requestHeight, prev_mode = requestMode;
+	const int prev_min_fps = requestMinFps, prev_max_fps = requestMaxFps;
+	const float prev_bandwidth = requestBandwidth;
+
+	pthread_mutex_lock(&preview_mutex);
+	// take the request before touching the stream, #switchPreviewSize may have cancelled it on timeout
+	// 在改动视频流之前取走请求，#switchPreviewSize可能已因超时取消了请求
+	const bool requested = mSwitchRequested;
+	if (LIKELY(requested)) {
+		requestWidth = switchWidth;
+		requestHeight = switchHeight;
+		requestMinFps = switchMinFps;
+		requestMaxFps = switchMaxFps;
+		requestMode = switchMode;
+		requestBandwidth = switchBandwidth;
+		mSwitchRequested = false;
+	}
+	pthread_mutex_unlock(&preview_mutex);
+	if (UNLIKELY(!requested)) {
+		EXIT();
+	}
+	stop_streaming();
+	clearPreviewFrame();
+	clearCaptureFrame();
+	// frames in the pool have previous size 帧池中的帧是之前的尺寸
+	clear_pool();
+
+	int result = prepare_preview(ctrl);
+	if (LIKELY(!result)) {
+		result = start_streaming(ctrl);
+	}
+	if (UNLIKELY(result)) {
+		LOGW("failed to switch to (%d,%d)@%s:err=%d, restore previous size",
+			requestWidth, requestHeight, !requestMode ? "YUYV" : "MJPEG", result);
+		requestWidth = prev_width;
+		requestHeight = prev_height;
+		requestMinFps = prev_min_fps;
+		requestMaxFps = prev_max_fps;
+		requestMode = prev_mode;
+		requestBandwidth = prev_bandwidth;
+		int err = prepare_preview(ctrl);
+		if (LIKELY(!err)) {
+			err = start_streaming(ctrl);
+		}
+		if (UNLIKELY(err)) {
+			LOGE("failed to restore previous size:err=%d", err);
+			mIsRunning = false;
+			pthread_cond_signal(&capture_sync);
+		}
+		switch_completed(result);
+	} else {
+		// update size of frame callback 更新帧回调的尺寸
+		pthread_mutex_lock(&capture_mutex);
+		{
+			callbackPixelFormatChanged();
+		}
+		pthread_mutex_unlock(&capture_mutex);
+		if (mIsPaused) {
+			// no frame will be drawn while paused 暂停中不会绘制帧
+			switch_completed(0);
+		}
+	}
+
+	EXIT();
+}
+
+/**
+ * finish switching and wake up #switchPreviewSize
+ * 完成切换并唤醒#switchPreviewSize
+ * @param result 0: switched, glitch duration is the time from the request until now
+ *               0: 切换完成，画面中断时长为从请求到现在的时间
+ */
+void UVCPreview::switch_completed(int result) {
+	pthread_mutex_lock(&preview_mutex);
+	// frames of previous size may arrive until the preview thread starts switching
+	// 在预览线程开始切换之前可能还会收到之前尺寸的帧
+	if (mSwitchStartUs && (result || !mSwitchRequested)) {
+		mSwitchResult = result;
+		mSwitchGlitchUs = (int64_t)(uvc_startup_time_us() - mSwitchStartUs);
+		mSwitchStartUs = 0;
+		pthread_cond_broadcast(&switch_sync);
+	}
+	pthread_mutex_unlock(&preview_mutex);
+}
+
+/**
+ * change size/format while previewing without stopping the preview/capture threads.
+ * the stream is renegotiated and restarted, frame pool and window geometry are resized,
+ * the frame callback and capture surface are kept. wait until the first frame of the new
+ * size is shown or the switching fails.
+ * if preview is not running, same as #setPreviewSize
+ * 预览中不停止预览/抓拍线程而切换尺寸/格式
+ * 重新协商并重启视频流，调整帧池和窗口尺寸，保留帧回调和抓拍Surface
+ * 等待直到显示新尺寸的第一帧或切换失败，未预览时与#setPreviewSize相同
+ * @return glitch duration in microseconds(>=0) or negative error code,
+ * UVC_ERROR_TIMEOUT: the request was cancelled before the stream was touched, size/format are unchanged,
+ * UVC_ERROR_BUSY: timed out after the stream was restarted, the new size/format may still take effect
+ * 画面中断的时长(微秒，>=0)或负的错误码，
+ * UVC_ERROR_TIMEOUT: 请求在改动视频流之前被取消，尺寸/格式不变，
+ * UVC_ERROR_BUSY: 视频流重启后超时，新的尺寸/格式仍可能生效
+ */
+int64_t UVCPreview::switchPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth) {
+	ENTER();
+
+	if (!isRunning()) {
+		const int result = setPreviewSize(width, height, (360 - frameRotationAngle) % 360,
+			min_fps, max_fps, mode, bandwidth);
+		RETURN(result ? (result < 0 ? result : -result) : 0, int64_t);
+	}
+	int64_t result;
+	pthread_mutex_lock(&preview_mutex);
+	{
+		switchWidth = width;
+		switchHeight = height;
+		switchMinFps = min_fps;
+		switchMaxFps = max_fps;
+		switchMode = mode;
+		switchBandwidth = bandwidth;
+		mSwitchResult = UVC_ERROR_TIMEOUT;
+		mSwitchStartUs = uvc_startup_time_us();
+		mSwitchRequested = true;
+		// wake up the preview thread 唤醒预览线程
+		pthread_cond_signal(&preview_sync);
+		struct timespec deadline;
+		clock_gettime(CLOCK_REALTIME, &deadline);
+		deadline.tv_sec += SWITCH_TIMEOUT_SEC;
+		while (mSwitchStartUs && isRunning()) {
+			if (pthread_cond_timedwait(&switch_sync, &preview_mutex, &deadline) == ETIMEDOUT) {
+				break;
+			}
+		}
+		if (mSwitchStartUs) {
+			// timed out or preview stopped 超时或预览已停止
+			mSwitchStartUs = 0;
+			if (mSwitchRequested) {
+				// the preview thread has not taken the request yet, cancel it so nothing changes
+				// 预览线程尚未取走请求，取消请求以便不做任何改变
+				mSwitchRequested = false;
+				result = isRunning() ? UVC_ERROR_TIMEOUT : UVC_ERROR_INTERRUPTED;
+			} else {
+				// the stream is already being restarted, the switch may still complete(or be rolled back)
+				// 视频流已在重启中，切换仍可能完成(或被回滚)
+				result = isRunning() ? UVC_ERROR_BUSY : UVC_ERROR_INTERRUPTED;
+			}
+		} else {
+			result = mSwitchResult ? mSwitchResult : mSwitchGlitchUs;
+		}
+	}
+	pthread_mutex_unlock(&preview_mutex);
+	LOGI("switchPreviewSize:(%d,%d)@%s,result=%lld", width, height, !mode ? "YUYV" : "MJPEG", (long long)result);
+
+	RETURN(result, int64_t);
+}
+
+// 开始获取帧，有回放源/虚拟帧源时从其获取，否则从USB设备获取
+uvc_error_t UVCPreview::start_streaming(uvc_stream_ctrl_t *ctrl) {
+	ENTER();
+
+	uvc_error_t result;
+	statsReceived = statsIncomplete = statsOverrun = 0;
+	statsDecoded = statsDecodeUs = 0;
+	if (mReplay || mSynthetic) {
+		result = pthread_create(&source_thread, NULL, source_thread_func, (void *)this)
+			? UVC_ERROR_OTHER : UVC_SUCCESS;
+	} else {
+		result = uvc_start_streaming_bandwidth(
+			mDeviceHandle, ctrl, uvc_preview_frame_callback, (void *)this, requestBandwidth, 0);
+	}
+	RETURN(result, uvc_error_t);
+}
+
+// 停止获取帧
+void UVCPreview::stop_streaming() {
+	ENTER();
+
+	if (mReplay) {
+		uvc_replay_stop(mReplay);
+		if (pthread_join(source_thread, NULL) != EXIT_SUCCESS) {
+			LOGW("UVCPreview::terminate replay thread: pthread_join failed");
+		}
+		uvc_replay_stats_t stats;
+		uvc_replay_get_stats(mReplay, &stats);
+		LOGI("replay finished:frames=%llu,error_frames=%llu,transfers=%llu,bytes=%llu,elapsed=%llu[us]",
+			(unsigned long long)stats.frames, (unsigned long long)stats.error_frames,
+			(unsigned long long)stats.transfers, (unsigned long long)stats.payload_bytes,
+			(unsigned long long)stats.elapsed_us);
+		uvc_replay_close(mReplay);
+		mReplay = NULL;
+	} else if (mSynthetic) {
+		uvc_synthetic_stop(mSynthetic);
+		if (pthread_join(source_thread, NULL) != EXIT_SUCCESS) {
+			LOGW("UVCPreview::terminate synthetic thread: pthread_join failed");
+		}
+		uvc_synthetic_stats_t stats;
+		uvc_synthetic_get_stats(mSynthetic, &stats);
+		LOGI("synthetic finished:frames=%llu,late_frames=%llu,bytes=%llu,elapsed=%llu[us]",
+			(unsigned long long)stats.frames, (unsigned long long)stats.late_frames,
+			(unsigned long long)stats.bytes, (unsigned long long)stats.elapsed_us);
+		uvc_synthetic_close(mSynthetic);
+		mSynthetic = NULL;
+	} else {
+		uvc_stop_streaming(mDeviceHandle);
 	}
 
 	EXIT();
 }
 
+// 回放/虚拟帧源线程，与libuvc的回调线程一样调用 uvc_preview_frame_callback
+void *UVCPreview::source_thread_func(void *vptr_args) {
+	ENTER();
+
+	UVCPreview *preview = reinterpret_cast<UVCPreview *>(vptr_args);
+	if (LIKELY(preview)) {
+		if (preview->mReplay) {
+			uvc_replay_run(preview->mReplay, uvc_preview_frame_callback, (void *)preview,
+				preview->mReplayRealtime, 1);
+		} else {
+			uvc_synthetic_run(preview->mSynthetic, uvc_preview_frame_callback, (void *)preview, 0);
+		}
+	}
+
+	PRE_EXIT();
+	pthread_exit(NULL);
+}
+
 // 复制帧数据
 static void copyFrame(const uint8_t *src, uint8_t *dest, const int width, int height, const int stride_src, const int stride_dest) {
 	const int h8 = height % 8;
@@ -773,7 +1378,9 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 				if (!b) {
 					pthread_mutex_lock(&preview_mutex);
 					// 复制到Surface
-					copyToSurface(converted, window);
+					if (!copyToSurface(converted, window)) {
+						uvc_mark_startup(mDeviceHandle, UVC_STARTUP_FIRST_DISPLAYED, 0);
+					}
 					pthread_mutex_unlock(&preview_mutex);
 				} else {
 					LOGE("failed converting");
@@ -784,7 +1391,9 @@ uvc_frame_t *UVCPreview::draw_preview_one(uvc_frame_t *frame, ANativeWindow **wi
 		} else {
 			pthread_mutex_lock(&preview_mutex);
 			// 复制到Surface
-			copyToSurface(frame, window);
+			if (!copyToSurface(frame, window)) {
+				uvc_mark_startup(mDeviceHandle, UVC_STARTUP_FIRST_DISPLAYED, 0);
+			}
 			pthread_mutex_unlock(&preview_mutex);
 		}
 	}
@@ -1009,6 +1618,9 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	ENTER();
 
 	if (LIKELY(frame)) {
+		if (mEncoderCallbackObj) {
+			do_encoder_callback(env, frame);
+		}
 		uvc_frame_t *callback_frame = frame;
 		if (mFrameCallbackObj) {
 			if (mFrameCallbackFunc) {
@@ -1046,6 +1658,134 @@ void UVCPreview::do_capture_callback(JNIEnv *env, uvc_frame_t *frame) {
 	EXIT();
 }
 
+/**
+ * convert YUYV frame into YUV420 planes, the layout of the planes(planar, semi-planar, NV12/NV21)
+ * is given only by their addresses, row strides and pixel stride as android.media.Image describes it
+ * 将YUYV帧转换为YUV420平面，平面的布局(平面、半平面、NV12/NV21)仅由其地址、行跨度和像素跨度给出，
+ * 与android.media.Image的描述方式相同
+ * @return zero on success, negative value if a plane is too small 成功时为0，平面太小时为负值
+ */
+static int yuyv2yuv420(const uvc_frame_t *in,
+	uint8_t *y_plane, const size_t y_capacity, const int y_stride,
+	uint8_t *u_plane, const size_t u_capacity, uint8_t *v_plane, const size_t v_capacity,
+	const int uv_stride, const int uv_pixel_stride) {
+
+	if (UNLIKELY(in->frame_format != UVC_FRAME_FORMAT_YUYV)) {
+		return -1;
+	}
+	const int width = in->width & ~1;
+	const int height = in->height & ~1;
+	if (UNLIKELY((width <= 0) || (height <= 0) || (y_stride < width) || (uv_pixel_stride <= 0))) {
+		return -1;
+	}
+	const size_t y_bytes = (size_t)y_stride * (height - 1) + width;
+	const size_t uv_bytes = (size_t)uv_stride * ((height >> 1) - 1) + (size_t)uv_pixel_stride * ((width >> 1) - 1) + 1;
+	if (UNLIKELY((y_bytes > y_capacity) || (uv_bytes > u_capacity) || (uv_bytes > v_capacity))) {
+		return -1;
+	}
+	const uint8_t *src = (const uint8_t *)in->data;
+	const size_t src_stride = in->step;
+	for (int h = 0; h < height; h += 2) {
+		const uint8_t *yuv0 = src + src_stride * h;
+		const uint8_t *yuv1 = yuv0 + src_stride;
+		uint8_t *y0 = y_plane + (size_t)y_stride * h;
+		uint8_t *y1 = y0 + y_stride;
+		uint8_t *u = u_plane + (size_t)uv_stride * (h >> 1);
+		uint8_t *v = v_plane + (size_t)uv_stride * (h >> 1);
+		for (int w = 0; w < width; w += 2) {
+			y0[0] = yuv0[0];	// y
+			y0[1] = yuv0[2];	// y'
+			y1[0] = yuv1[0];	// y on next row
+			y1[1] = yuv1[2];	// y' on next row
+			*u = yuv0[1];
+			*v = yuv0[3];
+			y0 += 2;
+			y1 += 2;
+			u += uv_pixel_stride;
+			v += uv_pixel_stride;
+			yuv0 += 4;	// (1pixel=2bytes)x2pixels=4bytes
+			yuv1 += 4;
+		}
+	}
+	return 0;
+}
+
+/**
+ * convert the frame straight into the planes that IEncoderFrameCallback#onRequestPlanes returned
+ * (usually the input image of MediaCodec), this saves copying the callback frame into it.
+ * the receiver is called without holding capture_mutex, a local reference keeps it alive
+ * even if it is replaced meanwhile
+ * 将帧直接转换到IEncoderFrameCallback#onRequestPlanes返回的平面(通常是MediaCodec的输入图像)，
+ * 省去将回调帧复制到其中。调用接收者时不持有capture_mutex，即使期间被替换，局部引用也会使其保持有效
+ */
+void UVCPreview::do_encoder_callback(JNIEnv *env, uvc_frame_t *frame) {
+	ENTER();
+
+	jobject callback_obj = NULL;
+	Fields_iencoderframecallback fields;
+	pthread_mutex_lock(&capture_mutex);
+	{
+		if (LIKELY(mEncoderCallbackObj)) {
+			callback_obj = env->NewLocalRef(mEncoderCallbackObj);
+			fields = iencodercallback_fields;
+		}
+	}
+	pthread_mutex_unlock(&capture_mutex);
+	if (UNLIKELY(!callback_obj)) {
+		EXIT();
+	}
+	jintArray layout = env->NewIntArray(3);
+	jobjectArray planes = layout ? (jobjectArray)env->CallObjectMethod(callback_obj, fields.onRequestPlanes,
+		(jint)frame->width, (jint)frame->height, layout) : NULL;
+	if (UNLIKELY(env->ExceptionCheck())) {
+		env->ExceptionClear();
+		planes = NULL;
+	}
+	if (planes) {
+		int bytes = -1;
+		jint strides[3];	// row stride of Y, row stride of U/V, pixel stride of U/V
+		uint8_t *addr[3] = { NULL, NULL, NULL };
+		size_t capacity[3] = { 0, 0, 0 };
+		if (LIKELY(env->GetArrayLength(planes) >= 3)) {
+			env->GetIntArrayRegion(layout, 0, 3, strides);
+			for (int i = 0; i < 3; i++) {
+				jobject buf = env->GetObjectArrayElement(planes, i);
+				if (LIKELY(buf)) {
+					addr[i] = (uint8_t *)env->GetDirectBufferAddress(buf);
+					const jlong cap = env->GetDirectBufferCapacity(buf);
+					capacity[i] = cap > 0 ? (size_t)cap : 0;
+					env->DeleteLocalRef(buf);
+				}
+			}
+		}
+		if (LIKELY(addr[0] && addr[1] && addr[2])
+			&& !yuyv2yuv420(frame, addr[0], capacity[0], strides[0],
+				addr[1], capacity[1], addr[2], capacity[2], strides[1], strides[2])) {
+
+			// bytes from the start of the first plane to the end of the last one 从第一个平面的起始到最后一个平面的末尾的字节数
+			uint8_t *head = addr[0], *tail = addr[0] + capacity[0];
+			for (int i = 1; i < 3; i++) {
+				if (addr[i] < head) head = addr[i];
+				if (addr[i] + capacity[i] > tail) tail = addr[i] + capacity[i];
+			}
+			bytes = (int)(tail - head);
+		} else {
+			LOGW("failed to convert into encoder planes:%dx%d", frame->width, frame->height);
+		}
+		// capture time of the frame is passed through to the muxer unchanged 帧的捕获时间原样传递到混合器
+		const jlong pts_us = (jlong)frame->capture_time.tv_sec * 1000000LL + frame->capture_time.tv_usec;
+		env->CallVoidMethod(callback_obj, fields.onFrameWritten, bytes, pts_us);
+		env->ExceptionClear();
+		env->DeleteLocalRef(planes);
+	}
+	if (layout) {
+		env->DeleteLocalRef(layout);
+	}
+	env->DeleteLocalRef(callback_obj);
+
+	EXIT();
+}
+
 void UVCPreview::setHorizontalMirror(int horizontalMirror){
 	frameHorizontalMirror = horizontalMirror;
 	if( frameHorizontalMirror && !rotateImage) {
@@ -30,6 +30,7 @@
 #include <android/native_window.h>
 #include "objectarray.h"
 #include "RotateImage.h"
+#include "MJPEGRecorder.h"
 
 #pragma interface
 
@@ -56,12 +57,36 @@ typedef struct {
 	jmethodID onFrame;
 } Fields_iframecallback;
 
+typedef struct {
+	jmethodID onRequestPlanes;
+	jmethodID onFrameWritten;
+} Fields_iencoderframecallback;
+
 class UVCPreview {
 private:
 	uvc_device_handle_t *mDeviceHandle;
 	// 预览视图
 	ANativeWindow *mPreviewWindow;
 	volatile bool mIsRunning;
+	// paused: stream/threads/frame pool are kept but frames are dropped in the frame callback
+	// 暂停中: 保留视频流/线程/帧池，但在帧回调中丢弃帧
+	volatile bool mIsPaused;
+	// size/format switching requested by #switchPreviewSize, guarded by preview_mutex
+	// #switchPreviewSize请求的尺寸/格式切换，由preview_mutex保护
+	volatile bool mSwitchRequested;
+	int switchWidth, switchHeight, switchMode;
+	int switchMinFps, switchMaxFps;
+	float switchBandwidth;
+	uint64_t mSwitchStartUs;	// time of the request, 0 if not switching 请求的时间，未切换时为0
+	int64_t mSwitchGlitchUs;
+	int mSwitchResult;
+	pthread_cond_t switch_sync;
+	// statistics for choosing YUYV/MJPEG, reset when streaming starts, see #getPreviewStats
+	// 用于选择YUYV/MJPEG的统计，开始流时重置，参见#getPreviewStats
+	uint64_t statsReceived, statsIncomplete, statsOverrun;
+	uint64_t statsDecoded, statsDecodeUs;
+	// negotiated frame interval[100ns], 0 if unknown 协商的帧间隔[100ns]，未知时为0
+	uint32_t frameInterval;
 	int requestWidth, requestHeight, requestMode;
 	int requestMinFps, requestMaxFps;
 	float requestBandwidth;
@@ -96,6 +121,24 @@ private:
 	// 像素格式转换方法
 	convFunc_t mFrameCallbackFunc;
 	Fields_iframecallback iframecallback_fields;
+	// receiver of the frames converted straight into its buffer(IEncoderFrameCallback), guarded by capture_mutex
+	// 帧直接转换到其缓冲区的接收者(IEncoderFrameCallback)，由capture_mutex保护
+	jobject mEncoderCallbackObj;
+	Fields_iencoderframecallback iencodercallback_fields;
+	// 回放源，为NULL时从USB设备获取帧
+	char *mReplayPath;
+	int mReplayRealtime;
+	uvc_replay_t *mReplay;
+	// 虚拟帧源，mSyntheticFps为负数时不使用
+	int mSyntheticFps;
+	int mSyntheticJitterUs;
+	uvc_synthetic_t *mSynthetic;
+	// 回放/虚拟帧源的帧生成线程
+	pthread_t source_thread;
+	// MJPEG frames are written into the file as they are, guarded by recorder_mutex
+	// MJPEG帧原样写入文件，由recorder_mutex保护
+	MJPEGRecorder *mMJPEGRecorder;
+	pthread_mutex_t recorder_mutex;
 	// 帧回调像素格式
 	int mPixelFormat;
 	size_t callbackPixelBytes;
@@ -116,6 +159,11 @@ private:
 	static void *preview_thread_func(void *vptr_args);
 	int prepare_preview(uvc_stream_ctrl_t *ctrl);
 	void do_preview(uvc_stream_ctrl_t *ctrl);
+	void do_switch(uvc_stream_ctrl_t *ctrl);
+	void switch_completed(int result);
+	uvc_error_t start_streaming(uvc_stream_ctrl_t *ctrl);
+	void stop_streaming();
+	static void *source_thread_func(void *vptr_args);
 	uvc_frame_t *draw_preview_one(uvc_frame_t *frame, ANativeWindow **window, convFunc_t func, int pixelBytes);
 //
 	void addCaptureFrame(uvc_frame_t *frame);
@@ -126,6 +174,7 @@ private:
 	void do_capture_surface(JNIEnv *env);
 	void do_capture_idle_loop(JNIEnv *env);
 	void do_capture_callback(JNIEnv *env, uvc_frame_t *frame);
+	void do_encoder_callback(JNIEnv *env, uvc_frame_t *frame);
 	void callbackPixelFormatChanged();
 	// 处理图像帧
 	void handleFrame(uvc_frame_t *frame);
@@ -137,10 +186,20 @@ public:
 	int setPreviewSize(int width, int height, int cameraAngle, int min_fps, int max_fps, int mode, float bandwidth = 1.0f);
 	int setPreviewDisplay(ANativeWindow *preview_window);
 	int setFrameCallback(JNIEnv *env, jobject frame_callback_obj, int pixel_format);
+	int setEncoderFrameCallback(JNIEnv *env, jobject callback_obj);
 	int startPreview();
 	int stopPreview();
+	int pausePreview();
+	int resumePreview();
+	int64_t switchPreviewSize(int width, int height, int min_fps, int max_fps, int mode, float bandwidth);
 	inline const bool isCapturing() const;
 	int setCaptureDisplay(ANativeWindow *capture_window);
+	size_t getMemoryUsage();
+	int getPreviewStats(int64_t *values, int num);
+	int setReplaySource(const char *path, int realtime);
+	int setSyntheticSource(int fps, int jitter_us);
+	int startMJPEGRecording(const char *path, int decimation);
+	int stopMJPEGRecording();
 
 	void setHorizontalMirror(int horizontalMirror);
 	void setVerticalMirror(int verticalMirror);
@@ -1,4 +1,5 @@
 #include <stdlib.h>
+#include <string.h>
 #include <linux/time.h>
 #include <unistd.h>
 #include "utilbase.h"
@@ -8,11 +9,15 @@
 #define	LOCAL_DEBUG 0
 
 UVCStatusCallback::UVCStatusCallback(uvc_device_handle_t *devh)
-:	mDeviceHandle(devh),
-	mStatusCallbackObj(NULL) {
+:	UVCEventDispatcher("UVCStatusCallback"),
+	mDeviceHandle(devh),
+	mStatusCallbackObj(NULL),
+	mControlChangedFunc(NULL),
+	mControlChangedPtr(NULL) {
 
 	ENTER();
 	pthread_mutex_init(&status_mutex, NULL);
+	start();
 
 	uvc_set_status_callback(mDeviceHandle, uvc_status_callback, (void *)this);
 	EXIT();
@@ -21,6 +26,10 @@ UVCStatusCallback::UVCStatusCallback(uvc_device_handle_t *devh)
 UVCStatusCallback::~UVCStatusCallback() {
 
 	ENTER();
+	// unregister first so that the libusb event thread never posts to the dispatcher being stopped
+	// 先注销，使libusb事件线程不会向正在停止的分发器投递
+	uvc_set_status_callback(mDeviceHandle, NULL, NULL);
+	stop();
 	pthread_mutex_destroy(&status_mutex);
 	EXIT();
 }
@@ -58,30 +67,93 @@ int UVCStatusCallback::setCallback(JNIEnv *env, jobject status_callback_obj) {
 	RETURN(0, int);
 }
 
+/**
+ * set listener for control changes, e.g. for invalidating cached control values
+ * 设置控制变化的监听器，例如用于使缓存的控制值失效
+ */
+void UVCStatusCallback::setControlChangedListener(control_changed_func_t func, void *ptr) {
+	ENTER();
+	pthread_mutex_lock(&status_mutex);
+	{
+		mControlChangedFunc = func;
+		mControlChangedPtr = ptr;
+	}
+	pthread_mutex_unlock(&status_mutex);
+	EXIT();
+}
+
 void UVCStatusCallback::notifyStatusCallback(JNIEnv* env, uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len) {
 
+	// call Java without status_mutex, the libusb event thread takes it in #uvc_status_callback
+	// 不持有status_mutex调用Java，libusb事件线程会在#uvc_status_callback中获取它
+	jobject callback_obj = NULL;
+	jmethodID on_status = NULL;
 	pthread_mutex_lock(&status_mutex);
 	{
-		if (mStatusCallbackObj) {
-			jobject buf = env->NewDirectByteBuffer(data, data_len);
-			env->CallVoidMethod(mStatusCallbackObj, istatuscallback_fields.onStatus, (int)status_class, event, selector, (int)status_attribute, buf);
-			env->ExceptionClear();
-			env->DeleteLocalRef(buf);
+		if (mStatusCallbackObj && istatuscallback_fields.onStatus) {
+			callback_obj = env->NewLocalRef(mStatusCallbackObj);
+			on_status = istatuscallback_fields.onStatus;
 		}
 	}
 	pthread_mutex_unlock(&status_mutex);
+	if (callback_obj) {
+		jobject buf = env->NewDirectByteBuffer(data, data_len);
+		env->CallVoidMethod(callback_obj, on_status, (int)status_class, event, selector, (int)status_attribute, buf);
+		env->ExceptionClear();
+		env->DeleteLocalRef(buf);
+		env->DeleteLocalRef(callback_obj);
+	}
+}
+
+void UVCStatusCallback::dispatch(JNIEnv *env, const uvc_event_t &event) {
+	notifyStatusCallback(env, (uvc_status_class)event.status_class, event.event, event.selector,
+		(uvc_status_attribute)event.attribute, (void *)event.data, event.data_len);
+}
+
+/**
+ * value changes of the same control are coalesced, only the last value is delivered
+ * 同一控制的值变化会被合并，只传递最后的值
+ */
+bool UVCStatusCallback::isCoalescable(const uvc_event_t &event, const uvc_event_t &later) {
+	return (event.attribute == UVC_STATUS_ATTRIBUTE_VALUE_CHANGE)
+		&& (later.attribute == event.attribute)
+		&& (later.status_class == event.status_class)
+		&& (later.event == event.event)
+		&& (later.selector == event.selector);
 }
 
+/**
+ * called on the libusb event thread, only queues the event so that Java listeners never delay usb event handling
+ * 在libusb事件线程上调用，只将事件排队，Java监听器不会延迟usb事件处理
+ */
 void UVCStatusCallback::uvc_status_callback(uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len, void *user_ptr) {
 
 	UVCStatusCallback *statusCallback = reinterpret_cast<UVCStatusCallback *>(user_ptr);
 
-	JavaVM *vm = getVM();
-	JNIEnv *env;
-	// attach to JavaVM
-	vm->AttachCurrentThread(&env, NULL);
-
-	statusCallback->notifyStatusCallback(env, status_class, event, selector, status_attribute, data, data_len);
-	
-	vm->DetachCurrentThread();
+	// take the listener and its argument together, #setControlChangedListener may change them on another thread
+	// 同时获取监听器及其参数，#setControlChangedListener可能在其他线程上更改它们
+	control_changed_func_t func;
+	void *ptr;
+	pthread_mutex_lock(&statusCallback->status_mutex);
+	{
+		func = statusCallback->mControlChangedFunc;
+		ptr = statusCallback->mControlChangedPtr;
+	}
+	pthread_mutex_unlock(&statusCallback->status_mutex);
+	if (func) {
+		func(status_class, selector, ptr);
+	}
+	uvc_event_t ev;
+	ev.status_class = status_class;
+	ev.event = event;
+	ev.selector = selector;
+	ev.attribute = status_attribute;
+	ev.button = ev.state = 0;
+	ev.data_len = data_len < EVENT_DATA_SIZE ? data_len : EVENT_DATA_SIZE;
+	if (data && ev.data_len) {
+		memcpy(ev.data, data, ev.data_len);
+	}
+	if (UNLIKELY(!statusCallback->post(ev))) {
+		LOGW("status event dropped, dispatcher does not keep up");
+	}
 }
@@ -5,6 +5,7 @@
 #include <pthread.h>
 #include <android/native_window.h>
 #include "objectarray.h"
+#include "UVCEventDispatcher.h"
 
 #pragma interface
 
@@ -13,19 +14,28 @@ typedef struct {
 	jmethodID onStatus;
 } Fields_istatuscallback;
 
-class UVCStatusCallback {
+// listener called on the status thread before the Java callback 在Java回调之前于状态线程上调用的监听器
+typedef void (*control_changed_func_t)(uvc_status_class status_class, int selector, void *ptr);
+
+class UVCStatusCallback : public UVCEventDispatcher {
 private:
 	uvc_device_handle_t *mDeviceHandle;
  	pthread_mutex_t status_mutex;
  	jobject mStatusCallbackObj;
  	Fields_istatuscallback istatuscallback_fields;
+ 	control_changed_func_t mControlChangedFunc;
+ 	void *mControlChangedPtr;
  	void notifyStatusCallback(JNIEnv *env, uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len);
  	static void uvc_status_callback(uvc_status_class status_class, int event, int selector, uvc_status_attribute status_attribute, void *data, size_t data_len, void *user_ptr);
+protected:
+	virtual void dispatch(JNIEnv *env, const uvc_event_t &event);
+	virtual bool isCoalescable(const uvc_event_t &event, const uvc_event_t &later);
 public:
 	UVCStatusCallback(uvc_device_handle_t *devh);
-	~UVCStatusCallback();
+	virtual ~UVCStatusCallback();
 
 	int setCallback(JNIEnv *env, jobject status_callback_obj);
+	void setControlChangedListener(control_changed_func_t func, void *ptr);
 };
 
 #endif /* UVCSTATUSCALLBACK_H_ */
@@ -179,6 +179,23 @@ static void nativeCameraAngle(JNIEnv *env, jobject thiz,
 	}
 }
 
+// 设置描述符/协商结果缓存目录
+static jint nativeSetCacheDir(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jstring dir_str) {
+
+	ENTER();
+	int result = JNI_ERR;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		const char *c_dir = dir_str ? env->GetStringUTFChars(dir_str, JNI_FALSE) : NULL;
+		result = camera->setCacheDir(c_dir);
+		if (c_dir) {
+			env->ReleaseStringUTFChars(dir_str, c_dir);
+		}
+	}
+	RETURN(result, jint);
+}
+
 // 连接相机
 static jint nativeConnect(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera,
@@ -237,6 +254,18 @@ static jint nativeSetButtonCallback(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+static jint nativeSetStatusCoalescing(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jboolean coalesce) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setStatusCoalescing(coalesce);
+	}
+	RETURN(result, jint);
+}
+
 static jobject nativeGetSupportedSize(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera) {
 
@@ -253,6 +282,76 @@ static jobject nativeGetSupportedSize(JNIEnv *env, jobject thiz,
 	RETURN(result, jobject);
 }
 
+static jintArray nativeGetSupportedSizeArray(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jintArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		int num;
+		int *values = camera->getSupportedSizeArray(num);
+		if (LIKELY(values)) {
+			result = env->NewIntArray(num);
+			if (LIKELY(result)) {
+				env->SetIntArrayRegion(result, 0, num, (const jint *)values);
+			}
+			free(values);
+		}
+	}
+	RETURN(result, jintArray);
+}
+
+static jlongArray nativeGetStartupTimes(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jlongArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		int64_t times[UVC_STARTUP_PHASE_NUM];
+		const int num = camera->getStartupTimes(times, UVC_STARTUP_PHASE_NUM);
+		if (LIKELY(num > 0)) {
+			result = env->NewLongArray(num);
+			if (LIKELY(result)) {
+				env->SetLongArrayRegion(result, 0, num, (const jlong *)times);
+			}
+		}
+	}
+	RETURN(result, jlongArray);
+}
+
+static jintArray nativeGetBandwidthInfo(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jintArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		int values[6 + UVC_MAX_ALTSETTINGS];
+		const int num = camera->getBandwidthInfo(values, NUM_ARRAY_ELEMENTS(values));
+		if (LIKELY(num > 0)) {
+			result = env->NewIntArray(num);
+			if (LIKELY(result)) {
+				env->SetIntArrayRegion(result, 0, num, (const jint *)values);
+			}
+		}
+	}
+	RETURN(result, jintArray);
+}
+
+static jint nativeGetMaxPayloadSize(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint width, jint height, jint min_fps, jint max_fps, jint mode) {
+
+	ENTER();
+	jint result = UVC_ERROR_NO_DEVICE;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->getMaxPayloadSize(width, height, min_fps, max_fps, mode);
+	}
+	RETURN(result, jint);
+}
+
 //======================================================================
 // 设定预览画面的大小
 static jint nativeSetPreviewSize(JNIEnv *env, jobject thiz,
@@ -290,6 +389,45 @@ static jint nativeStopPreview(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+// 预览中切换尺寸/格式
+static jlong nativeSwitchPreviewSize(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint width, jint height, jint min_fps, jint max_fps, jint mode, jfloat bandwidth) {
+
+	jlong result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->switchPreviewSize(width, height, min_fps, max_fps, mode, bandwidth);
+	}
+	RETURN(result, jlong);
+}
+
+// 暂停预览，保留视频流
+static jint nativePausePreview(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->pausePreview();
+	}
+	RETURN(result, jint);
+}
+
+// 恢复预览
+static jint nativeResumePreview(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->resumePreview();
+	}
+	RETURN(result, jint);
+}
+
 static jint nativeSetPreviewDisplay(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jSurface) {
 
@@ -316,6 +454,19 @@ static jint nativeSetFrameCallback(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+static jint nativeSetEncoderFrameCallback(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jobject jIEncoderFrameCallback) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		jobject callback_obj = env->NewGlobalRef(jIEncoderFrameCallback);
+		result = camera->setEncoderFrameCallback(env, callback_obj);
+	}
+	RETURN(result, jint);
+}
+
 static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	ID_TYPE id_camera, jobject jSurface) {
 
@@ -329,6 +480,113 @@ static jint nativeSetCaptureDisplay(JNIEnv *env, jobject thiz,
 	RETURN(result, jint);
 }
 
+// 获取视频流占用的内存字节数
+static jlong nativeGetMemoryUsage(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jlong result = 0;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = (jlong)camera->getMemoryUsage();
+	}
+	RETURN(result, jlong);
+}
+
+static jlongArray nativeGetPreviewStats(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jlongArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		int64_t values[8];
+		const int num = camera->getPreviewStats(values, NUM_ARRAY_ELEMENTS(values));
+		if (LIKELY(num > 0)) {
+			result = env->NewLongArray(num);
+			if (LIKELY(result)) {
+				env->SetLongArrayRegion(result, 0, num, (const jlong *)values);
+			}
+		}
+	}
+	RETURN(result, jlongArray);
+}
+
+// 设置原始有效负载记录文件
+static jint nativeSetPayloadRecord(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jstring path_str) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		const char *c_path = path_str ? env->GetStringUTFChars(path_str, JNI_FALSE) : NULL;
+		result = camera->setPayloadRecord(c_path);
+		if (c_path) {
+			env->ReleaseStringUTFChars(path_str, c_path);
+		}
+	}
+	RETURN(result, jint);
+}
+
+// 设置回放源
+static jint nativeSetReplaySource(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jstring path_str, jboolean realtime) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		const char *c_path = path_str ? env->GetStringUTFChars(path_str, JNI_FALSE) : NULL;
+		result = camera->setReplaySource(c_path, realtime ? 1 : 0);
+		if (c_path) {
+			env->ReleaseStringUTFChars(path_str, c_path);
+		}
+	}
+	RETURN(result, jint);
+}
+
+// 设置虚拟帧源
+static jint nativeSetSyntheticSource(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint fps, jint jitter_us) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->setSyntheticSource(fps, jitter_us);
+	}
+	RETURN(result, jint);
+}
+
+// 开始MJPEG直接录像
+static jint nativeStartMjpegRecording(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jstring path_str, jint decimation) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && path_str)) {
+		const char *c_path = env->GetStringUTFChars(path_str, JNI_FALSE);
+		result = camera->startMJPEGRecording(c_path, decimation);
+		env->ReleaseStringUTFChars(path_str, c_path);
+	}
+	RETURN(result, jint);
+}
+
+// 停止MJPEG直接录像
+static jint nativeStopMjpegRecording(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	jint result = JNI_ERR;
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		result = camera->stopMJPEGRecording();
+	}
+	RETURN(result, jint);
+}
+
 //======================================================================
 // 获取相机控制支持的功能
 static jlong nativeGetCtrlSupports(JNIEnv *env, jobject thiz,
@@ -362,6 +620,62 @@ static jlong nativeGetProcSupports(JNIEnv *env, jobject thiz,
 	RETURN(result, jlong);
 }
 
+/**
+ * limits and current values of the controls in the native registry by one call,
+ * CTRL_TABLE_STRIDE values for each control
+ * 通过一次调用获取本地注册表中控制的范围和当前值，每个控制CTRL_TABLE_STRIDE个值
+ */
+static jintArray nativeGetControlTable(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera) {
+
+	ENTER();
+	jintArray result = NULL;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		int values[CTRL_INDEX_NUM * CTRL_TABLE_STRIDE];
+		const int num = camera->getControlTable(values, NUM_ARRAY_ELEMENTS(values));
+		if (LIKELY(num > 0)) {
+			result = env->NewIntArray(num);
+			if (LIKELY(result)) {
+				env->SetIntArrayRegion(result, 0, num, (const jint *)values);
+			}
+		}
+	}
+	RETURN(result, jintArray);
+}
+
+/**
+ * apply {CTRL_INDEX_XXX, raw value} pairs in one call, only the values that differ are sent
+ * 一次调用应用{CTRL_INDEX_XXX, 原始值}对，只发送不同的值
+ */
+static jint nativeApplyControls(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jintArray values) {
+
+	ENTER();
+	jint result = UVC_ERROR_NO_DEVICE;
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera && values)) {
+		const jsize num = env->GetArrayLength(values);
+		jint *buf = env->GetIntArrayElements(values, NULL);
+		if (LIKELY(buf)) {
+			result = camera->applyControls((const int *)buf, num);
+			env->ReleaseIntArrayElements(values, buf, JNI_ABORT);
+		}
+	}
+	RETURN(result, jint);
+}
+
+static void nativeInvalidateControl(JNIEnv *env, jobject thiz,
+	ID_TYPE id_camera, jint index) {
+
+	ENTER();
+	UVCCamera *camera = reinterpret_cast<UVCCamera *>(id_camera);
+	if (LIKELY(camera)) {
+		camera->invalidateControl(index);
+	}
+	EXIT();
+}
+
 //======================================================================
 // Java mnethod correspond to this function should not be a static mathod
 static jint nativeUpdateScanningModeLimit(JNIEnv *env, jobject thiz,
@@ -2061,23 +2375,43 @@ static JNINativeMethod methods[] = {
 	{ "nativeHorizontalMirror",		    "(JI)V", (void *) nativeHorizontalMirror },
 	{ "nativeVerticalMirror",		    "(JI)V", (void *) nativeVerticalMirror },
 	{ "nativeCameraAngle",		        "(JI)V", (void *) nativeCameraAngle },
+	{ "nativeSetCacheDir",				"(JLjava/lang/String;)I", (void *) nativeSetCacheDir },
 	{ "nativeConnect",					"(JIIIIILjava/lang/String;)I", (void *) nativeConnect },
 	{ "nativeRelease",					"(J)I", (void *) nativeRelease },
 
 	{ "nativeSetStatusCallback",		"(JLcom/serenegiant/usb_libuvccamera/IStatusCallback;)I", (void *) nativeSetStatusCallback },
 	{ "nativeSetButtonCallback",		"(JLcom/serenegiant/usb_libuvccamera/IButtonCallback;)I", (void *) nativeSetButtonCallback },
+	{ "nativeSetStatusCoalescing",		"(JZ)I", (void *) nativeSetStatusCoalescing },
 
 	{ "nativeGetSupportedSize",			"(J)Ljava/lang/String;", (void *) nativeGetSupportedSize },
+	{ "nativeGetSupportedSizeArray",	"(J)[I", (void *) nativeGetSupportedSizeArray },
+	{ "nativeGetStartupTimes",			"(J)[J", (void *) nativeGetStartupTimes },
+	{ "nativeGetBandwidthInfo",			"(J)[I", (void *) nativeGetBandwidthInfo },
+	{ "nativeGetMaxPayloadSize",		"(JIIIII)I", (void *) nativeGetMaxPayloadSize },
+	{ "nativeGetPreviewStats",			"(J)[J", (void *) nativeGetPreviewStats },
 	{ "nativeSetPreviewSize",			"(JIIIIIIF)I", (void *) nativeSetPreviewSize },
 	{ "nativeStartPreview",				"(J)I", (void *) nativeStartPreview },
 	{ "nativeStopPreview",				"(J)I", (void *) nativeStopPreview },
+	{ "nativePausePreview",				"(J)I", (void *) nativePausePreview },
+	{ "nativeResumePreview",			"(J)I", (void *) nativeResumePreview },
+	{ "nativeSwitchPreviewSize",		"(JIIIIIF)J", (void *) nativeSwitchPreviewSize },
 	{ "nativeSetPreviewDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetPreviewDisplay },
 	{ "nativeSetFrameCallback",			"(JLcom/serenegiant/usb_libuvccamera/IFrameCallback;I)I", (void *) nativeSetFrameCallback },
+	{ "nativeSetEncoderFrameCallback",	"(JLcom/serenegiant/usb_libuvccamera/IEncoderFrameCallback;)I", (void *) nativeSetEncoderFrameCallback },
 
 	{ "nativeSetCaptureDisplay",		"(JLandroid/view/Surface;)I", (void *) nativeSetCaptureDisplay },
+	{ "nativeGetMemoryUsage",			"(J)J", (void *) nativeGetMemoryUsage },
+	{ "nativeSetPayloadRecord",			"(JLjava/lang/String;)I", (void *) nativeSetPayloadRecord },
+	{ "nativeSetReplaySource",			"(JLjava/lang/String;Z)I", (void *) nativeSetReplaySource },
+	{ "nativeSetSyntheticSource",		"(JII)I", (void *) nativeSetSyntheticSource },
+	{ "nativeStartMjpegRecording",		"(JLjava/lang/String;I)I", (void *) nativeStartMjpegRecording },
+	{ "nativeStopMjpegRecording",		"(J)I", (void *) nativeStopMjpegRecording },
 
 	{ "nativeGetCtrlSupports",			"(J)J", (void *) nativeGetCtrlSupports },
 	{ "nativeGetProcSupports",			"(J)J", (void *) nativeGetProcSupports },
+	{ "nativeGetControlTable",			"(J)[I", (void *) nativeGetControlTable },
+	{ "nativeApplyControls",			"(J[I)I", (void *) nativeApplyControls },
+	{ "nativeInvalidateControl",		"(JI)V", (void *) nativeInvalidateControl },
 
 	{ "nativeUpdateScanningModeLimit",	"(J)I", (void *) nativeUpdateScanningModeLimit },
 	{ "nativeSetScanningMode",			"(JI)I", (void *) nativeSetScanningMode },
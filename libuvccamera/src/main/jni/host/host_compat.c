@@ -0,0 +1,87 @@
+/*
+ * Host side implementation of the Android functions and the device.c functions used by libuvc.
+ * USB access is not available on host, every libusb call used by libuvc fails with LIBUSB_ERROR_NOT_SUPPORTED.
+ * 主机端实现libuvc用到的Android函数以及device.c中的函数
+ * 主机上不能访问USB，libuvc用到的libusb函数都返回LIBUSB_ERROR_NOT_SUPPORTED
+ */
+#include <stdio.h>
+#include <stdlib.h>
+#include <stdarg.h>
+
+#include "host_compat.h"
+#include "libusb.h"
+#include "libuvc/libuvc.h"
+
+static int host_log_level = ANDROID_LOG_WARN;
+
+int __android_log_print(int prio, const char *tag, const char *fmt, ...) {
+	static const char LEVELS[] = "??VDIWEFS";
+	va_list args;
+	int result = 0;
+
+	if (prio >= host_log_level) {
+		va_start(args, fmt);
+		fprintf(stderr, "%c/%s: ", LEVELS[prio & 0x0f], tag);
+		result = vfprintf(stderr, fmt, args);
+		fputc('\n', stderr);
+		va_end(args);
+	}
+	return result;
+}
+
+void __android_log_assert(const char *cond, const char *tag, const char *fmt, ...) {
+	va_list args;
+
+	fprintf(stderr, "F/%s: assertion failed:%s ", tag, cond ? cond : "");
+	if (fmt) {
+		va_start(args, fmt);
+		vfprintf(stderr, fmt, args);
+		va_end(args);
+	}
+	fputc('\n', stderr);
+	abort();
+}
+
+//======================================================================
+// libusb stubs 桩函数
+//======================================================================
+int LIBUSB_CALL libusb_submit_transfer(struct libusb_transfer *transfer) {
+	return LIBUSB_ERROR_NOT_SUPPORTED;
+}
+
+int LIBUSB_CALL libusb_cancel_transfer(struct libusb_transfer *transfer) {
+	return LIBUSB_ERROR_NOT_SUPPORTED;
+}
+
+struct libusb_transfer * LIBUSB_CALL libusb_alloc_transfer(int iso_packets) {
+	return NULL;
+}
+
+void LIBUSB_CALL libusb_free_transfer(struct libusb_transfer *transfer) {
+}
+
+int LIBUSB_CALL libusb_clear_halt(libusb_device_handle *dev, unsigned char endpoint) {
+	return LIBUSB_ERROR_NOT_SUPPORTED;
+}
+
+int LIBUSB_CALL libusb_control_transfer(libusb_device_handle *dev_handle,
+	uint8_t request_type, uint8_t bRequest, uint16_t wValue, uint16_t wIndex,
+	unsigned char *data, uint16_t wLength, unsigned int timeout) {
+	return LIBUSB_ERROR_NOT_SUPPORTED;
+}
+
+int LIBUSB_CALL libusb_set_interface_alt_setting(libusb_device_handle *dev,
+	int interface_number, int alternate_setting) {
+	return LIBUSB_ERROR_NOT_SUPPORTED;
+}
+
+//======================================================================
+// device.c is not linked, interfaces are never claimed on host 主机上不需要声明接口
+//======================================================================
+uvc_error_t uvc_claim_if(uvc_device_handle_t *devh, int idx) {
+	return UVC_SUCCESS;
+}
+
+uvc_error_t uvc_release_if(uvc_device_handle_t *devh, int idx) {
+	return UVC_SUCCESS;
+}
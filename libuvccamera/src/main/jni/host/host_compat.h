@@ -0,0 +1,37 @@
+/*
+ * Compatibility definitions to build libuvc on a plain Linux host(no Android NDK).
+ * Force included by host/Makefile with -include.
+ * 在没有Android NDK的Linux主机上编译libuvc所需的兼容定义，由host/Makefile通过-include强制包含
+ */
+#ifndef HOST_COMPAT_H_
+#define HOST_COMPAT_H_
+
+#ifndef __ANDROID__
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+// android/log.h
+enum {
+	ANDROID_LOG_UNKNOWN = 0,
+	ANDROID_LOG_DEFAULT,
+	ANDROID_LOG_VERBOSE,
+	ANDROID_LOG_DEBUG,
+	ANDROID_LOG_INFO,
+	ANDROID_LOG_WARN,
+	ANDROID_LOG_ERROR,
+	ANDROID_LOG_FATAL,
+	ANDROID_LOG_SILENT,
+};
+
+int __android_log_print(int prio, const char *tag, const char *fmt, ...)
+	__attribute__((format(printf, 3, 4)));
+void __android_log_assert(const char *cond, const char *tag, const char *fmt, ...);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif // !__ANDROID__
+#endif // HOST_COMPAT_H_
@@ -0,0 +1,64 @@
+/*
+ * Per frame stages of UVCPreview(MJPEG=>YUYV, YUYV=>RGBX) for host tools.
+ * 主机工具使用的UVCPreview逐帧处理(MJPEG=>YUYV, YUYV=>RGBX)
+ */
+#include <stdio.h>
+#include <string.h>
+#include <time.h>
+
+#include "host_pipeline.h"
+
+uint64_t host_now_us(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000ULL + ts.tv_nsec / 1000;
+}
+
+int host_pipeline_init(host_pipeline_t *pipeline, int width, int height, int parse_only) {
+	memset(pipeline, 0, sizeof(*pipeline));
+	pipeline->parse_only = parse_only;
+	pipeline->yuyv = uvc_allocate_frame((size_t)width * height * 2);
+	pipeline->rgbx = uvc_allocate_frame((size_t)width * height * 4);
+	return (pipeline->yuyv && pipeline->rgbx) ? 0 : -1;
+}
+
+void host_pipeline_release(host_pipeline_t *pipeline) {
+	if (pipeline->yuyv) uvc_free_frame(pipeline->yuyv);
+	if (pipeline->rgbx) uvc_free_frame(pipeline->rgbx);
+	pipeline->yuyv = pipeline->rgbx = NULL;
+}
+
+// same stages as UVCPreview::do_preview 与UVCPreview::do_preview相同的处理
+void host_pipeline_frame_callback(uvc_frame_t *frame, void *vptr_args) {
+	host_pipeline_t *pipeline = (host_pipeline_t *)vptr_args;
+	const uint64_t start = host_now_us();
+	uvc_error_t result = UVC_SUCCESS;
+
+	if (!pipeline->parse_only) {
+		uvc_frame_t *yuyv = frame;
+		if (frame->frame_format == UVC_FRAME_FORMAT_MJPEG) {
+			result = uvc_mjpeg2yuyv(frame, pipeline->yuyv);
+			yuyv = pipeline->yuyv;
+		}
+		if (!result) {
+			result = uvc_any2rgbx(yuyv, pipeline->rgbx);
+		}
+	}
+	const uint64_t latency = host_now_us() - start;
+	if (pipeline->frames && (frame->sequence > pipeline->last_sequence + 1)) {
+		pipeline->skipped_frames += frame->sequence - pipeline->last_sequence - 1;
+	}
+	pipeline->last_sequence = frame->sequence;
+	pipeline->frames++;
+	if (result) pipeline->convert_errors++;
+	pipeline->total_latency_us += latency;
+	if (pipeline->max_latency_us < latency) pipeline->max_latency_us = latency;
+}
+
+void host_pipeline_print(const host_pipeline_t *pipeline) {
+	printf("frame latency:avg=%.1f[us],max=%llu[us],convert_errors=%llu,skipped=%llu\n",
+		pipeline->frames ? (double)pipeline->total_latency_us / pipeline->frames : 0.0,
+		(unsigned long long)pipeline->max_latency_us,
+		(unsigned long long)pipeline->convert_errors,
+		(unsigned long long)pipeline->skipped_frames);
+}
@@ -0,0 +1,33 @@
+/*
+ * Per frame stages of UVCPreview(MJPEG=>YUYV, YUYV=>RGBX) for host tools.
+ * UVCPreview itself depends on ANativeWindow and JVM, host tools run the same conversions
+ * from the frame callback and measure them.
+ * 主机工具使用的UVCPreview逐帧处理(MJPEG=>YUYV, YUYV=>RGBX)
+ * UVCPreview本身依赖ANativeWindow和JVM，主机工具在帧回调中执行相同的转换并测量
+ */
+#ifndef HOST_PIPELINE_H_
+#define HOST_PIPELINE_H_
+
+#include <stdint.h>
+#include "libuvc/libuvc.h"
+
+typedef struct host_pipeline {
+	int parse_only;				// skip conversion stages 不进行转换
+	uvc_frame_t *yuyv;
+	uvc_frame_t *rgbx;
+	uint64_t frames;
+	uint64_t convert_errors;
+	uint64_t total_latency_us;
+	uint64_t max_latency_us;
+	uint64_t last_sequence;
+	uint64_t skipped_frames;	// gaps of frame sequence 帧序号的缺口
+} host_pipeline_t;
+
+uint64_t host_now_us(void);
+int host_pipeline_init(host_pipeline_t *pipeline, int width, int height, int parse_only);
+void host_pipeline_release(host_pipeline_t *pipeline);
+// uvc_frame_callback_t, user_ptr is host_pipeline_t
+void host_pipeline_frame_callback(uvc_frame_t *frame, void *vptr_args);
+void host_pipeline_print(const host_pipeline_t *pipeline);
+
+#endif // HOST_PIPELINE_H_
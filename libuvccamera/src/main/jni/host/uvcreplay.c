@@ -0,0 +1,106 @@
+/*
+ * uvcreplay: host side replay driver for payload records written by uvc_set_payload_record
+ * (UVCCamera#setPayloadRecord). Feeds the record through libuvc's payload parser/frame assembly
+ * and the same per frame stages as UVCPreview(MJPEG=>YUYV, YUYV=>RGBX) and reports
+ * throughput/latency, so field problems can be benchmarked without the camera.
+ *
+ * uvcreplay: 在主机上回放uvc_set_payload_record(UVCCamera#setPayloadRecord)记录的有效负载
+ * 通过libuvc的有效负载解析/帧组装以及与UVCPreview相同的逐帧处理(MJPEG=>YUYV, YUYV=>RGBX)，
+ * 输出吞吐量/延迟，无需相机即可复现现场问题
+ *
+ * usage: uvcreplay [-r] [-n loops] [-p] record_file
+ *   -r        replay with recorded timing(default: as fast as possible) 按记录的时间回放
+ *   -n loops  replay the record repeatedly 重复回放次数
+ *   -p        only parse payloads, skip conversion stages 只解析有效负载，不进行转换
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+
+#include "libuvc/libuvc.h"
+#include "host_pipeline.h"
+
+int main(int argc, char *argv[]) {
+	host_pipeline_t pipeline;
+	uvc_replay_t *replay;
+	uvc_replay_stats_t stats, total;
+	enum uvc_frame_format format;
+	uint32_t frame_interval;
+	int realtime = 0, loops = 1, parse_only = 0, width, height, opt, i;
+	uvc_error_t result;
+
+	while ((opt = getopt(argc, argv, "rn:p")) != -1) {
+		switch (opt) {
+		case 'r':
+			realtime = 1;
+			break;
+		case 'n':
+			loops = atoi(optarg);
+			if (loops < 1) loops = 1;
+			break;
+		case 'p':
+			parse_only = 1;
+			break;
+		default:
+			fprintf(stderr, "usage: %s [-r] [-n loops] [-p] record_file\n", argv[0]);
+			return 2;
+		}
+	}
+	if (optind >= argc) {
+		fprintf(stderr, "usage: %s [-r] [-n loops] [-p] record_file\n", argv[0]);
+		return 2;
+	}
+
+	result = uvc_replay_open(argv[optind], &replay);
+	if (result) {
+		fprintf(stderr, "failed to open %s:%s\n", argv[optind], uvc_strerror(result));
+		return 1;
+	}
+	uvc_replay_get_format(replay, &format, &width, &height, &frame_interval);
+	if (host_pipeline_init(&pipeline, width, height, parse_only)) {
+		fprintf(stderr, "failed to allocate frames\n");
+		uvc_replay_close(replay);
+		return 1;
+	}
+	printf("record:%dx%d@%s,interval=%u[100ns]\n", width, height,
+		format == UVC_FRAME_FORMAT_MJPEG ? "MJPEG" : "YUYV", frame_interval);
+
+	memset(&total, 0, sizeof(total));
+	for (i = 0; i < loops; i++) {
+		// each loop restarts from the beginning of the record 每轮从记录开头开始
+		if (i) {
+			uvc_replay_close(replay);
+			result = uvc_replay_open(argv[optind], &replay);
+			if (result) {
+				replay = NULL;
+				break;
+			}
+		}
+		result = uvc_replay_run(replay, host_pipeline_frame_callback, &pipeline, realtime, 0);
+		if (result) {
+			fprintf(stderr, "replay failed:%s\n", uvc_strerror(result));
+			break;
+		}
+		uvc_replay_get_stats(replay, &stats);
+		total.transfers += stats.transfers;
+		total.payload_bytes += stats.payload_bytes;
+		total.frames += stats.frames;
+		total.error_frames += stats.error_frames;
+		total.elapsed_us += stats.elapsed_us;
+	}
+
+	const double sec = total.elapsed_us / 1000000.0;
+	printf("transfers=%llu,bytes=%llu,frames=%llu,error_frames=%llu\n",
+		(unsigned long long)total.transfers, (unsigned long long)total.payload_bytes,
+		(unsigned long long)total.frames, (unsigned long long)total.error_frames);
+	printf("elapsed=%.3f[s],fps=%.2f,throughput=%.2f[MB/s]\n", sec,
+		sec > 0 ? total.frames / sec : 0.0,
+		sec > 0 ? total.payload_bytes / sec / (1024.0 * 1024.0) : 0.0);
+	host_pipeline_print(&pipeline);
+
+	host_pipeline_release(&pipeline);
+	uvc_replay_close(replay);
+	return result ? 1 : 0;
+}
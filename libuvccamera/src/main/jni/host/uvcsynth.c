@@ -0,0 +1,148 @@
+/*
+ * uvcsynth: host side load test with synthetic cameras(uvc_synthetic_open, UVCCamera#openSynthetic).
+ * Runs one or more synthetic cameras in parallel, each on its own thread like the libuvc stream
+ * callback thread, through the same per frame stages as UVCPreview(MJPEG=>YUYV, YUYV=>RGBX)
+ * and reports frame rate/latency per camera, so multi camera configurations can be measured without devices.
+ *
+ * uvcsynth: 使用虚拟相机(uvc_synthetic_open, UVCCamera#openSynthetic)在主机上进行负载测试
+ * 并行运行一个或多个虚拟相机，每个相机与libuvc的视频流回调线程一样在自己的线程上
+ * 执行与UVCPreview相同的逐帧处理(MJPEG=>YUYV, YUYV=>RGBX)，输出每个相机的帧率/延迟，无需设备即可测量多相机配置
+ *
+ * usage: uvcsynth [-m] [-s WxH] [-r fps] [-j jitter_us] [-c cameras] [-t seconds] [-p]
+ *   -m          MJPEG(default: YUYV) 使用MJPEG
+ *   -s WxH      frame size(default: 640x480) 帧大小
+ *   -r fps      frame rate, 0: as fast as possible(default: 30) 帧率，0为尽可能快
+ *   -j jitter   random jitter of frame timing in microseconds(default: 0) 帧时间的随机抖动(微秒)
+ *   -c cameras  number of cameras(default: 1) 相机数
+ *   -t seconds  duration(default: 5) 持续时间
+ *   -p          only generate frames, skip conversion stages 只生成帧，不进行转换
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <pthread.h>
+
+#include "libuvc/libuvc.h"
+#include "host_pipeline.h"
+
+#define MAX_CAMERAS 32
+
+typedef struct synth_camera {
+	uvc_synthetic_t *synthetic;
+	host_pipeline_t pipeline;
+	pthread_t thread;
+	uvc_error_t result;
+} synth_camera_t;
+
+static void *camera_thread_func(void *vptr_args) {
+	synth_camera_t *camera = (synth_camera_t *)vptr_args;
+	camera->result = uvc_synthetic_run(camera->synthetic,
+		host_pipeline_frame_callback, &camera->pipeline, 0);
+	return NULL;
+}
+
+static void usage(const char *name) {
+	fprintf(stderr, "usage: %s [-m] [-s WxH] [-r fps] [-j jitter_us] [-c cameras] [-t seconds] [-p]\n", name);
+}
+
+int main(int argc, char *argv[]) {
+	synth_camera_t cameras[MAX_CAMERAS];
+	enum uvc_frame_format format = UVC_FRAME_FORMAT_YUYV;
+	int width = 640, height = 480, fps = 30, jitter_us = 0;
+	int num_cameras = 1, seconds = 5, parse_only = 0, opt, i;
+	uvc_synthetic_stats_t stats;
+	uint64_t total_frames = 0, total_bytes = 0, total_late = 0;
+	double total_fps = 0.0;
+	int result = 0;
+
+	while ((opt = getopt(argc, argv, "ms:r:j:c:t:p")) != -1) {
+		switch (opt) {
+		case 'm':
+			format = UVC_FRAME_FORMAT_MJPEG;
+			break;
+		case 's':
+			if (sscanf(optarg, "%dx%d", &width, &height) != 2) {
+				usage(argv[0]);
+				return 2;
+			}
+			break;
+		case 'r':
+			fps = atoi(optarg);
+			break;
+		case 'j':
+			jitter_us = atoi(optarg);
+			break;
+		case 'c':
+			num_cameras = atoi(optarg);
+			break;
+		case 't':
+			seconds = atoi(optarg);
+			break;
+		case 'p':
+			parse_only = 1;
+			break;
+		default:
+			usage(argv[0]);
+			return 2;
+		}
+	}
+	if ((num_cameras < 1) || (num_cameras > MAX_CAMERAS) || (seconds < 1)) {
+		usage(argv[0]);
+		return 2;
+	}
+
+	memset(cameras, 0, sizeof(cameras));
+	for (i = 0; i < num_cameras; i++) {
+		uvc_error_t r = uvc_synthetic_open(format, width, height, fps, jitter_us, &cameras[i].synthetic);
+		if (r) {
+			fprintf(stderr, "failed to open synthetic camera:%s\n", uvc_strerror(r));
+			num_cameras = i;
+			result = 1;
+			goto end;
+		}
+		if (host_pipeline_init(&cameras[i].pipeline, width, height, parse_only)) {
+			fprintf(stderr, "failed to allocate frames\n");
+			uvc_synthetic_close(cameras[i].synthetic);
+			num_cameras = i;
+			result = 1;
+			goto end;
+		}
+	}
+	printf("cameras=%d,%dx%d@%s,fps=%d,jitter=%d[us],duration=%d[s]\n", num_cameras, width, height,
+		format == UVC_FRAME_FORMAT_MJPEG ? "MJPEG" : "YUYV", fps, jitter_us, seconds);
+
+	for (i = 0; i < num_cameras; i++) {
+		pthread_create(&cameras[i].thread, NULL, camera_thread_func, &cameras[i]);
+	}
+	sleep(seconds);
+	for (i = 0; i < num_cameras; i++) {
+		uvc_synthetic_stop(cameras[i].synthetic);
+	}
+	for (i = 0; i < num_cameras; i++) {
+		pthread_join(cameras[i].thread, NULL);
+		uvc_synthetic_get_stats(cameras[i].synthetic, &stats);
+		const double sec = stats.elapsed_us / 1000000.0;
+		const double cam_fps = sec > 0 ? stats.frames / sec : 0.0;
+		printf("camera%d:frames=%llu,late=%llu,fps=%.2f,throughput=%.2f[MB/s],", i,
+			(unsigned long long)stats.frames, (unsigned long long)stats.late_frames, cam_fps,
+			sec > 0 ? stats.bytes / sec / (1024.0 * 1024.0) : 0.0);
+		host_pipeline_print(&cameras[i].pipeline);
+		total_frames += stats.frames;
+		total_bytes += stats.bytes;
+		total_late += stats.late_frames;
+		total_fps += cam_fps;
+		if (cameras[i].result) result = 1;
+	}
+	printf("total:frames=%llu,late=%llu,fps=%.2f,bytes=%llu\n",
+		(unsigned long long)total_frames, (unsigned long long)total_late, total_fps,
+		(unsigned long long)total_bytes);
+
+end:
+	for (i = 0; i < num_cameras; i++) {
+		host_pipeline_release(&cameras[i].pipeline);
+		uvc_synthetic_close(cameras[i].synthetic);
+	}
+	return result;
+}
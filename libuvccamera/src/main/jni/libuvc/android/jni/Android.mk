@@ -54,6 +54,7 @@ LOCAL_CFLAGS += -DLOG_NDEBUG
 LOCAL_CFLAGS += -DUVC_DEBUGGING
 
 LOCAL_EXPORT_LDLIBS := -llog
+LOCAL_EXPORT_LDLIBS += -ldl
 
 LOCAL_ARM_MODE := arm
 
@@ -62,13 +63,18 @@ LOCAL_SHARED_LIBRARIES += jpeg-turbo1500
 LOCAL_SHARED_LIBRARIES += usb100
 
 LOCAL_SRC_FILES := \
+	src/bandwidth.c \
+	src/cache.c \
 	src/ctrl.c \
 	src/device.c \
 	src/diag.c \
 	src/frame.c \
 	src/frame-mjpeg.c \
 	src/init.c \
-	src/stream.c
+	src/replay.c \
+	src/startup.c \
+	src/stream.c \
+	src/synthetic.c
 
 LOCAL_MODULE := libuvc_static
 include $(BUILD_STATIC_LIBRARY)
@@ -704,8 +704,9 @@ typedef struct uvc_frame {
 	 */
 	uint32_t sequence;
 	/**
-	 * Estimate of system time when the device started capturing the image
-	 * 估计设备开始捕获映像时的系统时间
+	 * Estimate of system time when the device started capturing the image,
+	 * arrival of the first payload of the frame on CLOCK_MONOTONIC
+	 * 估计设备开始捕获映像时的系统时间，帧的第一个数据包到达的时间(CLOCK_MONOTONIC)
 	 */
 	struct timeval capture_time;
 	/**
@@ -856,6 +857,83 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 		uvc_frame_t **frame, int32_t timeout_us);
 uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh);
 void uvc_stream_close(uvc_stream_handle_t *strmh);
+size_t uvc_get_stream_memory_usage(uvc_device_handle_t *devh);	// XXX added
+
+// Raw payload recording/replay 原始有效负载记录/回放
+typedef struct uvc_replay uvc_replay_t;
+typedef struct uvc_replay_stats {
+	uint64_t transfers;		// number of replayed transfers 回放的传输数
+	uint64_t payload_bytes;	// number of replayed payload bytes 回放的有效负载字节数
+	uint64_t frames;		// number of assembled frames 组装出的帧数
+	uint64_t error_frames;	// number of frames dropped by stream error 因流错误丢弃的帧数
+	uint64_t last_time_us;	// recorded time of the last replayed transfer 最后回放的传输的记录时间
+	uint64_t elapsed_us;	// wall clock time of uvc_replay_run uvc_replay_run的实际耗时
+} uvc_replay_stats_t;
+uvc_error_t uvc_set_payload_record(uvc_device_handle_t *devh, const char *path);
+uvc_error_t uvc_replay_open(const char *path, uvc_replay_t **replay);
+uvc_error_t uvc_replay_get_format(uvc_replay_t *replay,
+		enum uvc_frame_format *format, int *width, int *height, uint32_t *frame_interval);
+uvc_error_t uvc_replay_run(uvc_replay_t *replay,
+		uvc_frame_callback_t *cb, void *user_ptr, int realtime, int loop);
+void uvc_replay_stop(uvc_replay_t *replay);
+uvc_error_t uvc_replay_get_stats(uvc_replay_t *replay, uvc_replay_stats_t *stats);
+void uvc_replay_close(uvc_replay_t *replay);
+
+// Persistent descriptor/negotiation cache 持久化的描述符/协商结果缓存
+uvc_error_t uvc_open_ctrl_cache(uvc_device_handle_t *devh, const char *dir);
+char *uvc_ctrl_cache_get_supported_size(uvc_device_handle_t *devh);
+void uvc_ctrl_cache_set_supported_size(uvc_device_handle_t *devh, const char *supported_size);
+void uvc_clear_ctrl_cache(uvc_device_handle_t *devh);
+
+// Open-to-first-frame latency breakdown 从打开到第一帧的延迟分解
+enum uvc_startup_phase {
+	UVC_STARTUP_CONNECT = 0,		// start connecting(nativeConnect) 开始连接
+	UVC_STARTUP_DESCRIPTORS,		// descriptors parsed 描述符解析完成
+	UVC_STARTUP_CONNECTED,			// connect finished 连接完成
+	UVC_STARTUP_SUPPORTED_SIZE,		// supported size list built 生成支持的尺寸列表
+	UVC_STARTUP_PROBE_COMMIT,		// stream ctrl committed 流控制已提交
+	UVC_STARTUP_ALT_SETTING,		// alt-setting selected/transfers set up 选择alt-setting/设置传输
+	UVC_STARTUP_FIRST_PAYLOAD,		// first usb payload received 收到第一个usb有效负载
+	UVC_STARTUP_FIRST_FRAME,		// first complete frame assembled 组装出第一个完整帧
+	UVC_STARTUP_FIRST_DECODED,		// first frame decoded 第一帧解码完成
+	UVC_STARTUP_FIRST_DISPLAYED,	// first frame posted to the window 第一帧提交到窗口
+	UVC_STARTUP_PHASE_NUM,
+};
+uint64_t uvc_startup_time_us(void);
+void uvc_mark_startup(uvc_device_handle_t *devh, enum uvc_startup_phase phase, uint64_t time_us);
+int uvc_get_startup_times(uvc_device_handle_t *devh, uint64_t *times_us, int num);
+const char *uvc_startup_phase_name(enum uvc_startup_phase phase);
+
+// Isochronous bandwidth information 等时传输带宽信息
+#define UVC_MAX_ALTSETTINGS 32
+typedef struct uvc_bandwidth_info {
+	uint8_t bus_number;
+	uint8_t device_address;
+	int speed;							// enum libusb_speed
+	uint32_t intervals_per_sec;			// (micro)frames per second, 1000 or 8000 每秒(微)帧数
+	int isochronous;					// 0: bulk, 1: isochronous 0:批量传输, 1:等时传输
+	int num_altsetting;					// including alt-setting 0 包括alt-setting 0
+	uint32_t bytes_per_interval[UVC_MAX_ALTSETTINGS];	// bytes per (micro)frame of each alt-setting 各alt-setting每(微)帧的字节数
+} uvc_bandwidth_info_t;
+uvc_error_t uvc_get_bandwidth_info(uvc_device_handle_t *devh, uvc_bandwidth_info_t *info);
+
+// Synthetic frame source 虚拟帧源
+typedef struct uvc_synthetic uvc_synthetic_t;
+typedef struct uvc_synthetic_stats {
+	uint64_t frames;		// number of generated frames 生成的帧数
+	uint64_t bytes;			// number of generated bytes 生成的字节数
+	uint64_t late_frames;	// frames generated after their time because the callback was slow 因回调太慢而晚于预定时间生成的帧数
+	uint64_t elapsed_us;	// wall clock time of uvc_synthetic_run uvc_synthetic_run的实际耗时
+} uvc_synthetic_stats_t;
+uvc_error_t uvc_synthetic_open(enum uvc_frame_format format, int width, int height,
+		int fps, int jitter_us, uvc_synthetic_t **synthetic);
+uvc_error_t uvc_synthetic_get_format(uvc_synthetic_t *synthetic,
+		enum uvc_frame_format *format, int *width, int *height, uint32_t *frame_interval);
+uvc_error_t uvc_synthetic_run(uvc_synthetic_t *synthetic,
+		uvc_frame_callback_t *cb, void *user_ptr, uint32_t max_frames);
+void uvc_synthetic_stop(uvc_synthetic_t *synthetic);
+uvc_error_t uvc_synthetic_get_stats(uvc_synthetic_t *synthetic, uvc_synthetic_stats_t *stats);
+void uvc_synthetic_close(uvc_synthetic_t *synthetic);
 
 // Generic Controls 通用控制
 int uvc_get_ctrl_len(uvc_device_handle_t *devh, uint8_t unit, uint8_t ctrl);
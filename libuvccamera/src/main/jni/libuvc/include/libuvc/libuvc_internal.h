@@ -352,10 +352,17 @@ typedef struct uvc_device_info {
 
 #define LIBUVC_XFER_BUF_SIZE	( 2 * 1024 * 1024 ) // 原值16MB
 
-static int frame_buffer_size = LIBUVC_XFER_BUF_SIZE;
+/**
+ * Fallback frame buffer size, only used when neither the committed
+ * dwMaxVideoFrameSize nor the frame descriptor tell us how big a frame is.
+ * 备用帧缓存大小，仅当协商的dwMaxVideoFrameSize和帧描述符都无法给出帧大小时使用
+ * XXX these were static in this header, so every translation unit had its own copy
+ * and the value set from JNI never reached stream.c. They are defined in stream.c now.
+ */
+extern int frame_buffer_size;
 
 // 是否丢弃不完整帧  0不丢弃， 1丢弃
-static int drop_incomplete_frame = 0;
+extern int drop_incomplete_frame;
 
 struct uvc_stream_handle {
   struct uvc_device_handle *devh;
@@ -384,8 +391,10 @@ struct uvc_stream_handle {
   uint32_t seq, hold_seq;
   uint32_t pts, hold_pts; // 图像时间戳，同个视频帧多个数据包中保持相同
   uint32_t last_stc, hold_last_stc; // 系统时间时钟，采样的时钟值
+  uint64_t start_us, hold_start_us; // time the first payload of the frame arrived(CLOCK_MONOTONIC) 帧的第一个数据包到达的时间
   size_t got_bytes, hold_bytes; // 现获得的数据大小
   size_t size_buf;	// XXX add for boundary check 边界检查
+  size_t size_xfer_buf;	// size of each transfer buffer 每个传输缓冲区的大小
   // outbuf 输出缓存  holdbuf持有缓存
   uint8_t *outbuf, *holdbuf;
   pthread_mutex_t cb_mutex;
@@ -400,6 +409,8 @@ struct uvc_stream_handle {
   uint8_t *transfer_bufs[LIBUVC_NUM_TRANSFER_BUFS];
   struct uvc_frame frame;
   enum uvc_frame_format frame_format;
+  FILE *payload_record;	// XXX raw payload recording, NULL if not recording 原始有效负载记录
+  uint64_t payload_record_start;	// start time of recording[us] 记录开始时间
 };
 
 /**
@@ -439,6 +450,9 @@ struct uvc_device_handle {
    */
   uint8_t is_isight;
   uint8_t reset_on_release_if;	// XXX whether interface alt setting needs to reset to 0. 接口alt设置是否需要重置为0。
+  char *payload_record_path;	// XXX record raw payloads of next stream into this file 将下一个流的原始有效负载记录到此文件
+  struct uvc_ctrl_cache *ctrl_cache;	// XXX persistent negotiation cache, see cache.c 持久化的协商结果缓存，见cache.c
+  uint64_t startup_us[UVC_STARTUP_PHASE_NUM];	// XXX time each startup phase was reached, see startup.c 到达各启动阶段的时间，见startup.c
 };
 
 /**
@@ -475,6 +489,21 @@ void uvc_start_handler_thread(uvc_context_t *ctx);
 uvc_error_t uvc_claim_if(uvc_device_handle_t *devh, int idx);
 uvc_error_t uvc_release_if(uvc_device_handle_t *devh, int idx);
 
+// payload parsing/frame assembly shared with replay.c 与replay.c共用的有效负载解析/帧组装
+void _uvc_process_transfer(uvc_stream_handle_t *strmh, struct libusb_transfer *transfer);
+void _uvc_populate_frame_size(uvc_stream_handle_t *strmh, uint32_t width, uint32_t height);
+// raw payload recording, see replay.c 原始有效负载记录，见replay.c
+void _uvc_payload_record_open(uvc_stream_handle_t *strmh, uvc_frame_desc_t *frame_desc, int isochronous);
+void _uvc_payload_record_write(uvc_stream_handle_t *strmh, struct libusb_transfer *transfer);
+void _uvc_payload_record_close(uvc_stream_handle_t *strmh);
+// persistent negotiation cache, see cache.c 持久化的协商结果缓存，见cache.c
+int _uvc_ctrl_cache_find(uvc_device_handle_t *devh, enum uvc_frame_format cf,
+	int width, int height, int min_fps, int max_fps, uvc_stream_ctrl_t *ctrl);
+void _uvc_ctrl_cache_put(uvc_device_handle_t *devh, enum uvc_frame_format cf,
+	int width, int height, int min_fps, int max_fps, const uvc_stream_ctrl_t *ctrl);
+int _uvc_ctrl_cache_remove(uvc_device_handle_t *devh, const uvc_stream_ctrl_t *ctrl);
+void _uvc_ctrl_cache_free(uvc_device_handle_t *devh);
+
 #endif // !def(LIBUVC_INTERNAL_H)
 /** @endcond */
 
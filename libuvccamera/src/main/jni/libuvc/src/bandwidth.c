@@ -0,0 +1,86 @@
+/**
+ * @defgroup bandwidth Isochronous bandwidth information
+ * @brief Packet sizes of the alt-settings of the video streaming interface and the bus speed,
+ * used to plan the bandwidth of several cameras sharing one USB bus before starting them
+ * 视频流接口各alt-setting的数据包大小以及总线速度，用于在启动前规划共享同一USB总线的多个相机的带宽
+ *
+ * uvc_stream_start_bandwidth selects the first alt-setting whose packet size is at least
+ * dwMaxPayloadTransferSize * bandwidth_factor, the sizes here are calculated in the same way
+ * so that the caller can know which alt-setting(i.e. how much of the periodic bandwidth of the bus)
+ * a bandwidth factor results in.
+ * uvc_stream_start_bandwidth选择数据包大小不小于dwMaxPayloadTransferSize * bandwidth_factor的第一个alt-setting，
+ * 这里以相同的方式计算数据包大小，调用者可以知道某个带宽系数会选择哪个alt-setting(即占用多少总线周期性带宽)
+ */
+
+#define LOCAL_DEBUG 0
+
+#define LOG_TAG "libuvc/bandwidth"
+#if 1	// 不输出调试信息时1
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// 不输出LOGV/LOGD/MARK
+		#endif
+	#undef USE_LOGALL			// 仅输出指定的LOGx
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG
+#endif
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+/**
+ * @brief get bus speed and packet size of each alt-setting of the (first) video streaming interface
+ * 获取总线速度和(第一个)视频流接口各alt-setting的数据包大小
+ * @param devh UVC device
+ * @param[out] info
+ * @return UVC_SUCCESS or error
+ */
+uvc_error_t uvc_get_bandwidth_info(uvc_device_handle_t *devh, uvc_bandwidth_info_t *info) {
+	ENTER();
+
+	const struct libusb_interface *interface;
+	const struct libusb_interface_descriptor *altsetting;
+	const struct libusb_endpoint_descriptor *endpoint;
+	uvc_streaming_interface_t *stream_if;
+	int alt_idx, ep_idx;
+
+	if (UNLIKELY(!devh || !info)) {
+		RETURN(UVC_ERROR_INVALID_PARAM, uvc_error_t);
+	}
+	memset(info, 0, sizeof(*info));
+	stream_if = devh->info->stream_ifs;
+	if (UNLIKELY(!stream_if || !devh->info->config)) {
+		RETURN(UVC_ERROR_NOT_FOUND, uvc_error_t);
+	}
+	info->bus_number = libusb_get_bus_number(devh->dev->usb_dev);
+	info->device_address = libusb_get_device_address(devh->dev->usb_dev);
+	info->speed = libusb_get_device_speed(devh->dev->usb_dev);
+	// full/low speed has 1ms frames, high speed and faster have 125us microframes
+	// 全速/低速为1ms帧，高速及以上为125us微帧
+	info->intervals_per_sec = info->speed >= LIBUSB_SPEED_HIGH ? 8000 : 1000;
+
+	interface = &devh->info->config->interface[stream_if->bInterfaceNumber];
+	info->num_altsetting = interface->num_altsetting;
+	if (info->num_altsetting > UVC_MAX_ALTSETTINGS) {
+		info->num_altsetting = UVC_MAX_ALTSETTINGS;
+	}
+	for (alt_idx = 0; alt_idx < info->num_altsetting; alt_idx++) {
+		altsetting = interface->altsetting + alt_idx;
+		for (ep_idx = 0; ep_idx < altsetting->bNumEndpoints; ep_idx++) {
+			endpoint = altsetting->endpoint + ep_idx;
+			if (endpoint->bEndpointAddress == stream_if->bEndpointAddress) {
+				// same as uvc_stream_start_bandwidth, size * (additional transactions + 1)
+				// 与uvc_stream_start_bandwidth相同，大小 * (附加事务数 + 1)
+				info->bytes_per_interval[alt_idx]
+					= (endpoint->wMaxPacketSize & 0x07ff) * (((endpoint->wMaxPacketSize >> 11) & 3) + 1);
+				break;
+			}
+		}
+	}
+	// a bulk interface has only one alt-setting and does not reserve periodic bandwidth
+	// 批量传输接口只有一个alt-setting，不预留周期性带宽
+	info->isochronous = interface->num_altsetting > 1;
+
+	RETURN(UVC_SUCCESS, uvc_error_t);
+}
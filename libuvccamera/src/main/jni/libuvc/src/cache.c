@@ -0,0 +1,566 @@
+/**
+ * @defgroup cache Persistent descriptor and negotiation cache
+ * @brief Keep negotiated stream control blocks and the supported size list of a camera
+ * on disk, so that reopening the same camera with the same format skips the
+ * probe round-trips of uvc_get_stream_ctrl_format_size_fps.
+ * 持久化的描述符/协商结果缓存
+ * 将相机协商好的流控制块和支持的分辨率列表保存到磁盘，以相同格式重新打开同一相机时
+ * 跳过uvc_get_stream_ctrl_format_size_fps的探测往返
+ *
+ * One file per VID/PID/serial/bcdDevice(firmware). The file also keeps a hash of the
+ * configuration descriptor and is discarded when the hash does not match.
+ * Descriptors themselves are parsed from the configuration descriptor libusb already
+ * holds in memory, so only the results derived from them are cached.
+ * 每个VID/PID/序列号/bcdDevice(固件版本)一个文件，文件中保存配置描述符的哈希值，
+ * 哈希值不一致时丢弃缓存。描述符本身是从libusb已保存在内存中的配置描述符解析的，
+ * 因此只缓存由其得到的结果
+ *
+ * File layout(little endian) 文件格式(小端)
+ *   uvc_ctrl_cache_header_t
+ *   uvc_ctrl_cache_record_t[num_entries]
+ *   char supported_size[supported_size_bytes]
+ */
+
+#define LOCAL_DEBUG 0
+
+#define LOG_TAG "libuvc/cache"
+#if 1	// 不输出调试信息时1
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// 不输出LOGV/LOGD/MARK
+		#endif
+	#undef USE_LOGALL			// 仅输出指定的LOGx
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG
+#endif
+
+#include <errno.h>
+#include <limits.h>
+#include <stdio.h>
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+#define UVC_CTRL_CACHE_MAGIC "UVCCACH"
+#define UVC_CTRL_CACHE_VERSION 1
+// keep the number of negotiated modes bounded 限制缓存的协商模式数
+#define UVC_CTRL_CACHE_MAX_ENTRIES 32
+
+typedef struct uvc_ctrl_cache_header {
+	char magic[8];
+	uint16_t version;
+	uint16_t num_entries;
+	uint32_t desc_hash;			// hash of configuration descriptor 配置描述符的哈希值
+	uint32_t supported_size_bytes;
+} __attribute__((packed)) uvc_ctrl_cache_header_t;
+
+typedef struct uvc_ctrl_cache_record {
+	// request 请求
+	int32_t frame_format;
+	int32_t width;
+	int32_t height;
+	int32_t min_fps;
+	int32_t max_fps;
+	// negotiated result 协商结果
+	uint16_t bmHint;
+	uint8_t bFormatIndex;
+	uint8_t bFrameIndex;
+	uint32_t dwFrameInterval;
+	uint16_t wKeyFrameRate;
+	uint16_t wPFrameRate;
+	uint16_t wCompQuality;
+	uint16_t wCompWindowSize;
+	uint16_t wDelay;
+	uint32_t dwMaxVideoFrameSize;
+	uint32_t dwMaxPayloadTransferSize;
+	uint32_t dwClockFrequency;
+	uint8_t bmFramingInfo;
+	uint8_t bPreferedVersion;
+	uint8_t bMinVersion;
+	uint8_t bMaxVersion;
+	uint8_t bUsage;
+	uint8_t bBitDepthLuma;
+	uint8_t bmSettings;
+	uint8_t bMaxNumberOfRefFramesPlus1;
+	uint16_t bmRateControlModes;
+	uint64_t bmLayoutPerStream;
+	uint8_t bInterfaceNumber;
+} __attribute__((packed)) uvc_ctrl_cache_record_t;
+
+typedef struct uvc_ctrl_cache_entry {
+	struct uvc_ctrl_cache_entry *prev, *next;
+	uvc_ctrl_cache_record_t record;
+} uvc_ctrl_cache_entry_t;
+
+struct uvc_ctrl_cache {
+	pthread_mutex_t mutex;
+	char *path;
+	uint32_t desc_hash;
+	int num_entries;
+	uvc_ctrl_cache_entry_t *entries;
+	char *supported_size;
+};
+
+//======================================================================
+/** @internal
+ * @brief FNV-1a 32bit
+ */
+static uint32_t _uvc_ctrl_cache_hash(uint32_t hash, const void *data, size_t bytes) {
+	const uint8_t *p = (const uint8_t *)data;
+	size_t i;
+
+	for (i = 0; i < bytes; i++) {
+		hash ^= p[i];
+		hash *= 16777619u;
+	}
+	return hash;
+}
+
+/** @internal
+ * @brief Hash every interface/endpoint descriptor including class specific(extra) descriptors
+ * 对所有接口/端点描述符(包括类特定描述符)计算哈希值
+ */
+static uint32_t _uvc_ctrl_cache_desc_hash(const struct libusb_config_descriptor *config) {
+	uint32_t hash = 2166136261u;
+	int i, j, k;
+
+	hash = _uvc_ctrl_cache_hash(hash, &config->wTotalLength, sizeof(config->wTotalLength));
+	hash = _uvc_ctrl_cache_hash(hash, config->extra, config->extra_length);
+	for (i = 0; i < config->bNumInterfaces; i++) {
+		const struct libusb_interface *iface = &config->interface[i];
+		for (j = 0; j < iface->num_altsetting; j++) {
+			const struct libusb_interface_descriptor *alt = &iface->altsetting[j];
+			hash = _uvc_ctrl_cache_hash(hash, &alt->bInterfaceNumber, 1);
+			hash = _uvc_ctrl_cache_hash(hash, &alt->bAlternateSetting, 1);
+			hash = _uvc_ctrl_cache_hash(hash, &alt->bInterfaceClass, 1);
+			hash = _uvc_ctrl_cache_hash(hash, &alt->bInterfaceSubClass, 1);
+			hash = _uvc_ctrl_cache_hash(hash, alt->extra, alt->extra_length);
+			for (k = 0; k < alt->bNumEndpoints; k++) {
+				const struct libusb_endpoint_descriptor *ep = &alt->endpoint[k];
+				hash = _uvc_ctrl_cache_hash(hash, &ep->bEndpointAddress, 1);
+				hash = _uvc_ctrl_cache_hash(hash, &ep->bmAttributes, 1);
+				hash = _uvc_ctrl_cache_hash(hash, &ep->wMaxPacketSize, sizeof(ep->wMaxPacketSize));
+				hash = _uvc_ctrl_cache_hash(hash, ep->extra, ep->extra_length);
+			}
+		}
+	}
+	return hash;
+}
+
+static void _uvc_ctrl_cache_to_record(const uvc_stream_ctrl_t *ctrl, uvc_ctrl_cache_record_t *r) {
+	r->bmHint = ctrl->bmHint;
+	r->bFormatIndex = ctrl->bFormatIndex;
+	r->bFrameIndex = ctrl->bFrameIndex;
+	r->dwFrameInterval = ctrl->dwFrameInterval;
+	r->wKeyFrameRate = ctrl->wKeyFrameRate;
+	r->wPFrameRate = ctrl->wPFrameRate;
+	r->wCompQuality = ctrl->wCompQuality;
+	r->wCompWindowSize = ctrl->wCompWindowSize;
+	r->wDelay = ctrl->wDelay;
+	r->dwMaxVideoFrameSize = ctrl->dwMaxVideoFrameSize;
+	r->dwMaxPayloadTransferSize = ctrl->dwMaxPayloadTransferSize;
+	r->dwClockFrequency = ctrl->dwClockFrequency;
+	r->bmFramingInfo = ctrl->bmFramingInfo;
+	r->bPreferedVersion = ctrl->bPreferedVersion;
+	r->bMinVersion = ctrl->bMinVersion;
+	r->bMaxVersion = ctrl->bMaxVersion;
+	r->bUsage = ctrl->bUsage;
+	r->bBitDepthLuma = ctrl->bBitDepthLuma;
+	r->bmSettings = ctrl->bmSettings;
+	r->bMaxNumberOfRefFramesPlus1 = ctrl->bMaxNumberOfRefFramesPlus1;
+	r->bmRateControlModes = ctrl->bmRateControlModes;
+	r->bmLayoutPerStream = ctrl->bmLayoutPerStream;
+	r->bInterfaceNumber = ctrl->bInterfaceNumber;
+}
+
+static void _uvc_ctrl_cache_from_record(const uvc_ctrl_cache_record_t *r, uvc_stream_ctrl_t *ctrl) {
+	memset(ctrl, 0, sizeof(*ctrl));
+	ctrl->bmHint = r->bmHint;
+	ctrl->bFormatIndex = r->bFormatIndex;
+	ctrl->bFrameIndex = r->bFrameIndex;
+	ctrl->dwFrameInterval = r->dwFrameInterval;
+	ctrl->wKeyFrameRate = r->wKeyFrameRate;
+	ctrl->wPFrameRate = r->wPFrameRate;
+	ctrl->wCompQuality = r->wCompQuality;
+	ctrl->wCompWindowSize = r->wCompWindowSize;
+	ctrl->wDelay = r->wDelay;
+	ctrl->dwMaxVideoFrameSize = r->dwMaxVideoFrameSize;
+	ctrl->dwMaxPayloadTransferSize = r->dwMaxPayloadTransferSize;
+	ctrl->dwClockFrequency = r->dwClockFrequency;
+	ctrl->bmFramingInfo = r->bmFramingInfo;
+	ctrl->bPreferedVersion = r->bPreferedVersion;
+	ctrl->bMinVersion = r->bMinVersion;
+	ctrl->bMaxVersion = r->bMaxVersion;
+	ctrl->bUsage = r->bUsage;
+	ctrl->bBitDepthLuma = r->bBitDepthLuma;
+	ctrl->bmSettings = r->bmSettings;
+	ctrl->bMaxNumberOfRefFramesPlus1 = r->bMaxNumberOfRefFramesPlus1;
+	ctrl->bmRateControlModes = r->bmRateControlModes;
+	ctrl->bmLayoutPerStream = r->bmLayoutPerStream;
+	ctrl->bInterfaceNumber = r->bInterfaceNumber;
+}
+
+static void _uvc_ctrl_cache_clear_entries(struct uvc_ctrl_cache *cache) {
+	uvc_ctrl_cache_entry_t *entry, *tmp;
+
+	DL_FOREACH_SAFE(cache->entries, entry, tmp)
+	{
+		DL_DELETE(cache->entries, entry);
+		free(entry);
+	}
+	cache->num_entries = 0;
+	SAFE_FREE(cache->supported_size);
+}
+
+/** @internal
+ * @brief Load the cache file, the contents are discarded when the descriptor hash does not match
+ * 读取缓存文件，描述符哈希值不一致时丢弃内容
+ */
+static void _uvc_ctrl_cache_load(struct uvc_ctrl_cache *cache) {
+	uvc_ctrl_cache_header_t header;
+	uvc_ctrl_cache_entry_t *entry;
+	FILE *fp;
+	int i;
+
+	fp = fopen(cache->path, "rb");
+	if (!fp) return;	// not cached yet 尚未缓存
+
+	if (UNLIKELY((fread(&header, sizeof(header), 1, fp) != 1)
+		|| memcmp(header.magic, UVC_CTRL_CACHE_MAGIC, sizeof(UVC_CTRL_CACHE_MAGIC))
+		|| (header.version != UVC_CTRL_CACHE_VERSION))) {
+		LOGW("ignore broken cache file:%s", cache->path);
+		goto end;
+	}
+	if (header.desc_hash != cache->desc_hash) {
+		// descriptors changed(firmware update etc.) 描述符已改变(固件更新等)
+		LOGI("descriptors changed, discard cache:%s", cache->path);
+		goto end;
+	}
+	for (i = 0; i < header.num_entries && i < UVC_CTRL_CACHE_MAX_ENTRIES; i++) {
+		entry = calloc(1, sizeof(*entry));
+		if (UNLIKELY(!entry)) goto fail;
+		if (UNLIKELY(fread(&entry->record, sizeof(entry->record), 1, fp) != 1)) {
+			free(entry);
+			goto fail;
+		}
+		DL_APPEND(cache->entries, entry);
+		cache->num_entries++;
+	}
+	if (header.num_entries > UVC_CTRL_CACHE_MAX_ENTRIES) {
+		// skip the records beyond the limit so that the supported size list is read from its own position
+		// 跳过超出上限的记录，以便从支持的分辨率列表自己的位置读取
+		if (UNLIKELY(fseek(fp, (long)(header.num_entries - UVC_CTRL_CACHE_MAX_ENTRIES)
+			* (long)sizeof(uvc_ctrl_cache_record_t), SEEK_CUR))) goto fail;
+	}
+	if (header.supported_size_bytes) {
+		cache->supported_size = malloc(header.supported_size_bytes + 1);
+		if (UNLIKELY(!cache->supported_size)) goto fail;
+		if (UNLIKELY(fread(cache->supported_size, header.supported_size_bytes, 1, fp) != 1)) goto fail;
+		cache->supported_size[header.supported_size_bytes] = '\0';
+	}
+	LOGI("loaded %d modes from %s", cache->num_entries, cache->path);
+	goto end;
+fail:
+	LOGW("ignore broken cache file:%s", cache->path);
+	_uvc_ctrl_cache_clear_entries(cache);
+end:
+	fclose(fp);
+}
+
+/** @internal
+ * @brief Write the cache file, written into a temporary file and renamed so that
+ * a crash never leaves a broken cache
+ * 写入缓存文件，先写入临时文件再重命名，崩溃时也不会留下损坏的缓存
+ */
+static void _uvc_ctrl_cache_save(struct uvc_ctrl_cache *cache) {
+	uvc_ctrl_cache_header_t header;
+	uvc_ctrl_cache_entry_t *entry;
+	char tmp_path[PATH_MAX];
+	FILE *fp;
+	int ok;
+
+	snprintf(tmp_path, sizeof(tmp_path), "%s.tmp", cache->path);
+	fp = fopen(tmp_path, "wb");
+	if (UNLIKELY(!fp)) {
+		LOGW("failed to write cache file:%s,errno=%d", tmp_path, errno);
+		return;
+	}
+	memset(&header, 0, sizeof(header));
+	memcpy(header.magic, UVC_CTRL_CACHE_MAGIC, sizeof(UVC_CTRL_CACHE_MAGIC));
+	header.version = UVC_CTRL_CACHE_VERSION;
+	header.num_entries = cache->num_entries;
+	header.desc_hash = cache->desc_hash;
+	header.supported_size_bytes = cache->supported_size ? strlen(cache->supported_size) : 0;
+	ok = fwrite(&header, sizeof(header), 1, fp) == 1;
+	DL_FOREACH(cache->entries, entry)
+	{
+		ok = ok && (fwrite(&entry->record, sizeof(entry->record), 1, fp) == 1);
+	}
+	if (header.supported_size_bytes) {
+		ok = ok && (fwrite(cache->supported_size, header.supported_size_bytes, 1, fp) == 1);
+	}
+	ok = (fclose(fp) == 0) && ok;
+	if (UNLIKELY(!ok || rename(tmp_path, cache->path))) {
+		LOGW("failed to write cache file:%s,errno=%d", cache->path, errno);
+		remove(tmp_path);
+	}
+}
+
+/** @internal
+ * @brief Make the part of the file name from a usb string, other than [0-9A-Za-z-] is replaced with '_'
+ * 从USB字符串生成文件名的一部分，[0-9A-Za-z-]以外的字符替换为'_'
+ */
+static void _uvc_ctrl_cache_sanitize(char *str) {
+	for ( ; *str; str++) {
+		const char c = *str;
+		if (!(((c >= '0') && (c <= '9')) || ((c >= 'A') && (c <= 'Z'))
+			|| ((c >= 'a') && (c <= 'z')) || (c == '-'))) {
+			*str = '_';
+		}
+	}
+}
+
+//======================================================================
+/**
+ * @brief Open the persistent cache of the device in the directory
+ * 在指定目录中打开设备的持久化缓存
+ * @ingroup cache
+ *
+ * After this, uvc_get_stream_ctrl_format_size_fps returns the negotiated control block
+ * from the cache without probing when the same format was negotiated before.
+ * 之后，如果之前协商过相同的格式，uvc_get_stream_ctrl_format_size_fps将不进行探测而直接返回缓存的控制块
+ *
+ * @param devh UVC device
+ * @param dir directory to keep cache files, must be writable 保存缓存文件的目录，必须可写
+ */
+uvc_error_t uvc_open_ctrl_cache(uvc_device_handle_t *devh, const char *dir) {
+	struct libusb_device_descriptor desc;
+	struct uvc_ctrl_cache *cache;
+	char serial[33] = "";
+	char path[PATH_MAX];
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!devh || !devh->info || !devh->info->config || !dir || !*dir)) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	if (UNLIKELY(libusb_get_device_descriptor(devh->dev->usb_dev, &desc))) {
+		UVC_EXIT(UVC_ERROR_IO);
+		return UVC_ERROR_IO;
+	}
+	if (desc.iSerialNumber && devh->usb_devh) {
+		if (libusb_get_string_descriptor_ascii(devh->usb_devh,
+			desc.iSerialNumber, (unsigned char *)serial, sizeof(serial)) > 0) {
+			_uvc_ctrl_cache_sanitize(serial);
+		} else {
+			serial[0] = '\0';
+		}
+	}
+	snprintf(path, sizeof(path), "%s/uvc_%04x_%04x_%s_%04x.cache",
+		dir, desc.idVendor, desc.idProduct, serial[0] ? serial : "none", desc.bcdDevice);
+
+	_uvc_ctrl_cache_free(devh);
+	cache = calloc(1, sizeof(*cache));
+	if (UNLIKELY(!cache)) {
+		UVC_EXIT(UVC_ERROR_NO_MEM);
+		return UVC_ERROR_NO_MEM;
+	}
+	cache->path = strdup(path);
+	if (UNLIKELY(!cache->path)) {
+		free(cache);
+		UVC_EXIT(UVC_ERROR_NO_MEM);
+		return UVC_ERROR_NO_MEM;
+	}
+	pthread_mutex_init(&cache->mutex, NULL);
+	cache->desc_hash = _uvc_ctrl_cache_desc_hash(devh->info->config);
+	_uvc_ctrl_cache_load(cache);
+	devh->ctrl_cache = cache;
+
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+}
+
+/**
+ * @brief Get a copy of the cached supported size list(JSON), the caller should free it
+ * 获取缓存的支持的分辨率列表(JSON)的副本，调用方应释放它
+ * @ingroup cache
+ * @return NULL if not cached 未缓存时返回NULL
+ */
+char *uvc_ctrl_cache_get_supported_size(uvc_device_handle_t *devh) {
+	char *result = NULL;
+
+	if (devh && devh->ctrl_cache) {
+		pthread_mutex_lock(&devh->ctrl_cache->mutex);
+		// copied under the lock, #uvc_ctrl_cache_set_supported_size may free the cached one
+		// 在锁内复制，#uvc_ctrl_cache_set_supported_size可能会释放缓存的列表
+		if (devh->ctrl_cache->supported_size) {
+			result = strdup(devh->ctrl_cache->supported_size);
+		}
+		pthread_mutex_unlock(&devh->ctrl_cache->mutex);
+	}
+	return result;
+}
+
+/**
+ * @brief Keep the supported size list(JSON) in the cache
+ * 将支持的分辨率列表(JSON)保存到缓存
+ * @ingroup cache
+ */
+void uvc_ctrl_cache_set_supported_size(uvc_device_handle_t *devh, const char *supported_size) {
+	struct uvc_ctrl_cache *cache;
+
+	if (UNLIKELY(!devh || !devh->ctrl_cache || !supported_size)) return;
+
+	cache = devh->ctrl_cache;
+	pthread_mutex_lock(&cache->mutex);
+	if (!cache->supported_size || strcmp(cache->supported_size, supported_size)) {
+		SAFE_FREE(cache->supported_size);
+		cache->supported_size = strdup(supported_size);
+		_uvc_ctrl_cache_save(cache);
+	}
+	pthread_mutex_unlock(&cache->mutex);
+}
+
+/**
+ * @brief Discard all cached contents of the device, also removes the cache file
+ * 丢弃设备的所有缓存内容，同时删除缓存文件
+ * @ingroup cache
+ */
+void uvc_clear_ctrl_cache(uvc_device_handle_t *devh) {
+	if (UNLIKELY(!devh || !devh->ctrl_cache)) return;
+
+	pthread_mutex_lock(&devh->ctrl_cache->mutex);
+	_uvc_ctrl_cache_clear_entries(devh->ctrl_cache);
+	remove(devh->ctrl_cache->path);
+	pthread_mutex_unlock(&devh->ctrl_cache->mutex);
+}
+
+//======================================================================
+/** @internal
+ * @brief Find the negotiated control block for the request
+ * 查找与请求对应的已协商控制块
+ * @return 1 if found 找到时返回1
+ */
+int _uvc_ctrl_cache_find(uvc_device_handle_t *devh, enum uvc_frame_format cf,
+		int width, int height, int min_fps, int max_fps, uvc_stream_ctrl_t *ctrl) {
+	uvc_ctrl_cache_entry_t *entry;
+	int result = 0;
+
+	if (!devh->ctrl_cache) return 0;
+
+	pthread_mutex_lock(&devh->ctrl_cache->mutex);
+	DL_FOREACH(devh->ctrl_cache->entries, entry)
+	{
+		const uvc_ctrl_cache_record_t *r = &entry->record;
+		if ((r->frame_format == (int32_t)cf) && (r->width == width) && (r->height == height)
+			&& (r->min_fps == min_fps) && (r->max_fps == max_fps)) {
+			_uvc_ctrl_cache_from_record(r, ctrl);
+			result = 1;
+			break;
+		}
+	}
+	pthread_mutex_unlock(&devh->ctrl_cache->mutex);
+	return result;
+}
+
+/** @internal
+ * @brief Keep the negotiated control block for the request, the oldest one is dropped when full
+ * 保存与请求对应的已协商控制块，满时丢弃最旧的
+ */
+void _uvc_ctrl_cache_put(uvc_device_handle_t *devh, enum uvc_frame_format cf,
+		int width, int height, int min_fps, int max_fps, const uvc_stream_ctrl_t *ctrl) {
+	struct uvc_ctrl_cache *cache = devh->ctrl_cache;
+	uvc_ctrl_cache_entry_t *entry;
+	uvc_ctrl_cache_record_t record;
+
+	if (!cache) return;
+
+	memset(&record, 0, sizeof(record));
+	record.frame_format = cf;
+	record.width = width;
+	record.height = height;
+	record.min_fps = min_fps;
+	record.max_fps = max_fps;
+	_uvc_ctrl_cache_to_record(ctrl, &record);
+
+	pthread_mutex_lock(&cache->mutex);
+	DL_FOREACH(cache->entries, entry)
+	{
+		const uvc_ctrl_cache_record_t *r = &entry->record;
+		if ((r->frame_format == record.frame_format) && (r->width == width) && (r->height == height)
+			&& (r->min_fps == min_fps) && (r->max_fps == max_fps)) {
+			break;
+		}
+	}
+	if (entry) {
+		if (memcmp(&entry->record, &record, sizeof(record))) {
+			entry->record = record;
+			_uvc_ctrl_cache_save(cache);
+		}
+	} else {
+		if (cache->num_entries >= UVC_CTRL_CACHE_MAX_ENTRIES) {
+			entry = cache->entries;
+			DL_DELETE(cache->entries, entry);
+			cache->num_entries--;
+		} else {
+			entry = calloc(1, sizeof(*entry));
+		}
+		if (LIKELY(entry)) {
+			entry->record = record;
+			DL_APPEND(cache->entries, entry);
+			cache->num_entries++;
+			_uvc_ctrl_cache_save(cache);
+		}
+	}
+	pthread_mutex_unlock(&cache->mutex);
+}
+
+/** @internal
+ * @brief Remove the cached control block that the device refused
+ * 删除设备拒绝的缓存控制块
+ * @return 1 if the control block was in the cache 控制块在缓存中时返回1
+ */
+int _uvc_ctrl_cache_remove(uvc_device_handle_t *devh, const uvc_stream_ctrl_t *ctrl) {
+	struct uvc_ctrl_cache *cache = devh->ctrl_cache;
+	uvc_ctrl_cache_entry_t *entry, *tmp;
+	int result = 0;
+
+	if (!cache) return 0;
+
+	pthread_mutex_lock(&cache->mutex);
+	DL_FOREACH_SAFE(cache->entries, entry, tmp)
+	{
+		const uvc_ctrl_cache_record_t *r = &entry->record;
+		if ((r->bInterfaceNumber == ctrl->bInterfaceNumber)
+			&& (r->bFormatIndex == ctrl->bFormatIndex)
+			&& (r->bFrameIndex == ctrl->bFrameIndex)
+			&& (r->dwFrameInterval == ctrl->dwFrameInterval)) {
+			DL_DELETE(cache->entries, entry);
+			free(entry);
+			cache->num_entries--;
+			result = 1;
+		}
+	}
+	if (result) {
+		_uvc_ctrl_cache_save(cache);
+	}
+	pthread_mutex_unlock(&cache->mutex);
+	return result;
+}
+
+/** @internal
+ * @brief Free the cache, called from uvc_free_devh 释放缓存，从uvc_free_devh调用
+ */
+void _uvc_ctrl_cache_free(uvc_device_handle_t *devh) {
+	struct uvc_ctrl_cache *cache = devh->ctrl_cache;
+
+	if (!cache) return;
+
+	_uvc_ctrl_cache_clear_entries(cache);
+	pthread_mutex_destroy(&cache->mutex);
+	SAFE_FREE(cache->path);
+	free(cache);
+	devh->ctrl_cache = NULL;
+}
@@ -151,10 +151,10 @@ uvc_error_t uvc_vc_get_error_code(uvc_device_handle_t *devh,
  */ // XXX added saki
 uvc_error_t uvc_vs_get_error_code(uvc_device_handle_t *devh,
 		uvc_vs_error_code_control_t *error_code, enum uvc_req_code req_code) {
-	uint8_t error_char = 0;
 	uvc_error_t ret = UVC_SUCCESS;
 
 #if 0 // This code may cause hang-up on some combinations of device and camera and temporary disabled.  此代码可能会导致设备和相机的某些组合挂断，并暂时禁用。
+	uint8_t error_char = 0;
 	ret = libusb_control_transfer(devh->usb_devh, REQ_TYPE_GET, req_code,
 			UVC_VS_STREAM_ERROR_CODE_CONTROL << 8,
 			devh->info->stream_ifs->bInterfaceNumber,	// XXX is this OK?
@@ -311,6 +311,7 @@ uvc_error_t uvc_open(uvc_device_t *dev, uvc_device_handle_t **devh) {
 
 	if (UNLIKELY(ret != UVC_SUCCESS))
 		goto fail2;	// uvc_claim_if was not called yet and we don't need to call uvc_release_if 尚未调用uvc_claim_if，我们不需要调用uvc_release_if
+	uvc_mark_startup(internal_devh, UVC_STARTUP_DESCRIPTORS, 0);
 #if !UVC_DETACH_ATTACH
 	/* enable automatic attach/detach kernel driver on supported platforms in libusb
 	 * 在libusb中支持的平台上启用自动附加/分离内核驱动程序
@@ -1665,6 +1666,8 @@ void uvc_free_devh(uvc_device_handle_t *devh) {
 	if (devh->status_xfer)
 		libusb_free_transfer(devh->status_xfer);
 
+	SAFE_FREE(devh->payload_record_path);
+	_uvc_ctrl_cache_free(devh);
 	free(devh);
 
 	UVC_EXIT_VOID();
@@ -332,8 +332,6 @@ void uvc_print_diag(uvc_device_handle_t *devh, FILE *stream) {
 
 		DL_FOREACH(devh->info->stream_ifs, stream_if)
 		{
-			uvc_format_desc_t *fmt_desc;
-
 			++stream_idx;
 
 			FPRINTF(stream,
@@ -353,7 +351,6 @@ void uvc_print_diag(uvc_device_handle_t *devh, FILE *stream) {
 void uvc_print_format_desc_one(uvc_format_desc_t *format_desc, FILE *stream) {
 
 	uvc_frame_desc_t *frame_desc;
-	int i;
 
 	switch (format_desc->bDescriptorSubtype) {
 	case UVC_VS_FORMAT_UNCOMPRESSED:
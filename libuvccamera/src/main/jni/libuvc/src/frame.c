@@ -1112,7 +1112,6 @@ int uvc_yuyv2yuv420P(uvc_frame_t *in, uvc_frame_t *out) {
 	const uint8_t *src = in->data;
 	uint8_t *dest = out->data;
 	const int32_t width = in->width;
-	const int32_t height = in->height;
 	const int32_t src_width = in->step;
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
@@ -1156,7 +1155,6 @@ int uvc_yuyv2iyuv420P(uvc_frame_t *in, uvc_frame_t *out) {
 	const uint8_t *src = in->data;
 	uint8_t *dest = out->data;
 	const int32_t width = in->width;
-	const int32_t height = in->height;
 	const int32_t src_width = in->step;
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
@@ -1201,7 +1199,6 @@ uvc_error_t uvc_yuyv2yuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	const uint8_t *src = in->data;
 	uint8_t *dest = out->data;
 	const int32_t width = in->width;
-	const int32_t height = in->height;
 	const int32_t src_width = in->step;
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
@@ -1249,7 +1246,6 @@ uvc_error_t uvc_yuyv2iyuv420SP(uvc_frame_t *in, uvc_frame_t *out) {
 	const uint8_t *src = in->data;
 	uint8_t *dest =out->data;
 	const int32_t width = in->width;
-	const int32_t height = in->height;
 	const int32_t src_width = in->step;
 	const int32_t src_height = in->height;
 	const int32_t dest_width = out->width = out->step = in->width;
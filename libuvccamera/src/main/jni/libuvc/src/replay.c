@@ -0,0 +1,519 @@
+/**
+ * @defgroup replay Raw payload recording and replay
+ * @brief Record raw iso/bulk payloads of a stream and feed them back through
+ * the same payload parser/frame assembly without usb device
+ * 原始有效负载记录与回放
+ * 记录视频流的原始同步/块传输有效负载，并在没有usb设备的情况下通过同一解析/帧组装代码回放
+ *
+ * File layout(little endian) 文件格式(小端)
+ *   uvc_payload_record_header_t
+ *   repeat {
+ *     uvc_payload_record_entry_t
+ *     uint32_t packet_length[num_packets]	// iso only 仅同步传输
+ *     uint8_t data[data_bytes]				// packets are stored back to back 数据包紧密排列
+ *   }
+ */
+
+#define LOCAL_DEBUG 0
+
+#define LOG_TAG "libuvc/replay"
+#if 1	// 不输出调试信息时1
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// 不输出LOGV/LOGD/MARK
+		#endif
+	#undef USE_LOGALL			// 仅输出指定的LOGx
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG
+#endif
+
+#include <time.h>
+#include <errno.h>
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+#define UVC_PAYLOAD_RECORD_MAGIC "UVCPREC"
+#define UVC_PAYLOAD_RECORD_VERSION 1
+#define UVC_PAYLOAD_RECORD_FLAG_ISO 0x01
+#define UVC_PAYLOAD_RECORD_FLAG_ISIGHT 0x02
+// keep stdio buffer large so the transfer callback seldom hits the file system
+// 加大stdio缓冲区，减少传输回调中的文件系统访问
+#define UVC_PAYLOAD_RECORD_BUF_SIZE (256 * 1024)
+
+typedef struct uvc_payload_record_header {
+	char magic[8];
+	uint16_t version;
+	uint16_t flags;
+	uint32_t frame_format;		// enum uvc_frame_format
+	uint16_t width;
+	uint16_t height;
+	uint32_t max_frame_size;	// dwMaxVideoFrameSize
+	uint32_t frame_interval;	// dwFrameInterval, 100ns
+	uint32_t reserved;
+} __attribute__((packed)) uvc_payload_record_header_t;
+
+typedef struct uvc_payload_record_entry {
+	uint64_t time_us;			// relative to the start of recording 相对记录开始的时间
+	uint32_t num_packets;		// 0: bulk transfer 0为块传输
+	uint32_t data_bytes;
+} __attribute__((packed)) uvc_payload_record_entry_t;
+
+struct uvc_replay {
+	FILE *fp;
+	uvc_payload_record_header_t header;
+	// dummy device/stream without usb device, only fields used by payload parser are set
+	// 没有usb设备的虚拟设备/流，只设置有效负载解析使用的字段
+	struct uvc_device_handle devh;
+	struct uvc_stream_handle strmh;
+	struct libusb_transfer *transfer;
+	size_t transfer_bytes;
+	int max_packets;
+	uint8_t *data;
+	size_t data_bytes;
+	volatile int running;
+	uvc_replay_stats_t stats;
+};
+
+static uint64_t _uvc_replay_now_us(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000ULL + ts.tv_nsec / 1000;
+}
+
+//======================================================================
+// recording 记录
+//======================================================================
+/**
+ * @brief Record raw payloads of the stream started next into the file
+ * 将下次开始的视频流的原始有效负载记录到文件
+ * @ingroup replay
+ *
+ * @param devh UVC device
+ * @param path file path, NULL to stop recording at next stream start 为NULL时下次开始视频流时不再记录
+ */
+uvc_error_t uvc_set_payload_record(uvc_device_handle_t *devh, const char *path) {
+	UVC_ENTER();
+
+	if (UNLIKELY(!devh)) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	SAFE_FREE(devh->payload_record_path);
+	if (path && *path) {
+		devh->payload_record_path = strdup(path);
+		if (UNLIKELY(!devh->payload_record_path)) {
+			UVC_EXIT(UVC_ERROR_NO_MEM);
+			return UVC_ERROR_NO_MEM;
+		}
+	}
+
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * @brief Open record file and write the header, called when the stream starts
+ * 打开记录文件并写入文件头，开始视频流时调用
+ */
+void _uvc_payload_record_open(uvc_stream_handle_t *strmh, uvc_frame_desc_t *frame_desc, int isochronous) {
+	uvc_payload_record_header_t header;
+	FILE *fp;
+
+	UVC_ENTER();
+
+	_uvc_payload_record_close(strmh);
+	fp = fopen(strmh->devh->payload_record_path, "wb");
+	if (UNLIKELY(!fp)) {
+		LOGE("failed to open payload record file:%s,errno=%d", strmh->devh->payload_record_path, errno);
+		UVC_EXIT_VOID();
+		return;
+	}
+	setvbuf(fp, NULL, _IOFBF, UVC_PAYLOAD_RECORD_BUF_SIZE);
+
+	memset(&header, 0, sizeof(header));
+	memcpy(header.magic, UVC_PAYLOAD_RECORD_MAGIC, sizeof(UVC_PAYLOAD_RECORD_MAGIC));
+	header.version = UVC_PAYLOAD_RECORD_VERSION;
+	header.flags = (isochronous ? UVC_PAYLOAD_RECORD_FLAG_ISO : 0)
+		| (strmh->devh->is_isight ? UVC_PAYLOAD_RECORD_FLAG_ISIGHT : 0);
+	header.frame_format = strmh->frame_format;
+	header.width = frame_desc->wWidth;
+	header.height = frame_desc->wHeight;
+	header.max_frame_size = strmh->cur_ctrl.dwMaxVideoFrameSize;
+	header.frame_interval = strmh->cur_ctrl.dwFrameInterval;
+	if (UNLIKELY(fwrite(&header, sizeof(header), 1, fp) != 1)) {
+		LOGE("failed to write payload record header");
+		fclose(fp);
+		UVC_EXIT_VOID();
+		return;
+	}
+	strmh->payload_record_start = _uvc_replay_now_us();
+	strmh->payload_record = fp;
+
+	UVC_EXIT_VOID();
+}
+
+/** @internal
+ * @brief Append a completed transfer to the record file, called on the transfer callback
+ * 将已完成的传输追加到记录文件，在传输回调中调用
+ */
+void _uvc_payload_record_write(uvc_stream_handle_t *strmh, struct libusb_transfer *transfer) {
+	uvc_payload_record_entry_t entry;
+	FILE *fp = strmh->payload_record;
+	int i, ok;
+
+	entry.time_us = _uvc_replay_now_us() - strmh->payload_record_start;
+	entry.num_packets = transfer->num_iso_packets;
+	if (!transfer->num_iso_packets) {
+		entry.data_bytes = transfer->actual_length;
+		ok = (fwrite(&entry, sizeof(entry), 1, fp) == 1)
+			&& (!entry.data_bytes || (fwrite(transfer->buffer, entry.data_bytes, 1, fp) == 1));
+	} else {
+		uint32_t packet_length;
+		entry.data_bytes = 0;
+		for (i = 0; i < transfer->num_iso_packets; i++) {
+			entry.data_bytes += transfer->iso_packet_desc[i].actual_length;
+		}
+		ok = fwrite(&entry, sizeof(entry), 1, fp) == 1;
+		for (i = 0; ok && (i < transfer->num_iso_packets); i++) {
+			packet_length = transfer->iso_packet_desc[i].actual_length;
+			ok = fwrite(&packet_length, sizeof(packet_length), 1, fp) == 1;
+		}
+		for (i = 0; ok && (i < transfer->num_iso_packets); i++) {
+			packet_length = transfer->iso_packet_desc[i].actual_length;
+			if (packet_length) {
+				ok = fwrite(libusb_get_iso_packet_buffer_simple(transfer, i), packet_length, 1, fp) == 1;
+			}
+		}
+	}
+	if (UNLIKELY(!ok)) {
+		// XXX stop recording instead of leaving a broken file 停止记录，避免产生损坏的文件
+		LOGE("failed to write payload record, stop recording");
+		_uvc_payload_record_close(strmh);
+	}
+}
+
+/** @internal
+ * @brief Close the record file if opened
+ * 如果已打开则关闭记录文件
+ */
+void _uvc_payload_record_close(uvc_stream_handle_t *strmh) {
+	if (strmh->payload_record) {
+		fclose(strmh->payload_record);
+		strmh->payload_record = NULL;
+	}
+}
+
+//======================================================================
+// replay 回放
+//======================================================================
+/**
+ * @brief Open a payload record file for replay
+ * 打开有效负载记录文件用于回放
+ * @ingroup replay
+ *
+ * @param path record file written by uvc_set_payload_record
+ * @param[out] replay
+ */
+uvc_error_t uvc_replay_open(const char *path, uvc_replay_t **replay) {
+	uvc_replay_t *rp;
+	uvc_error_t ret;
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!path || !replay)) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	*replay = NULL;
+
+	rp = calloc(1, sizeof(*rp));
+	if (UNLIKELY(!rp)) {
+		UVC_EXIT(UVC_ERROR_NO_MEM);
+		return UVC_ERROR_NO_MEM;
+	}
+	rp->fp = fopen(path, "rb");
+	if (UNLIKELY(!rp->fp)) {
+		LOGE("failed to open %s,errno=%d", path, errno);
+		ret = UVC_ERROR_NOT_FOUND;
+		goto fail;
+	}
+	if (UNLIKELY((fread(&rp->header, sizeof(rp->header), 1, rp->fp) != 1)
+		|| memcmp(rp->header.magic, UVC_PAYLOAD_RECORD_MAGIC, sizeof(UVC_PAYLOAD_RECORD_MAGIC))
+		|| (rp->header.version != UVC_PAYLOAD_RECORD_VERSION))) {
+		LOGE("%s is not a payload record file", path);
+		ret = UVC_ERROR_INVALID_PARAM;
+		goto fail;
+	}
+
+	rp->devh.is_isight = (rp->header.flags & UVC_PAYLOAD_RECORD_FLAG_ISIGHT) ? 1 : 0;
+	rp->strmh.devh = &rp->devh;
+	rp->strmh.frame_format = (enum uvc_frame_format)rp->header.frame_format;
+	rp->strmh.cur_ctrl.dwMaxVideoFrameSize = rp->header.max_frame_size;
+	rp->strmh.cur_ctrl.dwFrameInterval = rp->header.frame_interval;
+	rp->strmh.frame.library_owns_data = 1;
+	// same sizing rule as _uvc_stream_frame_bytes 与_uvc_stream_frame_bytes相同的大小规则
+	rp->strmh.size_buf = rp->header.max_frame_size;
+	if (rp->strmh.frame_format == UVC_FRAME_FORMAT_YUYV) {
+		const size_t frame_bytes = (size_t)rp->header.width * rp->header.height * 2;
+		if (rp->strmh.size_buf < frame_bytes) {
+			rp->strmh.size_buf = frame_bytes;
+		}
+	}
+	if (!rp->strmh.size_buf) {
+		rp->strmh.size_buf = frame_buffer_size;
+	}
+	rp->strmh.outbuf = malloc(rp->strmh.size_buf);
+	rp->strmh.holdbuf = malloc(rp->strmh.size_buf);
+	rp->strmh.frame.data = malloc(rp->strmh.size_buf);
+	rp->strmh.frame.data_bytes = rp->strmh.size_buf;
+	if (UNLIKELY(!rp->strmh.outbuf || !rp->strmh.holdbuf || !rp->strmh.frame.data)) {
+		ret = UVC_ERROR_NO_MEM;
+		goto fail;
+	}
+	pthread_mutex_init(&rp->strmh.cb_mutex, NULL);
+	pthread_cond_init(&rp->strmh.cb_cond, NULL);
+
+	*replay = rp;
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+
+fail:
+	if (rp->fp)
+		fclose(rp->fp);
+	SAFE_FREE(rp->strmh.outbuf);
+	SAFE_FREE(rp->strmh.holdbuf);
+	SAFE_FREE(rp->strmh.frame.data);
+	free(rp);
+	UVC_EXIT(ret);
+	return ret;
+}
+
+/**
+ * @brief Get the recorded stream format
+ * 获取记录的视频流格式
+ * @ingroup replay
+ *
+ * @param frame_interval [out] dwFrameInterval(100ns), can be NULL
+ */
+uvc_error_t uvc_replay_get_format(uvc_replay_t *replay,
+		enum uvc_frame_format *format, int *width, int *height, uint32_t *frame_interval) {
+
+	if (UNLIKELY(!replay)) return UVC_ERROR_INVALID_PARAM;
+	if (format) *format = (enum uvc_frame_format)replay->header.frame_format;
+	if (width) *width = replay->header.width;
+	if (height) *height = replay->header.height;
+	if (frame_interval) *frame_interval = replay->header.frame_interval;
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * @brief Read next recorded transfer into replay->transfer
+ * 读取下一个记录的传输到 replay->transfer
+ * @return 1: read a transfer, 0: end of file, <0: error
+ */
+static int _uvc_replay_read(uvc_replay_t *rp, uvc_payload_record_entry_t *entry) {
+	struct libusb_transfer *transfer;
+	uint32_t packet_length, slot = 0;
+	uint32_t *lengths;
+	int i;
+
+	if (fread(entry, sizeof(*entry), 1, rp->fp) != 1) {
+		return feof(rp->fp) ? 0 : UVC_ERROR_IO;
+	}
+	// packet lengths followed by data, read them all at once
+	// 数据包长度表之后是数据，一次读取
+	const size_t table_bytes = entry->num_packets * sizeof(uint32_t);
+	const size_t bytes = table_bytes + entry->data_bytes;
+	if (rp->data_bytes < bytes) {
+		uint8_t *data = realloc(rp->data, bytes);
+		if (UNLIKELY(!data)) return UVC_ERROR_NO_MEM;
+		rp->data = data;
+		rp->data_bytes = bytes;
+	}
+	if (UNLIKELY(bytes && (fread(rp->data, bytes, 1, rp->fp) != 1))) {
+		return feof(rp->fp) ? 0 : UVC_ERROR_IO;
+	}
+	lengths = (uint32_t *)rp->data;
+	for (i = 0; i < (int)entry->num_packets; i++) {
+		if (slot < lengths[i]) slot = lengths[i];
+	}
+	// rebuild the transfer as libusb would hand it to _uvc_stream_callback
+	// 按libusb交给_uvc_stream_callback时的样子重建传输
+	const size_t transfer_bytes = entry->num_packets ? (size_t)slot * entry->num_packets : entry->data_bytes;
+	if (!rp->transfer || (rp->max_packets < (int)entry->num_packets) || (rp->transfer_bytes < transfer_bytes)) {
+		const int max_packets = rp->max_packets < (int)entry->num_packets ? (int)entry->num_packets : rp->max_packets;
+		const size_t max_bytes = rp->transfer_bytes < transfer_bytes ? transfer_bytes : rp->transfer_bytes;
+		if (rp->transfer) {
+			free(rp->transfer->buffer);
+			free(rp->transfer);
+		}
+		rp->transfer = calloc(1, sizeof(struct libusb_transfer)
+			+ max_packets * sizeof(struct libusb_iso_packet_descriptor));
+		if (UNLIKELY(!rp->transfer)) return UVC_ERROR_NO_MEM;
+		rp->transfer->buffer = malloc(max_bytes ? max_bytes : 1);
+		if (UNLIKELY(!rp->transfer->buffer)) {
+			SAFE_FREE(rp->transfer);
+			return UVC_ERROR_NO_MEM;
+		}
+		rp->max_packets = max_packets;
+		rp->transfer_bytes = max_bytes;
+	}
+	transfer = rp->transfer;
+	transfer->user_data = &rp->strmh;
+	transfer->status = LIBUSB_TRANSFER_COMPLETED;
+	transfer->num_iso_packets = entry->num_packets;
+	transfer->length = transfer->actual_length = (int)transfer_bytes;
+	if (!entry->num_packets) {
+		memcpy(transfer->buffer, rp->data, entry->data_bytes);
+		transfer->actual_length = entry->data_bytes;
+	} else {
+		const uint8_t *src = rp->data + table_bytes;
+		for (i = 0; i < (int)entry->num_packets; i++) {
+			packet_length = lengths[i];
+			transfer->iso_packet_desc[i].length = slot;
+			transfer->iso_packet_desc[i].actual_length = packet_length;
+			transfer->iso_packet_desc[i].status = LIBUSB_TRANSFER_COMPLETED;
+			memcpy(transfer->buffer + (size_t)slot * i, src, packet_length);
+			src += packet_length;
+		}
+	}
+	return 1;
+}
+
+/**
+ * @brief Feed the record through payload parser/frame assembly and call the callback for each frame
+ * 将记录送入有效负载解析/帧组装，每组装出一帧调用一次回调
+ * @ingroup replay
+ *
+ * The callback is called on the caller thread, so the result is deterministic.
+ * This function returns when the record ends(and loop is 0) or uvc_replay_stop is called.
+ * 回调在调用线程中执行，结果是确定的。记录结束(且loop为0)或调用uvc_replay_stop时返回。
+ *
+ * @param cb frame callback
+ * @param realtime 1: wait until the recorded time of each transfer, 0: as fast as possible
+ *                 1:按记录的时间间隔回放，0:尽可能快地回放
+ * @param loop 1: restart from the beginning when the record ends 记录结束后从头开始
+ */
+uvc_error_t uvc_replay_run(uvc_replay_t *replay,
+		uvc_frame_callback_t *cb, void *user_ptr, int realtime, int loop) {
+	uvc_payload_record_entry_t entry;
+	uvc_stream_handle_t *strmh;
+	uint64_t start_us, now_us, base_us = 0;
+	uint32_t last_seq;
+	int r;
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!replay || !cb)) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	strmh = &replay->strmh;
+	replay->running = 1;
+	memset(&replay->stats, 0, sizeof(replay->stats));
+	start_us = _uvc_replay_now_us();
+	last_seq = strmh->hold_seq;
+	for ( ; replay->running ; ) {
+		r = _uvc_replay_read(replay, &entry);
+		if (UNLIKELY(r < 0)) {
+			replay->running = 0;
+			UVC_EXIT(r);
+			return (uvc_error_t)r;
+		} else if (!r) {
+			// end of record 记录结束
+			if (!loop) break;
+			fseek(replay->fp, sizeof(replay->header), SEEK_SET);
+			// next loop starts after the last recorded transfer 下一轮接在最后一个传输之后
+			base_us = replay->stats.last_time_us;
+			continue;
+		}
+		entry.time_us += base_us;
+		replay->stats.last_time_us = entry.time_us;
+		if (realtime) {
+			now_us = _uvc_replay_now_us() - start_us;
+			if (now_us < entry.time_us) {
+				const uint64_t wait_us = entry.time_us - now_us;
+				struct timespec ts = { (time_t)(wait_us / 1000000), (long)(wait_us % 1000000) * 1000 };
+				nanosleep(&ts, NULL);
+			}
+		}
+		replay->stats.transfers++;
+		replay->stats.payload_bytes += entry.data_bytes;
+		// same parser as _uvc_stream_callback 与_uvc_stream_callback相同的解析代码
+		_uvc_process_transfer(strmh, replay->transfer);
+		if (strmh->hold_seq != last_seq) {
+			// a frame was assembled 组装出一帧
+			last_seq = strmh->hold_seq;
+			if (LIKELY(!strmh->hold_bfh_err)) {
+				pthread_mutex_lock(&strmh->cb_mutex);
+				{
+					_uvc_populate_frame_size(strmh, replay->header.width, replay->header.height);
+				}
+				pthread_mutex_unlock(&strmh->cb_mutex);
+				replay->stats.frames++;
+				cb(&strmh->frame, user_ptr);
+			} else {
+				replay->stats.error_frames++;
+			}
+		}
+	}
+	replay->stats.elapsed_us = _uvc_replay_now_us() - start_us;
+	replay->running = 0;
+
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+}
+
+/**
+ * @brief Request uvc_replay_run to return, can be called from any thread
+ * 请求uvc_replay_run返回，可以在任意线程调用
+ * @ingroup replay
+ */
+void uvc_replay_stop(uvc_replay_t *replay) {
+	if (replay) {
+		replay->running = 0;
+	}
+}
+
+/**
+ * @brief Get statistics of the last/current uvc_replay_run
+ * 获取最近一次uvc_replay_run的统计信息
+ * @ingroup replay
+ */
+uvc_error_t uvc_replay_get_stats(uvc_replay_t *replay, uvc_replay_stats_t *stats) {
+	if (UNLIKELY(!replay || !stats)) return UVC_ERROR_INVALID_PARAM;
+	*stats = replay->stats;
+	return UVC_SUCCESS;
+}
+
+/**
+ * @brief Close the replay and free all resources, uvc_replay_run must have returned
+ * 关闭回放并释放所有资源，必须在uvc_replay_run返回后调用
+ * @ingroup replay
+ */
+void uvc_replay_close(uvc_replay_t *replay) {
+	UVC_ENTER();
+
+	if (!replay) {
+		UVC_EXIT_VOID();
+		return;
+	}
+
+	if (replay->fp)
+		fclose(replay->fp);
+	if (replay->transfer) {
+		free(replay->transfer->buffer);
+		free(replay->transfer);
+	}
+	SAFE_FREE(replay->data);
+	SAFE_FREE(replay->strmh.outbuf);
+	SAFE_FREE(replay->strmh.holdbuf);
+	SAFE_FREE(replay->strmh.frame.data);
+	pthread_cond_destroy(&replay->strmh.cb_cond);
+	pthread_mutex_destroy(&replay->strmh.cb_mutex);
+	free(replay);
+
+	UVC_EXIT_VOID();
+}
@@ -0,0 +1,150 @@
+/**
+ * @defgroup startup Open-to-first-frame latency breakdown
+ * @brief Timestamps of each phase from opening a camera until its first frame is on the
+ * screen, so that a regression of startup latency can be attributed to a phase
+ * 从打开相机到第一帧显示在画面上的各阶段时间戳，用于确定启动延迟是哪个阶段变慢
+ *
+ * Each phase keeps only the first time it is reached in the session(uvc_open ... uvc_close),
+ * so marking a phase again costs only one comparison and the marks can be placed on
+ * hot paths like payload processing.
+ * libuvc marks descriptor parsing, probe/commit, alt-setting selection, first payload and
+ * first complete frame, the application marks the other phases with uvc_mark_startup.
+ * 每个阶段在会话(uvc_open ... uvc_close)中只记录第一次到达的时间，再次标记只需一次比较，
+ * 因此可以放在有效负载处理等热点路径上
+ * libuvc标记描述符解析、探测/提交、alt-setting选择、第一个有效负载和第一个完整帧，
+ * 其他阶段由应用程序调用uvc_mark_startup标记
+ *
+ * On Android each mark is also emitted as a trace section "uvc:<phase>" while systrace/perfetto
+ * is capturing(ATrace of API>=23, looked up at runtime).
+ * 在Android上，systrace/perfetto采集中时每个标记同时输出为trace片段"uvc:<phase>"
+ * (API>=23的ATrace，运行时查找)
+ */
+
+#define LOCAL_DEBUG 0
+
+#define LOG_TAG "libuvc/startup"
+#if 1	// 不输出调试信息时1
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// 不输出LOGV/LOGD/MARK
+		#endif
+	#undef USE_LOGALL			// 仅输出指定的LOGx
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG
+#endif
+
+#include <time.h>
+#ifdef __ANDROID__
+#include <dlfcn.h>
+#endif
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+
+static const char *STARTUP_PHASE_NAMES[UVC_STARTUP_PHASE_NUM] = {
+	"uvc:connect",
+	"uvc:descriptors",
+	"uvc:connected",
+	"uvc:supported_size",
+	"uvc:probe_commit",
+	"uvc:alt_setting",
+	"uvc:first_payload",
+	"uvc:first_frame",
+	"uvc:first_decoded",
+	"uvc:first_displayed",
+};
+
+#ifdef __ANDROID__
+typedef int (*atrace_is_enabled_t)(void);
+typedef void (*atrace_begin_section_t)(const char *name);
+typedef void (*atrace_end_section_t)(void);
+
+static pthread_once_t trace_once = PTHREAD_ONCE_INIT;
+static atrace_is_enabled_t atrace_is_enabled;
+static atrace_begin_section_t atrace_begin_section;
+static atrace_end_section_t atrace_end_section;
+
+static void _uvc_startup_trace_init(void) {
+	// ATrace_* is only available on API>=23, do not link to it directly
+	// ATrace_*仅在API>=23上可用，不直接链接
+	void *lib = dlopen("libandroid.so", RTLD_NOW | RTLD_LOCAL);
+	if (lib) {
+		atrace_is_enabled = (atrace_is_enabled_t)dlsym(lib, "ATrace_isEnabled");
+		atrace_begin_section = (atrace_begin_section_t)dlsym(lib, "ATrace_beginSection");
+		atrace_end_section = (atrace_end_section_t)dlsym(lib, "ATrace_endSection");
+		if (!atrace_is_enabled || !atrace_begin_section || !atrace_end_section) {
+			atrace_is_enabled = NULL;
+		}
+	}
+}
+
+/** @internal
+ * @brief emit an instant trace section on the thread that reached the phase
+ * 在到达该阶段的线程上输出一个瞬时trace片段
+ */
+static void _uvc_startup_trace(enum uvc_startup_phase phase) {
+	pthread_once(&trace_once, _uvc_startup_trace_init);
+	if (atrace_is_enabled && atrace_is_enabled()) {
+		atrace_begin_section(STARTUP_PHASE_NAMES[phase]);
+		atrace_end_section();
+	}
+}
+#else
+#define _uvc_startup_trace(phase)
+#endif
+
+/**
+ * @brief current time of the clock used for startup timestamps
+ * 启动时间戳使用的时钟的当前时间
+ * @return CLOCK_MONOTONIC in microseconds 微秒
+ */
+uint64_t uvc_startup_time_us(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000ULL + ts.tv_nsec / 1000;
+}
+
+/**
+ * @brief record the time a startup phase was reached, only the first mark of each phase is kept
+ * 记录到达启动阶段的时间，每个阶段只保留第一次标记
+ * @param devh UVC device
+ * @param phase
+ * @param time_us time from uvc_startup_time_us, 0: now 来自uvc_startup_time_us的时间，0为当前时间
+ */
+void uvc_mark_startup(uvc_device_handle_t *devh, enum uvc_startup_phase phase, uint64_t time_us) {
+	if (UNLIKELY(!devh || (phase < 0) || (phase >= UVC_STARTUP_PHASE_NUM))) return;
+	if (LIKELY(devh->startup_us[phase])) return;	// already reached 已经到达
+	devh->startup_us[phase] = time_us ? time_us : uvc_startup_time_us();
+	_uvc_startup_trace(phase);
+}
+
+/**
+ * @brief get timestamps of startup phases
+ * 获取启动各阶段的时间戳
+ * @param devh UVC device
+ * @param[out] times_us time of each phase from uvc_startup_time_us, 0 if not reached yet
+ * 各阶段的时间(uvc_startup_time_us)，尚未到达时为0
+ * @param num number of elements of times_us times_us的元素数
+ * @return number of phases stored 存储的阶段数
+ */
+int uvc_get_startup_times(uvc_device_handle_t *devh, uint64_t *times_us, int num) {
+	int i;
+	if (UNLIKELY(!devh || !times_us || (num <= 0))) return 0;
+	if (num > UVC_STARTUP_PHASE_NUM) {
+		num = UVC_STARTUP_PHASE_NUM;
+	}
+	for (i = 0; i < num; i++) {
+		times_us[i] = devh->startup_us[i];
+	}
+	return num;
+}
+
+/**
+ * @brief name of startup phase, same as the trace section name
+ * 启动阶段的名称，与trace片段名相同
+ */
+const char *uvc_startup_phase_name(enum uvc_startup_phase phase) {
+	if (UNLIKELY((phase < 0) || (phase >= UVC_STARTUP_PHASE_NUM))) return "unknown";
+	return STARTUP_PHASE_NAMES[phase];
+}
@@ -84,9 +84,18 @@ uvc_frame_desc_t *uvc_find_frame_desc_stream(uvc_stream_handle_t *strmh,
 		uint16_t format_id, uint16_t frame_id);
 uvc_frame_desc_t *uvc_find_frame_desc(uvc_device_handle_t *devh,
 		uint16_t format_id, uint16_t frame_id);
+static uvc_streaming_interface_t *_uvc_get_stream_if(uvc_device_handle_t *devh,
+		int interface_idx);
 static void *_uvc_user_caller(void *arg);
 // 获取视频帧
 static void _uvc_populate_frame(uvc_stream_handle_t *strmh);
+// 根据协商结果分配帧缓存
+static uvc_error_t _uvc_stream_alloc_buffers(uvc_stream_handle_t *strmh);
+
+// 备用帧缓存大小，见libuvc_internal.h
+int frame_buffer_size = LIBUVC_XFER_BUF_SIZE;
+// 是否丢弃不完整帧  0不丢弃， 1丢弃
+int drop_incomplete_frame = 0;
 
 struct format_table_entry {
 	enum uvc_frame_format format;
@@ -449,9 +458,112 @@ uvc_error_t uvc_stream_ctrl(uvc_stream_handle_t *strmh, uvc_stream_ctrl_t *ctrl)
 	}
 
 	strmh->cur_ctrl = *ctrl;
+	// the frame size may have changed, so resize frame buffers
+	// 帧大小可能已改变，重新调整帧缓存
+	return _uvc_stream_alloc_buffers(strmh);
+}
+
+/** @internal
+ * @brief Number of bytes needed to hold one frame of the committed format
+ * 保存一帧当前协商格式的数据所需的字节数
+ *
+ * Uses the largest of the committed dwMaxVideoFrameSize, dwMaxVideoFrameBufferSize of
+ * the frame descriptor and width * height * 2, and frame_buffer_size when the device reports nothing.
+ * 使用协商的dwMaxVideoFrameSize、帧描述符的dwMaxVideoFrameBufferSize和宽*高*2中的最大值，
+ * 设备未给出任何值时使用frame_buffer_size
+ */
+static size_t _uvc_stream_frame_bytes(uvc_stream_handle_t *strmh) {
+	size_t bytes = strmh->cur_ctrl.dwMaxVideoFrameSize;
+	uvc_frame_desc_t *frame_desc = uvc_find_frame_desc_stream(strmh,
+		strmh->cur_ctrl.bFormatIndex, strmh->cur_ctrl.bFrameIndex);
+
+	if (frame_desc) {
+		if (bytes < frame_desc->dwMaxVideoFrameBufferSize) {
+			bytes = frame_desc->dwMaxVideoFrameBufferSize;
+		}
+		// XXX some devices report smaller value than actual frame, not only for uncompressed frame(YUYV)
+		// but also for MJPEG frames of high quality, 2 bytes per pixel holds both of them
+		// 有些设备给出的值比实际帧小，不仅是未压缩帧(YUYV)，高质量的MJPEG帧也是如此，每像素2字节可容纳两者
+		const size_t frame_bytes = (size_t)frame_desc->wWidth * frame_desc->wHeight * 2;
+		if (bytes < frame_bytes) {
+			bytes = frame_bytes;
+		}
+	}
+	if (!bytes) {
+		bytes = frame_buffer_size;
+	}
+	return bytes;
+}
+
+/** @internal
+ * @brief (Re)allocate outbuf/holdbuf/frame for the committed format
+ * 按当前协商格式(重新)分配 outbuf/holdbuf/frame 缓存
+ *
+ * Must not be called while the stream is running.
+ * 流运行中不能调用
+ */
+static uvc_error_t _uvc_stream_alloc_buffers(uvc_stream_handle_t *strmh) {
+	const size_t bytes = _uvc_stream_frame_bytes(strmh);
+
+	if (strmh->outbuf && strmh->holdbuf && (strmh->size_buf == bytes)) {
+		return UVC_SUCCESS;
+	}
+	SAFE_FREE(strmh->outbuf);
+	SAFE_FREE(strmh->holdbuf);
+	SAFE_FREE(strmh->frame.data);
+	strmh->size_buf = strmh->frame.data_bytes = 0;
+	strmh->got_bytes = strmh->hold_bytes = 0;
+
+	strmh->outbuf = malloc(bytes);
+	strmh->holdbuf = malloc(bytes);
+	// pre-allocate the frame so _uvc_populate_frame never needs realloc
+	// 预先分配帧缓存，_uvc_populate_frame 不再需要 realloc
+	strmh->frame.data = malloc(bytes);
+	if (UNLIKELY(!strmh->outbuf || !strmh->holdbuf || !strmh->frame.data)) {
+		SAFE_FREE(strmh->outbuf);
+		SAFE_FREE(strmh->holdbuf);
+		SAFE_FREE(strmh->frame.data);
+		LOGE("failed to allocate frame buffers:%zu", bytes);
+		return UVC_ERROR_NO_MEM;
+	}
+	strmh->size_buf = bytes;	// xxx for boundary check  用于边界检查
+	strmh->frame.data_bytes = bytes;
+	UVC_DEBUG("frame buffer size:%zu", bytes);
 	return UVC_SUCCESS;
 }
 
+/**
+ * @brief Get number of bytes currently allocated for streaming by this device
+ * 获取此设备当前为视频流分配的内存字节数
+ *
+ * Counts frame buffers(outbuf/holdbuf/frame) and in-flight transfer buffers of every opened stream.
+ * 统计所有已打开流的帧缓存(outbuf/holdbuf/frame)和传输缓冲区
+ *
+ * @param devh UVC device
+ */
+size_t uvc_get_stream_memory_usage(uvc_device_handle_t *devh) {
+	uvc_stream_handle_t *strmh;
+	size_t result = 0;
+	int i;
+
+	if (UNLIKELY(!devh)) return 0;
+
+	DL_FOREACH(devh->streams, strmh)
+	{
+		pthread_mutex_lock(&strmh->cb_mutex);
+		{
+			result += strmh->size_buf * 2 + strmh->frame.data_bytes;
+			for (i = 0; i < LIBUVC_NUM_TRANSFER_BUFS; i++) {
+				if (strmh->transfers[i]) {
+					result += strmh->size_xfer_buf;
+				}
+			}
+		}
+		pthread_mutex_unlock(&strmh->cb_mutex);
+	}
+	return result;
+}
+
 /** @internal
  * @brief Find the descriptor for a specific frame configuration
  * 查找特定帧配置的描述符
@@ -519,15 +631,6 @@ uvc_frame_desc_t *uvc_find_frame_desc(uvc_device_handle_t *devh,
 	return NULL;
 }
 
-static void _uvc_print_streaming_interface_one(uvc_streaming_interface_t *stream_if) {
-//	struct uvc_device_info *parent;
-//	struct uvc_streaming_interface *prev, *next;
-	MARK("bInterfaceNumber:%d", stream_if->bInterfaceNumber);
-	uvc_print_format_desc_one(stream_if->format_descs, NULL);
-	MARK("bEndpointAddress:%d", stream_if->bEndpointAddress);
-	MARK("bTerminalLink:%d", stream_if->bTerminalLink);
-}
-
 static uvc_error_t _prepare_stream_ctrl(uvc_device_handle_t *devh, uvc_stream_ctrl_t *ctrl) {
 	// XXX some camera may need to call uvc_query_stream_ctrl with UVC_GET_CUR/UVC_GET_MAX/UVC_GET_MIN
 	// before negotiation otherwise stream stall. added by saki
@@ -670,6 +773,17 @@ uvc_error_t uvc_get_stream_ctrl_format_size_fps(uvc_device_handle_t *devh,
 	uvc_error_t result;
 
 	memset(ctrl, 0, sizeof(*ctrl));	// XXX add
+	if (_uvc_ctrl_cache_find(devh, cf, width, height, min_fps, max_fps, ctrl)) {
+		// negotiated before, verify that the descriptors still have it and skip probing
+		// 之前已协商过，确认描述符中仍然存在后跳过探测
+		uvc_frame_desc_t *frame_desc = uvc_find_frame_desc(devh, ctrl->bFormatIndex, ctrl->bFrameIndex);
+		if (LIKELY(frame_desc && (frame_desc->wWidth == width) && (frame_desc->wHeight == height)
+			&& _uvc_get_stream_if(devh, ctrl->bInterfaceNumber))) {
+			RETURN(UVC_SUCCESS, uvc_error_t);
+		}
+		_uvc_ctrl_cache_remove(devh, ctrl);
+		memset(ctrl, 0, sizeof(*ctrl));
+	}
 	/* find a matching frame descriptor and interval
 	 * 查找匹配的帧描述符和间隔
 	 */
@@ -694,7 +808,11 @@ uvc_error_t uvc_get_stream_ctrl_format_size_fps(uvc_device_handle_t *devh,
 
 found:
     // 与设备协商流参数
-	RETURN(uvc_probe_stream_ctrl(devh, ctrl), uvc_error_t);
+	result = uvc_probe_stream_ctrl(devh, ctrl);
+	if (LIKELY(!result)) {
+		_uvc_ctrl_cache_put(devh, cf, width, height, min_fps, max_fps, ctrl);
+	}
+	RETURN(result, uvc_error_t);
 }
 
 /** @internal
@@ -751,6 +869,10 @@ static void _uvc_swap_buffers(uvc_stream_handle_t *strmh, int broadcast) {
 		strmh->hold_last_stc = strmh->last_stc;
 		strmh->hold_pts = strmh->pts;
 		strmh->hold_seq = strmh->seq;
+		strmh->hold_start_us = strmh->start_us ? strmh->start_us : uvc_startup_time_us();
+		if (UNLIKELY(!strmh->devh->startup_us[UVC_STARTUP_FIRST_FRAME])) {
+			uvc_mark_startup(strmh->devh, UVC_STARTUP_FIRST_FRAME, 0);
+		}
 
         if(broadcast == 1){
             // 唤醒所有等待视频帧线程
@@ -761,6 +883,7 @@ static void _uvc_swap_buffers(uvc_stream_handle_t *strmh, int broadcast) {
 
 	strmh->seq++;
 	strmh->got_bytes = 0;
+	strmh->start_us = 0;
 	strmh->last_stc = 0;
 	strmh->bfh_err = 0;	// XXX
 }
@@ -815,8 +938,6 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 	size_t header_len;
 	uint8_t header_info;
 	size_t data_len;
-	struct libusb_iso_packet_descriptor *pkt;
-	uvc_vc_error_code_control_t vc_error_code;
 	uvc_vs_error_code_control_t vs_error_code;
 
 	// magic numbers for identifying header packets from some iSight cameras
@@ -931,9 +1052,11 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 		    // 错误 —— 如果此有效负载的视频或静止图像传输出现错误，则此位置1。 流错误代码控件将反映错误原因。
 //			strmh->bfh_err |= UVC_STREAM_ERR;
 			UVC_DEBUG("bad packet: error bit set");
-			libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
-//			uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
-			uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+			if (LIKELY(strmh->devh->usb_devh)) {	// XXX no usb device while replaying 回放时没有usb设备
+				libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
+//				uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
+				uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+			}
 //			return;
 		}
 
@@ -985,7 +1108,10 @@ static void _uvc_process_payload(uvc_stream_handle_t *strmh, const uint8_t *payl
 	}
 
 	if (LIKELY(data_len > 0)) {
-		if (LIKELY(strmh->got_bytes + data_len < strmh->size_buf)) {
+		if (LIKELY(strmh->got_bytes + data_len <= strmh->size_buf)) {
+			if (!strmh->got_bytes) {
+				strmh->start_us = uvc_startup_time_us();
+			}
 			memcpy(strmh->outbuf + strmh->got_bytes, payload + header_len, data_len);
 			strmh->got_bytes += data_len;
 		} else {
@@ -1050,7 +1176,6 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 		0x11, 0x22, 0x33, 0x44, 0xde, 0xad,
 		0xbe, 0xef, 0xde, 0xad, 0xfa, 0xce };
 	int packet_id;
-	uvc_vc_error_code_control_t vc_error_code;
 	uvc_vs_error_code_control_t vs_error_code;
 
 	for (packet_id = 0; packet_id < transfer->num_iso_packets; ++packet_id) {
@@ -1122,9 +1247,11 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 				if (UNLIKELY(header_info & UVC_STREAM_ERR)) {
 //					strmh->bfh_err |= UVC_STREAM_ERR;
 					MARK("bad packet:status=0x%2x", header_info);
-					libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
-//					uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
-					uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+					if (LIKELY(strmh->devh->usb_devh)) {	// XXX no usb device while replaying 回放时没有usb设备
+						libusb_clear_halt(strmh->devh->usb_devh, strmh->stream_if->bEndpointAddress);
+//						uvc_vc_get_error_code(strmh->devh, &vc_error_code, UVC_GET_CUR);
+						uvc_vs_get_error_code(strmh->devh, &vs_error_code, UVC_GET_CUR);
+					}
 					continue;
 				}
 
@@ -1197,11 +1324,19 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 			// 因此从"if (pkt->actual_length - header_len > 0)"更改为"if (pkt->actual_length > header_len)"
 			if (LIKELY(pkt->actual_length > header_len)) {
 				const size_t odd_bytes = pkt->actual_length - header_len;
-				assert(strmh->got_bytes + odd_bytes < strmh->size_buf);
 				assert(strmh->outbuf);
 				assert(pktbuf);
-				memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
-				strmh->got_bytes += odd_bytes;
+				// buffers are sized per stream now, so never trust the device blindly
+				// 缓存已按流大小分配，不能完全信任设备
+				if (LIKELY(strmh->got_bytes + odd_bytes <= strmh->size_buf)) {
+					if (!strmh->got_bytes) {
+						strmh->start_us = uvc_startup_time_us();
+					}
+					memcpy(strmh->outbuf + strmh->got_bytes, pktbuf + header_len, odd_bytes);
+					strmh->got_bytes += odd_bytes;
+				} else {
+					strmh->bfh_err |= UVC_STREAM_ERR;
+				}
 			}
 
 			if ((pktbuf[1] & UVC_STREAM_EOF) && strmh->got_bytes != 0) {
@@ -1220,6 +1355,30 @@ static inline void _uvc_process_payload_iso(uvc_stream_handle_t *strmh, struct l
 	}	// for
 }
 
+/** @internal
+ * @brief Process the payloads of a completed transfer
+ * 处理已完成传输中的有效负载
+ *
+ * Shared by the transfer callback and payload replay so both run the same parser.
+ * 传输回调和有效负载回放共用，保证使用同一解析代码
+ */
+void _uvc_process_transfer(uvc_stream_handle_t *strmh, struct libusb_transfer *transfer) {
+	if (UNLIKELY(!strmh->devh->startup_us[UVC_STARTUP_FIRST_PAYLOAD])) {
+		uvc_mark_startup(strmh->devh, UVC_STARTUP_FIRST_PAYLOAD, 0);
+	}
+	if (!transfer->num_iso_packets) {
+		/* This is a bulk mode transfer, so it just has one payload transfer
+		 * 这是块模式传输，因此只有一个有效负载传输
+		 */
+		_uvc_process_payload(strmh, transfer->buffer, transfer->actual_length);
+	} else {
+		/* This is an isochronous mode transfer, so each packet has a payload transfer
+		 * 这是同步模式传输，因此每个数据包都有一个有效负载传输
+		 */
+		_uvc_process_payload_iso(strmh, transfer);
+	}
+}
+
 /** @internal
  * @brief Isochronous transfer callback
  * 同步传输回调 有数据回调
@@ -1247,7 +1406,8 @@ static void _uvc_stream_callback(struct libusb_transfer *transfer) {
 	switch (transfer->status) {
         case LIBUSB_TRANSFER_COMPLETED: // 传输已完成，没有错误。 请注意，这并不表示已传输了全部所需数据。
             {
-                    int isOk;
+                    // a bulk transfer has no iso packet 批量传输没有iso数据包
+                    int isOk = 1;
                     for (int i = 0; i < transfer->num_iso_packets; i++) {
                         isOk = transfer->iso_packet_desc[i].status != LIBUSB_TRANSFER_COMPLETED ? 0 : 1;
                         if(0 == isOk){
@@ -1255,17 +1415,11 @@ static void _uvc_stream_callback(struct libusb_transfer *transfer) {
                         }
                     }
                     if(1 == isOk){
-                        if (!transfer->num_iso_packets) {
-                                /* This is a bulk mode transfer, so it just has one payload transfer
-                                 * 这是块模式传输，因此只有一个有效负载传输
-                                 */
-                                _uvc_process_payload(strmh, transfer->buffer, transfer->actual_length);
-                        } else {
-                                /* This is an isochronous mode transfer, so each packet has a payload transfer
-                                 * 这是同步模式传输，因此每个数据包都有一个有效负载传输
-                                 */
-                                _uvc_process_payload_iso(strmh, transfer);
+                        if (UNLIKELY(strmh->payload_record)) {
+                            // 记录原始有效负载
+                            _uvc_payload_record_write(strmh, transfer);
                         }
+                        _uvc_process_transfer(strmh, transfer);
                     }
             }
             break;
@@ -1461,22 +1615,25 @@ uvc_error_t uvc_stream_open_ctrl(uvc_device_handle_t *devh,
 		goto fail;
 
     // 使用新的流格式重新配置流。
+    // this also allocates outbuf/holdbuf/frame sized from the committed dwMaxVideoFrameSize
+    // 同时按协商的dwMaxVideoFrameSize分配 outbuf/holdbuf/frame
 	ret = uvc_stream_ctrl(strmh, ctrl);
+	if (UNLIKELY(ret != UVC_SUCCESS) && _uvc_ctrl_cache_remove(devh, ctrl)) {
+		// the device refused the cached control block, negotiate again and retry
+		// 设备拒绝了缓存的控制块，重新协商后重试
+		LOGW("cached stream ctrl was refused:err=%d", ret);
+		ret = uvc_probe_stream_ctrl(devh, ctrl);
+		if (LIKELY(!ret)) {
+			ret = uvc_stream_ctrl(strmh, ctrl);
+		}
+	}
 	if (UNLIKELY(ret != UVC_SUCCESS))
 		goto fail;
+	uvc_mark_startup(devh, UVC_STARTUP_PROBE_COMMIT, 0);
 
 	// Set up the streaming status and data space
 	// 设置流状态和数据空间
 	strmh->running = 0;
-	/** @todo take only what we need  只拿我们需要的东西 */
-	// 创建接收数据缓存空间，要确保空间足够，至少能存一帧数据
-	// @todo 可以优化，根据协商的信息来创建缓存空间大小
-	uint32_t sizeBuf = frame_buffer_size;
-	strmh->outbuf = malloc(sizeBuf); // 原值是 LIBUVC_XFER_BUF_SIZE
-	strmh->holdbuf = malloc(sizeBuf); // 原值是 LIBUVC_XFER_BUF_SIZE
-	strmh->size_buf = sizeBuf;	// xxx for boundary check  用于边界检查
-
-	UVC_DEBUG("LIBUVC_XFER_BUF_SIZE:"+sizeBuf);
 
 	pthread_mutex_init(&strmh->cb_mutex, NULL);
 	pthread_cond_init(&strmh->cb_cond, NULL);
@@ -1490,8 +1647,12 @@ uvc_error_t uvc_stream_open_ctrl(uvc_device_handle_t *devh,
 	return UVC_SUCCESS;
 
 fail:
-	if (strmh)
+	if (strmh) {
+		SAFE_FREE(strmh->outbuf);
+		SAFE_FREE(strmh->holdbuf);
+		SAFE_FREE(strmh->frame.data);
 		free(strmh);
+	}
 	UVC_EXIT(ret);
 	return ret;
 }
@@ -1543,10 +1704,6 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 	uvc_format_desc_t *format_desc;
 	uvc_stream_ctrl_t *ctrl;
 	uvc_error_t ret;
-	/* Total amount of data per transfer
-	 * 每次传输的数据总量
-	 */
-	size_t total_transfer_size;
 	struct libusb_transfer *transfer;
 	int transfer_id;
 
@@ -1615,11 +1772,11 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 		/* Number of packets per transfer
 		 * 每次传输的数据包数量
 		 */
-		size_t packets_per_transfer;
+		size_t packets_per_transfer = 0;
 		/* Total amount of data per transfer
 		 * 每次传输的数据总量
 		 */
-		size_t total_transfer_size;
+		size_t total_transfer_size = 0;
 		/* Size of packet transferable from the chosen endpoint
 		 * 可从所选端点传输的数据包大小
 		 */
@@ -1742,6 +1899,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 			transfer = libusb_alloc_transfer(packets_per_transfer);
 			strmh->transfers[transfer_id] = transfer;
 			strmh->transfer_bufs[transfer_id] = malloc(total_transfer_size);
+			strmh->size_xfer_buf = total_transfer_size;
 
             // Helper函数填充同步传输所需的 libusb_transfer 字段。
             // 当获得数据后回调 _uvc_stream_callback
@@ -1764,6 +1922,7 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 			transfer = libusb_alloc_transfer(0);
 			strmh->transfers[transfer_id] = transfer;
 			strmh->transfer_bufs[transfer_id] = malloc(strmh->cur_ctrl.dwMaxPayloadTransferSize);
+			strmh->size_xfer_buf = strmh->cur_ctrl.dwMaxPayloadTransferSize;
 
 			// Helper函数可填充批量传输所需的libusb_transfer字段。
             // 当获得数据后回调 _uvc_stream_callback
@@ -1774,10 +1933,18 @@ uvc_error_t uvc_stream_start_bandwidth(uvc_stream_handle_t *strmh,
 				(void *)strmh, 5000);
 		}
 	}
+	// bulk mode keeps alt-setting 0, mark when transfers are ready in both modes
+	// 块模式保持alt-setting 0，两种模式都在传输准备好时标记
+	uvc_mark_startup(strmh->devh, UVC_STARTUP_ALT_SETTING, 0);
 
 	strmh->user_cb = cb;
 	strmh->user_ptr = user_ptr;
 
+	if (UNLIKELY(strmh->devh->payload_record_path)) {
+		// 开始记录原始有效负载
+		_uvc_payload_record_open(strmh, frame_desc, isochronous);
+	}
+
 	/* If the user wants it, set up a thread that calls the user's function
 	 * with the contents of each frame.
 	 * 如果用户需要，请设置一个线程，该线程使用每帧的内容来调用用户的函数。
@@ -1877,8 +2044,6 @@ static void *_uvc_user_caller(void *arg) {
  * 填充要提交给用户代码的帧的字段时，必须使用流cb锁保持调用！
  */
 void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
-	size_t alloc_size = strmh->cur_ctrl.dwMaxVideoFrameSize;
-	uvc_frame_t *frame = &strmh->frame;
 	uvc_frame_desc_t *frame_desc;
 
 	/** @todo this stuff that hits the main config cache should really happen 碰到主配置缓存的东西应该真的发生
@@ -1890,10 +2055,23 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
     // 查找特定帧配置的描述符
 	frame_desc = uvc_find_frame_desc(strmh->devh, strmh->cur_ctrl.bFormatIndex, strmh->cur_ctrl.bFrameIndex);
 
+	_uvc_populate_frame_size(strmh, frame_desc->wWidth, frame_desc->wHeight);
+}
+
+/** @internal
+ * @brief Copy the hold buffer into strmh->frame with the given frame size
+ * must be called with stream cb lock held!
+ * 按指定帧大小将保持缓冲区复制到 strmh->frame，必须持有流cb锁
+ * XXX also used by payload replay, which has no frame descriptors
+ */
+void _uvc_populate_frame_size(uvc_stream_handle_t *strmh, uint32_t width, uint32_t height) {
+	uvc_frame_t *frame = &strmh->frame;
+
 	frame->frame_format = strmh->frame_format;
 
-	frame->width = frame_desc->wWidth;
-	frame->height = frame_desc->wHeight;
+	frame->width = width;
+	frame->height = height;
+	frame->sequence = strmh->hold_seq;
 
 	switch (frame->frame_format) {
         case UVC_FRAME_FORMAT_YUYV:
@@ -1910,17 +2088,19 @@ void _uvc_populate_frame(uvc_stream_handle_t *strmh) {
 	/* copy the image data from the hold buffer to the frame (unnecessary extra buf?)
 	 * 将图像数据从保持缓冲区复制到帧（不必要的额外缓冲区？）
 	 */
-	if (UNLIKELY(frame->data_bytes < strmh->hold_bytes)) {
-	    // 帧空间不够重新创建
-		frame->data = realloc(frame->data, strmh->hold_bytes);	// TODO add error handling when failed realloc  重新分配失败时添加错误处理
-		frame->data_bytes = strmh->hold_bytes;
-	}
+	// frame->data is pre-allocated with size_buf in _uvc_stream_alloc_buffers
+	// and hold_bytes never exceeds size_buf(payloads beyond it are dropped), so no realloc is needed
+	// frame->data 已在 _uvc_stream_alloc_buffers 中按 size_buf 预先分配，hold_bytes 不会超过 size_buf
+	// (超出的负载被丢弃)，因此不需要 realloc
 	// XXX set actual_bytes to zero when erro bits is on
 	// 当错误位打开时，将 actual_bytes 设置为零
 	frame->actual_bytes = LIKELY(!strmh->hold_bfh_err) ? strmh->hold_bytes : 0;
 	memcpy(frame->data, strmh->holdbuf, strmh->hold_bytes);	// XXX
 
-	/** @todo set the frame time 设置帧时间 */
+	// arrival of the first payload of the frame on CLOCK_MONOTONIC, same clock as System.nanoTime on Android
+	// 帧的第一个数据包到达的时间(CLOCK_MONOTONIC)，与Android上的System.nanoTime使用相同的时钟
+	frame->capture_time.tv_sec = (time_t)(strmh->hold_start_us / 1000000ULL);
+	frame->capture_time.tv_usec = (suseconds_t)(strmh->hold_start_us % 1000000ULL);
 }
 
 /** Poll for a frame
@@ -1936,7 +2116,6 @@ uvc_error_t uvc_stream_get_frame(uvc_stream_handle_t *strmh,
 	time_t add_secs;
 	time_t add_nsecs;
 	struct timespec ts;
-	struct timeval tv;
 
 	if (UNLIKELY(!strmh->running)) {
 	    // 没有运行
@@ -2088,6 +2267,9 @@ uvc_error_t uvc_stream_stop(uvc_stream_handle_t *strmh) {
 		 */
 		pthread_join(strmh->cb_thread, NULL);
 	}
+	// all transfers are finished here, so nobody writes the record any more
+	// 此时所有传输都已结束，不会再写入记录
+	_uvc_payload_record_close(strmh);
 
 	RETURN(UVC_SUCCESS, uvc_error_t);
 }
@@ -0,0 +1,425 @@
+/**
+ * @defgroup synthetic Synthetic frame source
+ * @brief Software camera that generates YUYV/MJPEG test patterns at the
+ * requested resolution, frame rate and timing jitter without usb device
+ * 虚拟帧源
+ * 不需要usb设备，按指定的分辨率、帧率和时间抖动生成YUYV/MJPEG测试图案的软件相机
+ *
+ * The pattern is 8 color bars with a white band moving down one step per frame,
+ * so every frame differs and dropped/duplicated frames are visible.
+ * MJPEG frames are encoded once when opened and cycled, so generating a frame costs
+ * only a copy like frame assembly of the real stream.
+ * 图案为8条彩条，白色横带每帧向下移动一格，每帧内容都不同，可以看出丢帧/重复帧
+ * MJPEG帧在打开时预先编码并循环使用，生成一帧只需要一次复制，与真实视频流的帧组装相当
+ */
+
+#define LOCAL_DEBUG 0
+
+#define LOG_TAG "libuvc/synthetic"
+#if 1	// 不输出调试信息时1
+	#ifndef LOG_NDEBUG
+		#define	LOG_NDEBUG		// 不输出LOGV/LOGD/MARK
+		#endif
+	#undef USE_LOGALL			// 仅输出指定的LOGx
+#else
+	#define USE_LOGALL
+	#undef LOG_NDEBUG
+	#undef NDEBUG
+#endif
+
+#include <time.h>
+#include <errno.h>
+#include <setjmp.h>
+#include <sys/time.h>
+
+#include "libuvc/libuvc.h"
+#include "libuvc/libuvc_internal.h"
+#include <jpeglib.h>
+
+// number of band positions, also number of pre-encoded MJPEG frames 横带位置数，也是预先编码的MJPEG帧数
+#define UVC_SYNTHETIC_STEPS 16
+#define UVC_SYNTHETIC_JPEG_QUALITY 80
+// fixed seed so that jitter sequence is reproducible 固定种子使抖动序列可复现
+#define UVC_SYNTHETIC_SEED 0x55564321
+
+struct uvc_synthetic {
+	enum uvc_frame_format format;
+	int width;
+	int height;
+	int fps;
+	int jitter_us;
+	// YUYV: color bars without band 不带横带的彩条
+	uint8_t *bars;
+	size_t bars_bytes;
+	// MJPEG: pre-encoded frames 预先编码的帧
+	uint8_t *jpeg[UVC_SYNTHETIC_STEPS];
+	size_t jpeg_bytes[UVC_SYNTHETIC_STEPS];
+	uvc_frame_t frame;
+	unsigned int seed;
+	volatile int running;
+	uvc_synthetic_stats_t stats;
+};
+
+// Y, U, V of 75% color bars 75%彩条的Y, U, V
+static const uint8_t BARS_YUV[8][3] = {
+	{ 180, 128, 128 },	// white 白
+	{ 162,  44, 142 },	// yellow 黄
+	{ 131, 156,  44 },	// cyan 青
+	{ 112,  72,  58 },	// green 绿
+	{  84, 184, 198 },	// magenta 品红
+	{  65, 100, 212 },	// red 红
+	{  35, 212, 114 },	// blue 蓝
+	{  16, 128, 128 },	// black 黑
+};
+
+static uint64_t _uvc_synthetic_now_us(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return (uint64_t)ts.tv_sec * 1000000ULL + ts.tv_nsec / 1000;
+}
+
+static void _uvc_synthetic_sleep_until(uint64_t start_us, uint64_t target_us) {
+	const uint64_t now_us = _uvc_synthetic_now_us() - start_us;
+	if (now_us < target_us) {
+		const uint64_t wait_us = target_us - now_us;
+		struct timespec ts = { (time_t)(wait_us / 1000000), (long)(wait_us % 1000000) * 1000 };
+		nanosleep(&ts, NULL);
+	}
+}
+
+/** @internal
+ * @brief Fill YUYV color bars 填充YUYV彩条
+ */
+static void _uvc_synthetic_fill_bars(uint8_t *dst, int width, int height) {
+	const size_t step = (size_t)width * 2;
+	uint8_t *line = dst;
+	int x, y;
+
+	for (x = 0; x < width; x += 2) {
+		const uint8_t *c = BARS_YUV[(x * 8) / width];
+		uint8_t *p = line + x * 2;
+		p[0] = c[0]; p[1] = c[1]; p[2] = c[0]; p[3] = c[2];
+	}
+	for (y = 1; y < height; y++) {
+		memcpy(dst + step * y, line, step);
+	}
+}
+
+/** @internal
+ * @brief Draw the moving band for the step 绘制指定步骤的移动横带
+ */
+static void _uvc_synthetic_draw_band(uint8_t *dst, int width, int height, int step_ix) {
+	const size_t step = (size_t)width * 2;
+	const int band_height = height / UVC_SYNTHETIC_STEPS;
+	const int top = band_height * step_ix;
+	int x, y;
+
+	for (y = top; y < top + band_height && y < height; y++) {
+		uint8_t *p = dst + step * y;
+		for (x = 0; x < width; x += 2, p += 4) {
+			p[0] = 235; p[1] = 128; p[2] = 235; p[3] = 128;
+		}
+	}
+}
+
+struct uvc_synthetic_error_mgr {
+	struct jpeg_error_mgr super;
+	jmp_buf jmp;
+};
+
+static void _uvc_synthetic_error_exit(j_common_ptr cinfo) {
+	struct uvc_synthetic_error_mgr *err = (struct uvc_synthetic_error_mgr *)cinfo->err;
+	longjmp(err->jmp, 1);
+}
+
+/** @internal
+ * @brief Encode YUYV image into JPEG with 4:2:2 sampling like usual UVC cameras
+ * 将YUYV图像编码为JPEG，与常见UVC相机一样使用4:2:2采样
+ */
+static uvc_error_t _uvc_synthetic_encode(const uint8_t *yuyv, int width, int height,
+		uint8_t **jpeg, size_t *jpeg_bytes) {
+	struct jpeg_compress_struct cinfo;
+	struct uvc_synthetic_error_mgr jerr;
+	unsigned long out_bytes = 0;
+	uint8_t *out = NULL;
+	uint8_t *row;
+	JSAMPROW rows[1];
+	int x;
+
+	row = malloc((size_t)width * 3);
+	if (UNLIKELY(!row)) return UVC_ERROR_NO_MEM;
+
+	cinfo.err = jpeg_std_error(&jerr.super);
+	jerr.super.error_exit = _uvc_synthetic_error_exit;
+	if (setjmp(jerr.jmp)) {
+		jpeg_destroy_compress(&cinfo);
+		free(out);
+		free(row);
+		return UVC_ERROR_OTHER;
+	}
+	jpeg_create_compress(&cinfo);
+	jpeg_mem_dest(&cinfo, &out, &out_bytes);
+	cinfo.image_width = width;
+	cinfo.image_height = height;
+	cinfo.input_components = 3;
+	cinfo.in_color_space = JCS_YCbCr;
+	jpeg_set_defaults(&cinfo);
+	jpeg_set_quality(&cinfo, UVC_SYNTHETIC_JPEG_QUALITY, TRUE);
+	cinfo.comp_info[0].h_samp_factor = 2;
+	cinfo.comp_info[0].v_samp_factor = 1;
+	cinfo.dct_method = JDCT_IFAST;
+	jpeg_start_compress(&cinfo, TRUE);
+	rows[0] = row;
+	while (cinfo.next_scanline < cinfo.image_height) {
+		const uint8_t *src = yuyv + (size_t)width * 2 * cinfo.next_scanline;
+		uint8_t *dst = row;
+		for (x = 0; x < width; x += 2, src += 4, dst += 6) {
+			dst[0] = src[0]; dst[1] = src[1]; dst[2] = src[3];
+			dst[3] = src[2]; dst[4] = src[1]; dst[5] = src[3];
+		}
+		jpeg_write_scanlines(&cinfo, rows, 1);
+	}
+	jpeg_finish_compress(&cinfo);
+	jpeg_destroy_compress(&cinfo);
+	free(row);
+
+	*jpeg = out;
+	*jpeg_bytes = out_bytes;
+	return UVC_SUCCESS;
+}
+
+/**
+ * @brief Open a synthetic frame source
+ * 打开虚拟帧源
+ * @ingroup synthetic
+ *
+ * @param format UVC_FRAME_FORMAT_YUYV or UVC_FRAME_FORMAT_MJPEG
+ * @param width even number 偶数
+ * @param height
+ * @param fps frame rate, 0: as fast as possible 帧率，0为尽可能快
+ * @param jitter_us each frame is delivered randomly within +/-jitter_us of its nominal time
+ *                  每帧在标称时间的+/-jitter_us范围内随机送出
+ * @param[out] synthetic
+ */
+uvc_error_t uvc_synthetic_open(enum uvc_frame_format format, int width, int height,
+		int fps, int jitter_us, uvc_synthetic_t **synthetic) {
+	uvc_synthetic_t *syn;
+	uvc_error_t ret;
+	size_t max_bytes;
+	int i;
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!synthetic || (width <= 0) || (width & 1) || (height <= 0)
+		|| (fps < 0) || (jitter_us < 0)
+		|| ((format != UVC_FRAME_FORMAT_YUYV) && (format != UVC_FRAME_FORMAT_MJPEG)))) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	*synthetic = NULL;
+
+	syn = calloc(1, sizeof(*syn));
+	if (UNLIKELY(!syn)) {
+		UVC_EXIT(UVC_ERROR_NO_MEM);
+		return UVC_ERROR_NO_MEM;
+	}
+	syn->format = format;
+	syn->width = width;
+	syn->height = height;
+	syn->fps = fps;
+	syn->jitter_us = jitter_us;
+	syn->seed = UVC_SYNTHETIC_SEED;
+	syn->bars_bytes = (size_t)width * height * 2;
+	syn->bars = malloc(syn->bars_bytes);
+	if (UNLIKELY(!syn->bars)) {
+		ret = UVC_ERROR_NO_MEM;
+		goto fail;
+	}
+	_uvc_synthetic_fill_bars(syn->bars, width, height);
+	max_bytes = syn->bars_bytes;
+	if (format == UVC_FRAME_FORMAT_MJPEG) {
+		uint8_t *work = malloc(syn->bars_bytes);
+		if (UNLIKELY(!work)) {
+			ret = UVC_ERROR_NO_MEM;
+			goto fail;
+		}
+		max_bytes = 0;
+		for (i = 0; i < UVC_SYNTHETIC_STEPS; i++) {
+			memcpy(work, syn->bars, syn->bars_bytes);
+			_uvc_synthetic_draw_band(work, width, height, i);
+			ret = _uvc_synthetic_encode(work, width, height, &syn->jpeg[i], &syn->jpeg_bytes[i]);
+			if (UNLIKELY(ret)) {
+				free(work);
+				goto fail;
+			}
+			if (max_bytes < syn->jpeg_bytes[i])
+				max_bytes = syn->jpeg_bytes[i];
+		}
+		free(work);
+		// only pre-encoded frames are used 只使用预先编码的帧
+		SAFE_FREE(syn->bars);
+	}
+	syn->frame.data = malloc(max_bytes);
+	if (UNLIKELY(!syn->frame.data)) {
+		ret = UVC_ERROR_NO_MEM;
+		goto fail;
+	}
+	syn->frame.data_bytes = max_bytes;
+	syn->frame.width = width;
+	syn->frame.height = height;
+	syn->frame.frame_format = format;
+	syn->frame.step = format == UVC_FRAME_FORMAT_YUYV ? (size_t)width * 2 : 0;
+	syn->frame.library_owns_data = 1;
+
+	*synthetic = syn;
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+
+fail:
+	uvc_synthetic_close(syn);
+	UVC_EXIT(ret);
+	return ret;
+}
+
+/**
+ * @brief Get the generated stream format
+ * 获取生成的视频流格式
+ * @ingroup synthetic
+ *
+ * @param frame_interval [out] dwFrameInterval(100ns), 0 when fps is 0, can be NULL
+ */
+uvc_error_t uvc_synthetic_get_format(uvc_synthetic_t *synthetic,
+		enum uvc_frame_format *format, int *width, int *height, uint32_t *frame_interval) {
+	if (UNLIKELY(!synthetic)) return UVC_ERROR_INVALID_PARAM;
+	if (format) *format = synthetic->format;
+	if (width) *width = synthetic->width;
+	if (height) *height = synthetic->height;
+	if (frame_interval) *frame_interval = synthetic->fps ? 10000000 / synthetic->fps : 0;
+	return UVC_SUCCESS;
+}
+
+/** @internal
+ * @brief Generate the frame for the sequence into synthetic->frame 将指定序号的帧生成到synthetic->frame
+ */
+static void _uvc_synthetic_generate(uvc_synthetic_t *syn, uint32_t sequence) {
+	const int step_ix = sequence % UVC_SYNTHETIC_STEPS;
+	uvc_frame_t *frame = &syn->frame;
+
+	if (syn->format == UVC_FRAME_FORMAT_MJPEG) {
+		memcpy(frame->data, syn->jpeg[step_ix], syn->jpeg_bytes[step_ix]);
+		frame->actual_bytes = syn->jpeg_bytes[step_ix];
+	} else {
+		memcpy(frame->data, syn->bars, syn->bars_bytes);
+		_uvc_synthetic_draw_band(frame->data, syn->width, syn->height, step_ix);
+		frame->actual_bytes = syn->bars_bytes;
+	}
+	frame->sequence = sequence;
+	// same clock as the frames from the camera 与来自相机的帧使用相同的时钟
+	const uint64_t now_us = _uvc_synthetic_now_us();
+	frame->capture_time.tv_sec = (time_t)(now_us / 1000000ULL);
+	frame->capture_time.tv_usec = (suseconds_t)(now_us % 1000000ULL);
+}
+
+/**
+ * @brief Generate frames and call cb on the calling thread until uvc_synthetic_stop is called
+ * or max_frames frames are generated
+ * 在调用线程上生成帧并调用cb，直到调用uvc_synthetic_stop或生成了max_frames帧
+ * @ingroup synthetic
+ *
+ * Same as the stream callback of libuvc, the frame passed to cb is valid only during the callback.
+ * 与libuvc的视频流回调一样，传给cb的帧只在回调期间有效
+ *
+ * @param max_frames 0: unlimited 无限制
+ */
+uvc_error_t uvc_synthetic_run(uvc_synthetic_t *synthetic,
+		uvc_frame_callback_t *cb, void *user_ptr, uint32_t max_frames) {
+	uvc_synthetic_t *syn = synthetic;
+	uint64_t start_us, nominal_us, target_us, prev_target_us = 0;
+	uint32_t sequence;
+
+	UVC_ENTER();
+
+	if (UNLIKELY(!syn || !cb)) {
+		UVC_EXIT(UVC_ERROR_INVALID_PARAM);
+		return UVC_ERROR_INVALID_PARAM;
+	}
+	syn->running = 1;
+	memset(&syn->stats, 0, sizeof(syn->stats));
+	start_us = _uvc_synthetic_now_us();
+	for (sequence = 1; syn->running && (!max_frames || (sequence <= max_frames)); sequence++) {
+		if (syn->fps) {
+			nominal_us = (uint64_t)sequence * 1000000 / syn->fps;
+			target_us = nominal_us;
+			if (syn->jitter_us) {
+				const int jitter = (int)(rand_r(&syn->seed) % (2 * syn->jitter_us + 1)) - syn->jitter_us;
+				target_us = (jitter < 0) && ((uint64_t)-jitter > nominal_us) ? 0 : nominal_us + jitter;
+			}
+			// frames never overtake each other 帧不会相互超越
+			if (target_us < prev_target_us)
+				target_us = prev_target_us;
+			prev_target_us = target_us;
+			if (_uvc_synthetic_now_us() - start_us > target_us) {
+				// previous callback took longer than the frame interval 上一次回调超过了帧间隔
+				syn->stats.late_frames++;
+			} else {
+				_uvc_synthetic_sleep_until(start_us, target_us);
+			}
+		}
+		_uvc_synthetic_generate(syn, sequence);
+		syn->stats.frames++;
+		syn->stats.bytes += syn->frame.actual_bytes;
+		cb(&syn->frame, user_ptr);
+	}
+	syn->stats.elapsed_us = _uvc_synthetic_now_us() - start_us;
+	syn->running = 0;
+
+	UVC_EXIT(UVC_SUCCESS);
+	return UVC_SUCCESS;
+}
+
+/**
+ * @brief Request uvc_synthetic_run to return, can be called from any thread
+ * 请求uvc_synthetic_run返回，可以在任意线程调用
+ * @ingroup synthetic
+ */
+void uvc_synthetic_stop(uvc_synthetic_t *synthetic) {
+	if (synthetic) {
+		synthetic->running = 0;
+	}
+}
+
+/**
+ * @brief Get statistics of the last uvc_synthetic_run
+ * 获取最后一次uvc_synthetic_run的统计信息
+ * @ingroup synthetic
+ */
+uvc_error_t uvc_synthetic_get_stats(uvc_synthetic_t *synthetic, uvc_synthetic_stats_t *stats) {
+	if (UNLIKELY(!synthetic || !stats)) return UVC_ERROR_INVALID_PARAM;
+	*stats = synthetic->stats;
+	return UVC_SUCCESS;
+}
+
+/**
+ * @brief Close the synthetic frame source and free all resources
+ * 关闭虚拟帧源并释放所有资源
+ * @ingroup synthetic
+ */
+void uvc_synthetic_close(uvc_synthetic_t *synthetic) {
+	int i;
+
+	UVC_ENTER();
+
+	if (!synthetic) {
+		UVC_EXIT_VOID();
+		return;
+	}
+	for (i = 0; i < UVC_SYNTHETIC_STEPS; i++) {
+		// allocated by jpeg_mem_dest with malloc 由jpeg_mem_dest用malloc分配
+		SAFE_FREE(synthetic->jpeg[i]);
+	}
+	SAFE_FREE(synthetic->bars);
+	SAFE_FREE(synthetic->frame.data);
+	free(synthetic);
+
+	UVC_EXIT_VOID();
+}
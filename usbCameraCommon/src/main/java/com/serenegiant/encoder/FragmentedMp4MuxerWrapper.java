@@ -0,0 +1,864 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.encoder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Environment;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Muxer that writes fragmented MP4(ftyp/moov followed by moof/mdat pairs) to a file, an OutputStream
+ * or any WritableByteChannel(FileChannel, socket, pipe) instead of MediaMuxer.
+ * The init segment is written when the encoders start and each fragment is written as soon as it is complete,
+ * so the output is playable while recording and a crash loses at most the fragment being collected.
+ * Fragments start at a video key frame(requested from the encoder when the fragment duration is reached),
+ * the samples of a fragment are kept in memory until then.
+ * Supports H.264/H.265 video and AAC audio. mfra(random access index) is not written,
+ * players find the fragments by reading the moof boxes.
+ * 不使用MediaMuxer而将分片MP4(ftyp/moov之后是moof/mdat对)写入文件、OutputStream或
+ * 任意WritableByteChannel(FileChannel、套接字、管道)的混合器
+ * 编码器开始时写入初始化段，每个分片完成后立即写入，因此录像期间输出即可播放，崩溃时最多丢失正在收集的分片
+ * 分片从视频关键帧开始(达到分片时长时向编码器请求)，在此之前分片的样本保存在内存中
+ * 支持H.264/H.265视频和AAC音频。不写入mfra(随机访问索引)，播放器通过读取moof框找到分片
+ */
+public class FragmentedMp4MuxerWrapper extends MediaMuxerWrapper {
+	private static final boolean DEBUG = true;	// TODO set false on release
+	private static final String TAG = "FragmentedMp4MuxerWrapper";
+
+	private static final int MAX_TRACKS = 2;
+	private static final int VIDEO_TIMESCALE = 90000;
+	private static final int INITIAL_SAMPLES = 256;
+
+	// sample_flags of trun trun的sample_flags
+	private static final int SAMPLE_FLAGS_SYNC = 0x02000000;		// sample_depends_on=2
+	private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;	// sample_depends_on=1, sample_is_non_sync_sample=1
+
+	private static final class Track {
+		private final int trackId;
+		private final MediaFormat format;
+		private final String mime;
+		private final boolean isVideo;
+		private final int timescale;
+		// samples of the fragment being collected, data is stored in the order of arrival
+		// 正在收集的分片的样本，数据按到达顺序存储
+		private ByteBuffer data = ByteBuffer.allocateDirect(256 * 1024);
+		private int count;
+		private int[] sizes = new int[INITIAL_SAMPLES];
+		private int[] flags = new int[INITIAL_SAMPLES];
+		private long[] ptsTicks = new long[INITIAL_SAMPLES];
+		private long[] dtsTicks = new long[INITIAL_SAMPLES];
+		private int[] durations = new int[INITIAL_SAMPLES];
+		private int[] ctsOffsets = new int[INITIAL_SAMPLES];
+		/** min of pts - dts of the fragment, negative when B-frames are reordered 分片中pts - dts的最小值，B帧重排时为负数 */
+		private long minCtsTicks;
+		/**
+		 * presentation delay added to all composition offsets so that they are not negative, fixed at the first fragment
+		 * 添加到所有合成偏移的显示延迟，使其不为负数，在第一个分片时确定
+		 */
+		private int delayTicks;
+		/** used for the last sample of a fragment when the next one is unknown 下一个样本未知时用于分片的最后一个样本 */
+		private long lastDuration;
+
+		private Track(final int trackId, @NonNull final MediaFormat format, @NonNull final String mime) {
+			this.trackId = trackId;
+			this.format = format;
+			this.mime = mime;
+			isVideo = mime.startsWith("video/");
+			timescale = isVideo ? VIDEO_TIMESCALE : format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+			lastDuration = isVideo ? VIDEO_TIMESCALE / 30 : 1024;	// 1024 samples per AAC frame 每个AAC帧1024个样本
+		}
+
+		private void ensureData(final int bytes) {
+			if (data.remaining() < bytes) {
+				final ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(data.capacity() * 2, data.position() + bytes));
+				data.flip();
+				grown.put(data);
+				data = grown;
+			}
+		}
+
+		private void ensureSamples() {
+			if (count >= sizes.length) {
+				final int n = sizes.length * 2;
+				sizes = Arrays.copyOf(sizes, n);
+				flags = Arrays.copyOf(flags, n);
+				ptsTicks = Arrays.copyOf(ptsTicks, n);
+				dtsTicks = Arrays.copyOf(dtsTicks, n);
+				durations = Arrays.copyOf(durations, n);
+				ctsOffsets = Arrays.copyOf(ctsOffsets, n);
+			}
+		}
+
+		/**
+		 * decide decode time, duration and composition offset(without #delayTicks) of each sample.
+		 * MediaCodec gives only the presentation time, a fragment starts at a key frame and holds whole GOPs,
+		 * so the decode times are the sorted presentation times(this also handles B-frames).
+		 * A reordered sample is then decoded after it is presented(negative offset),
+		 * #delayTicks shifts the presentation times to fix it
+		 * 确定每个样本的解码时间、时长和合成偏移(不含#delayTicks)
+		 * MediaCodec只给出显示时间，分片从关键帧开始并包含完整的GOP，因此解码时间就是排序后的显示时间(也能处理B帧)
+		 * 这样重排的样本会在显示之后才解码(偏移为负)，由#delayTicks推迟显示时间来修正
+		 * @param nextTicks decode time of the first sample of the next fragment, negative if unknown
+		 * 				下一个分片第一个样本的解码时间，未知时为负数
+		 */
+		private void prepareTimes(final long nextTicks) {
+			System.arraycopy(ptsTicks, 0, dtsTicks, 0, count);
+			if (isVideo) {
+				Arrays.sort(dtsTicks, 0, count);
+			}
+			minCtsTicks = 0;
+			for (int i = 0; i < count; i++) {
+				final long next = i + 1 < count ? dtsTicks[i + 1] : nextTicks;
+				final long duration = next - dtsTicks[i];
+				if (duration > 0) {
+					durations[i] = (int)duration;
+					lastDuration = duration;
+				} else {
+					durations[i] = (int)lastDuration;
+				}
+				ctsOffsets[i] = (int)(ptsTicks[i] - dtsTicks[i]);
+				if (ctsOffsets[i] < minCtsTicks) {
+					minCtsTicks = ctsOffsets[i];
+				}
+			}
+		}
+
+		private boolean hasCtsOffsets() {
+			if (delayTicks != 0) return true;
+			for (int i = 0; i < count; i++) {
+				if (ctsOffsets[i] != 0) return true;
+			}
+			return false;
+		}
+
+		private void clear() {
+			data.clear();
+			count = 0;
+		}
+	}
+
+	/**
+	 * growable big endian buffer to build the boxes, the sizes are fixed up when a box ends
+	 * 构建box的可增长大端缓冲区，box结束时修正大小
+	 */
+	private static final class BoxWriter {
+		private ByteBuffer buf = ByteBuffer.allocate(4096);
+		private final int[] starts = new int[16];
+		private int depth;
+
+		private void ensure(final int bytes) {
+			if (buf.remaining() < bytes) {
+				final ByteBuffer grown = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + bytes));
+				buf.flip();
+				grown.put(buf);
+				buf = grown;
+			}
+		}
+
+		private BoxWriter start(final String type) {
+			starts[depth++] = buf.position();
+			putInt(0);
+			return fourcc(type);
+		}
+
+		private BoxWriter startFull(final String type, final int version, final int flags) {
+			start(type);
+			return putInt((version << 24) | (flags & 0xffffff));
+		}
+
+		private BoxWriter end() {
+			final int start = starts[--depth];
+			buf.putInt(start, buf.position() - start);
+			return this;
+		}
+
+		private BoxWriter fourcc(final String type) {
+			ensure(4);
+			for (int i = 0; i < 4; i++) {
+				buf.put((byte)type.charAt(i));
+			}
+			return this;
+		}
+
+		private BoxWriter putByte(final int v) {
+			ensure(1);
+			buf.put((byte)v);
+			return this;
+		}
+
+		private BoxWriter putShort(final int v) {
+			ensure(2);
+			buf.putShort((short)v);
+			return this;
+		}
+
+		private BoxWriter putInt(final int v) {
+			ensure(4);
+			buf.putInt(v);
+			return this;
+		}
+
+		private BoxWriter putLong(final long v) {
+			ensure(8);
+			buf.putLong(v);
+			return this;
+		}
+
+		private BoxWriter put(final byte[] v) {
+			ensure(v.length);
+			buf.put(v);
+			return this;
+		}
+
+		private BoxWriter zeros(final int n) {
+			ensure(n);
+			for (int i = 0; i < n; i++) {
+				buf.put((byte)0);
+			}
+			return this;
+		}
+
+		private BoxWriter matrix() {
+			return putInt(0x00010000).putInt(0).putInt(0)
+				.putInt(0).putInt(0x00010000).putInt(0)
+				.putInt(0).putInt(0).putInt(0x40000000);
+		}
+
+		private int position() {
+			return buf.position();
+		}
+
+		private void putIntAt(final int position, final int v) {
+			buf.putInt(position, v);
+		}
+	}
+
+	private final WritableByteChannel mChannel;
+	@Nullable
+	private final OutputStream mOutputStream;
+	private final boolean mCloseOnStop;
+	private final long mFragmentUs;
+	private final Track[] mTracks = new Track[MAX_TRACKS];
+	private int mTrackCount;
+	private int mVideoTrack = -1;
+	private final BoxWriter mHeader = new BoxWriter();
+	private final int[] mDataOffsetPositions = new int[MAX_TRACKS];
+
+	private long mStartPtsUs = -1;
+	private long mDelayUs = -1;	// presentation delay of all tracks, -1: not decided yet 所有轨道的显示延迟，-1:尚未确定
+	private long mFragmentStartPtsUs;
+	private int mSequence;
+	private boolean mSyncRequested;
+	private boolean mFailed;
+	private long mWrittenBytes;
+
+	/**
+	 * write into a new file of the movies directory 写入影片目录中的新文件
+	 * @param dir nullable
+	 * @param filename nullable, named by date and time if null 可为null，为null时按日期时间命名
+	 * @param fragmentMs duration of each fragment[ms] 每个分片的时长[ms]
+	 */
+	public FragmentedMp4MuxerWrapper(@Nullable final String dir, @Nullable final String filename,
+		final long fragmentMs) throws IOException {
+
+		this(createFile(dir, filename, fragmentMs), fragmentMs);
+	}
+
+	/**
+	 * write into the stream, the stream is flushed after each fragment and not closed by this class
+	 * 写入流，每个分片后刷新流，此类不关闭流
+	 * @param fragmentMs duration of each fragment[ms] 每个分片的时长[ms]
+	 */
+	public FragmentedMp4MuxerWrapper(@NonNull final OutputStream out, final long fragmentMs) {
+		this(Channels.newChannel(out), out, false, fragmentMs, null);
+	}
+
+	/**
+	 * write into the channel(FileChannel, SocketChannel, Pipe.SinkChannel...), not closed by this class.
+	 * FileChannel is synced to the storage after each fragment
+	 * 写入通道(FileChannel、SocketChannel、Pipe.SinkChannel...)，此类不关闭通道。FileChannel在每个分片后同步到存储
+	 * @param fragmentMs duration of each fragment[ms] 每个分片的时长[ms]
+	 */
+	public FragmentedMp4MuxerWrapper(@NonNull final WritableByteChannel channel, final long fragmentMs) {
+		this(channel, null, false, fragmentMs, null);
+	}
+
+	private FragmentedMp4MuxerWrapper(@NonNull final File file, final long fragmentMs) throws IOException {
+		this(new FileOutputStream(file).getChannel(), null, true, fragmentMs, file.toString());
+	}
+
+	private FragmentedMp4MuxerWrapper(@NonNull final WritableByteChannel channel,
+		@Nullable final OutputStream out, final boolean closeOnStop, final long fragmentMs,
+		@Nullable final String path) {
+
+		super();
+		if (fragmentMs <= 0) {
+			throw new IllegalArgumentException("invalid fragment duration");
+		}
+		mChannel = channel;
+		mOutputStream = out;
+		mCloseOnStop = closeOnStop;
+		mFragmentUs = fragmentMs * 1000L;
+		mOutputPath = path;
+	}
+
+	private static File createFile(@Nullable final String dir, @Nullable final String filename,
+		final long fragmentMs) throws IOException {
+
+		if (fragmentMs <= 0) {
+			throw new IllegalArgumentException("invalid fragment duration");
+		}
+		final File file = getCaptureFile(Environment.DIRECTORY_MOVIES, ".mp4", dir, filename);
+		if (file == null) {
+			throw new IOException("This app has no permission of writing external storage");
+		}
+		return file;
+	}
+
+	/**
+	 * close the output opened by this class when the recording could not be started,
+	 * does nothing once the muxer started(the output is closed when it stops)
+	 * 录像无法开始时关闭此类打开的输出，混合器启动后不执行任何操作(停止时关闭输出)
+	 */
+	public synchronized void release() {
+		if (mCloseOnStop && !isStarted() && mChannel.isOpen()) {
+			try {
+				mChannel.close();
+			} catch (final IOException e) {
+				Log.w(TAG, "release:", e);
+			}
+		}
+	}
+
+	public long getFragmentMs() {
+		return mFragmentUs / 1000L;
+	}
+
+	/**
+	 * bytes written to the output so far 到目前为止写入输出的字节数
+	 */
+	public synchronized long getWrittenBytes() {
+		return mWrittenBytes;
+	}
+
+	@Override
+	/*package*/ synchronized int addTrack(final MediaFormat format) {
+		if (isStarted()) {
+			throw new IllegalStateException("muxer already started");
+		}
+		if (mTrackCount >= MAX_TRACKS) {
+			throw new IllegalStateException("too many tracks");
+		}
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		if (!MediaFormat.MIMETYPE_VIDEO_AVC.equals(mime)
+			&& !MediaFormat.MIMETYPE_VIDEO_HEVC.equals(mime)
+			&& !MediaFormat.MIMETYPE_AUDIO_AAC.equals(mime)) {
+
+			throw new IllegalStateException("unsupported format:" + mime);
+		}
+		final int trackIx = mTrackCount++;
+		mTracks[trackIx] = new Track(trackIx + 1, format, mime);
+		if (mTracks[trackIx].isVideo) {
+			mVideoTrack = trackIx;
+		}
+		if (DEBUG) Log.i(TAG, "addTrack:trackIx=" + trackIx + ",format=" + format);
+		return trackIx;
+	}
+
+	@Override
+	/*package*/ void startMuxer() {
+		try {
+			writeInitSegment();
+		} catch (final IOException | RuntimeException e) {
+			Log.e(TAG, "startMuxer:could not write the init segment", e);
+			mFailed = true;
+		}
+	}
+
+	@Override
+	/*package*/ void stopMuxer() {
+		if (!mFailed) {
+			try {
+				flushFragment(-1);
+			} catch (final IOException e) {
+				Log.w(TAG, "stopMuxer:", e);
+			}
+		}
+		if (mCloseOnStop) {
+			try {
+				mChannel.close();
+			} catch (final IOException e) {
+				Log.w(TAG, "stopMuxer:", e);
+			}
+		}
+		if (DEBUG) Log.v(TAG, "stopMuxer:fragments=" + mSequence + ",bytes=" + mWrittenBytes);
+	}
+
+	@Override
+	/*package*/ synchronized void writeSampleData(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo bufferInfo) {
+		if (!isWritable() || mFailed || (trackIndex < 0) || (trackIndex >= mTrackCount)) return;
+		final Track track = mTracks[trackIndex];
+		final long ptsUs = bufferInfo.presentationTimeUs;
+		final boolean sync = !track.isVideo || ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+		// the video track(or the audio track if there is no video) decides the fragment boundaries
+		// 视频轨道(没有视频时为音频轨道)决定分片边界
+		final boolean leading = (mVideoTrack < 0) || (trackIndex == mVideoTrack);
+		if (mStartPtsUs < 0) {
+			if (!leading || !sync) {
+				// the output starts at a key frame 输出从关键帧开始
+				return;
+			}
+			mStartPtsUs = mFragmentStartPtsUs = ptsUs;
+		}
+		if (ptsUs < mStartPtsUs) return;
+		if (leading && (ptsUs - mFragmentStartPtsUs >= mFragmentUs)) {
+			if (sync) {
+				try {
+					flushFragment(ptsUs);
+				} catch (final IOException e) {
+					Log.e(TAG, "writeSampleData:could not write the fragment", e);
+					mFailed = true;
+					return;
+				}
+				mFragmentStartPtsUs = ptsUs;
+				mSyncRequested = false;
+			} else if (!mSyncRequested) {
+				// do not wait for the next regular key frame 不等待下一个常规关键帧
+				final MediaEncoder encoder = getVideoEncoder();
+				if (encoder != null) {
+					encoder.requestSyncFrame();
+				}
+				mSyncRequested = true;
+			}
+		}
+		addSample(track, byteBuf, bufferInfo, sync);
+	}
+
+	private void addSample(@NonNull final Track track, final ByteBuffer byteBuf,
+		final MediaCodec.BufferInfo bufferInfo, final boolean sync) {
+
+		track.ensureSamples();
+		final int start = track.data.position();
+		final ByteBuffer src = byteBuf.duplicate();
+		src.limit(bufferInfo.offset + bufferInfo.size).position(bufferInfo.offset);
+		if (track.isVideo) {
+			// each start code(3 or 4 bytes) is replaced by 4 bytes length 每个起始码(3或4字节)替换为4字节长度
+			track.ensureData(bufferInfo.size + bufferInfo.size / 3 + 8);
+			appendLengthPrefixed(src, track.data);
+		} else {
+			track.ensureData(bufferInfo.size);
+			track.data.put(src);
+		}
+		final int ix = track.count++;
+		track.sizes[ix] = track.data.position() - start;
+		track.flags[ix] = sync ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC;
+		track.ptsTicks[ix] = toTicks(bufferInfo.presentationTimeUs, track.timescale);
+	}
+
+	private long toTicks(final long ptsUs, final int timescale) {
+		return (ptsUs - mStartPtsUs) * timescale / 1000000L;
+	}
+
+	/**
+	 * write the samples collected so far as one moof/mdat pair 将目前收集的样本作为一个moof/mdat对写入
+	 * @param nextPtsUs presentation time of the key frame that starts the next fragment, negative if unknown
+	 * 				开始下一个分片的关键帧的显示时间，未知时为负数
+	 */
+	private void flushFragment(final long nextPtsUs) throws IOException {
+		int samples = 0;
+		for (int i = 0; i < mTrackCount; i++) {
+			samples += mTracks[i].count;
+		}
+		if (samples == 0) return;
+		final BoxWriter w = mHeader;
+		w.buf.clear();
+		w.start("moof");
+		w.startFull("mfhd", 0, 0).putInt(++mSequence).end();
+		for (int i = 0; i < mTrackCount; i++) {
+			final Track track = mTracks[i];
+			final boolean leading = (mVideoTrack < 0) || (i == mVideoTrack);
+			track.prepareTimes((leading && (nextPtsUs >= 0)) ? toTicks(nextPtsUs, track.timescale) : -1);
+		}
+		if (mDelayUs < 0) {
+			// the reorder depth of the encoder does not change, so the first GOP decides the delay of all tracks
+			// 编码器的重排深度不会改变，因此由第一个GOP决定所有轨道的延迟
+			final Track video = mVideoTrack >= 0 ? mTracks[mVideoTrack] : null;
+			mDelayUs = video != null ? (-video.minCtsTicks * 1000000L + video.timescale - 1) / video.timescale : 0;
+			for (int i = 0; i < mTrackCount; i++) {
+				mTracks[i].delayTicks = (int)((mDelayUs * mTracks[i].timescale + 999999L) / 1000000L);
+			}
+			if (DEBUG && (mDelayUs > 0)) Log.v(TAG, "flushFragment:presentation delay=" + mDelayUs + "us");
+		}
+		for (int i = 0; i < mTrackCount; i++) {
+			final Track track = mTracks[i];
+			mDataOffsetPositions[i] = -1;
+			if (track.count == 0) continue;
+			final boolean hasCtsOffsets = track.hasCtsOffsets();
+			// version 1 allows negative offsets, only needed if the reorder depth grew after the first fragment
+			// 版本1允许负偏移，仅当重排深度在第一个分片之后增大时才需要
+			final boolean negative = track.minCtsTicks + track.delayTicks < 0;
+			if (negative) {
+				Log.w(TAG, "flushFragment:reorder depth exceeds the presentation delay of the first fragment");
+			}
+			w.start("traf");
+			// default-base-is-moof 默认基准为moof
+			w.startFull("tfhd", 0, 0x020000).putInt(track.trackId).end();
+			w.startFull("tfdt", 1, 0).putLong(track.dtsTicks[0]).end();
+			// data-offset, sample-duration, sample-size, sample-flags(, sample-composition-time-offset)
+			w.startFull("trun", negative ? 1 : 0, 0x000701 | (hasCtsOffsets ? 0x000800 : 0))
+				.putInt(track.count);
+			mDataOffsetPositions[i] = w.position();
+			w.putInt(0);
+			for (int j = 0; j < track.count; j++) {
+				w.putInt(track.durations[j]).putInt(track.sizes[j]).putInt(track.flags[j]);
+				if (hasCtsOffsets) {
+					w.putInt(track.ctsOffsets[j] + track.delayTicks);
+				}
+			}
+			w.end();	// trun
+			w.end();	// traf
+		}
+		w.end();	// moof
+		final int moofBytes = w.position();
+		long mdatBytes = 8;
+		for (int i = 0; i < mTrackCount; i++) {
+			if (mDataOffsetPositions[i] >= 0) {
+				// relative to the start of moof 相对于moof的开头
+				w.putIntAt(mDataOffsetPositions[i], (int)(moofBytes + mdatBytes));
+			}
+			mdatBytes += mTracks[i].data.position();
+		}
+		w.putInt((int)mdatBytes).fourcc("mdat");
+		w.buf.flip();
+		writeFully(w.buf);
+		for (int i = 0; i < mTrackCount; i++) {
+			final Track track = mTracks[i];
+			track.data.flip();
+			writeFully(track.data);
+			track.clear();
+		}
+		mWrittenBytes += moofBytes + mdatBytes;
+		syncOutput();
+	}
+
+	private void writeInitSegment() throws IOException {
+		final BoxWriter w = mHeader;
+		w.buf.clear();
+		w.start("ftyp").fourcc("iso5").putInt(512).fourcc("iso5").fourcc("iso6").fourcc("mp41").end();
+		w.start("moov");
+		w.startFull("mvhd", 0, 0)
+			.putInt(0).putInt(0)		// creation/modification time
+			.putInt(1000).putInt(0)		// timescale, duration(unknown)
+			.putInt(0x00010000).putShort(0x0100).zeros(10)
+			.matrix().zeros(24)
+			.putInt(mTrackCount + 1)	// next_track_ID
+			.end();
+		for (int i = 0; i < mTrackCount; i++) {
+			writeTrak(w, mTracks[i]);
+		}
+		w.start("mvex");
+		for (int i = 0; i < mTrackCount; i++) {
+			w.startFull("trex", 0, 0).putInt(mTracks[i].trackId)
+				.putInt(1).putInt(0).putInt(0).putInt(0).end();
+		}
+		w.end();	// mvex
+		w.end();	// moov
+		w.buf.flip();
+		writeFully(w.buf);
+		mWrittenBytes += w.buf.limit();
+		syncOutput();
+	}
+
+	private static void writeTrak(@NonNull final BoxWriter w, @NonNull final Track track) {
+		final MediaFormat format = track.format;
+		final int width = track.isVideo ? format.getInteger(MediaFormat.KEY_WIDTH) : 0;
+		final int height = track.isVideo ? format.getInteger(MediaFormat.KEY_HEIGHT) : 0;
+		w.start("trak");
+		// track_enabled | track_in_movie
+		w.startFull("tkhd", 0, 0x000003)
+			.putInt(0).putInt(0).putInt(track.trackId).putInt(0).putInt(0)
+			.zeros(8).putShort(0).putShort(0).putShort(track.isVideo ? 0 : 0x0100).putShort(0)
+			.matrix().putInt(width << 16).putInt(height << 16)
+			.end();
+		w.start("mdia");
+		w.startFull("mdhd", 0, 0)
+			.putInt(0).putInt(0).putInt(track.timescale).putInt(0)
+			.putShort(0x55c4).putShort(0)	// language "und"
+			.end();
+		w.startFull("hdlr", 0, 0).putInt(0).fourcc(track.isVideo ? "vide" : "soun").zeros(12)
+			.put((track.isVideo ? "VideoHandler" : "SoundHandler").getBytes()).putByte(0)
+			.end();
+		w.start("minf");
+		if (track.isVideo) {
+			w.startFull("vmhd", 0, 1).putShort(0).zeros(6).end();
+		} else {
+			w.startFull("smhd", 0, 0).putShort(0).putShort(0).end();
+		}
+		w.start("dinf").startFull("dref", 0, 0).putInt(1).startFull("url ", 0, 1).end().end().end();
+		w.start("stbl");
+		w.startFull("stsd", 0, 0).putInt(1);
+		if (track.isVideo) {
+			writeVisualSampleEntry(w, track, width, height);
+		} else {
+			writeAudioSampleEntry(w, track);
+		}
+		w.end();	// stsd
+		// the samples are in the fragments, the tables of moov are empty
+		// 样本在分片中，moov的表为空
+		w.startFull("stts", 0, 0).putInt(0).end();
+		w.startFull("stsc", 0, 0).putInt(0).end();
+		w.startFull("stsz", 0, 0).putInt(0).putInt(0).end();
+		w.startFull("stco", 0, 0).putInt(0).end();
+		w.end();	// stbl
+		w.end();	// minf
+		w.end();	// mdia
+		w.end();	// trak
+	}
+
+	private static void writeVisualSampleEntry(@NonNull final BoxWriter w, @NonNull final Track track,
+		final int width, final int height) {
+
+		final boolean hevc = MediaFormat.MIMETYPE_VIDEO_HEVC.equals(track.mime);
+		final List<byte[]> nals = new ArrayList<>();
+		splitNals(track.format.getByteBuffer("csd-0"), nals);
+		splitNals(track.format.getByteBuffer("csd-1"), nals);
+		w.start(hevc ? "hvc1" : "avc1").zeros(6).putShort(1)	// data_reference_index
+			.zeros(16).putShort(width).putShort(height)
+			.putInt(0x00480000).putInt(0x00480000)	// 72dpi
+			.putInt(0).putShort(1)					// frame_count
+			.zeros(32).putShort(0x0018).putShort(-1);
+		if (hevc) {
+			writeHvcC(w, nals);
+		} else {
+			writeAvcC(w, nals);
+		}
+		w.end();
+	}
+
+	private static void writeAvcC(@NonNull final BoxWriter w, @NonNull final List<byte[]> nals) {
+		final List<byte[]> sps = new ArrayList<>();
+		final List<byte[]> pps = new ArrayList<>();
+		for (final byte[] nal : nals) {
+			final int type = nal[0] & 0x1f;
+			if (type == 7) {
+				sps.add(nal);
+			} else if (type == 8) {
+				pps.add(nal);
+			}
+		}
+		if (sps.isEmpty() || (sps.get(0).length < 4)) {
+			throw new IllegalStateException("no SPS in the output format");
+		}
+		final byte[] first = sps.get(0);
+		w.start("avcC").putByte(1).putByte(first[1]).putByte(first[2]).putByte(first[3])
+			.putByte(0xfc | 3)				// lengthSizeMinusOne
+			.putByte(0xe0 | sps.size());
+		for (final byte[] nal : sps) {
+			w.putShort(nal.length).put(nal);
+		}
+		w.putByte(pps.size());
+		for (final byte[] nal : pps) {
+			w.putShort(nal.length).put(nal);
+		}
+		w.end();
+	}
+
+	private static void writeHvcC(@NonNull final BoxWriter w, @NonNull final List<byte[]> nals) {
+		byte[] sps = null;
+		int numArrays = 0;
+		for (int type = 32; type <= 34; type++) {	// VPS, SPS, PPS
+			for (final byte[] nal : nals) {
+				if (((nal[0] >> 1) & 0x3f) == type) {
+					numArrays++;
+					break;
+				}
+			}
+		}
+		for (final byte[] nal : nals) {
+			if (((nal[0] >> 1) & 0x3f) == 33) {
+				sps = unescape(nal, 16);
+				break;
+			}
+		}
+		if ((sps == null) || (sps.length < 15)) {
+			throw new IllegalStateException("no SPS in the output format");
+		}
+		// sps[2]: sps_video_parameter_set_id(4), sps_max_sub_layers_minus1(3), sps_temporal_id_nesting_flag(1)
+		// sps[3..14]: general_profile_tier_level
+		final int profileIdc = sps[3] & 0x1f;
+		final int bitDepthMinus8 = profileIdc == 2 ? 2 : 0;	// Main10
+		w.start("hvcC").putByte(1);
+		for (int i = 3; i < 15; i++) {
+			w.putByte(sps[i]);
+		}
+		w.putShort(0xf000)				// min_spatial_segmentation_idc
+			.putByte(0xfc)				// parallelismType
+			.putByte(0xfc | 1)			// chroma_format_idc(4:2:0)
+			.putByte(0xf8 | bitDepthMinus8)
+			.putByte(0xf8 | bitDepthMinus8)
+			.putShort(0)				// avgFrameRate
+			.putByte(((((sps[2] >> 1) & 0x07) + 1) << 3) | ((sps[2] & 0x01) << 2) | 3)
+			.putByte(numArrays);
+		for (int type = 32; type <= 34; type++) {
+			int n = 0;
+			for (final byte[] nal : nals) {
+				if (((nal[0] >> 1) & 0x3f) == type) n++;
+			}
+			if (n == 0) continue;
+			w.putByte(0x80 | type).putShort(n);
+			for (final byte[] nal : nals) {
+				if (((nal[0] >> 1) & 0x3f) == type) {
+					w.putShort(nal.length).put(nal);
+				}
+			}
+		}
+		w.end();
+	}
+
+	private static void writeAudioSampleEntry(@NonNull final BoxWriter w, @NonNull final Track track) {
+		final MediaFormat format = track.format;
+		final ByteBuffer csd = format.getByteBuffer("csd-0");
+		final byte[] asc = new byte[csd != null ? csd.remaining() : 0];
+		if (csd != null) {
+			csd.duplicate().get(asc);
+		}
+		final int bitrate = format.containsKey(MediaFormat.KEY_BIT_RATE) ? format.getInteger(MediaFormat.KEY_BIT_RATE) : 0;
+		w.start("mp4a").zeros(6).putShort(1)	// data_reference_index
+			.zeros(8).putShort(format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)).putShort(16)
+			.putShort(0).putShort(0).putInt(track.timescale << 16);
+		// ES_Descriptor, DecoderConfigDescriptor, DecoderSpecificInfo, SLConfigDescriptor
+		w.startFull("esds", 0, 0)
+			.putByte(0x03).putByte(23 + asc.length).putShort(0).putByte(0)
+			.putByte(0x04).putByte(15 + asc.length).putByte(0x40).putByte(0x15)	// AAC, audio stream
+			.putByte(0).putShort(0).putInt(bitrate).putInt(bitrate)
+			.putByte(0x05).putByte(asc.length).put(asc)
+			.putByte(0x06).putByte(1).putByte(0x02)
+			.end();
+		w.end();	// mp4a
+	}
+
+	private void writeFully(final ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			mChannel.write(buf);
+		}
+	}
+
+	/**
+	 * make the fragment durable/visible to the reader 使分片持久化/对读取者可见
+	 */
+	private void syncOutput() throws IOException {
+		if (mOutputStream != null) {
+			mOutputStream.flush();
+		} else if (mChannel instanceof FileChannel) {
+			((FileChannel)mChannel).force(false);
+		}
+	}
+
+	/**
+	 * copy the NAL units in Annex-B format(start code separated) as 4 bytes length prefixed ones
+	 * 将Annex-B格式(起始码分隔)的NAL单元复制为4字节长度前缀格式
+	 */
+	/*package*/ static void appendLengthPrefixed(@NonNull final ByteBuffer src, @NonNull final ByteBuffer dst) {
+		final int end = src.limit();
+		int sc = findStartCode(src, src.position(), end);
+		if (sc < 0) {
+			// not Annex-B, write as a single NAL unit 不是Annex-B，作为单个NAL单元写入
+			dst.putInt(src.remaining()).put(src);
+			return;
+		}
+		final ByteBuffer nal = src.duplicate();
+		while (sc >= 0) {
+			final int nalStart = sc + 3;
+			final int next = findStartCode(src, nalStart, end);
+			int nalEnd = next >= 0 ? next : end;
+			// only the leading zero of the 4 bytes start code(00 00 00 01) that follows is removed,
+			// a NAL unit itself may end with zero bytes(e.g. cabac_zero_words)
+			// 只去除后面4字节起始码(00 00 00 01)的第一个零字节，NAL单元本身可能以零字节结尾(例如cabac_zero_words)
+			if ((next >= 0) && (nalEnd > nalStart) && (src.get(nalEnd - 1) == 0)) nalEnd--;
+			if (nalEnd > nalStart) {
+				nal.limit(nalEnd).position(nalStart);
+				dst.putInt(nalEnd - nalStart).put(nal);
+			}
+			sc = next;
+		}
+	}
+
+	/**
+	 * @return position of 0x000001, -1 if not found 0x000001的位置，未找到时为-1
+	 */
+	private static int findStartCode(@NonNull final ByteBuffer buf, final int from, final int end) {
+		for (int i = from; i + 2 < end; i++) {
+			if ((buf.get(i + 2) == 1) && (buf.get(i + 1) == 0) && (buf.get(i) == 0)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static void splitNals(@Nullable final ByteBuffer csd, @NonNull final List<byte[]> nals) {
+		if (csd == null) return;
+		final ByteBuffer dst = ByteBuffer.allocate(csd.remaining() * 2 + 16);
+		appendLengthPrefixed(csd.duplicate(), dst);
+		dst.flip();
+		while (dst.remaining() > 4) {
+			final byte[] nal = new byte[dst.getInt()];
+			dst.get(nal);
+			nals.add(nal);
+		}
+	}
+
+	/**
+	 * remove emulation prevention bytes from the head of the NAL unit 移除NAL单元开头的防竞争字节
+	 * @param max number of bytes to return at most 最多返回的字节数
+	 */
+	private static byte[] unescape(@NonNull final byte[] nal, final int max) {
+		final byte[] result = new byte[Math.min(nal.length, max)];
+		int n = 0, zeros = 0;
+		for (int i = 0; (i < nal.length) && (n < result.length); i++) {
+			if ((zeros >= 2) && (nal[i] == 3)) {
+				zeros = 0;
+				continue;
+			}
+			zeros = nal[i] == 0 ? zeros + 1 : 0;
+			result[n++] = nal[i];
+		}
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+}
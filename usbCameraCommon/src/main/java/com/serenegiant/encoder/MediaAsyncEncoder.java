@@ -0,0 +1,885 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.encoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Base class of the encoders that run MediaCodec in asynchronous mode(MediaCodec#setCallback, API >= 23).
+ * The private thread of the encoder is a Looper thread that receives the callbacks of MediaCodec,
+ * indices of the input buffers are queued when they become available and the encoded data is written
+ * to the muxer as soon as MediaCodec outputs it, so there is no polling with timeout
+ * and no wakeup for #frameAvailableSoon.
+ * When MediaCodec has no free input buffer, the data is kept in a bounded queue and the input policy
+ * decides what happens when the queue is full, so the producers never wait longer than the deadline.
+ * 以异步模式(MediaCodec#setCallback, API >= 23)运行MediaCodec的编码器基类
+ * 编码器的私有线程是接收MediaCodec回调的Looper线程，输入缓冲区的索引在可用时排队，
+ * 编码数据在MediaCodec输出后立即写入muxer，因此没有带超时的轮询，也不需要为#frameAvailableSoon唤醒
+ * MediaCodec没有空闲输入缓冲区时，数据保存在有界队列中，队列满时由输入策略决定如何处理，
+ * 因此生产者的等待时间不会超过期限
+ */
+public abstract class MediaAsyncEncoder extends MediaEncoder {
+	private static final boolean DEBUG = true;	// TODO set false on release
+	private static final String TAG = "MediaAsyncEncoder";
+
+	/**
+	 * maximum time to wait for EOS from MediaCodec after requesting stop
+	 * 请求停止后等待MediaCodec输出EOS的最长时间
+	 */
+	private static final long EOS_TIMEOUT_MS = 1000;
+
+	/**
+	 * input policies applied when MediaCodec has no free input buffer and the input queue is full
+	 * MediaCodec没有空闲输入缓冲区且输入队列已满时应用的输入策略
+	 */
+	/** drop the data being passed 丢弃正在传入的数据 */
+	public static final int POLICY_DROP_NEWEST = 0;
+	/** drop the oldest data in the input queue 丢弃输入队列中最早的数据 */
+	public static final int POLICY_DROP_OLDEST = 1;
+	/** wait until the deadline, then drop the data being passed 等待到期限，然后丢弃正在传入的数据 */
+	public static final int POLICY_BLOCK = 2;
+
+	private static final int DEFAULT_INPUT_QUEUE_CAPACITY = 4;
+	private static final long DEFAULT_INPUT_DEADLINE_MS = 100;
+
+	private static final int INPUT_DROPPED = -1;
+	private static final int INPUT_QUEUED = -2;
+
+	/**
+	 * raw data waiting for an input buffer of MediaCodec 等待MediaCodec输入缓冲区的原始数据
+	 */
+	private static final class InputFrame {
+		private ByteBuffer buffer;
+		private int size;
+		private long presentationTimeUs;
+		/**
+		 * size of the image written by #obtainInputPlanes as packed NV12, 0 for the data of #encode
+		 * #obtainInputPlanes以紧凑NV12写入的图像的大小，#encode的数据为0
+		 */
+		private int width, height;
+	}
+
+	/**
+	 * output buffer held back until the muxer starts 在混合器启动之前保留的输出缓冲区
+	 */
+	private static final class PendingOutput {
+		private final int index;
+		private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+		private PendingOutput(final int index, final MediaCodec.BufferInfo info) {
+			this.index = index;
+			this.info.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+		}
+	}
+
+	/**
+	 * handler of the private thread, MediaCodec callbacks are called on it
+	 * 私有线程的Handler，MediaCodec回调在其上调用
+	 */
+	private Handler mHandler;
+	/**
+	 * indices of the input buffers that MediaCodec passed and that are not queued yet, guarded by mSync
+	 * MediaCodec已传递但尚未排队的输入缓冲区索引，由mSync保护
+	 */
+	private int[] mFreeInputs = new int[16];
+	private int mNumFreeInputs;
+	/**
+	 * EOS should be queued into the next input buffer that becomes available, guarded by mSync
+	 * EOS应排入下一个可用的输入缓冲区，由mSync保护
+	 */
+	private boolean mRequestEOS;
+	/**
+	 * only accessed on the private thread 仅在私有线程上访问
+	 */
+	private boolean mReleased;
+	/**
+	 * whether the muxer has started and the samples can be written
+	 * 混合器是否已启动、样本是否可以写入
+	 */
+	private volatile boolean mMuxerReady;
+	/**
+	 * output buffers that arrived after adding the track and before the muxer started,
+	 * MediaCodec keeps them until they are released, only accessed on the private thread
+	 * 添加轨道之后、混合器启动之前到达的输出缓冲区，在释放之前MediaCodec一直保留它们，仅在私有线程上访问
+	 */
+	private final ArrayDeque<PendingOutput> mPendingOutputs = new ArrayDeque<PendingOutput>();
+	/**
+	 * index of the input buffer returned by #obtainInputBuffer and not queued yet, only accessed by the producer
+	 * #obtainInputBuffer返回但尚未排队的输入缓冲区索引，仅由生产者访问
+	 */
+	private int mObtainedInput = -1;
+	/**
+	 * frame of the input queue returned by #acquireInput and not committed yet, only accessed by the producer
+	 * #acquireInput返回但尚未提交的输入队列帧，仅由生产者访问
+	 */
+	private InputFrame mProducerFrame;
+	/**
+	 * bounded queue of the data that arrived while MediaCodec had no free input buffer and its free list,
+	 * guarded by mSync
+	 * MediaCodec没有空闲输入缓冲区时到达的数据的有界队列及其空闲列表，由mSync保护
+	 */
+	private final ArrayDeque<InputFrame> mInputQueue = new ArrayDeque<InputFrame>();
+	private final ArrayDeque<InputFrame> mInputPool = new ArrayDeque<InputFrame>();
+	private int mInputQueueCapacity = DEFAULT_INPUT_QUEUE_CAPACITY;
+	private int mInputPolicy = POLICY_BLOCK;
+	private long mInputDeadlineNs = DEFAULT_INPUT_DEADLINE_MS * 1000000L;
+	private long mDroppedFrames;
+	private long mInputWaitNs;
+
+	public MediaAsyncEncoder(final MediaMuxerWrapper muxer, final MediaEncoderListener listener) {
+		super(muxer, listener);
+	}
+
+	/**
+	 * the private thread just runs the Looper for the MediaCodec callbacks
+	 * 私有线程只运行用于MediaCodec回调的Looper
+	 */
+	@Override
+	public void run() {
+		Looper.prepare();
+		synchronized (mSync) {
+			mHandler = new Handler();
+			mRequestStop = false;
+			mSync.notify();
+		}
+		Looper.loop();
+		if (DEBUG) Log.d(TAG, "Encoder thread exiting");
+		synchronized (mSync) {
+			mRequestStop = true;
+			mIsCapturing = false;
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * create the encoder and set the callback, sub class should call this instead of
+	 * MediaCodec#createEncoderByType in #prepare
+	 * 创建编码器并设置回调，子类应在#prepare中调用此方法代替MediaCodec#createEncoderByType
+	 */
+	protected MediaCodec createEncoder(final String mimeType) throws IOException {
+		final MediaCodec codec = MediaCodec.createEncoderByType(mimeType);
+		// this should be called before MediaCodec#configure 应在MediaCodec#configure之前调用
+		codec.setCallback(mCodecCallback, mHandler);	// API >= 23
+		return codec;
+	}
+
+	/**
+	 * create the encoder selected by the sub class, the format checked against its capabilities
+	 * is passed to the same codec instead of the first one for the mime type
+	 * 创建子类选择的编码器，根据其能力检查过的格式会交给同一个编解码器，而不是该MIME类型的第一个编解码器
+	 */
+	protected MediaCodec createEncoder(final MediaCodecInfo codecInfo) throws IOException {
+		final MediaCodec codec = MediaCodec.createByCodecName(codecInfo.getName());
+		codec.setCallback(mCodecCallback, mHandler);	// API >= 23
+		return codec;
+	}
+
+	/**
+	 * nothing to wake up because encoded data is written when MediaCodec outputs it
+	 * 编码数据在MediaCodec输出时写入，不需要唤醒
+	 * @return return true if encoder is ready to encode.
+	 */
+	@Override
+	public boolean frameAvailableSoon() {
+		return mIsCapturing && !mRequestStop;
+	}
+
+	@Override
+	/*package*/ void stopRecording() {
+		if (DEBUG) Log.v(TAG, "stopRecording");
+		synchronized (mSync) {
+			if (!mIsCapturing || mRequestStop) {
+				return;
+			}
+			mRequestStop = true;	// for rejecting newer frame
+			mSync.notifyAll();
+			if (mHandler != null) {
+				mHandler.post(mStopTask);
+			}
+		}
+	}
+
+	/**
+	 * queue EOS into the next available input buffer,
+	 * encoders with the input surface should override this and call MediaCodec#signalEndOfInputStream
+	 * 将EOS排入下一个可用的输入缓冲区，使用输入Surface的编码器应覆盖此方法并调用MediaCodec#signalEndOfInputStream
+	 */
+	@Override
+	protected void signalEndOfInputStream() {
+		if (DEBUG) Log.d(TAG, "sending EOS to encoder");
+		synchronized (mSync) {
+			if (mIsEOS) return;
+			// queued data is fed before EOS 排队的数据在EOS之前送入
+			if ((mNumFreeInputs > 0) && mInputQueue.isEmpty()) {
+				queueEndOfStream(mFreeInputs[--mNumFreeInputs]);
+			} else {
+				mRequestEOS = true;
+			}
+			mSync.notifyAll();
+		}
+	}
+
+	private void queueEndOfStream(final int index) {
+		mIsEOS = true;
+		mRequestEOS = false;
+		if (DEBUG) Log.i(TAG, "send BUFFER_FLAG_END_OF_STREAM");
+		mMediaCodec.queueInputBuffer(index, 0, 0, getPTSUs(), MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+	}
+
+	/**
+	 * set how the producer behaves when MediaCodec has no free input buffer and the input queue is full
+	 * 设置MediaCodec没有空闲输入缓冲区且输入队列已满时生产者的行为
+	 * @param policy POLICY_DROP_NEWEST, POLICY_DROP_OLDEST or POLICY_BLOCK
+	 * @param deadlineMs maximum time to wait with POLICY_BLOCK, the data is dropped after that
+	 * 					使用POLICY_BLOCK时的最长等待时间，超过后丢弃数据
+	 */
+	public void setInputPolicy(final int policy, final long deadlineMs) {
+		if ((policy != POLICY_DROP_NEWEST) && (policy != POLICY_DROP_OLDEST) && (policy != POLICY_BLOCK)) {
+			throw new IllegalArgumentException("unknown input policy:" + policy);
+		}
+		synchronized (mSync) {
+			mInputPolicy = policy;
+			mInputDeadlineNs = Math.max(0, deadlineMs) * 1000000L;
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * set number of data that can wait for an input buffer of MediaCodec, 0 disables the queue
+	 * 设置可以等待MediaCodec输入缓冲区的数据数，0时禁用队列
+	 */
+	public void setInputQueueCapacity(final int capacity) {
+		synchronized (mSync) {
+			mInputQueueCapacity = Math.max(0, capacity);
+			while (mInputQueue.size() > mInputQueueCapacity) {
+				mInputPool.addLast(mInputQueue.pollFirst());
+				mDroppedFrames++;
+			}
+		}
+	}
+
+	/**
+	 * number of input data dropped by the input policy 因输入策略而丢弃的输入数据数
+	 */
+	public long getDroppedFrames() {
+		synchronized (mSync) {
+			return mDroppedFrames;
+		}
+	}
+
+	/**
+	 * total time the producers waited for an input buffer or a slot of the input queue[us]
+	 * 生产者等待输入缓冲区或输入队列空位的总时间[us]
+	 */
+	public long getInputWaitTimeUs() {
+		synchronized (mSync) {
+			return mInputWaitNs / 1000L;
+		}
+	}
+
+	/**
+	 * number of input data waiting for an input buffer of MediaCodec 等待MediaCodec输入缓冲区的输入数据数
+	 */
+	public int getQueuedFrames() {
+		synchronized (mSync) {
+			return mInputQueue.size();
+		}
+	}
+
+	/**
+	 * take an input buffer of MediaCodec or, if MediaCodec has none free, a slot of the input queue
+	 * according to the input policy. this never waits longer than the deadline of POLICY_BLOCK.
+	 * 根据输入策略取得MediaCodec的输入缓冲区，或者在MediaCodec没有空闲缓冲区时取得输入队列的空位，
+	 * 等待时间不会超过POLICY_BLOCK的期限
+	 * @param minCapacity bytes needed when the input queue is used 使用输入队列时需要的字节数
+	 * @return index of the input buffer, INPUT_QUEUED if mProducerFrame was set
+	 * 			or INPUT_DROPPED if the data should be dropped
+	 * 			输入缓冲区的索引，设置了mProducerFrame时为INPUT_QUEUED，应丢弃数据时为INPUT_DROPPED
+	 */
+	private int acquireInput(final int minCapacity) {
+		synchronized (mSync) {
+			int result = INPUT_DROPPED;
+			long waitStartNs = -1;
+			for ( ; ; ) {
+				if (!mIsCapturing || mRequestStop || mIsEOS || mRequestEOS) {
+					// newer data is rejected after #stopRecording #stopRecording之后拒绝新的数据
+					break;
+				}
+				if (mNumFreeInputs > 0) {
+					// the input queue is always empty here 此时输入队列总是空的
+					result = mFreeInputs[--mNumFreeInputs];
+					break;
+				}
+				if (mInputQueue.size() < mInputQueueCapacity) {
+					mProducerFrame = obtainFrame(minCapacity);
+					result = INPUT_QUEUED;
+					break;
+				}
+				if ((mInputPolicy == POLICY_DROP_OLDEST) && !mInputQueue.isEmpty()) {
+					mDroppedFrames++;
+					mInputPool.addLast(mInputQueue.pollFirst());
+					mProducerFrame = obtainFrame(minCapacity);
+					result = INPUT_QUEUED;
+					break;
+				}
+				if (mInputPolicy == POLICY_BLOCK) {
+					final long now = System.nanoTime();
+					if (waitStartNs < 0) {
+						waitStartNs = now;
+					}
+					final long remainNs = mInputDeadlineNs - (now - waitStartNs);
+					if (remainNs > 0) {
+						try {
+							mSync.wait(remainNs / 1000000L, (int)(remainNs % 1000000L));
+							continue;
+						} catch (final InterruptedException e) {
+							// drop 丢弃
+						}
+					}
+				}
+				mDroppedFrames++;
+				break;
+			}
+			if (waitStartNs >= 0) {
+				mInputWaitNs += System.nanoTime() - waitStartNs;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * get a frame for the input queue from the pool, guarded by mSync
+	 * 从池中取得用于输入队列的帧，由mSync保护
+	 */
+	private InputFrame obtainFrame(final int minCapacity) {
+		InputFrame frame = mInputPool.pollLast();
+		if (frame == null) {
+			frame = new InputFrame();
+		}
+		if ((frame.buffer == null) || (frame.buffer.capacity() < minCapacity)) {
+			// allocated only until the queue is filled once 仅在队列首次填满之前分配
+			frame.buffer = ByteBuffer.allocateDirect(minCapacity).order(ByteOrder.nativeOrder());
+		}
+		frame.buffer.clear();
+		frame.size = 0;
+		frame.width = frame.height = 0;
+		return frame;
+	}
+
+	/**
+	 * append the data written into mProducerFrame to the input queue
+	 * 将写入mProducerFrame的数据追加到输入队列
+	 */
+	private void commitFrame(final int size, final long presentationTimeUs) {
+		final InputFrame frame = mProducerFrame;
+		mProducerFrame = null;
+		if (frame == null) return;
+		synchronized (mSync) {
+			if ((size > 0) && mIsCapturing) {
+				frame.size = size;
+				frame.presentationTimeUs = presentationTimeUs;
+				mInputQueue.addLast(frame);
+				// an input buffer may have become free while writing 写入期间可能有输入缓冲区变为空闲
+				while ((mNumFreeInputs > 0) && !mInputQueue.isEmpty()) {
+					feedQueuedFrame(mFreeInputs[--mNumFreeInputs]);
+				}
+			} else {
+				mInputPool.addLast(frame);
+			}
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * copy the oldest data of the input queue into the input buffer, guarded by mSync
+	 * 将输入队列中最早的数据复制到输入缓冲区，由mSync保护
+	 */
+	private void feedQueuedFrame(final int index) {
+		final InputFrame frame = mInputQueue.pollFirst();
+		try {
+			if (frame.width > 0) {
+				// the layout of the input image is known only now 输入图像的布局此时才知道
+				final int capacity = mMediaCodec.getInputBuffer(index).capacity();
+				final Image image = mMediaCodec.getInputImage(index);
+				if (image != null) {
+					copyToImage(frame, image);
+					mMediaCodec.queueInputBuffer(index, 0, capacity, frame.presentationTimeUs, 0);
+				} else {
+					// the color format is not a flexible YUV420 one 颜色格式不是灵活YUV420格式
+					Log.w(TAG, "feedQueuedFrame:no input image, dropped");
+					dropQueuedFrame(index);
+				}
+			} else {
+				final ByteBuffer inputBuffer = mMediaCodec.getInputBuffer(index);
+				inputBuffer.clear();
+				if (frame.size <= inputBuffer.remaining()) {
+					frame.buffer.clear();
+					frame.buffer.limit(frame.size);
+					inputBuffer.put(frame.buffer);
+					mMediaCodec.queueInputBuffer(index, 0, frame.size, frame.presentationTimeUs, 0);
+				} else {
+					// a truncated frame would be broken for the codec 截断的帧对编解码器来说是损坏的
+					Log.w(TAG, "feedQueuedFrame:input buffer is too small, dropped:"
+						+ frame.size + ">" + inputBuffer.remaining());
+					dropQueuedFrame(index);
+				}
+			}
+		} catch (final IllegalStateException e) {
+			// MediaCodec was stopped while encoding MediaCodec在编码中被停止
+			if (DEBUG) Log.w(TAG, "feedQueuedFrame:", e);
+		}
+		mInputPool.addLast(frame);
+	}
+
+	/**
+	 * count the queued frame that could not be fed and pass the input buffer to the next queued data,
+	 * it is kept free only when the input queue is empty. guarded by mSync
+	 * 计数无法送入的排队帧，并将输入缓冲区交给下一个排队的数据，仅在输入队列为空时保持空闲，由mSync保护
+	 */
+	private void dropQueuedFrame(final int index) {
+		mDroppedFrames++;
+		if (!mInputQueue.isEmpty()) {
+			feedQueuedFrame(index);
+			return;
+		}
+		if (mNumFreeInputs == mFreeInputs.length) {
+			mFreeInputs = Arrays.copyOf(mFreeInputs, mNumFreeInputs * 2);
+		}
+		mFreeInputs[mNumFreeInputs++] = index;
+	}
+
+	/**
+	 * copy the packed NV12 image of the input queue into the planes of the input image of MediaCodec
+	 * 将输入队列中紧凑NV12图像复制到MediaCodec输入图像的平面
+	 */
+	private static void copyToImage(final InputFrame frame, final Image image) {
+		final int width = frame.width;
+		final int height = frame.height;
+		final Image.Plane[] planes = image.getPlanes();
+		final ByteBuffer src = frame.buffer;
+		final ByteBuffer y = planes[0].getBuffer();
+		final int yStride = planes[0].getRowStride();
+		for (int row = 0; row < height; row++) {
+			src.limit(row * width + width);
+			src.position(row * width);
+			y.position(row * yStride);
+			y.put(src);
+		}
+		src.clear();
+		final ByteBuffer u = planes[1].getBuffer();
+		final ByteBuffer v = planes[2].getBuffer();
+		final int uvStride = planes[1].getRowStride();
+		final int uvPixelStride = planes[1].getPixelStride();
+		final int uvOffset = width * height;
+		for (int row = 0; row < height / 2; row++) {
+			int s = uvOffset + row * width;
+			int d = row * uvStride;
+			for (int col = 0; col < width / 2; col++, s += 2, d += uvPixelStride) {
+				u.put(d, src.get(s));
+				v.put(d, src.get(s + 1));
+			}
+		}
+	}
+
+	/**
+	 * Method to set byte array to the MediaCodec encoder
+	 * @param buffer
+	 * @param length　length of byte array, use #signalEndOfInputStream for EOS
+	 * @param presentationTimeUs
+	 */
+	@Override
+	protected void encode(final byte[] buffer, final int length, final long presentationTimeUs) {
+		if (!mIsCapturing || (buffer == null)) return;
+		int ix = 0, sz;
+		try {
+			while (mIsCapturing && (ix < length)) {
+				final int index = acquireInput(length - ix);
+				if (index == INPUT_QUEUED) {
+					mProducerFrame.buffer.put(buffer, ix, length - ix);
+					commitFrame(length - ix, presentationTimeUs);
+					break;
+				} else if (index < 0) {
+					break;
+				}
+				final ByteBuffer inputBuffer = mMediaCodec.getInputBuffer(index);
+				inputBuffer.clear();
+				sz = Math.min(inputBuffer.remaining(), length - ix);
+				inputBuffer.put(buffer, ix, sz);
+				ix += sz;
+				mMediaCodec.queueInputBuffer(index, 0, sz, presentationTimeUs, 0);
+			}
+		} catch (final IllegalStateException e) {
+			// MediaCodec was stopped while encoding MediaCodec在编码中被停止
+			if (DEBUG) Log.w(TAG, "encode:", e);
+		}
+	}
+
+	/**
+	 * Method to set ByteBuffer to the MediaCodec encoder
+	 * @param buffer
+	 * @param length length of data, use #signalEndOfInputStream for EOS
+	 * @param presentationTimeUs
+	 */
+	@Override
+	protected void encode(final ByteBuffer buffer, final int length, final long presentationTimeUs) {
+		if (!mIsCapturing || (buffer == null)) return;
+		int ix = 0, sz;
+		try {
+			while (mIsCapturing && (ix < length)) {
+				final int index = acquireInput(length - ix);
+				if (index == INPUT_QUEUED) {
+					buffer.limit(length);
+					buffer.position(ix);
+					mProducerFrame.buffer.put(buffer);
+					commitFrame(length - ix, presentationTimeUs);
+					break;
+				} else if (index < 0) {
+					break;
+				}
+				final ByteBuffer inputBuffer = mMediaCodec.getInputBuffer(index);
+				inputBuffer.clear();
+				sz = Math.min(inputBuffer.remaining(), length - ix);
+				buffer.limit(ix + sz);
+				buffer.position(ix);
+				inputBuffer.put(buffer);
+				ix += sz;
+				mMediaCodec.queueInputBuffer(index, 0, sz, presentationTimeUs, 0);
+			}
+		} catch (final IllegalStateException e) {
+			// MediaCodec was stopped while encoding MediaCodec在编码中被停止
+			if (DEBUG) Log.w(TAG, "encode:", e);
+		}
+	}
+
+	/**
+	 * take a buffer to write raw data into directly instead of passing it to #encode,
+	 * an input buffer of MediaCodec if it has one free, otherwise a buffer of the input queue.
+	 * the buffer should be passed back by #queueInputBuffer before obtaining the next one
+	 * 取得用于直接写入原始数据而不是传递给#encode的缓冲区，MediaCodec有空闲输入缓冲区时为该缓冲区，
+	 * 否则为输入队列的缓冲区，在取得下一个之前应通过#queueInputBuffer交回该缓冲区
+	 * @param minCapacity bytes to be written 要写入的字节数
+	 * @return null if the data should be dropped by the input policy or the encoder is not capturing
+	 * 			应根据输入策略丢弃数据或编码器未在捕获时返回null
+	 */
+	protected ByteBuffer obtainInputBuffer(final int minCapacity) {
+		if (!mIsCapturing || mRequestStop) return null;
+		final int index = acquireInput(minCapacity);
+		if (index == INPUT_QUEUED) {
+			return mProducerFrame.buffer;
+		} else if (index < 0) {
+			return null;
+		}
+		try {
+			final ByteBuffer inputBuffer = mMediaCodec.getInputBuffer(index);
+			inputBuffer.clear();
+			mObtainedInput = index;
+			return inputBuffer;
+		} catch (final IllegalStateException e) {
+			// MediaCodec was stopped while encoding MediaCodec在编码中被停止
+			if (DEBUG) Log.w(TAG, "obtainInputBuffer:", e);
+			return null;
+		}
+	}
+
+	/**
+	 * take the Y/U/V planes of the input image of MediaCodec to write a YUV420 image into directly,
+	 * their layout is what the codec expects instead of what its input format claims.
+	 * if MediaCodec has no free input buffer, planes of a packed NV12 frame of the input queue are returned,
+	 * it is copied into the input image later. pass it back by #queueInputBuffer before obtaining the next one
+	 * 取得MediaCodec输入图像的Y/U/V平面以直接写入YUV420图像，其布局是编解码器实际期望的布局，而不是其输入格式所声称的布局
+	 * MediaCodec没有空闲输入缓冲区时返回输入队列中紧凑NV12帧的平面，之后复制到输入图像，
+	 * 在取得下一个之前应通过#queueInputBuffer交回
+	 * @param width
+	 * @param height
+	 * @param layout [out] {row stride of the Y plane, row stride of the U/V planes, pixel stride of the U/V planes}
+	 * 				[输出] {Y平面的行跨度, U/V平面的行跨度, U/V平面的像素跨度}
+	 * @return null if the data should be dropped by the input policy or the encoder is not capturing
+	 * 			应根据输入策略丢弃数据或编码器未在捕获时返回null
+	 */
+	protected ByteBuffer[] obtainInputPlanes(final int width, final int height, final int[] layout) {
+		if (!mIsCapturing || mRequestStop) return null;
+		final int w = width & ~1;
+		final int h = height & ~1;
+		final int index = acquireInput(w * h * 3 / 2);
+		if (index == INPUT_QUEUED) {
+			final InputFrame frame = mProducerFrame;
+			frame.width = w;
+			frame.height = h;
+			layout[0] = layout[1] = w;
+			layout[2] = 2;
+			return new ByteBuffer[] {
+				slice(frame.buffer, 0, w * h),
+				slice(frame.buffer, w * h, w * h / 2),
+				slice(frame.buffer, w * h + 1, w * h / 2 - 1),
+			};
+		} else if (index < 0) {
+			return null;
+		}
+		try {
+			final Image image = mMediaCodec.getInputImage(index);
+			if (image == null) {
+				// the color format is not a flexible YUV420 one 颜色格式不是灵活YUV420格式
+				Log.w(TAG, "obtainInputPlanes:no input image");
+				addFreeInput(index);
+				return null;
+			}
+			final Image.Plane[] planes = image.getPlanes();
+			// U and V planes always have the same strides U和V平面的跨度总是相同
+			layout[0] = planes[0].getRowStride();
+			layout[1] = planes[1].getRowStride();
+			layout[2] = planes[1].getPixelStride();
+			mObtainedInput = index;
+			return new ByteBuffer[] {
+				planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+			};
+		} catch (final IllegalStateException e) {
+			// MediaCodec was stopped while encoding MediaCodec在编码中被停止
+			if (DEBUG) Log.w(TAG, "obtainInputPlanes:", e);
+			return null;
+		}
+	}
+
+	private static ByteBuffer slice(final ByteBuffer buffer, final int offset, final int length) {
+		final ByteBuffer result = buffer.duplicate();
+		result.limit(offset + length);
+		result.position(offset);
+		return result.slice();
+	}
+
+	/**
+	 * queue the buffer returned by #obtainInputBuffer or the planes returned by #obtainInputPlanes
+	 * 将#obtainInputBuffer返回的缓冲区或#obtainInputPlanes返回的平面排队
+	 * @param size bytes written into the buffer, nothing is queued and the buffer is given back
+	 * 				for later data if this is not positive
+	 * 				写入缓冲区的字节数，不为正数时不排队任何数据，缓冲区归还以用于之后的数据
+	 * @param presentationTimeUs
+	 */
+	protected void queueInputBuffer(final int size, final long presentationTimeUs) {
+		if (mProducerFrame != null) {
+			commitFrame(size, presentationTimeUs);
+			return;
+		}
+		final int index = mObtainedInput;
+		mObtainedInput = -1;
+		if (index < 0) return;
+		if (size > 0) {
+			try {
+				mMediaCodec.queueInputBuffer(index, 0, size, presentationTimeUs, 0);
+			} catch (final IllegalStateException e) {
+				// MediaCodec was stopped while encoding MediaCodec在编码中被停止
+				if (DEBUG) Log.w(TAG, "queueInputBuffer:", e);
+			}
+		} else {
+			addFreeInput(index);
+		}
+	}
+
+	/**
+	 * feed the queued data into the input buffer that is not used yet, queue EOS into it if requested
+	 * or keep its index
+	 * 将排队的数据送入尚未使用的输入缓冲区，如已请求则将EOS排入其中，否则保存其索引
+	 */
+	private void addFreeInput(final int index) {
+		synchronized (mSync) {
+			if (!mInputQueue.isEmpty()) {
+				if (mIsCapturing) {
+					feedQueuedFrame(index);
+				}
+			} else if (mRequestEOS) {
+				queueEndOfStream(index);
+			} else if (!mIsEOS) {
+				if (mNumFreeInputs == mFreeInputs.length) {
+					mFreeInputs = Arrays.copyOf(mFreeInputs, mNumFreeInputs * 2);
+				}
+				mFreeInputs[mNumFreeInputs++] = index;
+			}
+			mSync.notifyAll();
+		}
+	}
+
+	/**
+	 * nothing to drain, encoded data is written in MediaCodec.Callback#onOutputBufferAvailable
+	 * 没有需要drain的，编码数据在MediaCodec.Callback#onOutputBufferAvailable中写入
+	 */
+	@Override
+	protected void drain() {
+	}
+
+	private final MediaCodec.Callback mCodecCallback = new MediaCodec.Callback() {
+		@Override
+		public void onInputBufferAvailable(final MediaCodec codec, final int index) {
+			addFreeInput(index);
+		}
+
+		@Override
+		public void onOutputBufferAvailable(final MediaCodec codec, final int index, final MediaCodec.BufferInfo info) {
+			if ((mMuxerStarted && !mMuxerReady) || !mPendingOutputs.isEmpty()) {
+				// keep the order of the samples, written when the muxer has started
+				// 保持样本的顺序，在混合器启动后写入
+				mPendingOutputs.addLast(new PendingOutput(index, info));
+				return;
+			}
+			writeOutput(codec, index, info);
+		}
+
+		@Override
+		public void onOutputFormatChanged(final MediaCodec codec, final MediaFormat format) {
+			if (DEBUG) Log.v(TAG, "onOutputFormatChanged:" + format);
+			final MediaMuxerWrapper muxer = mWeakMuxer.get();
+			if (mMuxerStarted || (muxer == null)) {
+				Log.w(TAG, "unexpected format change:muxer=" + muxer);
+				return;
+			}
+			mTrackIndex = muxer.addTrack(format);
+			mMuxerStarted = true;
+			// never wait here for the other encoder, the output buffers are held back until #onMuxerStarted
+			// 不在此处等待其他编码器，输出缓冲区保留到#onMuxerStarted
+			if (muxer.start()) {
+				mMuxerReady = true;
+			}
+		}
+
+		@Override
+		public void onError(final MediaCodec codec, final MediaCodec.CodecException e) {
+			Log.e(TAG, "onError:", e);
+			mHandler.removeCallbacks(mReleaseTask);
+			mHandler.post(mReleaseTask);
+		}
+	};
+
+	@Override
+	/*package*/ void onMuxerStarted() {
+		mMuxerReady = true;
+		final Handler handler = mHandler;
+		if (handler != null) {
+			handler.post(mDrainPendingTask);
+		}
+	}
+
+	/**
+	 * write the encoded data to the muxer and return the buffer to MediaCodec, called on the private thread
+	 * 将编码数据写入混合器并将缓冲区返回给MediaCodec，在私有线程上调用
+	 */
+	private void writeOutput(final MediaCodec codec, final int index, final MediaCodec.BufferInfo info) {
+		final MediaMuxerWrapper muxer = mWeakMuxer.get();
+		if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+			// the muxer gets them from the output format 混合器从输出格式中获取它们
+			if (DEBUG) Log.d(TAG, "onOutputBufferAvailable:BUFFER_FLAG_CODEC_CONFIG");
+			info.size = 0;
+		}
+		if ((info.size != 0) && mMuxerStarted && (muxer != null)) {
+			final ByteBuffer encodedData = codec.getOutputBuffer(index);
+			// presentationTimeUs is the timestamp given with the input(capture time of the frame
+			// or the audio data), written as is so that encoding/draining jitter does not get into the file
+			// presentationTimeUs是随输入给出的时间戳(帧或音频数据的捕获时间)，原样写入，
+			// 使编码/输出的抖动不会进入文件
+			muxer.queueSampleData(mTrackIndex, encodedData, info);
+			if (info.presentationTimeUs > prevOutputPTSUs) {
+				prevOutputPTSUs = info.presentationTimeUs;
+			}
+		}
+		// return buffer to encoder
+		codec.releaseOutputBuffer(index, false);
+		if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+			if (DEBUG) Log.d(TAG, "onOutputBufferAvailable:EOS");
+			// MediaCodec should not be released in its callback MediaCodec不应在其回调中释放
+			mHandler.removeCallbacks(mReleaseTask);
+			mHandler.post(mReleaseTask);
+		}
+	}
+
+	/**
+	 * write the output buffers held back while the muxer was not started, run on the private thread
+	 * 写入混合器未启动期间保留的输出缓冲区，在私有线程上运行
+	 */
+	private final Runnable mDrainPendingTask = new Runnable() {
+		@Override
+		public void run() {
+			final MediaCodec codec = mMediaCodec;
+			while (!mReleased && (codec != null) && !mPendingOutputs.isEmpty()) {
+				final PendingOutput pending = mPendingOutputs.pollFirst();
+				try {
+					writeOutput(codec, pending.index, pending.info);
+				} catch (final IllegalStateException e) {
+					// the codec was stopped 编解码器已停止
+					Log.w(TAG, "failed writing pending output", e);
+					mPendingOutputs.clear();
+				}
+			}
+		}
+	};
+
+	/**
+	 * run on the private thread after #stopRecording
+	 * 在#stopRecording之后在私有线程上运行
+	 */
+	private final Runnable mStopTask = new Runnable() {
+		@Override
+		public void run() {
+			if ((mMediaCodec != null) && !mReleased) {
+				try {
+					signalEndOfInputStream();
+				} catch (final Exception e) {
+					Log.w(TAG, "failed to send EOS", e);
+				}
+				// some codecs never output EOS, release anyway after timeout
+				// 有些编解码器从不输出EOS，超时后仍然释放
+				mHandler.postDelayed(mReleaseTask, EOS_TIMEOUT_MS);
+			} else {
+				mReleaseTask.run();
+			}
+		}
+	};
+
+	private final Runnable mReleaseTask = new Runnable() {
+		@Override
+		public void run() {
+			if (mReleased) return;
+			mReleased = true;
+			mPendingOutputs.clear();
+			synchronized (mSync) {
+				mIsCapturing = false;
+				mNumFreeInputs = 0;
+				mInputQueue.clear();
+				mInputPool.clear();
+				mSync.notifyAll();
+				if (DEBUG) Log.i(TAG, "input:dropped=" + mDroppedFrames + ",wait=" + (mInputWaitNs / 1000L) + "us");
+			}
+			release();
+			Looper.myLooper().quit();
+		}
+	};
+}
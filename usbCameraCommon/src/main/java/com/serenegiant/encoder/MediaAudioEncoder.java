@@ -37,7 +37,7 @@ import android.media.MediaFormat;
 import android.media.MediaRecorder;
 import android.util.Log;
 
-public class MediaAudioEncoder extends MediaEncoder implements IAudioEncoder {
+public class MediaAudioEncoder extends MediaAsyncEncoder implements IAudioEncoder {
 	private static final boolean DEBUG = true;	// TODO set false on release
 	private static final String TAG = "MediaAudioEncoder";
 
@@ -74,7 +74,7 @@ public class MediaAudioEncoder extends MediaEncoder implements IAudioEncoder {
 //		audioFormat.setLong(MediaFormat.KEY_MAX_INPUT_SIZE, inputFile.length());
 //      audioFormat.setLong(MediaFormat.KEY_DURATION, (long)durationInMs );
 		if (DEBUG) Log.i(TAG, "format: " + audioFormat);
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        mMediaCodec = createEncoder(MIME_TYPE);
         mMediaCodec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         mMediaCodec.start();
         if (DEBUG) Log.i(TAG, "prepare finishing");
@@ -147,6 +147,11 @@ public class MediaAudioEncoder extends MediaEncoder implements IAudioEncoder {
 					if (mIsCapturing) {
 						if (DEBUG) Log.v(TAG, "AudioThread:start audio recording");
 						int readBytes;
+						// presentation time is derived from the number of samples read so far
+						// instead of the time when each read returns, read timing jitters but the samples do not
+						// 显示时间由已读取的样本数推算，而不是每次读取返回的时间，读取时机有抖动但样本没有
+						long baseUs = -1;
+						long totalSamples = 0;
 						audioRecord.startRecording();
 						try {
 							for ( ; mIsCapturing && !mRequestStop && !mIsEOS ; ) {
@@ -161,14 +166,17 @@ public class MediaAudioEncoder extends MediaEncoder implements IAudioEncoder {
 									// set audio data to encoder
 									buf.position(readBytes);
 									buf.flip();
-									encode(buf, readBytes, getPTSUs());
-									frameAvailableSoon();
+									final int samples = readBytes / 2;	// 16bit mono
+									if (baseUs < 0) {
+										// the first chunk was captured during its own duration before now
+										// 第一块数据是在当前时间之前的其自身时长内捕获的
+										baseUs = System.nanoTime() / 1000L - samples * 1000000L / SAMPLE_RATE;
+									}
+									encode(buf, readBytes, baseUs + totalSamples * 1000000L / SAMPLE_RATE);
+									totalSamples += samples;
 									cnt++;
 								}
 							}
-							if (cnt > 0) {
-								frameAvailableSoon();
-							}
 						} finally {
 							audioRecord.stop();
 						}
@@ -185,7 +193,6 @@ public class MediaAudioEncoder extends MediaEncoder implements IAudioEncoder {
 					buf.flip();
 					try {
 						encode(buf, SAMPLES_PER_FRAME, getPTSUs());
-						frameAvailableSoon();
 					} catch (final Exception e) {
 						break;
 					}
@@ -29,6 +29,7 @@ import java.nio.ByteBuffer;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Bundle;
 import android.util.Log;
 
 public abstract class MediaEncoder implements Runnable {
@@ -205,6 +206,32 @@ public abstract class MediaEncoder implements Runnable {
 		}
 	}
 
+	/**
+	 * ask the encoder to make the next frame a sync frame, ignored by the audio encoder
+	 * 请求编码器将下一帧作为同步帧，音频编码器忽略此请求
+	 */
+	/*package*/ void requestSyncFrame() {
+		final MediaCodec codec = mMediaCodec;
+		if ((codec != null) && mIsCapturing && !mRequestStop) {
+			final Bundle params = new Bundle();
+			params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+			try {
+				codec.setParameters(params);
+			} catch (final IllegalStateException e) {
+				// already released 已释放
+				Log.w(TAG, "requestSyncFrame:", e);
+			}
+		}
+	}
+
+	/**
+	 * called by MediaMuxerWrapper once all tracks are added and the muxer has started,
+	 * may be called on the thread of another encoder
+	 * 所有轨道添加完毕且混合器启动后由MediaMuxerWrapper调用，可能在其他编码器的线程上调用
+	 */
+	/*package*/ void onMuxerStarted() {
+	}
+
 //********************************************************************************
 //********************************************************************************
     /**
@@ -412,9 +439,9 @@ LOOP:	while (mIsCapturing) {
                     	// muxer is not ready...this will prrograming failure.
                         throw new RuntimeException("drain:muxer hasn't started");
                     }
-                    // write encoded data to muxer(need to adjust presentationTimeUs.
-                   	mBufferInfo.presentationTimeUs = getPTSUs();
-                   	muxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
+                    // write encoded data to muxer, keeping the pts the codec carried over from the input frame
+                    // 将编码数据写入muxer，保留编码器从输入帧带过来的pts
+                   	muxer.queueSampleData(mTrackIndex, encodedData, mBufferInfo);
 					prevOutputPTSUs = mBufferInfo.presentationTimeUs;
                 }
                 // return buffer to encoder
@@ -431,7 +458,7 @@ LOOP:	while (mIsCapturing) {
     /**
      * previous presentationTimeUs for writing
      */
-	private long prevOutputPTSUs = 0;
+	protected long prevOutputPTSUs = 0;
 	/**
 	 * get next encoding presentationTimeUs
 	 * @return
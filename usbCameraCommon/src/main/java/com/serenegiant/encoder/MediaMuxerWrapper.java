@@ -27,6 +27,9 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
 import java.util.Locale;
 
@@ -39,19 +42,69 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+/**
+ * Encoded samples are copied into pooled buffers and written on a writer thread of the muxer,
+ * so a slow storage(write stalls of SD cards) does not stall draining of the encoders
+ * and one track can not block the other. The encoders are blocked only when the queue is full.
+ * 编码样本被复制到池化的缓冲区并在混合器的写入线程上写入，因此慢速存储(SD卡的写入停顿)不会阻塞编码器的输出，
+ * 一个轨道也不会阻塞另一个轨道。仅当队列已满时才阻塞编码器
+ */
 public class MediaMuxerWrapper {
 	private static final boolean DEBUG = true;	// TODO set false on release
 	private static final String TAG = "MediaMuxerWrapper";
 
+	// bounds of the writer queue, about several seconds of video at usual bitrates
+	// 写入队列的上限，通常码率下约为数秒的视频
+	private static final int MAX_QUEUED_SAMPLES = 512;
+	private static final long MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+	// bounds of the buffers kept for reuse, a buffer grown by a large key frame is not kept
+	// 保留以供重用的缓冲区上限，被大的关键帧扩大的缓冲区不保留
+	private static final long MAX_POOLED_BYTES = MAX_QUEUED_BYTES / 4;
+	private static final int MAX_POOLED_SAMPLE_BYTES = 512 * 1024;
+	private static final int MAX_TRACKS = 2;
+	/**
+	 * max time to wait for the samples of the other track to write the samples in timestamp order[ms]
+	 * 为按时间戳顺序写入样本而等待另一轨道样本的最长时间[ms]
+	 */
+	private static final long INTERLEAVE_WAIT_MS = 100;
+
+	// index of values in #getWriterStats #getWriterStats中各值的索引
+	public static final int WRITER_STATS_QUEUE_DEPTH = 0;		// samples in the queue 队列中的样本数
+	public static final int WRITER_STATS_MAX_QUEUE_DEPTH = 1;	// max samples in the queue 队列中的最大样本数
+	public static final int WRITER_STATS_QUEUED_BYTES = 2;		// bytes in the queue 队列中的字节数
+	public static final int WRITER_STATS_WRITTEN = 3;			// written samples 已写入的样本数
+	public static final int WRITER_STATS_WRITE_US = 4;			// total write time[us] 总写入时间[us]
+	public static final int WRITER_STATS_MAX_WRITE_US = 5;		// max write time of a sample[us] 单个样本的最长写入时间[us]
+	public static final int WRITER_STATS_BLOCKED = 6;			// times the encoders waited for the queue 编码器等待队列的次数
+	public static final int WRITER_STATS_BLOCKED_US = 7;		// total time the encoders waited[us] 编码器等待的总时间[us]
+	private static final int WRITER_STATS_NUM = 8;
+
+	private static final class Sample {
+		private int trackIndex;
+		private ByteBuffer data;
+		private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		private long queuedNs;
+	}
+
 	private static final SimpleDateFormat mDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US);
 	private static final String DIR_NAME = "USBCamera";
 
-	private String mOutputPath;
+	protected String mOutputPath;
 	private final MediaMuxer mMediaMuxer;	// API >= 18
 	private int mEncoderCount, mStatredCount;
 	private boolean mIsStarted;
 	private MediaEncoder mVideoEncoder, mAudioEncoder;
 
+	// writer thread, the queue and the stats are guarded by mQueueSync 写入线程、队列和统计由mQueueSync保护
+	private final Object mQueueSync = new Object();
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<Sample>[] mQueues = new ArrayDeque[] { new ArrayDeque<Sample>(), new ArrayDeque<Sample>() };
+	private final ArrayDeque<Sample> mSamplePool = new ArrayDeque<>();
+	private long mPooledBytes;	// total capacity of the buffers in mSamplePool mSamplePool中缓冲区的总容量
+	private Thread mWriterThread;
+	private volatile boolean mWriterRunning;
+	private final long[] mWriterStats = new long[WRITER_STATS_NUM];
+
 	/**
 	 * Constructor
 	 * @param dir direction of output file
@@ -71,6 +124,17 @@ public class MediaMuxerWrapper {
 		mIsStarted = false;
 	}
 
+	/**
+	 * constructor for the sub classes that write the encoded data somewhere else than a single file,
+	 * they should override #addTrack, #startMuxer, #stopMuxer and #writeSampleData
+	 * 用于将编码数据写到单个文件以外位置的子类的构造函数，子类应重写#addTrack、#startMuxer、#stopMuxer和#writeSampleData
+	 */
+	protected MediaMuxerWrapper() {
+		mMediaMuxer = null;
+		mEncoderCount = mStatredCount = 0;
+		mIsStarted = false;
+	}
+
 	public String getOutputPath() {
 		return mOutputPath;
 	}
@@ -102,6 +166,25 @@ public class MediaMuxerWrapper {
 		return mIsStarted;
 	}
 
+	/**
+	 * get statistics of the writer thread since the muxer started
+	 * 获取混合器开始以来写入线程的统计
+	 * @return values indexed by WRITER_STATS_XXX 按WRITER_STATS_XXX索引的值
+	 */
+	public long[] getWriterStats() {
+		synchronized (mQueueSync) {
+			return mWriterStats.clone();
+		}
+	}
+
+	/**
+	 * video encoder added to this muxer, null if none or after #stopRecording
+	 * 添加到此混合器的视频编码器，没有或#stopRecording之后为null
+	 */
+	/*package*/ MediaEncoder getVideoEncoder() {
+		return mVideoEncoder;
+	}
+
 //**********************************************************************
 //**********************************************************************
 	/**
@@ -138,9 +221,16 @@ public class MediaMuxerWrapper {
 		if (DEBUG) { Log.v(TAG,  "start:"); }
 		mStatredCount++;
 		if ((mEncoderCount > 0) && (mStatredCount == mEncoderCount)) {
-			mMediaMuxer.start();
+			startMuxer();
 			mIsStarted = true;
+			startWriter();
 			notifyAll();
+			// encoders that do not wait for this can write the samples they held back
+			// 不等待此处的编码器可以写入它们保留的样本
+			if (mVideoEncoder != null)
+				mVideoEncoder.onMuxerStarted();
+			if (mAudioEncoder != null)
+				mAudioEncoder.onMuxerStarted();
 			if (DEBUG) { Log.v(TAG,  "MediaMuxer started:"); }
 		}
 		return mIsStarted;
@@ -149,18 +239,238 @@ public class MediaMuxerWrapper {
 	/**
 	 * request stop recording from encoder when encoder received EOS
 	*/
-	/*package*/ synchronized void stop() {
-		if (DEBUG) { Log.v(TAG,  "stop:mStatredCount=" + mStatredCount); }
-		mStatredCount--;
-		if ((mEncoderCount > 0) && (mStatredCount <= 0)) {
+	/*package*/ void stop() {
+		final boolean stopping;
+		synchronized (this) {
+			if (DEBUG) { Log.v(TAG,  "stop:mStatredCount=" + mStatredCount); }
+			mStatredCount--;
+			stopping = (mEncoderCount > 0) && (mStatredCount <= 0);
+		}
+		if (stopping) {
+			// write the queued samples before stopping the muxer, the writer thread needs the lock of this
+			// 停止混合器之前写入排队的样本，写入线程需要此对象的锁
+			stopWriter();
+			synchronized (this) {
+				try {
+					stopMuxer();
+				} catch (final Exception e) {
+					Log.w(TAG, e);
+				}
+				mIsStarted = false;
+				if (DEBUG) { Log.v(TAG,  "MediaMuxer stopped:"); }
+			}
+		}
+	}
+
+	/**
+	 * copy the encoded data into the writer queue, called on the encoder threads.
+	 * blocks only while the queue is full
+	 * 将编码数据复制到写入队列，在编码器线程上调用，仅在队列已满时阻塞
+	 * @param trackIndex
+	 * @param byteBuf
+	 * @param bufferInfo
+	 */
+	/*package*/ void queueSampleData(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo bufferInfo) {
+		if ((trackIndex < 0) || (trackIndex >= MAX_TRACKS)) {
+			writeSampleData(trackIndex, byteBuf, bufferInfo);
+			return;
+		}
+		Sample sample;
+		synchronized (mQueueSync) {
+			long blockedNs = 0;
+			while (mWriterRunning && (queuedCount() >= MAX_QUEUED_SAMPLES
+				|| ((mWriterStats[WRITER_STATS_QUEUED_BYTES] + bufferInfo.size > MAX_QUEUED_BYTES) && (queuedCount() > 0)))) {
+
+				// the writer does not keep up, wait rather than dropping the encoded data(it breaks the stream)
+				// 写入跟不上，等待而不是丢弃编码数据(会破坏视频流)
+				if (blockedNs == 0) {
+					blockedNs = System.nanoTime();
+					mWriterStats[WRITER_STATS_BLOCKED]++;
+				}
+				try {
+					mQueueSync.wait();
+				} catch (final InterruptedException e) {
+					break;
+				}
+			}
+			if (blockedNs != 0) {
+				mWriterStats[WRITER_STATS_BLOCKED_US] += (System.nanoTime() - blockedNs) / 1000L;
+			}
+			if (!mWriterRunning) return;
+			sample = mSamplePool.pollFirst();
+			if ((sample != null) && (sample.data != null)) {
+				mPooledBytes -= sample.data.capacity();
+			}
+		}
+		if (sample == null) {
+			sample = new Sample();
+		}
+		if ((sample.data == null) || (sample.data.capacity() < bufferInfo.size)) {
+			// headroom only for buffers small enough to be pooled 仅为可放入池的缓冲区预留余量
+			final int headroom = bufferInfo.size + (bufferInfo.size >> 1);
+			sample.data = ByteBuffer.allocateDirect(headroom <= MAX_POOLED_SAMPLE_BYTES ? headroom : bufferInfo.size);
+		}
+		final ByteBuffer src = byteBuf.duplicate();
+		src.limit(bufferInfo.offset + bufferInfo.size).position(bufferInfo.offset);
+		sample.data.clear();
+		sample.data.put(src).flip();
+		sample.info.set(0, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+		sample.trackIndex = trackIndex;
+		sample.queuedNs = System.nanoTime();
+		synchronized (mQueueSync) {
+			mQueues[trackIndex].addLast(sample);
+			final int depth = queuedCount();
+			mWriterStats[WRITER_STATS_QUEUE_DEPTH] = depth;
+			mWriterStats[WRITER_STATS_QUEUED_BYTES] += bufferInfo.size;
+			if (depth > mWriterStats[WRITER_STATS_MAX_QUEUE_DEPTH]) {
+				mWriterStats[WRITER_STATS_MAX_QUEUE_DEPTH] = depth;
+			}
+			mQueueSync.notifyAll();
+		}
+	}
+
+	private int queuedCount() {
+		return mQueues[0].size() + mQueues[1].size();
+	}
+
+	private void startWriter() {
+		synchronized (mQueueSync) {
+			if (mWriterThread != null) return;
+			mWriterRunning = true;
+			mWriterThread = new Thread(mWriterTask, TAG);
+			mWriterThread.start();
+		}
+	}
+
+	/**
+	 * write all queued samples and wait for the writer thread to finish
+	 * 写入所有排队的样本并等待写入线程结束
+	 */
+	private void stopWriter() {
+		final Thread thread;
+		synchronized (mQueueSync) {
+			thread = mWriterThread;
+			mWriterThread = null;
+			mWriterRunning = false;
+			mQueueSync.notifyAll();
+		}
+		if (thread != null) {
 			try {
-				mMediaMuxer.stop();
-			} catch (final Exception e) {
-				Log.w(TAG, e);
+				thread.join();
+			} catch (final InterruptedException e) {
+				Log.w(TAG, "stopWriter:", e);
+			}
+			synchronized (mQueueSync) {
+				mSamplePool.clear();
+				mPooledBytes = 0;
+			}
+			if (DEBUG) { Log.v(TAG, "stopWriter:stats=" + Arrays.toString(getWriterStats())); }
+		}
+	}
+
+	/**
+	 * take the queued samples in timestamp order, a track is waited for at most INTERLEAVE_WAIT_MS
+	 * while the other track has no queued sample. must be called while holding mQueueSync
+	 * 按时间戳顺序取出排队的样本，另一个轨道没有排队的样本时最多等待该轨道INTERLEAVE_WAIT_MS，必须在持有mQueueSync时调用
+	 */
+	private void takeSamples(final ArrayList<Sample> batch) {
+		final long now = System.nanoTime();
+		final int tracks = Math.min(mEncoderCount, MAX_TRACKS);
+		final boolean halfFull = queuedCount() >= MAX_QUEUED_SAMPLES / 2;
+		for ( ; ; ) {
+			ArrayDeque<Sample> next = null;
+			boolean allTracks = true;
+			for (int i = 0; i < tracks; i++) {
+				final Sample head = mQueues[i].peekFirst();
+				if (head == null) {
+					allTracks = false;
+				} else if ((next == null) || (head.info.presentationTimeUs < next.peekFirst().info.presentationTimeUs)) {
+					next = mQueues[i];
+				}
+			}
+			if ((next == null)
+				|| (!allTracks && mWriterRunning && !halfFull
+					&& (now - next.peekFirst().queuedNs < INTERLEAVE_WAIT_MS * 1000000L))) {
+				break;
+			}
+			final Sample sample = next.pollFirst();
+			mWriterStats[WRITER_STATS_QUEUED_BYTES] -= sample.info.size;
+			batch.add(sample);
+		}
+		mWriterStats[WRITER_STATS_QUEUE_DEPTH] = queuedCount();
+	}
+
+	private final Runnable mWriterTask = new Runnable() {
+		@Override
+		public void run() {
+			final ArrayList<Sample> batch = new ArrayList<>();
+			for ( ; ; ) {
+				synchronized (mQueueSync) {
+					takeSamples(batch);
+					if (batch.isEmpty()) {
+						if (!mWriterRunning && (queuedCount() == 0)) break;
+						try {
+							mQueueSync.wait(INTERLEAVE_WAIT_MS);
+						} catch (final InterruptedException e) {
+							break;
+						}
+						continue;
+					}
+					// the encoders may be waiting for the space 编码器可能正在等待空间
+					mQueueSync.notifyAll();
+				}
+				long writeUs = 0, maxUs = 0;
+				// the lock of the muxer is taken once for the batch 每批只获取一次混合器的锁
+				synchronized (MediaMuxerWrapper.this) {
+					for (final Sample sample : batch) {
+						final long start = System.nanoTime();
+						try {
+							writeSampleData(sample.trackIndex, sample.data, sample.info);
+						} catch (final Exception e) {
+							Log.w(TAG, "writeSampleData:", e);
+						}
+						final long us = (System.nanoTime() - start) / 1000L;
+						writeUs += us;
+						if (us > maxUs) maxUs = us;
+					}
+				}
+				synchronized (mQueueSync) {
+					mWriterStats[WRITER_STATS_WRITTEN] += batch.size();
+					mWriterStats[WRITER_STATS_WRITE_US] += writeUs;
+					if (maxUs > mWriterStats[WRITER_STATS_MAX_WRITE_US]) {
+						mWriterStats[WRITER_STATS_MAX_WRITE_US] = maxUs;
+					}
+					for (final Sample sample : batch) {
+						// keep at most one queue worth of small buffers, the others are left to GC
+						// 最多保留一个队列的小缓冲区，其余的交给GC
+						final int capacity = sample.data.capacity();
+						if ((capacity <= MAX_POOLED_SAMPLE_BYTES)
+							&& (mPooledBytes + capacity <= MAX_POOLED_BYTES)
+							&& (mSamplePool.size() < MAX_QUEUED_SAMPLES)) {
+
+							mSamplePool.addLast(sample);
+							mPooledBytes += capacity;
+						}
+					}
+				}
+				batch.clear();
 			}
-			mIsStarted = false;
-			if (DEBUG) { Log.v(TAG,  "MediaMuxer stopped:"); }
+			if (DEBUG) { Log.v(TAG, "writer thread finished"); }
 		}
+	};
+
+	/**
+	 * called when all encoders added their tracks 所有编码器都添加轨道时调用
+	 */
+	/*package*/ void startMuxer() {
+		mMediaMuxer.start();
+	}
+
+	/**
+	 * called when all encoders stopped 所有编码器都停止时调用
+	 */
+	/*package*/ void stopMuxer() {
+		mMediaMuxer.stop();
 	}
 
 	/**
@@ -177,16 +487,26 @@ public class MediaMuxerWrapper {
 	}
 
 	/**
-	 * write encoded data to muxer
+	 * write encoded data to muxer, called on the writer thread
+	 * 将编码数据写入混合器，在写入线程上调用
 	 * @param trackIndex
 	 * @param byteBuf
 	 * @param bufferInfo
 	 */
 	/*package*/ synchronized void writeSampleData(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo bufferInfo) {
-		if (mStatredCount > 0)
+		if (isWritable())
 			mMediaMuxer.writeSampleData(trackIndex, byteBuf, bufferInfo);
 	}
 
+	/**
+	 * whether the encoders are running and their data should be written 编码器正在运行且应写入其数据
+	 */
+	/*package*/ synchronized boolean isWritable() {
+		// still true while the queued samples are written after the encoders stopped
+		// 编码器停止后写入排队样本时仍为true
+		return mIsStarted;
+	}
+
 //**********************************************************************
 //**********************************************************************
 
@@ -33,61 +33,93 @@ import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.util.Log;
 
+import com.serenegiant.usb_libuvccamera.IEncoderFrameCallback;
+
 /**
- * This class receives video images as ByteBuffer(strongly recommend direct ByteBuffer) as NV21(YUV420SP)
- * and encode them to h.264.
+ * This class receives video images as ByteBuffer(strongly recommend direct ByteBuffer) as NV12(YUV420SP,
+ * same as COLOR_FormatYUV420SemiPlanar) and encode them to h.264.
+ * Passing this to UVCCamera#setEncoderFrameCallback lets the native library convert each frame
+ * straight into the planes of the input image of MediaCodec, in the layout the codec reports for that image.
+ * 将此类传给UVCCamera#setEncoderFrameCallback，本地库会将每帧直接转换到MediaCodec输入图像的平面，
+ * 布局为编解码器为该图像报告的布局
  * If you use this directly with IFrameCallback, you should know UVCCamera and it backend native libraries
  * never execute color space conversion. This means that color tone of resulted movie will be different
  * from that you expected/can see on screen.
  */
-public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncoder {
+public class MediaVideoBufferEncoder extends MediaAsyncEncoder
+	implements IVideoEncoder, IEncoderFrameCallback {
 	private static final boolean DEBUG = true;	// TODO set false on release
 	private static final String TAG = "MediaVideoBufferEncoder";
 
-	private static final String MIME_TYPE = "video/avc";
-	// parameters for recording
-    private static final int FRAME_RATE = 30;
-    private static final float BPP = 0.50f;
-
 	private final int mWidth, mHeight;
+	private final VideoEncoderConfig mConfig;
     protected int mColorFormat;
 
 	public MediaVideoBufferEncoder(final MediaMuxerWrapper muxer, final int width, final int height, final MediaEncoderListener listener) {
+		this(muxer, width, height, null, listener);
+	}
+
+	/**
+	 * @param config nullable, default settings are used if null 可为null，为null时使用默认设置
+	 */
+	public MediaVideoBufferEncoder(final MediaMuxerWrapper muxer, final int width, final int height,
+		final VideoEncoderConfig config, final MediaEncoderListener listener) {
+
 		super(muxer, listener);
+		mConfig = config != null ? new VideoEncoderConfig(config) : new VideoEncoderConfig();
 		if (DEBUG) Log.i(TAG, "MediaVideoEncoder: ");
 		mWidth = width;
 		mHeight = height;
+		// frames come from the capture thread that also feeds the preview, it should never wait for MediaCodec
+		// 帧来自同时为预览供帧的抓拍线程，不应等待MediaCodec
+		setInputPolicy(POLICY_DROP_OLDEST, 0);
+		setInputQueueCapacity(2);
 	}
 
-	public void encode(final ByteBuffer buffer) {
+	/**
+	 * @param presentationTimeUs capture time of the frame on CLOCK_MONOTONIC [us], the frame is dropped if this is not positive
+	 * 帧的抓拍时间(CLOCK_MONOTONIC)[微秒]，不为正数时丢弃该帧
+	 */
+	public void encode(final ByteBuffer buffer, final long presentationTimeUs) {
 //    	if (DEBUG) Log.v(TAG, "encode:buffer=" + buffer);
 		synchronized (mSync) {
 			if (!mIsCapturing || mRequestStop) return;
 		}
-		encode(buffer, buffer.capacity(), getPTSUs());
+		if (presentationTimeUs <= 0) return;
+		encode(buffer, buffer.capacity(), presentationTimeUs);
     }
 
+	@Override
+	public ByteBuffer[] onRequestPlanes(final int width, final int height, final int[] layout) {
+		return obtainInputPlanes(width, height, layout);
+	}
+
+	@Override
+	public void onFrameWritten(final int size, final long presentationTimeUs) {
+		// the capture time is used as is, a frame without one is dropped instead of being stamped with the submission time
+		// 直接使用抓拍时间，没有抓拍时间的帧被丢弃，而不是打上提交时间
+		queueInputBuffer(presentationTimeUs > 0 ? size : -1, presentationTimeUs);
+	}
+
 	@Override
 	protected void prepare() throws IOException {
 		if (DEBUG) { Log.i(TAG, "prepare: "); }
         mTrackIndex = -1;
         mMuxerStarted = mIsEOS = false;
 
-        final MediaCodecInfo videoCodecInfo = selectVideoCodec(MIME_TYPE);
+        final String mimeType = mConfig.getMimeType();
+        final MediaCodecInfo videoCodecInfo = selectVideoCodec(mimeType);
         if (videoCodecInfo == null) {
-            Log.e(TAG, "Unable to find an appropriate codec for " + MIME_TYPE);
+            Log.e(TAG, "Unable to find an appropriate codec for " + mimeType);
             return;
         }
 		if (DEBUG) Log.i(TAG, "selected codec: " + videoCodecInfo.getName());
 
-        final MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, mColorFormat);
-        format.setInteger(MediaFormat.KEY_BIT_RATE, calcBitRate());
-        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
+        final MediaFormat format = mConfig.createFormat(videoCodecInfo, mWidth, mHeight,
+        	mColorFormat);
 		if (DEBUG) Log.i(TAG, "format: " + format);
 
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        mMediaCodec = createEncoder(videoCodecInfo);
         mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         mMediaCodec.start();
         if (DEBUG) Log.i(TAG, "prepare finishing");
@@ -100,12 +132,6 @@ public class MediaVideoBufferEncoder extends MediaEncoder implements IVideoEncod
         }
 	}
 
-	private int calcBitRate() {
-		final int bitrate = (int)(BPP * FRAME_RATE * mWidth * mHeight);
-		Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", bitrate / 1024f / 1024f));
-		return bitrate;
-	}
-
     /**
      * select the first codec that match a specific MIME type
      * @param mimeType
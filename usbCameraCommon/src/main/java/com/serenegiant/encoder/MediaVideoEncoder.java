@@ -41,21 +41,29 @@ import com.serenegiant.glutils.RenderHandler;
  * This class render texture images into recording surface
  * camera from MediaCodec encoder using Open GL|ES
  */
-public class MediaVideoEncoder extends MediaEncoder implements IVideoEncoder {
+public class MediaVideoEncoder extends MediaAsyncEncoder implements IVideoEncoder {
 	private static final boolean DEBUG = true;	// TODO set false on release
 	private static final String TAG = "MediaVideoEncoder";
 
-	private static final String MIME_TYPE = "video/avc";
 	// parameters for recording
 	private final int mWidth, mHeight;
-    private static final int FRAME_RATE = 30;
-    private static final float BPP = 0.50f;
+	private final VideoEncoderConfig mConfig;
 
     private RenderHandler mRenderHandler;
     private Surface mSurface;
 
 	public MediaVideoEncoder(final MediaMuxerWrapper muxer, final int width, final int height, final MediaEncoderListener listener) {
+		this(muxer, width, height, null, listener);
+	}
+
+	/**
+	 * @param config nullable, default settings are used if null 可为null，为null时使用默认设置
+	 */
+	public MediaVideoEncoder(final MediaMuxerWrapper muxer, final int width, final int height,
+		final VideoEncoderConfig config, final MediaEncoderListener listener) {
+
 		super(muxer, listener);
+		mConfig = config != null ? new VideoEncoderConfig(config) : new VideoEncoderConfig();
 		if (DEBUG) { Log.i(TAG, "MediaVideoEncoder: "); }
 		mRenderHandler = RenderHandler.createHandler(TAG);
 		mWidth = width;
@@ -88,21 +96,19 @@ public class MediaVideoEncoder extends MediaEncoder implements IVideoEncoder {
         mTrackIndex = -1;
         mMuxerStarted = mIsEOS = false;
 
-        final MediaCodecInfo videoCodecInfo = selectVideoCodec(MIME_TYPE);
+        final String mimeType = mConfig.getMimeType();
+        final MediaCodecInfo videoCodecInfo = selectVideoCodec(mimeType);
         if (videoCodecInfo == null) {
-            Log.e(TAG, "Unable to find an appropriate codec for " + MIME_TYPE);
+            Log.e(TAG, "Unable to find an appropriate codec for " + mimeType);
             return;
         }
 		if (DEBUG) { Log.i(TAG, "selected codec: " + videoCodecInfo.getName()); }
 
-        final MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);	// API >= 18
-        format.setInteger(MediaFormat.KEY_BIT_RATE, calcBitRate());
-        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 10);
+        final MediaFormat format = mConfig.createFormat(videoCodecInfo, mWidth, mHeight,
+        	MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
 		if (DEBUG) { Log.i(TAG, "format: " + format); }
 
-        mMediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        mMediaCodec = createEncoder(videoCodecInfo);
         mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         // get Surface for encoder input
         // this method only can call between #configure and #start
@@ -136,10 +142,15 @@ public class MediaVideoEncoder extends MediaEncoder implements IVideoEncoder {
 		super.release();
 	}
 
-	private int calcBitRate() {
-		final int bitrate = (int)(BPP * FRAME_RATE * mWidth * mHeight);
-		Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", bitrate / 1024f / 1024f));
-		return bitrate;
+	/**
+	 * the input surface has no input buffer to queue EOS into
+	 * 输入Surface没有可排入EOS的输入缓冲区
+	 */
+	@Override
+	protected void signalEndOfInputStream() {
+		if (DEBUG) { Log.d(TAG, "signalEndOfInputStream:"); }
+		mIsEOS = true;
+		mMediaCodec.signalEndOfInputStream();	// API >= 18
 	}
 
     /**
@@ -0,0 +1,554 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.encoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Muxer for the pre-event(DVR) recording. The encoders run continuously and their output is kept
+ * in a memory ring that holds the last #getPreRollMs of samples starting at a key frame.
+ * #trigger writes the ring into a new file, then the samples are written to that file until
+ * #getPostRollMs after the last trigger. #trigger itself only records the request, the writer thread of
+ * the muxer only stores the samples into the ring, and the event file is created and written from the ring
+ * on the event thread, so the file I/O never holds the lock of the muxer.
+ * Samples already written to an event file are not written again by the next event.
+ * The ring and the buffer the event thread copies the samples into are direct ByteBuffers
+ * and fixed arrays allocated in the constructor, nothing is allocated for each sample.
+ * 预事件(DVR)录像的混合器。编码器持续运行，其输出保存在内存环形缓冲区中，
+ * 缓冲区保存从关键帧开始的最近#getPreRollMs的样本。
+ * #trigger将环形缓冲区写入新文件，然后样本继续写入该文件直到最后一次触发后的#getPostRollMs。
+ * #trigger本身只记录请求，混合器的写入线程只将样本存入环形缓冲区，事件文件在事件线程上创建并从环形缓冲区写入，
+ * 因此文件I/O从不持有混合器的锁。
+ * 已写入事件文件的样本不会被下一个事件再次写入。
+ * 环形缓冲区和事件线程复制样本的缓冲区是在构造函数中分配的直接ByteBuffer和固定数组，不会为每个样本分配内存
+ */
+public class PreEventMuxerWrapper extends MediaMuxerWrapper {
+	private static final boolean DEBUG = true;	// TODO set false on release
+	private static final String TAG = "PreEventMuxerWrapper";
+
+	/** max number of samples in the ring 环形缓冲区中的最大样本数 */
+	private static final int MAX_SAMPLES = 4096;
+	private static final int MAX_TRACKS = 2;
+
+	/**
+	 * called on the event thread when an event file is finished, do not block in it
+	 * 事件文件完成时在事件线程上调用，不要在其中阻塞
+	 */
+	public interface EventListener {
+		public void onEventRecorded(String path);
+	}
+
+	private final String mDir, mExt;
+	private final long mPreRollUs, mPostRollUs;
+	@Nullable
+	private final EventListener mEventListener;
+
+	private final MediaFormat[] mFormats = new MediaFormat[MAX_TRACKS];
+	private int mTrackCount;
+	private int mVideoTrack = -1;
+
+	// ring of the encoded samples, data is stored in mRing in the order of arrival
+	// 编码样本的环形缓冲区，数据按到达顺序存储在mRing中
+	private final ByteBuffer mRing;
+	private final int[] mOffsets = new int[MAX_SAMPLES];
+	private final int[] mSizes = new int[MAX_SAMPLES];
+	private final int[] mFlags = new int[MAX_SAMPLES];
+	private final int[] mTracks = new int[MAX_SAMPLES];
+	private final long[] mPtsUs = new long[MAX_SAMPLES];
+	private int mHead, mCount;
+	/**
+	 * number of samples ever stored into the ring, the n-th sample from the head is #mStoredSamples - mCount + n
+	 * 存入环形缓冲区的样本总数，从头开始的第n个样本为#mStoredSamples - mCount + n
+	 */
+	private long mStoredSamples;
+	/** samples before this number are already written to an event file 此编号之前的样本已写入事件文件 */
+	private long mWrittenSamples;
+	/** offset of the oldest data and the end of the newest data in mRing mRing中最旧数据的偏移量和最新数据的末尾 */
+	private int mHeadOffset, mTailOffset;
+	private long mDroppedSamples;
+
+	// event being recorded, guarded by this 正在录制的事件，由this保护
+	private boolean mEventActive;
+	/** number of the next sample written to the event file 下一个写入事件文件的样本编号 */
+	private long mEventNext;
+	/** the event file ends before this sample, Long.MAX_VALUE until the post-roll ends 事件文件在此样本之前结束，后滚结束前为Long.MAX_VALUE */
+	private long mEventEnd = Long.MAX_VALUE;
+	private boolean mEventTaskPosted;
+	private volatile long mEventEndUs;
+	private volatile boolean mTriggerPending;
+	private HandlerThread mEventThread;
+	private Handler mEventHandler;
+
+	// event file being written, used only on the event thread 正在写入的事件文件，仅在事件线程上使用
+	private MediaMuxer mEventMuxer;
+	private String mEventPath;
+	private final int[] mEventTracks = new int[MAX_TRACKS];
+	private boolean mEventHasSync;
+	// samples copied out of the ring to write them without the lock 为了不持锁写入而从环形缓冲区复制出的样本
+	private final ByteBuffer mBatch;
+	private final int[] mBatchOffsets = new int[MAX_SAMPLES];
+	private final int[] mBatchSizes = new int[MAX_SAMPLES];
+	private final int[] mBatchFlags = new int[MAX_SAMPLES];
+	private final int[] mBatchTracks = new int[MAX_SAMPLES];
+	private final long[] mBatchPtsUs = new long[MAX_SAMPLES];
+	private final MediaCodec.BufferInfo mFlushInfo = new MediaCodec.BufferInfo();
+	// event files are named to the millisecond 事件文件按毫秒命名
+	private final SimpleDateFormat mDateTimeFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS", Locale.US);
+
+	/**
+	 * @param dir directory of the event files 事件文件的目录
+	 * @param ext extension of the event files, ".mp4" if empty 事件文件的扩展名，为空时为".mp4"
+	 * @param preRollMs duration kept before the trigger[ms] 触发前保留的时长[ms]
+	 * @param postRollMs duration recorded after the trigger[ms] 触发后录制的时长[ms]
+	 * @param maxBytes memory budget of the ring[bytes], the event thread uses a buffer of the same size
+	 * 				环形缓冲区的内存预算[字节]，事件线程使用相同大小的缓冲区
+	 * @param listener nullable
+	 */
+	public PreEventMuxerWrapper(@Nullable final String dir, @Nullable final String ext,
+		final long preRollMs, final long postRollMs, final int maxBytes,
+		@Nullable final EventListener listener) {
+
+		super();
+		if ((preRollMs < 0) || (postRollMs < 0) || (maxBytes <= 0)) {
+			throw new IllegalArgumentException("invalid pre-roll/post-roll/budget");
+		}
+		mDir = dir;
+		mExt = TextUtils.isEmpty(ext) ? ".mp4" : ext;
+		mPreRollUs = preRollMs * 1000L;
+		mPostRollUs = postRollMs * 1000L;
+		mEventListener = listener;
+		mRing = ByteBuffer.allocateDirect(maxBytes);
+		mBatch = ByteBuffer.allocateDirect(maxBytes);
+	}
+
+	public long getPreRollMs() {
+		return mPreRollUs / 1000L;
+	}
+
+	public long getPostRollMs() {
+		return mPostRollUs / 1000L;
+	}
+
+	/**
+	 * number of samples that did not fit into the ring 未能放入环形缓冲区的样本数
+	 */
+	public synchronized long getDroppedSamples() {
+		return mDroppedSamples;
+	}
+
+	/**
+	 * duration of the samples in the ring[ms] 环形缓冲区中样本的时长[ms]
+	 */
+	public synchronized long getBufferedMs() {
+		return mCount > 0 ? (mPtsUs[index(mCount - 1)] - mPtsUs[mHead]) / 1000L : 0;
+	}
+
+	public synchronized boolean isEventRecording() {
+		return mEventActive;
+	}
+
+	/**
+	 * start writing an event file with the samples in the ring, or extend the post-roll
+	 * of the event file being written. never blocks, the event starts with the next sample
+	 * and the file is opened on the event thread
+	 * 用环形缓冲区中的样本开始写入事件文件，或延长正在写入的事件文件的后滚时长
+	 * 从不阻塞，事件随下一个样本开始，文件在事件线程上打开
+	 */
+	public void trigger() {
+		mEventEndUs = System.nanoTime() / 1000L + mPostRollUs;
+		mTriggerPending = true;
+	}
+
+	@Override
+	/*package*/ synchronized int addTrack(final MediaFormat format) {
+		if (isStarted()) {
+			throw new IllegalStateException("muxer already started");
+		}
+		if (mTrackCount >= MAX_TRACKS) {
+			throw new IllegalStateException("too many tracks");
+		}
+		final int trackIx = mTrackCount++;
+		mFormats[trackIx] = format;
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		if ((mime != null) && mime.startsWith("video/")) {
+			mVideoTrack = trackIx;
+		}
+		if (DEBUG) Log.i(TAG, "addTrack:trackIx=" + trackIx + ",format=" + format);
+		return trackIx;
+	}
+
+	@Override
+	/*package*/ void startMuxer() {
+		// the event thread lives while the encoders are running 事件线程在编码器运行期间存在
+		mEventThread = new HandlerThread(TAG);
+		mEventThread.start();
+		mEventHandler = new Handler(mEventThread.getLooper());
+	}
+
+	@Override
+	/*package*/ void stopMuxer() {
+		// called after the writer thread finished, the event thread writes the rest and quits
+		// 在写入线程结束后调用，事件线程写完剩余部分后退出
+		if (mEventActive && (mEventEnd == Long.MAX_VALUE)) {
+			endEvent();
+		}
+		postEventTask();
+		mEventThread.quitSafely();
+		mEventHandler = null;
+		mEventThread = null;
+	}
+
+	/**
+	 * store the sample into the ring, the event thread writes it to the event file if an event is recording
+	 * 将样本存入环形缓冲区，正在录制事件时由事件线程将其写入事件文件
+	 */
+	@Override
+	/*package*/ synchronized void writeSampleData(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo bufferInfo) {
+		if (!isWritable()) return;
+		if (mTriggerPending && (!mEventActive || (mEventEnd == Long.MAX_VALUE))) {
+			// a trigger during the post-roll extends it, a trigger while the event thread is
+			// still finishing the previous file is kept until it is done
+			// 后滚期间的触发延长后滚，事件线程仍在完成上一个文件时的触发保留到其完成
+			mTriggerPending = false;
+			if (!mEventActive) {
+				// from the samples of the ring not written to the previous event file yet, this sample is included
+				// 从环形缓冲区中尚未写入上一个事件文件的样本开始，包括此样本
+				mEventActive = true;
+				mEventNext = Math.max(mWrittenSamples, mStoredSamples - mCount);
+				mEventEnd = Long.MAX_VALUE;
+			} else if (DEBUG) {
+				Log.v(TAG, "writeSampleData:extend post-roll");
+			}
+		}
+		store(trackIndex, byteBuf, bufferInfo, isSync(trackIndex, bufferInfo.flags));
+		if (mEventActive) {
+			if ((mEventEnd == Long.MAX_VALUE) && (bufferInfo.presentationTimeUs >= mEventEndUs)) {
+				endEvent();
+			}
+			postEventTask();
+		}
+	}
+
+	/**
+	 * the ring and the event files start at key frames of the video track,
+	 * all samples are sync samples when there is no video track
+	 * 环形缓冲区和事件文件从视频轨道的关键帧开始，没有视频轨道时所有样本都是同步样本
+	 */
+	private boolean isSync(final int trackIndex, final int flags) {
+		return (mVideoTrack < 0)
+			|| ((trackIndex == mVideoTrack) && ((flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0));
+	}
+
+	private int index(final int n) {
+		return (mHead + n) % MAX_SAMPLES;
+	}
+
+	/**
+	 * copy the sample into the ring, evicting the oldest GOPs for the space and the pre-roll
+	 * 将样本复制到环形缓冲区，为空间和预滚时长逐出最旧的GOP
+	 */
+	private void store(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo info,
+		final boolean sync) {
+
+		final int size = info.size;
+		final int capacity = mRing.capacity();
+		if ((size <= 0) || (size > capacity)) {
+			mDroppedSamples++;
+			if (trackIndex == mVideoTrack) {
+				// the following frames may refer to this one, drop them until the next key frame
+				// 后续帧可能引用此帧，丢弃它们直到下一个关键帧
+				mCount = 0;
+			}
+			return;
+		}
+		if ((mCount == 0) && !sync) {
+			// the ring should start at a sync sample 环形缓冲区应从同步样本开始
+			return;
+		}
+		int pos;
+		for ( ; ; ) {
+			if (mCount == 0) {
+				mHeadOffset = mTailOffset = 0;
+				pos = 0;
+				break;
+			}
+			if (mCount < MAX_SAMPLES) {
+				if (mHeadOffset < mTailOffset) {
+					// data in [head, tail), free space at the end or at the beginning
+					// 数据在[head, tail)，空闲空间在末尾或开头
+					if (size <= capacity - mTailOffset) {
+						pos = mTailOffset;
+						break;
+					} else if (size <= mHeadOffset) {
+						pos = 0;
+						break;
+					}
+				} else if (size <= mHeadOffset - mTailOffset) {
+					// wrapped, free space in [tail, head) 已回绕，空闲空间在[tail, head)
+					pos = mTailOffset;
+					break;
+				}
+			}
+			evictGop();
+			if ((mCount == 0) && !sync) {
+				return;
+			}
+		}
+		byteBuf.limit(info.offset + size);
+		byteBuf.position(info.offset);
+		mRing.limit(pos + size);
+		mRing.position(pos);
+		mRing.put(byteBuf);
+		final int ix = index(mCount++);
+		mStoredSamples++;
+		mOffsets[ix] = pos;
+		mSizes[ix] = size;
+		mFlags[ix] = info.flags;
+		mTracks[ix] = trackIndex;
+		mPtsUs[ix] = info.presentationTimeUs;
+		mTailOffset = pos + size;
+		mHeadOffset = mOffsets[mHead];
+		// keep only as many GOPs as needed to cover the pre-roll, and the samples the event thread has not written yet
+		// 只保留覆盖预滚时长所需的GOP，以及事件线程尚未写入的样本
+		for ( ; ; ) {
+			final int next = findNextSync();
+			if ((next < 0) || (info.presentationTimeUs - mPtsUs[index(next)] < mPreRollUs)
+				|| (mEventActive && (mEventNext < mStoredSamples - mCount + next))) {
+				break;
+			}
+			evictGop();
+		}
+	}
+
+	/**
+	 * @return position of the second sync sample from the head, -1 if there is none
+	 * 从头开始的第二个同步样本的位置，没有时为-1
+	 */
+	private int findNextSync() {
+		for (int n = 1; n < mCount; n++) {
+			final int ix = index(n);
+			if (isSync(mTracks[ix], mFlags[ix])) {
+				return n;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * remove samples from the head up to the next sync sample 从头删除样本直到下一个同步样本
+	 */
+	private void evictGop() {
+		do {
+			mHead = index(1);
+			mCount--;
+		} while ((mCount > 0) && !isSync(mTracks[mHead], mFlags[mHead]));
+		if (mCount > 0) {
+			mHeadOffset = mOffsets[mHead];
+		}
+	}
+
+	/**
+	 * the event file ends with the samples stored so far, must be called while holding the lock of this
+	 * 事件文件以目前存储的样本结束，必须在持有this的锁时调用
+	 */
+	private void endEvent() {
+		mEventEnd = mStoredSamples;
+		// everything in the ring goes into this file 环形缓冲区中的所有内容都写入此文件
+		mWrittenSamples = mStoredSamples;
+	}
+
+	/**
+	 * must be called while holding the lock of this 必须在持有this的锁时调用
+	 */
+	private void postEventTask() {
+		if (mEventActive && !mEventTaskPosted && (mEventHandler != null)) {
+			mEventTaskPosted = true;
+			mEventHandler.post(mEventTask);
+		}
+	}
+
+	/**
+	 * open the event file if needed and write the samples of the ring not written yet, on the event thread
+	 * 在事件线程上，需要时打开事件文件并写入环形缓冲区中尚未写入的样本
+	 */
+	private final Runnable mEventTask = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (PreEventMuxerWrapper.this) {
+				mEventTaskPosted = false;
+				if (!mEventActive) return;
+			}
+			if ((mEventMuxer == null) && !openEvent()) {
+				synchronized (PreEventMuxerWrapper.this) {
+					mEventActive = false;
+					mEventEnd = Long.MAX_VALUE;
+				}
+				return;
+			}
+			for ( ; ; ) {
+				final int n;
+				final boolean finished;
+				synchronized (PreEventMuxerWrapper.this) {
+					n = takeEventSamples();
+					finished = mEventNext >= mEventEnd;
+				}
+				if (n > 0) {
+					writeEventSamples(n);
+				} else {
+					if (finished) {
+						closeEvent();
+					}
+					break;
+				}
+			}
+		}
+	};
+
+	/**
+	 * copy the samples of the event file out of the ring into mBatch, starting from a sync sample.
+	 * must be called while holding the lock of this
+	 * 将事件文件的样本从环形缓冲区复制到mBatch，从同步样本开始，必须在持有this的锁时调用
+	 * @return number of samples copied 复制的样本数
+	 */
+	private int takeEventSamples() {
+		final long oldest = mStoredSamples - mCount;
+		if (mEventNext < oldest) {
+			// evicted before the event thread wrote them, the ring starts at a sync sample so the file can continue there
+			// 在事件线程写入之前被逐出，环形缓冲区从同步样本开始，因此文件可以从那里继续
+			Log.w(TAG, "takeEventSamples:lost " + (oldest - mEventNext) + " samples");
+			mEventNext = oldest;
+		}
+		final long end = Math.min(mStoredSamples, mEventEnd);
+		mBatch.clear();
+		int n = 0;
+		for ( ; (mEventNext < end) && (n < MAX_SAMPLES); mEventNext++) {
+			final int ix = index((int)(mEventNext - oldest));
+			if (!mEventHasSync) {
+				// each file should start at a key frame 每个文件应从关键帧开始
+				if (!isSync(mTracks[ix], mFlags[ix])) continue;
+				mEventHasSync = true;
+			}
+			if (mSizes[ix] > mBatch.remaining()) break;
+			mRing.limit(mOffsets[ix] + mSizes[ix]);
+			mRing.position(mOffsets[ix]);
+			mBatchOffsets[n] = mBatch.position();
+			mBatchSizes[n] = mSizes[ix];
+			mBatchFlags[n] = mFlags[ix];
+			mBatchTracks[n] = mTracks[ix];
+			mBatchPtsUs[n] = mPtsUs[ix];
+			mBatch.put(mRing);
+			n++;
+		}
+		return n;
+	}
+
+	private void writeEventSamples(final int n) {
+		for (int i = 0; i < n; i++) {
+			mFlushInfo.set(mBatchOffsets[i], mBatchSizes[i], mBatchPtsUs[i], mBatchFlags[i]);
+			try {
+				mEventMuxer.writeSampleData(mEventTracks[mBatchTracks[i]], mBatch, mFlushInfo);
+			} catch (final Exception e) {
+				Log.w(TAG, "writeEventSamples:", e);
+			}
+		}
+	}
+
+	/**
+	 * @return false if the event file could not be created 无法创建事件文件时返回false
+	 */
+	private boolean openEvent() {
+		final String name = mDateTimeFormat.format(new Date());
+		File file = getCaptureFile(Environment.DIRECTORY_MOVIES, mExt, mDir, name);
+		for (int i = 1; (file != null) && file.exists(); i++) {
+			file = getCaptureFile(Environment.DIRECTORY_MOVIES, mExt, mDir, name + "-" + i);
+		}
+		if (file == null) {
+			Log.w(TAG, "openEvent:no permission of writing external storage");
+			return false;
+		}
+		final MediaMuxer muxer;
+		try {
+			muxer = new MediaMuxer(file.toString(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+			for (int i = 0; i < mTrackCount; i++) {
+				mEventTracks[i] = muxer.addTrack(mFormats[i]);
+			}
+			muxer.start();
+		} catch (final IOException | RuntimeException e) {
+			Log.w(TAG, "openEvent:", e);
+			return false;
+		}
+		if (DEBUG) Log.v(TAG, "openEvent:" + file + ",buffered=" + getBufferedMs() + "ms");
+		mEventMuxer = muxer;
+		mEventPath = file.toString();
+		mEventHasSync = false;
+		synchronized (this) {
+			mOutputPath = mEventPath;
+		}
+		return true;
+	}
+
+	private void closeEvent() {
+		final MediaMuxer muxer = mEventMuxer;
+		final String path = mEventPath;
+		mEventMuxer = null;
+		mEventPath = null;
+		synchronized (this) {
+			// a pending trigger starts the next event with the next sample 待处理的触发随下一个样本开始下一个事件
+			mEventActive = false;
+			mEventEnd = Long.MAX_VALUE;
+		}
+		if (muxer != null) {
+			if (DEBUG) Log.v(TAG, "closeEvent:" + path);
+			try {
+				muxer.stop();
+			} catch (final Exception e) {
+				Log.w(TAG, "closeEvent:", e);
+			}
+			muxer.release();
+			if (mEventListener != null) {
+				try {
+					mEventListener.onEventRecorded(path);
+				} catch (final Exception e) {
+					Log.w(TAG, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.encoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Muxer that splits the recording into files of fixed duration and/or size while the encoders keep running.
+ * The muxer of the next file is created and started on a segment thread in advance, and the switch happens
+ * at the first video key frame after the limit is reached(optionally requested from the encoder),
+ * so each sample is written to exactly one file and no frame is lost between the files.
+ * Finishing a file(MediaMuxer#stop writes the index) is also done on the segment thread.
+ * 在编码器持续运行的情况下将录像按固定时长和/或大小分割成多个文件的混合器
+ * 下一个文件的混合器预先在分段线程上创建并启动，切换发生在达到限制后的第一个视频关键帧(可选择向编码器请求)，
+ * 因此每个样本只写入一个文件，文件之间不会丢失帧
+ * 完成文件(MediaMuxer#stop写入索引)也在分段线程上进行
+ */
+public class SegmentedMuxerWrapper extends MediaMuxerWrapper {
+	private static final boolean DEBUG = true;	// TODO set false on release
+	private static final String TAG = "SegmentedMuxerWrapper";
+
+	private static final int MAX_TRACKS = 2;
+	/**
+	 * interval to retry creating the next file when it failed, doubled on each failure[ms]
+	 * 创建下一个文件失败时重试的间隔，每次失败加倍[ms]
+	 */
+	private static final long RETRY_MIN_MS = 100;
+	private static final long RETRY_MAX_MS = 3000;
+
+	/**
+	 * called on the segment thread when a file is finished, do not block in it
+	 * 文件完成时在分段线程上调用，不要在其中阻塞
+	 */
+	public interface SegmentListener {
+		/**
+		 * @param path
+		 * @param index sequence number of the file starting from 0 文件的序号，从0开始
+		 * @param durationUs duration of the samples in the file[us] 文件中样本的时长[us]
+		 * @param bytes bytes of the samples in the file 文件中样本的字节数
+		 */
+		public void onSegmentFinished(String path, int index, long durationUs, long bytes);
+	}
+
+	private static final class Segment {
+		private final MediaMuxer muxer;
+		private final String path;
+		private final int index;
+		private final int[] tracks = new int[MAX_TRACKS];
+		private long startPtsUs = -1;
+		private long lastPtsUs;
+		private long bytes;
+
+		private Segment(final MediaMuxer muxer, final String path, final int index) {
+			this.muxer = muxer;
+			this.path = path;
+			this.index = index;
+		}
+	}
+
+	private final String mDir, mFilename, mExt;
+	private final long mSegmentUs;
+	private final long mMaxSegmentBytes;
+	private final boolean mForceSyncFrame;
+	@Nullable
+	private final SegmentListener mSegmentListener;
+	private HandlerThread mSegmentThread;
+	private Handler mSegmentHandler;
+
+	private final MediaFormat[] mFormats = new MediaFormat[MAX_TRACKS];
+	private int mTrackCount;
+	private int mVideoTrack = -1;
+
+	private Segment mCurrent, mNext;
+	private int mSegmentIndex;
+	private boolean mRolloverPending;
+	private boolean mPreparing;	// creating the next file is posted to the segment thread 创建下一个文件已提交到分段线程
+	private long mRetryMs;		// 0: the last attempt succeeded 0:上次尝试成功
+
+	/**
+	 * @param dir directory of the files 文件目录
+	 * @param filename prefix of the file names, a sequence number is appended. null to name the files by date and time
+	 * 				文件名前缀，后面附加序号。为null时按日期时间命名文件
+	 * @param ext extension of the files, ".mp4" if empty 文件扩展名，为空时为".mp4"
+	 * @param segmentMs duration of each file[ms], 0: no limit 每个文件的时长[ms]，0:不限制
+	 * @param maxSegmentBytes size of each file[bytes], 0: no limit 每个文件的大小[字节]，0:不限制
+	 * @param forceSyncFrame request a sync frame from the video encoder when the limit is reached
+	 * 				instead of waiting for the next regular one
+	 * 				达到限制时向视频编码器请求同步帧，而不是等待下一个常规同步帧
+	 * @param listener nullable
+	 */
+	public SegmentedMuxerWrapper(@Nullable final String dir, @Nullable final String filename, @Nullable final String ext,
+		final long segmentMs, final long maxSegmentBytes, final boolean forceSyncFrame,
+		@Nullable final SegmentListener listener) {
+
+		super();
+		if ((segmentMs < 0) || (maxSegmentBytes < 0)) {
+			throw new IllegalArgumentException("invalid segment duration/size");
+		}
+		mDir = dir;
+		mFilename = filename;
+		mExt = TextUtils.isEmpty(ext) ? ".mp4" : ext;
+		mSegmentUs = segmentMs * 1000L;
+		mMaxSegmentBytes = maxSegmentBytes;
+		mForceSyncFrame = forceSyncFrame;
+		mSegmentListener = listener;
+	}
+
+	@Override
+	/*package*/ synchronized int addTrack(final MediaFormat format) {
+		if (isStarted()) {
+			throw new IllegalStateException("muxer already started");
+		}
+		if (mTrackCount >= MAX_TRACKS) {
+			throw new IllegalStateException("too many tracks");
+		}
+		final int trackIx = mTrackCount++;
+		mFormats[trackIx] = format;
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		if ((mime != null) && mime.startsWith("video/")) {
+			mVideoTrack = trackIx;
+		}
+		if (DEBUG) Log.i(TAG, "addTrack:trackIx=" + trackIx + ",format=" + format);
+		return trackIx;
+	}
+
+	@Override
+	/*package*/ void startMuxer() {
+		// the segment thread lives while the encoders are running 分段线程在编码器运行期间存在
+		mSegmentThread = new HandlerThread(TAG);
+		mSegmentThread.start();
+		mSegmentHandler = new Handler(mSegmentThread.getLooper());
+		// this is called on the encoder thread, the first file is also created on the segment thread
+		// and samples are dropped until it is ready
+		// 此方法在编码器线程上调用，第一个文件也在分段线程上创建，在其就绪之前样本被丢弃
+		prepareNext();
+	}
+
+	@Override
+	/*package*/ void stopMuxer() {
+		final Segment current = mCurrent;
+		final Segment next = mNext;
+		mCurrent = mNext = null;
+		mSegmentHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				finishSegment(current);
+				discardSegment(next);
+			}
+		});
+		mSegmentThread.quitSafely();
+	}
+
+	@Override
+	/*package*/ synchronized void writeSampleData(final int trackIndex, final ByteBuffer byteBuf, final MediaCodec.BufferInfo bufferInfo) {
+		Segment current = mCurrent;
+		if (!isWritable() || (current == null)) return;
+		final boolean sync = (mVideoTrack < 0)
+			|| ((trackIndex == mVideoTrack) && ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0));
+		if (!mRolloverPending && (current.startPtsUs >= 0)
+			&& (((mSegmentUs > 0) && (bufferInfo.presentationTimeUs - current.startPtsUs >= mSegmentUs))
+				|| ((mMaxSegmentBytes > 0) && (current.bytes >= mMaxSegmentBytes)))) {
+
+			mRolloverPending = true;
+			if (mForceSyncFrame) {
+				final MediaEncoder encoder = getVideoEncoder();
+				if (encoder != null) {
+					encoder.requestSyncFrame();
+				}
+			}
+		}
+		if (mRolloverPending && sync) {
+			if (mNext != null) {
+				// switch at this sync sample, the previous file is finished on the segment thread
+				// 在此同步样本处切换，前一个文件在分段线程上完成
+				final Segment prev = current;
+				mSegmentHandler.post(new Runnable() {
+					@Override
+					public void run() {
+						finishSegment(prev);
+					}
+				});
+				mCurrent = current = mNext;
+				mNext = null;
+				mOutputPath = current.path;
+				mRolloverPending = false;
+				prepareNext();
+			} else {
+				Log.w(TAG, "writeSampleData:next file is not ready yet, wait for the next sync frame");
+				if (!mPreparing) {
+					// the last attempt failed before the rollover was requested 上次尝试在请求切换之前失败
+					prepareNext();
+				}
+			}
+		}
+		if (current.startPtsUs < 0) {
+			if (!sync) {
+				// each file should start at a key frame 每个文件应从关键帧开始
+				return;
+			}
+			current.startPtsUs = bufferInfo.presentationTimeUs;
+		}
+		try {
+			current.muxer.writeSampleData(current.tracks[trackIndex], byteBuf, bufferInfo);
+			current.bytes += bufferInfo.size;
+			if (bufferInfo.presentationTimeUs > current.lastPtsUs) {
+				current.lastPtsUs = bufferInfo.presentationTimeUs;
+			}
+		} catch (final Exception e) {
+			Log.w(TAG, "writeSampleData:", e);
+		}
+	}
+
+	/**
+	 * create and start the muxer of the next file(or the first one) on the segment thread,
+	 * retried with backoff while there is no file to write or the rollover is pending, otherwise when it is requested
+	 * 在分段线程上创建并启动下一个(或第一个)文件的混合器，没有可写入的文件或切换等待中时以退避方式重试，否则在请求切换时重试
+	 */
+	private synchronized void prepareNext() {
+		mPreparing = true;
+		mSegmentHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				final Segment next = openSegment();
+				synchronized (SegmentedMuxerWrapper.this) {
+					mPreparing = false;
+					if (isStarted() && (mNext == null)) {
+						if (next != null) {
+							mRetryMs = 0;
+							if (mCurrent == null) {
+								// the first file, start it at a key frame as soon as possible and prepare the next one
+								// 第一个文件，尽快从关键帧开始并准备下一个文件
+								mCurrent = next;
+								mOutputPath = next.path;
+								final MediaEncoder encoder = getVideoEncoder();
+								if (encoder != null) {
+									encoder.requestSyncFrame();
+								}
+								prepareNext();
+							} else {
+								mNext = next;
+							}
+							return;
+						}
+						mRetryMs = Math.min(Math.max(mRetryMs * 2, RETRY_MIN_MS), RETRY_MAX_MS);
+						Log.w(TAG, "prepareNext:failed to create the file, retry in " + mRetryMs + "ms");
+						if ((mCurrent == null) || mRolloverPending) {
+							prepareNext();
+						}
+						return;
+					}
+				}
+				discardSegment(next);
+			}
+		}, mRetryMs);
+	}
+
+	private Segment openSegment() {
+		final int index;
+		synchronized (this) {
+			index = mSegmentIndex++;
+		}
+		final String filename = mFilename != null
+			? String.format(Locale.US, "%s-%04d", mFilename, index) : null;
+		final File file = getCaptureFile(Environment.DIRECTORY_MOVIES, mExt, mDir, filename);
+		if (file == null) {
+			Log.w(TAG, "openSegment:no permission of writing external storage");
+			return null;
+		}
+		try {
+			final MediaMuxer muxer = new MediaMuxer(file.toString(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+			final Segment segment = new Segment(muxer, file.toString(), index);
+			for (int i = 0; i < mTrackCount; i++) {
+				segment.tracks[i] = muxer.addTrack(mFormats[i]);
+			}
+			muxer.start();
+			if (mOutputPath == null) {
+				mOutputPath = segment.path;
+			}
+			if (DEBUG) Log.v(TAG, "openSegment:" + segment.path);
+			return segment;
+		} catch (final IOException | RuntimeException e) {
+			Log.w(TAG, "openSegment:", e);
+			file.delete();
+			return null;
+		}
+	}
+
+	private void finishSegment(@Nullable final Segment segment) {
+		if (segment == null) return;
+		if (segment.startPtsUs < 0) {
+			// nothing written 没有写入任何内容
+			discardSegment(segment);
+			return;
+		}
+		try {
+			segment.muxer.stop();
+		} catch (final Exception e) {
+			Log.w(TAG, "finishSegment:", e);
+		}
+		segment.muxer.release();
+		if (DEBUG) Log.v(TAG, "finishSegment:" + segment.path + ",bytes=" + segment.bytes);
+		if (mSegmentListener != null) {
+			try {
+				mSegmentListener.onSegmentFinished(segment.path, segment.index,
+					segment.lastPtsUs - segment.startPtsUs, segment.bytes);
+			} catch (final Exception e) {
+				Log.w(TAG, e);
+			}
+		}
+	}
+
+	private void discardSegment(@Nullable final Segment segment) {
+		if (segment == null) return;
+		try {
+			segment.muxer.release();
+		} catch (final Exception e) {
+			Log.w(TAG, "discardSegment:", e);
+		}
+		new File(segment.path).delete();
+	}
+}
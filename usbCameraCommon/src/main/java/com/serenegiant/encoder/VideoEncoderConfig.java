@@ -0,0 +1,286 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.encoder;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+
+/**
+ * Settings of the video encoders(codec, rate control, frame rate, GOP, profile/level, B-frames).
+ * Setters return this so that they can be chained. Values the selected codec does not support
+ * are replaced by the nearest supported ones(or left to the codec) when the encoder is prepared,
+ * the default values are same as the values the encoders used before.
+ * 视频编码器的设置(编解码器、码率控制、帧率、GOP、profile/level、B帧)
+ * setter返回this以便链式调用。所选编解码器不支持的值在准备编码器时替换为最接近的支持值(或交给编解码器决定)，
+ * 默认值与编码器以前使用的值相同
+ */
+public class VideoEncoderConfig {
+	private static final String TAG = VideoEncoderConfig.class.getSimpleName();
+
+	public static final String MIME_AVC = MediaFormat.MIMETYPE_VIDEO_AVC;
+	public static final String MIME_HEVC = MediaFormat.MIMETYPE_VIDEO_HEVC;
+
+	public static final int BITRATE_MODE_CQ = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
+	public static final int BITRATE_MODE_VBR = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+	public static final int BITRATE_MODE_CBR = MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+
+	/** frame rate used when neither the config nor the camera tells it 配置和相机都未给出时使用的帧率 */
+	public static final int DEFAULT_FRAME_RATE = 30;
+	public static final float DEFAULT_BPP = 0.50f;
+	public static final int DEFAULT_I_FRAME_INTERVAL = 10;
+
+	private String mMimeType = MIME_AVC;
+	private int mBitrateMode = BITRATE_MODE_VBR;
+	private int mBitrate;
+	private float mBpp = DEFAULT_BPP;
+	private int mQuality = -1;
+	private int mFrameRate;
+	private float mIFrameInterval = DEFAULT_I_FRAME_INTERVAL;
+	private int mProfile;
+	private int mLevel;
+	private int mMaxBFrames;
+
+	public VideoEncoderConfig() {
+	}
+
+	public VideoEncoderConfig(final VideoEncoderConfig other) {
+		mMimeType = other.mMimeType;
+		mBitrateMode = other.mBitrateMode;
+		mBitrate = other.mBitrate;
+		mBpp = other.mBpp;
+		mQuality = other.mQuality;
+		mFrameRate = other.mFrameRate;
+		mIFrameInterval = other.mIFrameInterval;
+		mProfile = other.mProfile;
+		mLevel = other.mLevel;
+		mMaxBFrames = other.mMaxBFrames;
+	}
+
+	/**
+	 * @param mimeType MIME_AVC or MIME_HEVC
+	 */
+	public VideoEncoderConfig setMimeType(final String mimeType) {
+		if (!MIME_AVC.equals(mimeType) && !MIME_HEVC.equals(mimeType)) {
+			throw new IllegalArgumentException("unsupported mime type:" + mimeType);
+		}
+		mMimeType = mimeType;
+		return this;
+	}
+
+	public String getMimeType() {
+		return mMimeType;
+	}
+
+	/**
+	 * @param mode BITRATE_MODE_CBR/VBR/CQ, the codec default is used if the codec does not support it
+	 * 				编解码器不支持时使用编解码器的默认值
+	 */
+	public VideoEncoderConfig setBitrateMode(final int mode) {
+		if ((mode != BITRATE_MODE_CBR) && (mode != BITRATE_MODE_VBR) && (mode != BITRATE_MODE_CQ)) {
+			throw new IllegalArgumentException("unknown bitrate mode:" + mode);
+		}
+		mBitrateMode = mode;
+		return this;
+	}
+
+	public int getBitrateMode() {
+		return mBitrateMode;
+	}
+
+	/**
+	 * @param bitrate [bps], 0: calculated from bits per pixel and the frame rate(default)
+	 * 				0:由每像素比特数和帧率计算(默认)
+	 */
+	public VideoEncoderConfig setBitrate(final int bitrate) {
+		mBitrate = Math.max(0, bitrate);
+		return this;
+	}
+
+	/**
+	 * bits per pixel used when bitrate is 0 码率为0时使用的每像素比特数
+	 */
+	public VideoEncoderConfig setBpp(final float bpp) {
+		if (bpp <= 0) {
+			throw new IllegalArgumentException("bpp should be positive");
+		}
+		mBpp = bpp;
+		return this;
+	}
+
+	/**
+	 * quality for BITRATE_MODE_CQ, -1: codec default(default). needs API 28, ignored before it
+	 * BITRATE_MODE_CQ的质量，-1:编解码器默认值(默认)。需要API 28，之前的版本忽略
+	 */
+	public VideoEncoderConfig setQuality(final int quality) {
+		mQuality = quality;
+		return this;
+	}
+
+	/**
+	 * @param frameRate [fps], 0: match the frame rate negotiated with the camera(default)
+	 * 				0:与相机协商的帧率一致(默认)
+	 */
+	public VideoEncoderConfig setFrameRate(final int frameRate) {
+		mFrameRate = Math.max(0, frameRate);
+		return this;
+	}
+
+	public int getFrameRate() {
+		return mFrameRate;
+	}
+
+	/**
+	 * @param seconds interval of the sync frames(GOP length in seconds), 0: all sync frames, negative: only first one
+	 * 				同步帧的间隔(以秒为单位的GOP长度)，0:全部为同步帧，负值:仅第一帧
+	 */
+	public VideoEncoderConfig setIFrameInterval(final float seconds) {
+		mIFrameInterval = seconds;
+		return this;
+	}
+
+	public float getIFrameInterval() {
+		return mIFrameInterval;
+	}
+
+	/**
+	 * @param profile MediaCodecInfo.CodecProfileLevel.AVCProfileXXX/HEVCProfileXXX, 0: codec default(default)
+	 * @param level MediaCodecInfo.CodecProfileLevel.AVCLevelXXX/HEVCMainTierLevelXXX, 0: codec default(default)
+	 * 				0:编解码器默认值(默认)
+	 */
+	public VideoEncoderConfig setProfileLevel(final int profile, final int level) {
+		mProfile = Math.max(0, profile);
+		mLevel = Math.max(0, level);
+		return this;
+	}
+
+	/**
+	 * @param maxBFrames max number of B-frames between reference frames, 0: no B-frames(default).
+	 * 				needs API 29 and a profile that allows B-frames(e.g. AVC main/high)
+	 * 				参考帧之间B帧的最大数量，0:无B帧(默认)，需要API 29和允许B帧的profile(例如AVC main/high)
+	 */
+	public VideoEncoderConfig setMaxBFrames(final int maxBFrames) {
+		mMaxBFrames = Math.max(0, maxBFrames);
+		return this;
+	}
+
+	/**
+	 * copy of this config whose frame rate is set to the camera's if it is 0
+	 * 帧率为0时设为相机帧率的此配置的副本
+	 * @param cameraFps frame rate negotiated with the camera, 0 if unknown 与相机协商的帧率，未知时为0
+	 */
+	public VideoEncoderConfig matchFrameRate(final float cameraFps) {
+		final VideoEncoderConfig result = new VideoEncoderConfig(this);
+		if (result.mFrameRate <= 0) {
+			result.mFrameRate = cameraFps > 0 ? Math.round(cameraFps) : DEFAULT_FRAME_RATE;
+		}
+		return result;
+	}
+
+	/**
+	 * create the format to configure the encoder with, checking the values against the capabilities of the codec
+	 * 创建用于配置编码器的格式，并根据编解码器的能力检查各值
+	 * @param codecInfo codec selected for #getMimeType 为#getMimeType选择的编解码器
+	 * @param colorFormat
+	 */
+	/*package*/MediaFormat createFormat(final MediaCodecInfo codecInfo,
+		final int width, final int height, final int colorFormat) {
+
+		final int frameRate = mFrameRate > 0 ? mFrameRate : DEFAULT_FRAME_RATE;
+		final MediaCodecInfo.CodecCapabilities caps = codecInfo.getCapabilitiesForType(mMimeType);
+		final MediaCodecInfo.EncoderCapabilities encoderCaps = caps.getEncoderCapabilities();
+		final MediaFormat format = MediaFormat.createVideoFormat(mMimeType, width, height);
+		format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+		format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1) {
+			format.setFloat(MediaFormat.KEY_I_FRAME_INTERVAL, mIFrameInterval);
+		} else {
+			// fractional interval is not supported before API 25 API 25之前不支持小数间隔
+			format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, (int)Math.ceil(mIFrameInterval));
+		}
+
+		final int mode = mBitrateMode;
+		if (encoderCaps.isBitrateModeSupported(mode)) {
+			format.setInteger(MediaFormat.KEY_BITRATE_MODE, mode);
+		} else {
+			Log.w(TAG, "bitrate mode " + mode + " is not supported by " + codecInfo.getName() + ", use codec default");
+		}
+		if ((mode == BITRATE_MODE_CQ) && encoderCaps.isBitrateModeSupported(mode) && (mQuality >= 0)
+			&& (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)) {
+			final Range<Integer> range = encoderCaps.getQualityRange();
+			format.setInteger(MediaFormat.KEY_QUALITY, range.clamp(mQuality));
+		}
+		// bitrate is set for CQ too because some codecs refuse the format without it
+		// CQ也设置码率，因为有些编解码器没有码率时会拒绝格式
+		int bitrate = mBitrate > 0 ? mBitrate : (int)(mBpp * frameRate * width * height);
+		final MediaCodecInfo.VideoCapabilities videoCaps = caps.getVideoCapabilities();
+		if (videoCaps != null) {
+			bitrate = videoCaps.getBitrateRange().clamp(bitrate);
+		}
+		format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+		Log.i(TAG, String.format("bitrate=%5.2f[Mbps]", bitrate / 1024f / 1024f));
+
+		if (mProfile > 0) {
+			if (isProfileSupported(caps, mProfile)) {
+				format.setInteger(MediaFormat.KEY_PROFILE, mProfile);
+				if (mLevel > 0) {
+					format.setInteger(MediaFormat.KEY_LEVEL, mLevel);
+				}
+			} else {
+				Log.w(TAG, "profile " + mProfile + " is not supported by " + codecInfo.getName());
+			}
+		}
+		if ((mMaxBFrames > 0) && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)) {
+			format.setInteger(MediaFormat.KEY_MAX_B_FRAMES, mMaxBFrames);
+		}
+		return format;
+	}
+
+	private static boolean isProfileSupported(final MediaCodecInfo.CodecCapabilities caps, final int profile) {
+		if (caps.profileLevels != null) {
+			for (final MediaCodecInfo.CodecProfileLevel pl: caps.profileLevels) {
+				if (pl.profile == profile) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "VideoEncoderConfig{mime=" + mMimeType
+			+ ",bitrateMode=" + mBitrateMode
+			+ ",bitrate=" + mBitrate
+			+ ",bpp=" + mBpp
+			+ ",quality=" + mQuality
+			+ ",fps=" + mFrameRate
+			+ ",iFrameInterval=" + mIFrameInterval
+			+ ",profile=" + mProfile
+			+ ",level=" + mLevel
+			+ ",maxBFrames=" + mMaxBFrames + "}";
+	}
+}
@@ -43,16 +43,22 @@ import android.view.SurfaceHolder;
 
 import androidx.annotation.Nullable;
 
+import com.serenegiant.encoder.FragmentedMp4MuxerWrapper;
 import com.serenegiant.encoder.MediaAudioEncoder;
 import com.serenegiant.encoder.MediaEncoder;
 import com.serenegiant.encoder.MediaMuxerWrapper;
 import com.serenegiant.encoder.MediaSurfaceEncoder;
 import com.serenegiant.encoder.MediaVideoBufferEncoder;
 import com.serenegiant.encoder.MediaVideoEncoder;
-import com.serenegiant.usb_libuvccamera.IFrameCallback;
+import com.serenegiant.encoder.PreEventMuxerWrapper;
+import com.serenegiant.encoder.SegmentedMuxerWrapper;
+import com.serenegiant.encoder.VideoEncoderConfig;
 import com.serenegiant.usb_libuvccamera.Size;
 import com.serenegiant.usb_libuvccamera.LibUVCCameraUSBMonitor;
 import com.serenegiant.usb_libuvccamera.UVCCamera;
+import com.serenegiant.usb_libuvccamera.UVCControlProfile;
+import com.serenegiant.usb_libuvccamera.UVCControlQueue;
+import com.serenegiant.usb_libuvccamera.UVCFormatSelector;
 import com.serenegiant.widget.CameraViewInterface;
 
 import java.io.BufferedOutputStream;
@@ -63,7 +69,6 @@ import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
@@ -93,6 +98,22 @@ abstract class AbstractUVCCameraHandler extends Handler {
 	private static final int MSG_MEDIA_UPDATE = 7;
 	private static final int MSG_RELEASE = 9;
 	private static final int MSG_CAMERA_FOCUS = 10;
+	private static final int MSG_PREVIEW_PAUSE = 11;
+	private static final int MSG_PREVIEW_RESUME = 12;
+	private static final int MSG_RESIZE = 13;
+	private static final int MSG_FORMAT_CHECK = 14;
+	private static final int MSG_APPLY_PROFILE = 15;
+	private static final int MSG_PRE_EVENT_START = 16;
+	private static final int MSG_TRIGGER_EVENT = 17;
+	private static final int MSG_SEGMENTED_START = 18;
+	private static final int MSG_MJPEG_START = 19;
+	private static final int MSG_FRAGMENTED_START = 20;
+
+	/**
+	 * interval to re-evaluate YUYV/MJPEG while previewing with UVCFormatSelector.FRAME_FORMAT_AUTO
+	 * 使用UVCFormatSelector.FRAME_FORMAT_AUTO预览时重新评估YUYV/MJPEG的间隔
+	 */
+	private static final long FORMAT_CHECK_INTERVAL_MS = 3000;
 
 	private final WeakReference<AbstractUVCCameraHandler.CameraThread> mWeakThread;
 	private volatile boolean mReleased;
@@ -161,9 +182,39 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		if (DEBUG) { Log.v(TAG, "close:finished"); }
 	}
 
+	/**
+	 * change preview size keeping current frame format, see #resize(int, int, int)
+	 * 保持当前帧格式改变预览尺寸
+	 */
 	public void resize(final int width, final int height) {
 		checkReleased();
-		throw new UnsupportedOperationException("does not support now");
+		final CameraThread thread = mWeakThread.get();
+		resize(width, height, thread != null ? thread.getPreviewMode() : UVCCamera.DEFAULT_PREVIEW_MODE);
+	}
+
+	/**
+	 * change preview size/format without closing the camera, e.g. dropping to 720p under thermal or
+	 * bandwidth pressure. the stream is switched in place while previewing, not allowed while recording.
+	 * the glitch duration is available from #getLastResizeGlitchUs after switching
+	 * 不关闭相机改变预览尺寸/格式，例如在发热或带宽不足时降到720p
+	 * 预览中就地切换视频流，录像中不允许，切换后可以从#getLastResizeGlitchUs获取画面中断时长
+	 * @param width
+	 * @param height
+	 * @param frameFormat UVCCamera.FRAME_FORMAT_YUYV(0), UVCCamera.FRAME_FORMAT_MJPEG(1)
+	 * 					or UVCFormatSelector.FRAME_FORMAT_AUTO(-1)
+	 */
+	public void resize(final int width, final int height, final int frameFormat) {
+		checkReleased();
+		sendMessage(obtainMessage(MSG_RESIZE, width, height, frameFormat));
+	}
+
+	/**
+	 * glitch duration of last #resize while previewing 最后一次预览中#resize的画面中断时长
+	 * @return microseconds, -1 if not resized yet 微秒，尚未切换时为-1
+	 */
+	public long getLastResizeGlitchUs() {
+		final CameraThread thread = mWeakThread.get();
+		return thread != null ? thread.getLastResizeGlitchUs() : -1;
 	}
 
 	protected void startPreview(final Object surface) {
@@ -197,6 +248,26 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		if (DEBUG) { Log.v(TAG, "stopPreview:finished"); }
 	}
 
+	/**
+	 * pause preview while keeping the camera streaming, for hiding the preview for a while.
+	 * ignored while recording
+	 * 暂停预览但保持相机视频流，用于暂时隐藏预览，录像中忽略
+	 */
+	public void pausePreview() {
+		if (isPreviewing()) {
+			sendEmptyMessage(MSG_PREVIEW_PAUSE);
+		}
+	}
+
+	/**
+	 * resume preview paused by #pausePreview 恢复#pausePreview暂停的预览
+	 */
+	public void resumePreview() {
+		if (isPreviewing()) {
+			sendEmptyMessage(MSG_PREVIEW_RESUME);
+		}
+	}
+
 	protected void captureStill() {
 		checkReleased();
 		sendEmptyMessage(MSG_CAPTURE_STILL);
@@ -209,6 +280,17 @@ abstract class AbstractUVCCameraHandler extends Handler {
 
 	public void startRecording() { startRecording(true, null, null); }
 	public void startRecording(boolean recordAudio, @Nullable String dir, @Nullable String filename) {
+		startRecording(recordAudio, dir, filename, null);
+	}
+
+	/**
+	 * @param config settings of the video encoder, null for default settings. frame rate 0 in it
+	 * 				means the frame rate negotiated with the camera
+	 * 				视频编码器的设置，null为默认设置。其中帧率为0表示与相机协商的帧率
+	 */
+	public void startRecording(boolean recordAudio, @Nullable String dir, @Nullable String filename,
+		@Nullable VideoEncoderConfig config) {
+
 		checkReleased();
 		sendMessage(obtainMessage(
 			MSG_CAPTURE_START,
@@ -216,10 +298,121 @@ abstract class AbstractUVCCameraHandler extends Handler {
 				put("recordAudio", recordAudio);
 				put("dir", dir);
 				put("filename", filename);
+				put("config", config != null ? new VideoEncoderConfig(config) : null);
+			}}
+		));
+	}
+
+	/**
+	 * start the pre-event(DVR) recording, the encoders run until #stopRecording and each #triggerEvent
+	 * writes a file that starts preRollMs before it and ends postRollMs after the last trigger
+	 * 开始预事件(DVR)录像，编码器运行到#stopRecording，每次#triggerEvent都会写入一个文件，
+	 * 文件从触发前preRollMs开始，到最后一次触发后postRollMs结束
+	 * @param config settings of the video encoder, nullable 视频编码器的设置，可为null
+	 * @param maxBytes memory budget of the pre-event buffer[bytes] 预事件缓冲区的内存预算[字节]
+	 */
+	public void startPreEventRecording(boolean recordAudio, @Nullable String dir,
+		@Nullable VideoEncoderConfig config, long preRollMs, long postRollMs, int maxBytes) {
+
+		checkReleased();
+		sendMessage(obtainMessage(
+			MSG_PRE_EVENT_START,
+			new HashMap<String, Object>() {{
+				put("recordAudio", recordAudio);
+				put("dir", dir);
+				put("config", config != null ? new VideoEncoderConfig(config) : null);
+				put("preRollMs", preRollMs);
+				put("postRollMs", postRollMs);
+				put("maxBytes", maxBytes);
+			}}
+		));
+	}
+
+	/**
+	 * start recording into files of fixed duration and/or size, the encoders keep running between the files
+	 * 开始录制为固定时长和/或大小的文件，编码器在文件之间持续运行
+	 * @param filename prefix of the file names, nullable 文件名前缀，可为null
+	 * @param config settings of the video encoder, nullable 视频编码器的设置，可为null
+	 * @param segmentMs duration of each file[ms], 0: no limit 每个文件的时长[ms]，0:不限制
+	 * @param maxSegmentBytes size of each file[bytes], 0: no limit 每个文件的大小[字节]，0:不限制
+	 * @param forceSyncFrame request a sync frame when the limit is reached 达到限制时请求同步帧
+	 * @param listener called on the writer thread for each finished file, nullable
+	 * 				每个文件完成时在写入线程上调用，可为null
+	 */
+	public void startSegmentedRecording(boolean recordAudio, @Nullable String dir, @Nullable String filename,
+		@Nullable VideoEncoderConfig config, long segmentMs, long maxSegmentBytes, boolean forceSyncFrame,
+		@Nullable SegmentedMuxerWrapper.SegmentListener listener) {
+
+		checkReleased();
+		sendMessage(obtainMessage(
+			MSG_SEGMENTED_START,
+			new HashMap<String, Object>() {{
+				put("recordAudio", recordAudio);
+				put("dir", dir);
+				put("filename", filename);
+				put("config", config != null ? new VideoEncoderConfig(config) : null);
+				put("segmentMs", segmentMs);
+				put("maxSegmentBytes", maxSegmentBytes);
+				put("forceSyncFrame", forceSyncFrame);
+				put("listener", listener);
 			}}
 		));
 	}
 
+	/**
+	 * record into a fragmented MP4 file, the file is playable while recording and a crash loses
+	 * at most the last fragment. use FragmentedMp4MuxerWrapper directly to write into a stream or a pipe
+	 * 录制为分片MP4文件，录像期间文件即可播放，崩溃时最多丢失最后一个分片。
+	 * 要写入流或管道时直接使用FragmentedMp4MuxerWrapper
+	 * @param filename nullable 可为null
+	 * @param config settings of the video encoder, nullable 视频编码器的设置，可为null
+	 * @param fragmentMs duration of each fragment[ms] 每个分片的时长[ms]
+	 */
+	public void startFragmentedRecording(boolean recordAudio, @Nullable String dir, @Nullable String filename,
+		@Nullable VideoEncoderConfig config, long fragmentMs) {
+
+		checkReleased();
+		sendMessage(obtainMessage(
+			MSG_FRAGMENTED_START,
+			new HashMap<String, Object>() {{
+				put("recordAudio", recordAudio);
+				put("dir", dir);
+				put("filename", filename);
+				put("config", config != null ? new VideoEncoderConfig(config) : null);
+				put("fragmentMs", fragmentMs);
+			}}
+		));
+	}
+
+	/**
+	 * record the MJPEG frames from the camera into an AVI file as they are, without decoding/re-encoding.
+	 * much cheaper than #startRecording but needs the preview in MJPEG format, no audio is recorded
+	 * 将摄像头的MJPEG帧原样录制到AVI文件，不解码/重新编码
+	 * 比#startRecording开销小得多，但需要MJPEG格式的预览，不录制音频
+	 * @param filename nullable 可为null
+	 * @param decimation record one frame out of this number of frames, 1: all frames 每隔此帧数录制一帧，1:全部帧
+	 */
+	public void startMjpegRecording(@Nullable String dir, @Nullable String filename, int decimation) {
+		checkReleased();
+		sendMessage(obtainMessage(
+			MSG_MJPEG_START,
+			new HashMap<String, Object>() {{
+				put("dir", dir);
+				put("filename", filename);
+				put("decimation", decimation);
+			}}
+		));
+	}
+
+	/**
+	 * write the pre-event buffer into a new file, or extend the post-roll of the file being written.
+	 * does nothing unless recording with #startPreEventRecording
+	 * 将预事件缓冲区写入新文件，或延长正在写入的文件的后滚时长，除非使用#startPreEventRecording录像，否则什么也不做
+	 */
+	public void triggerEvent() {
+		sendEmptyMessage(MSG_TRIGGER_EVENT);
+	}
+
 	public void stopRecording() {
 		sendEmptyMessage(MSG_CAPTURE_STOP);
 	}
@@ -313,6 +506,65 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		throw new IllegalStateException();
 	}
 
+	/**
+	 * queue the value of the control without waiting for the usb transfer, requests for the same control
+	 * are coalesced and only the last value is sent, see UVCControlQueue
+	 * 不等待usb传输将控制的值排队，同一控制的请求会被合并只发送最后的值，参见UVCControlQueue
+	 * @param flag UVCCamera.PU_BRIGHTNESS or UVCCamera.PU_CONTRAST
+	 * @param value [%]
+	 * @param callback called on the worker thread of UVCControlQueue, nullable
+	 * 					在UVCControlQueue的工作线程上调用，可以为null
+	 */
+	public void setValueAsync(final int flag, final int value, @Nullable final UVCControlQueue.ControlCallback callback) {
+		final UVCControlQueue queue = getControlQueue();
+		if (queue == null) {
+			throw new IllegalStateException();
+		}
+		if (flag == UVCCamera.PU_BRIGHTNESS) {
+			queue.set(UVCCamera.CTRL_INDEX_BRIGHTNESS, value, callback);
+		} else if (flag == UVCCamera.PU_CONTRAST) {
+			queue.set(UVCCamera.CTRL_INDEX_CONTRAST, value, callback);
+		} else {
+			throw new IllegalArgumentException("unsupported flag:" + flag);
+		}
+	}
+
+	/**
+	 * control queue of the opened camera, for the controls other than #setValueAsync supports
+	 * 已打开相机的控制队列，用于#setValueAsync不支持的控制
+	 * @return null if the camera is not opened 相机未打开时返回null
+	 */
+	@Nullable
+	public UVCControlQueue getControlQueue() {
+		checkReleased();
+		final CameraThread thread = mWeakThread.get();
+		return thread != null ? thread.getControlQueue() : null;
+	}
+
+	/**
+	 * snapshot all supported controls of the opened camera, e.g. for saving a scene preset
+	 * 获取已打开相机所有支持的控制的快照，例如用于保存场景预设
+	 * @return null if the camera is not opened 相机未打开时返回null
+	 */
+	@Nullable
+	public UVCControlProfile getControlProfile() {
+		checkReleased();
+		final CameraThread thread = mWeakThread.get();
+		return thread != null ? thread.getControlProfile() : null;
+	}
+
+	/**
+	 * apply the profile on the camera thread in one native call, only the controls that differ are sent
+	 * 在相机线程上通过一次本地调用应用配置，只发送不同的控制
+	 * @param profile
+	 */
+	public void applyControlProfile(final UVCControlProfile profile) {
+		checkReleased();
+		if (profile != null) {
+			sendMessage(obtainMessage(MSG_APPLY_PROFILE, profile));
+		}
+	}
+
 	@Override
 	public void handleMessage(final Message msg) {
 		final CameraThread thread = mWeakThread.get();
@@ -330,16 +582,58 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		case MSG_PREVIEW_STOP:
 			thread.handleStopPreview();
 			break;
+		case MSG_PREVIEW_PAUSE:
+			thread.handlePausePreview();
+			break;
+		case MSG_PREVIEW_RESUME:
+			thread.handleResumePreview();
+			break;
+		case MSG_RESIZE:
+			thread.handleResize(msg.arg1, msg.arg2, (Integer)msg.obj);
+			break;
+		case MSG_FORMAT_CHECK:
+			thread.handleFormatCheck();
+			break;
+		case MSG_APPLY_PROFILE:
+			thread.handleApplyProfile((UVCControlProfile)msg.obj);
+			break;
 		case MSG_CAPTURE_STILL:
 			thread.handleCaptureStill((String)msg.obj);
 			break;
 		case MSG_CAPTURE_START:
 			HashMap<String, Object> params = (HashMap<String, Object>) msg.obj;
-			thread.handleStartRecording((boolean)params.get("recordAudio"), (String)params.get("dir"), (String)params.get("filename"));
+			thread.handleStartRecording((boolean)params.get("recordAudio"), (String)params.get("dir"), (String)params.get("filename"),
+				(VideoEncoderConfig)params.get("config"));
 			break;
 		case MSG_CAPTURE_STOP:
 			thread.handleStopRecording();
 			break;
+		case MSG_PRE_EVENT_START:
+			params = (HashMap<String, Object>) msg.obj;
+			thread.handleStartPreEventRecording((boolean)params.get("recordAudio"), (String)params.get("dir"),
+				(VideoEncoderConfig)params.get("config"),
+				(long)params.get("preRollMs"), (long)params.get("postRollMs"), (int)params.get("maxBytes"));
+			break;
+		case MSG_TRIGGER_EVENT:
+			thread.handleTriggerEvent();
+			break;
+		case MSG_SEGMENTED_START:
+			params = (HashMap<String, Object>) msg.obj;
+			thread.handleStartSegmentedRecording((boolean)params.get("recordAudio"), (String)params.get("dir"),
+				(String)params.get("filename"), (VideoEncoderConfig)params.get("config"),
+				(long)params.get("segmentMs"), (long)params.get("maxSegmentBytes"), (boolean)params.get("forceSyncFrame"),
+				(SegmentedMuxerWrapper.SegmentListener)params.get("listener"));
+			break;
+		case MSG_FRAGMENTED_START:
+			params = (HashMap<String, Object>) msg.obj;
+			thread.handleStartFragmentedRecording((boolean)params.get("recordAudio"), (String)params.get("dir"),
+				(String)params.get("filename"), (VideoEncoderConfig)params.get("config"), (long)params.get("fragmentMs"));
+			break;
+		case MSG_MJPEG_START:
+			params = (HashMap<String, Object>) msg.obj;
+			thread.handleStartMjpegRecording((String)params.get("dir"), (String)params.get("filename"),
+				(int)params.get("decimation"));
+			break;
 		case MSG_MEDIA_UPDATE:
 			thread.handleUpdateMedia((String)msg.obj);
 			break;
@@ -366,16 +660,32 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		private float mBandwidthFactor;
 		private boolean mIsPreviewing;
 		private boolean mIsRecording;
+		private long mLastResizeGlitchUs = -1;
+		/**
+		 * chooses YUYV/MJPEG while previewing with UVCFormatSelector.FRAME_FORMAT_AUTO
+		 * 使用UVCFormatSelector.FRAME_FORMAT_AUTO预览时选择YUYV/MJPEG
+		 */
+		private UVCFormatSelector mFormatSelector;
 		private AbstractUVCCameraHandler mHandler;
 		/**
 		 * for accessing UVC camera
 		 */
 		private UVCCamera mUVCCamera;
+		/**
+		 * applies control values of mUVCCamera without blocking the callers
+		 * 不阻塞调用者地应用mUVCCamera的控制值
+		 */
+		private UVCControlQueue mControlQueue;
 		/**
 		 * muxer for audio/video recording
 		 */
 		private MediaMuxerWrapper mMuxer;
 		private MediaVideoBufferEncoder mVideoEncoder;
+		/**
+		 * path of the MJPEG recording written by the native side, null if not recording
+		 * 本地端写入的MJPEG录像路径，未录像时为null
+		 */
+		private String mMjpegPath;
 
 		/**
 		 *
@@ -385,7 +695,7 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder
 		 * @param width
 		 * @param height
-		 * @param format either FRAME_FORMAT_YUYV(0) or FRAME_FORMAT_MJPEG(1)
+		 * @param format FRAME_FORMAT_YUYV(0), FRAME_FORMAT_MJPEG(1) or UVCFormatSelector.FRAME_FORMAT_AUTO(-1)
 		 * @param bandwidthFactor
 		 */
 		CameraThread(final Class<? extends AbstractUVCCameraHandler> clazz,
@@ -433,6 +743,35 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			}
 		}
 
+		public int getPreviewMode() {
+			synchronized (mSync) {
+				return mPreviewMode;
+			}
+		}
+
+		public long getLastResizeGlitchUs() {
+			synchronized (mSync) {
+				return mLastResizeGlitchUs;
+			}
+		}
+
+		public UVCControlQueue getControlQueue() {
+			synchronized (mSync) {
+				return mControlQueue;
+			}
+		}
+
+		/**
+		 * read under the lock so that the camera is not destroyed while reading
+		 * 在锁内读取，以免读取期间相机被销毁
+		 */
+		@Nullable
+		public UVCControlProfile getControlProfile() {
+			synchronized (mSync) {
+				return mUVCCamera != null ? mUVCCamera.getControlProfile() : null;
+			}
+		}
+
 		public boolean isCameraOpened() {
 			synchronized (mSync) {
 				return mUVCCamera != null;
@@ -447,7 +786,7 @@ abstract class AbstractUVCCameraHandler extends Handler {
 
 		public boolean isRecording() {
 			synchronized (mSync) {
-				return (mUVCCamera != null) && (mMuxer != null);
+				return (mUVCCamera != null) && ((mMuxer != null) || (mMjpegPath != null));
 			}
 		}
 
@@ -463,6 +802,7 @@ abstract class AbstractUVCCameraHandler extends Handler {
 				camera.open(ctrlBlock);
 				synchronized (mSync) {
 					mUVCCamera = camera;
+					mControlQueue = new UVCControlQueue(camera);
 				}
 				callOnOpen();
 			} catch (final Exception e) {
@@ -475,9 +815,17 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			if (DEBUG) { Log.v(TAG_THREAD, "handleClose:"); }
 			handleStopRecording();
 			final UVCCamera camera;
+			final UVCControlQueue queue;
 			synchronized (mSync) {
 				camera = mUVCCamera;
 				mUVCCamera = null;
+				queue = mControlQueue;
+				mControlQueue = null;
+			}
+			if (queue != null) {
+				// wait for the transfer in progress so that it never runs on the destroyed camera
+				// 等待进行中的传输，避免在已销毁的相机上执行
+				queue.release();
 			}
 			if (camera != null) {
 				camera.stopPreview();
@@ -489,17 +837,27 @@ abstract class AbstractUVCCameraHandler extends Handler {
 		public void handleStartPreview(final Object surface) {
 			if (DEBUG) { Log.v(TAG_THREAD, "handleStartPreview:"); }
 			if ((mUVCCamera == null) || mIsPreviewing) return;
+			int format = mPreviewMode;
+			if (format == UVCFormatSelector.FRAME_FORMAT_AUTO) {
+				mFormatSelector = new UVCFormatSelector(mUVCCamera, mWidth, mHeight, UVCCamera.DEFAULT_PREVIEW_MAX_FPS);
+				format = mFormatSelector.select();
+			}
 			try {
-				mUVCCamera.setPreviewSize(mWidth, mHeight, 0,1, 31, mPreviewMode, mBandwidthFactor);
+				mUVCCamera.setPreviewSize(mWidth, mHeight, 0,1, 31, format, mBandwidthFactor);
 			} catch (final IllegalArgumentException e) {
 				try {
 					// fallback to YUV mode
-					mUVCCamera.setPreviewSize(mWidth, mHeight, 0, 1, 31, UVCCamera.DEFAULT_PREVIEW_MODE, mBandwidthFactor);
+					format = UVCCamera.DEFAULT_PREVIEW_MODE;
+					mUVCCamera.setPreviewSize(mWidth, mHeight, 0, 1, 31, format, mBandwidthFactor);
 				} catch (final IllegalArgumentException e1) {
 					callOnError(e1);
 					return;
 				}
 			}
+			if (mFormatSelector != null) {
+				mFormatSelector.setCurrentFormat(format);
+				mHandler.sendEmptyMessageDelayed(MSG_FORMAT_CHECK, FORMAT_CHECK_INTERVAL_MS);
+			}
 			if (surface instanceof SurfaceHolder) {
 				mUVCCamera.setPreviewDisplay((SurfaceHolder)surface);
 			} if (surface instanceof Surface) {
@@ -517,6 +875,12 @@ abstract class AbstractUVCCameraHandler extends Handler {
 
 		public void handleStopPreview() {
 			if (DEBUG) { Log.v(TAG_THREAD, "handleStopPreview:"); }
+			mHandler.removeMessages(MSG_FORMAT_CHECK);
+			mFormatSelector = null;
+			if (mMjpegPath != null) {
+				// the MJPEG recording can not continue without the preview 没有预览时MJPEG录像无法继续
+				handleStopRecording();
+			}
 			if (mIsPreviewing) {
 				if (mUVCCamera != null) {
 					mUVCCamera.stopPreview();
@@ -530,6 +894,105 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			if (DEBUG) { Log.v(TAG_THREAD, "handleStopPreview:finished"); }
 		}
 
+		public void handleResize(final int width, final int height, final int frameFormat) {
+			if (DEBUG) Log.v(TAG_THREAD, "handleResize:" + width + "x" + height + ",format=" + frameFormat);
+			if (mIsRecording) {
+				// encoders are created with current size 编码器是按当前尺寸创建的
+				callOnError(new IllegalStateException("can not resize while recording"));
+				return;
+			}
+			if (mUVCCamera == null) {
+				// takes effect on next open/startPreview 下次打开/开始预览时生效
+				synchronized (mSync) {
+					mWidth = width;
+					mHeight = height;
+					mPreviewMode = frameFormat;
+				}
+				return;
+			}
+			int format = frameFormat;
+			if (format == UVCFormatSelector.FRAME_FORMAT_AUTO) {
+				final UVCFormatSelector selector
+					= new UVCFormatSelector(mUVCCamera, width, height, UVCCamera.DEFAULT_PREVIEW_MAX_FPS);
+				format = selector.select();
+				if (mIsPreviewing) {
+					if (mFormatSelector == null) {
+						mHandler.sendEmptyMessageDelayed(MSG_FORMAT_CHECK, FORMAT_CHECK_INTERVAL_MS);
+					}
+					mFormatSelector = selector;
+				}
+			} else {
+				// explicit format disables the selection 指定格式时停止自动选择
+				mHandler.removeMessages(MSG_FORMAT_CHECK);
+				mFormatSelector = null;
+			}
+			try {
+				final long glitchUs = mUVCCamera.switchPreviewSize(width, height, 1, 31, format, mBandwidthFactor);
+				synchronized (mSync) {
+					mWidth = width;
+					mHeight = height;
+					mPreviewMode = frameFormat;
+					if (mIsPreviewing) {
+						mLastResizeGlitchUs = glitchUs;
+					}
+				}
+				if (DEBUG) Log.v(TAG_THREAD, "handleResize:glitch=" + glitchUs + "[us]");
+			} catch (final IllegalArgumentException e) {
+				callOnError(e);
+			}
+		}
+
+		public void handleApplyProfile(final UVCControlProfile profile) {
+			if (DEBUG) { Log.v(TAG_THREAD, "handleApplyProfile:" + profile); }
+			if (mUVCCamera == null) return;
+			final int sent = mUVCCamera.applyControlProfile(profile);
+			if (DEBUG) { Log.v(TAG_THREAD, "handleApplyProfile:sent=" + sent); }
+		}
+
+		/**
+		 * re-evaluate YUYV/MJPEG and switch in place if the other is cheaper or current one drops frames
+		 * 重新评估YUYV/MJPEG，另一种格式更便宜或当前格式丢帧时就地切换
+		 */
+		public void handleFormatCheck() {
+			if ((mUVCCamera == null) || !mIsPreviewing || (mFormatSelector == null)) return;
+			if (!mIsRecording) {
+				// encoders are created with current format, do not switch while recording
+				// 编码器是按当前格式创建的，录像中不切换
+				final int current = mFormatSelector.getCurrentFormat();
+				final int format = mFormatSelector.reevaluate();
+				if (format != current) {
+					try {
+						final long glitchUs = mUVCCamera.switchPreviewSize(mWidth, mHeight, 1, 31, format, mBandwidthFactor);
+						synchronized (mSync) {
+							mLastResizeGlitchUs = glitchUs;
+						}
+					} catch (final IllegalArgumentException e) {
+						Log.w(TAG_THREAD, "handleFormatCheck:failed to switch format", e);
+						mFormatSelector.setCurrentFormat(current);
+					}
+				}
+			}
+			mHandler.sendEmptyMessageDelayed(MSG_FORMAT_CHECK, FORMAT_CHECK_INTERVAL_MS);
+		}
+
+		public void handlePausePreview() {
+			if (DEBUG) { Log.v(TAG_THREAD, "handlePausePreview:"); }
+			if ((mUVCCamera == null) || !mIsPreviewing) return;
+			if (mIsRecording) {
+				// the encoders need the preview frames, MJPEG recording keeps running while paused
+				// 编码器需要预览帧，MJPEG录像在暂停期间继续运行
+				Log.w(TAG_THREAD, "handlePausePreview:ignored while recording");
+				return;
+			}
+			mUVCCamera.pausePreview();
+		}
+
+		public void handleResumePreview() {
+			if (DEBUG) { Log.v(TAG_THREAD, "handleResumePreview:"); }
+			if ((mUVCCamera == null) || !mIsPreviewing) return;
+			mUVCCamera.resumePreview();
+		}
+
 		public void handleCaptureStill(final String path) {
 			if (DEBUG) { Log.v(TAG_THREAD, "handleCaptureStill:"); }
 			final Activity parent = mWeakParent.get();
@@ -561,50 +1024,184 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			}
 		}
 
-		public void handleStartRecording(boolean recordAudio, @Nullable String dir, @Nullable String filename) {
+		public void handleStartRecording(boolean recordAudio, @Nullable String dir, @Nullable String filename,
+			@Nullable VideoEncoderConfig config) {
+
 			if (DEBUG) { Log.v(TAG_THREAD, "handleStartRecording:"); }
+			if ((mUVCCamera == null) || (mMuxer != null) || (mMjpegPath != null)) return;
 			try {
-				if ((mUVCCamera == null) || (mMuxer != null)) return;
 				final MediaMuxerWrapper muxer = new MediaMuxerWrapper(dir, filename, ".mp4");	// if you record audio only, ".m4a" is also OK.
-				MediaVideoBufferEncoder videoEncoder = null;
-				switch (mEncoderType) {
-				case 1:	// for video capturing using MediaVideoEncoder
-					new MediaVideoEncoder(muxer, getWidth(), getHeight(), mMediaEncoderListener);
-					break;
-				case 2:	// for video capturing using MediaVideoBufferEncoder
-					videoEncoder = new MediaVideoBufferEncoder(muxer, getWidth(), getHeight(), mMediaEncoderListener);
-					break;
-				// case 0:	// for video capturing using MediaSurfaceEncoder
-				default:
-					new MediaSurfaceEncoder(muxer, getWidth(), getHeight(), mMediaEncoderListener);
-					break;
+				startEncoders(muxer, recordAudio, config);
+			} catch (final IOException e) {
+				callOnError(e);
+				Log.e(TAG, "startCapture:", e);
+			}
+		}
+
+		public void handleStartPreEventRecording(boolean recordAudio, @Nullable String dir,
+			@Nullable VideoEncoderConfig config, long preRollMs, long postRollMs, int maxBytes) {
+
+			if (DEBUG) { Log.v(TAG_THREAD, "handleStartPreEventRecording:"); }
+			if ((mUVCCamera == null) || (mMuxer != null) || (mMjpegPath != null)) return;
+			try {
+				final PreEventMuxerWrapper muxer = new PreEventMuxerWrapper(dir, ".mp4",
+					preRollMs, postRollMs, maxBytes, mEventListener);
+				startEncoders(muxer, recordAudio, config);
+			} catch (final IOException | IllegalArgumentException e) {
+				callOnError(e);
+				Log.e(TAG, "startPreEventRecording:", e);
+			}
+		}
+
+		public void handleStartSegmentedRecording(boolean recordAudio, @Nullable String dir, @Nullable String filename,
+			@Nullable VideoEncoderConfig config, long segmentMs, long maxSegmentBytes, boolean forceSyncFrame,
+			@Nullable final SegmentedMuxerWrapper.SegmentListener listener) {
+
+			if (DEBUG) { Log.v(TAG_THREAD, "handleStartSegmentedRecording:"); }
+			if ((mUVCCamera == null) || (mMuxer != null) || (mMjpegPath != null)) return;
+			try {
+				final SegmentedMuxerWrapper muxer = new SegmentedMuxerWrapper(dir, filename, ".mp4",
+					segmentMs, maxSegmentBytes, forceSyncFrame,
+					new SegmentedMuxerWrapper.SegmentListener() {
+						@Override
+						public void onSegmentFinished(final String path, final int index, final long durationUs, final long bytes) {
+							if (DEBUG) { Log.v(TAG_THREAD, "onSegmentFinished:" + path); }
+							final AbstractUVCCameraHandler handler = mHandler;
+							if ((handler != null) && !handler.mReleased) {
+								handler.sendMessage(handler.obtainMessage(MSG_MEDIA_UPDATE, path));
+							}
+							if (listener != null) {
+								listener.onSegmentFinished(path, index, durationUs, bytes);
+							}
+						}
+					});
+				startEncoders(muxer, recordAudio, config);
+			} catch (final IOException | IllegalArgumentException e) {
+				callOnError(e);
+				Log.e(TAG, "startSegmentedRecording:", e);
+			}
+		}
+
+		public void handleStartFragmentedRecording(boolean recordAudio, @Nullable String dir, @Nullable String filename,
+			@Nullable VideoEncoderConfig config, long fragmentMs) {
+
+			if (DEBUG) { Log.v(TAG_THREAD, "handleStartFragmentedRecording:"); }
+			if ((mUVCCamera == null) || (mMuxer != null) || (mMjpegPath != null)) return;
+			FragmentedMp4MuxerWrapper muxer = null;
+			try {
+				muxer = new FragmentedMp4MuxerWrapper(dir, filename, fragmentMs);
+				startEncoders(muxer, recordAudio, config);
+			} catch (final IOException | IllegalArgumentException e) {
+				if (muxer != null) {
+					// the file is opened in the constructor 文件在构造函数中打开
+					muxer.release();
 				}
-				if (recordAudio) {
-					// for audio capturing
-					new MediaAudioEncoder(muxer, mMediaEncoderListener);
+				callOnError(e);
+				Log.e(TAG, "startFragmentedRecording:", e);
+			}
+		}
+
+		public void handleStartMjpegRecording(@Nullable String dir, @Nullable String filename, int decimation) {
+			if (DEBUG) { Log.v(TAG_THREAD, "handleStartMjpegRecording:"); }
+			if ((mUVCCamera == null) || (mMuxer != null) || (mMjpegPath != null)) return;
+			try {
+				final File file = MediaMuxerWrapper.getCaptureFile(Environment.DIRECTORY_MOVIES, ".avi", dir, filename);
+				if (file == null) {
+					throw new IOException("This app has no permission of writing external storage");
 				}
-				muxer.prepare();
-				muxer.startRecording();
-				if (videoEncoder != null) {
-					mUVCCamera.setFrameCallback(mIFrameCallback, UVCCamera.PIXEL_FORMAT_NV21);
+				// frames are only written while the preview is running 仅在预览运行时写入帧
+				mUVCCamera.resumePreview();
+				final int result = mUVCCamera.startMjpegRecording(file.toString(), decimation);
+				if (result != 0) {
+					throw new IOException("could not start MJPEG recording(preview is not MJPEG?):result=" + result);
 				}
 				synchronized (mSync) {
-					mMuxer = muxer;
-					mVideoEncoder = videoEncoder;
+					mMjpegPath = file.toString();
 				}
 				callOnStartRecording();
-			} catch (final IOException e) {
+			} catch (final IOException | IllegalArgumentException e) {
 				callOnError(e);
-				Log.e(TAG, "startCapture:", e);
+				Log.e(TAG, "startMjpegRecording:", e);
 			}
 		}
 
+		public void handleTriggerEvent() {
+			if (DEBUG) { Log.v(TAG_THREAD, "handleTriggerEvent:"); }
+			final MediaMuxerWrapper muxer;
+			synchronized (mSync) {
+				muxer = mMuxer;
+			}
+			if (muxer instanceof PreEventMuxerWrapper) {
+				((PreEventMuxerWrapper)muxer).trigger();
+			}
+		}
+
+		private void startEncoders(final MediaMuxerWrapper muxer, final boolean recordAudio,
+			@Nullable final VideoEncoderConfig config) throws IOException {
+
+			// recording needs frames even if the preview is paused 即使预览已暂停，录像也需要帧
+			mUVCCamera.resumePreview();
+			// encode at the rate the camera actually sends unless the config specifies it
+			// 除非配置中指定，否则以相机实际发送的帧率编码
+			final VideoEncoderConfig videoConfig = (config != null ? config : new VideoEncoderConfig())
+				.matchFrameRate(mUVCCamera.getPreviewFrameRate());
+			if (DEBUG) { Log.v(TAG_THREAD, "startEncoders:" + videoConfig); }
+			MediaVideoBufferEncoder videoEncoder = null;
+			switch (mEncoderType) {
+			case 1:	// for video capturing using MediaVideoEncoder
+				new MediaVideoEncoder(muxer, getWidth(), getHeight(), videoConfig, mMediaEncoderListener);
+				break;
+			case 2:	// for video capturing using MediaVideoBufferEncoder
+				videoEncoder = new MediaVideoBufferEncoder(muxer, getWidth(), getHeight(), videoConfig, mMediaEncoderListener);
+				break;
+			// case 0:	// for video capturing using MediaSurfaceEncoder
+			default:
+				new MediaSurfaceEncoder(muxer, getWidth(), getHeight(), videoConfig, mMediaEncoderListener);
+				break;
+			}
+			if (recordAudio) {
+				// for audio capturing
+				new MediaAudioEncoder(muxer, mMediaEncoderListener);
+			}
+			muxer.prepare();
+			muxer.startRecording();
+			if (videoEncoder != null) {
+				// frames are converted straight into the input buffers of the encoder
+				// 帧直接转换到编码器的输入缓冲区
+				mUVCCamera.setEncoderFrameCallback(videoEncoder);
+			}
+			synchronized (mSync) {
+				mMuxer = muxer;
+				mVideoEncoder = videoEncoder;
+			}
+			callOnStartRecording();
+		}
+
+		/**
+		 * add the event files to MediaStore when they are finished 事件文件完成时将其添加到MediaStore
+		 */
+		private final PreEventMuxerWrapper.EventListener mEventListener
+			= new PreEventMuxerWrapper.EventListener() {
+
+			@Override
+			public void onEventRecorded(final String path) {
+				if (DEBUG) { Log.v(TAG_THREAD, "onEventRecorded:" + path); }
+				final AbstractUVCCameraHandler handler = mHandler;
+				if ((handler != null) && !handler.mReleased) {
+					handler.sendMessage(handler.obtainMessage(MSG_MEDIA_UPDATE, path));
+				}
+			}
+		};
+
 		public void handleStopRecording() {
 			if (DEBUG) { Log.v(TAG_THREAD, "handleStopRecording:mMuxer=" + mMuxer); }
 			final MediaMuxerWrapper muxer;
+			final String mjpegPath;
 			synchronized (mSync) {
 				muxer = mMuxer;
 				mMuxer = null;
+				mjpegPath = mMjpegPath;
+				mMjpegPath = null;
 				mVideoEncoder = null;
 				if (mUVCCamera != null) {
 					mUVCCamera.stopCapture();
@@ -618,25 +1215,20 @@ abstract class AbstractUVCCameraHandler extends Handler {
 			if (muxer != null) {
 				String outputPath = muxer.getOutputPath();
 				muxer.stopRecording();
-				mUVCCamera.setFrameCallback(null, 0);
+				mUVCCamera.setEncoderFrameCallback(null);
 				// you should not wait here
 				callOnStopRecording(outputPath);
 			}
-		}
-
-		private final IFrameCallback mIFrameCallback = new IFrameCallback() {
-			@Override
-			public void onFrame(final ByteBuffer frame) {
-				final MediaVideoBufferEncoder videoEncoder;
-				synchronized (mSync) {
-					videoEncoder = mVideoEncoder;
-				}
-				if (videoEncoder != null) {
-					videoEncoder.frameAvailableSoon();
-					videoEncoder.encode(frame);
+			if (mjpegPath != null) {
+				final int frames = mUVCCamera != null ? mUVCCamera.stopMjpegRecording() : -1;
+				if (DEBUG) { Log.v(TAG_THREAD, "handleStopRecording:MJPEG frames=" + frames); }
+				callOnStopRecording(mjpegPath);
+				final AbstractUVCCameraHandler handler = mHandler;
+				if ((frames >= 0) && (handler != null) && !handler.mReleased) {
+					handler.sendMessage(handler.obtainMessage(MSG_MEDIA_UPDATE, mjpegPath));
 				}
 			}
-		};
+		}
 
 		public void handleUpdateMedia(final String path) {
 			if (DEBUG) { Log.v(TAG_THREAD, "handleUpdateMedia:path=" + path); }
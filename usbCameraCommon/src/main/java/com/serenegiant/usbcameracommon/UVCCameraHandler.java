@@ -84,7 +84,8 @@ public class UVCCameraHandler extends AbstractUVCCameraHandler {
 	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder
 	 * @param width
 	 * @param height
-	 * @param format either UVCCamera.FRAME_FORMAT_YUYV(0) or UVCCamera.FRAME_FORMAT_MJPEG(1)
+	 * @param format UVCCamera.FRAME_FORMAT_YUYV(0), UVCCamera.FRAME_FORMAT_MJPEG(1)
+	 * 				or UVCFormatSelector.FRAME_FORMAT_AUTO(-1) to choose by cost
 	 * @return
 	 */
 	public static final UVCCameraHandler createHandler(
@@ -101,7 +102,8 @@ public class UVCCameraHandler extends AbstractUVCCameraHandler {
 	 * @param encoderType 0: use MediaSurfaceEncoder, 1: use MediaVideoEncoder, 2: use MediaVideoBufferEncoder
 	 * @param width
 	 * @param height
-	 * @param format either UVCCamera.FRAME_FORMAT_YUYV(0) or UVCCamera.FRAME_FORMAT_MJPEG(1)
+	 * @param format UVCCamera.FRAME_FORMAT_YUYV(0), UVCCamera.FRAME_FORMAT_MJPEG(1)
+	 * 				or UVCFormatSelector.FRAME_FORMAT_AUTO(-1) to choose by cost
 	 * @param bandwidthFactor
 	 * @return
 	 */
@@ -0,0 +1,77 @@
+/*
+ *  UVCCamera
+ *  library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2017 saki t_saki@serenegiant.com
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ *  All files in the folder are under this Apache License, Version 2.0.
+ *  Files in the libjpeg-turbo, libusb, libuvc, rapidjson folder
+ *  may have a different license, see the respective files.
+ */
+
+package com.serenegiant.encoder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * conversion of Annex-B NAL units into length prefixed ones
+ * Annex-B NAL单元到长度前缀格式的转换
+ */
+public class FragmentedMp4MuxerWrapperTest {
+
+	private static byte[] convert(final int... bytes) {
+		final ByteBuffer src = ByteBuffer.allocate(bytes.length);
+		for (final int b: bytes) {
+			src.put((byte)b);
+		}
+		src.flip();
+		final ByteBuffer dst = ByteBuffer.allocate(bytes.length * 2 + 16);
+		FragmentedMp4MuxerWrapper.appendLengthPrefixed(src, dst);
+		dst.flip();
+		final byte[] result = new byte[dst.remaining()];
+		dst.get(result);
+		return result;
+	}
+
+	private static byte[] bytes(final int... values) {
+		final byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (byte)values[i];
+		}
+		return result;
+	}
+
+	@Test
+	public void trailingZeroOfNalIsKept() throws Exception {
+		assertArrayEquals(bytes(0, 0, 0, 3, 0x65, 0x88, 0x00),
+			convert(0x00, 0x00, 0x01, 0x65, 0x88, 0x00));
+	}
+
+	@Test
+	public void splitByFourBytesStartCode() throws Exception {
+		assertArrayEquals(bytes(0, 0, 0, 2, 0x67, 0x42, 0, 0, 0, 2, 0x68, 0xce),
+			convert(0x00, 0x00, 0x00, 0x01, 0x67, 0x42, 0x00, 0x00, 0x00, 0x01, 0x68, 0xce));
+	}
+
+	@Test
+	public void trailingZeroBeforeFourBytesStartCode() throws Exception {
+		assertArrayEquals(bytes(0, 0, 0, 3, 0x65, 0x80, 0x00, 0, 0, 0, 2, 0x41, 0x9a),
+			convert(0x00, 0x00, 0x01, 0x65, 0x80, 0x00, 0x00, 0x00, 0x00, 0x01, 0x41, 0x9a));
+	}
+}